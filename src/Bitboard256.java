@@ -0,0 +1,150 @@
+/**
+ * @file Bitboard256.java
+ * @brief Conjunt de caselles d'un tauler de fins a 16x16.
+ */
+
+/**
+ * @class Bitboard256
+ * @brief Conjunt de caselles d'un tauler de com a molt 16x16, guardat en 256 bits.
+ * @details La casella de la columna \a c i la fila \a f (totes dues de 1 a 16) és el bit 16 * (\a f - 1) + (\a c - 1) (veure
+ *          index()). Els bits es guarden en quatre \c long de quatre files cadascun, i cada operació tracta els quatre \c long
+ *          alhora, sense recórrer les caselles una a una. Les caselles de fora d'un tauler més petit que 16x16 simplement no es fan
+ *          servir.
+ *
+ *          Les operacions que afegeixen o treuen caselles modifiquen aquest conjunt i el retornen, de manera que es poden
+ *          encadenar sense crear objectes nous.
+ */
+public final class Bitboard256 {
+    public static final int MIDA = 16;  ///< Files i columnes màximes d'un tauler.
+
+    private final long[] _bits; ///< Bits del conjunt; el bit \a i és el bit (\a i % 64) de _bits[\a i / 64].
+
+    /**
+     * @brief Constructor per defecte.
+     * @post Es crea un conjunt buit.
+     */
+    public Bitboard256() {
+        _bits = new long[4];
+    }
+
+    /**
+     * @brief Constructor de còpia.
+     * @post Aquest conjunt té les mateixes caselles que \p b.
+     */
+    public Bitboard256(Bitboard256 b) {
+        _bits = b._bits.clone();
+    }
+
+    /**
+     * @brief Índex de la casella de la columna \p columna i la fila \p fila.
+     * @pre 1 <= \p columna <= 16 i 1 <= \p fila <= 16
+     */
+    public static int index(int columna, int fila) {
+        return (fila - 1) * MIDA + columna - 1;
+    }
+
+    /**
+     * @brief Índex de la casella \p pos.
+     * @pre \p pos és d'un tauler de com a molt 16x16.
+     */
+    public static int index(Posicio pos) {
+        return index(pos.columna(), pos.fila());
+    }
+
+    /** @brief Columna (1..16) de la casella amb índex \p index. */
+    public static int columna(int index) {
+        return (index & (MIDA - 1)) + 1;
+    }
+
+    /** @brief Fila (1..16) de la casella amb índex \p index. */
+    public static int fila(int index) {
+        return (index >>> 4) + 1;
+    }
+
+    /**
+     * @brief Caselles del trajecte d'\p origen a \p desti.
+     * @pre 0 <= \p origen, \p desti < 256
+     * @post Retorna les caselles per on passa una peça que va d'\p origen a \p desti avançant cada vegada una casella en la
+     *       direcció que l'acosta a \p desti (en diagonal mentre la fila i la columna són diferents, i després en línia recta), és a
+     *       dir, el mateix trajecte que recorre TaulerEscacs. No conté \p origen però sí \p desti, llevat que siguin la mateixa casella.
+     */
+    public static Bitboard256 trajecte(int origen, int desti) {
+        Bitboard256 res = new Bitboard256();
+        int columna = columna(origen);
+        int fila = fila(origen);
+        while (columna != columna(desti) || fila != fila(desti)) {
+            columna += Integer.signum(columna(desti) - columna);
+            fila += Integer.signum(fila(desti) - fila);
+            res.afegir(index(columna, fila));
+        }
+        return res;
+    }
+
+    /**
+     * @brief Afegir una casella.
+     * @pre 0 <= \p index < 256
+     * @return Aquest conjunt.
+     */
+    public Bitboard256 afegir(int index) {
+        _bits[index >>> 6] |= 1L << index;
+        return this;
+    }
+
+    /**
+     * @brief Treure una casella.
+     * @pre 0 <= \p index < 256
+     * @return Aquest conjunt.
+     */
+    public Bitboard256 treure(int index) {
+        _bits[index >>> 6] &= ~(1L << index);
+        return this;
+    }
+
+    /**
+     * @brief Indica si conté una casella.
+     * @pre 0 <= \p index < 256
+     */
+    public boolean conte(int index) {
+        return (_bits[index >>> 6] & 1L << index) != 0;
+    }
+
+    /**
+     * @brief Fer que aquest conjunt tingui les mateixes caselles que \p b.
+     * @return Aquest conjunt.
+     */
+    public Bitboard256 assignar(Bitboard256 b) {
+        System.arraycopy(b._bits, 0, _bits, 0, 4);
+        return this;
+    }
+
+    /** @brief Indica si aquest conjunt i \p b tenen alguna casella en comú. */
+    public boolean talla(Bitboard256 b) {
+        return ((_bits[0] & b._bits[0]) | (_bits[1] & b._bits[1]) | (_bits[2] & b._bits[2]) | (_bits[3] & b._bits[3])) != 0;
+    }
+
+    /** @brief Indica si és buit. */
+    public boolean esBuit() {
+        return (_bits[0] | _bits[1] | _bits[2] | _bits[3]) == 0;
+    }
+
+    /** @brief Nombre de caselles. */
+    public int nombre() {
+        return Long.bitCount(_bits[0]) + Long.bitCount(_bits[1]) + Long.bitCount(_bits[2]) + Long.bitCount(_bits[3]);
+    }
+
+    /**
+     * @brief Primera casella a partir d'una donada.
+     * @pre 0 <= \p desDe
+     * @return L'índex més petit >= \p desDe que és al conjunt, o -1 si no n'hi ha cap.
+     */
+    public int seguent(int desDe) {
+        int i = desDe >>> 6;
+        if (i >= 4) return -1;
+        long paraula = _bits[i] & (-1L << desDe);
+        while (paraula == 0) {
+            if (++i == 4) return -1;
+            paraula = _bits[i];
+        }
+        return i * 64 + Long.numberOfTrailingZeros(paraula);
+    }
+}
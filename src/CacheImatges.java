@@ -0,0 +1,81 @@
+/**
+ * @file CacheImatges.java
+ * @brief Imatges de les peces gràfiques, descodificades i escalades una sola vegada.
+ */
+
+import javafx.scene.image.Image;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @class CacheImatges
+ * @brief Magatzem compartit per tota l'aplicació de les imatges de les peces, indexades per ruta i mida en píxels.
+ * @details Les imatges es carreguen de forma síncrona i ja escalades a la mida de la casella, de manera que crear una
+ *          PecaGrafica no llegeix ni descodifica cap fitxer. En preparar una partida amb un fitxer de regles o una mida
+ *          de casella diferents, les imatges anteriors es descarten.
+ */
+public final class CacheImatges {
+    private static final Map<String,Image> _imatges = new HashMap<>(); ///< Imatges indexades per clau().
+    private static String _fitxerRegles;                               ///< Regles de les imatges carregades.
+    private static int _pixels;                                        ///< Mida de les imatges carregades.
+
+    private CacheImatges() {
+    }
+
+    /**
+     * @brief Prepara les imatges d'una partida.
+     * @pre \p rutes != null i \p pixels > 0.
+     * @post Si \p fitxerRegles o \p pixels són diferents dels de la darrera preparació, s'han descartat totes les
+     *       imatges. Totes les imatges de \p rutes estan carregades amb mida \p pixels.
+     * @param fitxerRegles Fitxer de regles de la partida.
+     * @param pixels Mida en píxels de les caselles.
+     * @param rutes Rutes de les imatges de totes les peces de les regles.
+     */
+    public static synchronized void preparar(String fitxerRegles, int pixels, Collection<String> rutes) {
+        if (!fitxerRegles.equals(_fitxerRegles) || pixels != _pixels) {
+            _imatges.clear();
+            _fitxerRegles = fitxerRegles;
+            _pixels = pixels;
+        }
+        for (String ruta : rutes)
+            imatge(ruta, pixels);
+    }
+
+    /**
+     * @brief Imatge d'una peça.
+     * @pre \p ruta és la ruta d'una imatge i \p pixels > 0.
+     * @post Es retorna la imatge de \p ruta escalada a \p pixels, carregant-la només si no s'havia carregat abans.
+     * @param ruta Ruta de la imatge.
+     * @param pixels Mida en píxels de la casella.
+     * @return La imatge escalada.
+     */
+    public static synchronized Image imatge(String ruta, int pixels) {
+        String clau = clau(ruta, pixels);
+        Image img = _imatges.get(clau);
+        if (img == null) {
+            img = new Image(new File(ruta).toURI().toString(), pixels, pixels, true, true, false);
+            _imatges.put(clau, img);
+        }
+        return img;
+    }
+
+    /**
+     * @brief Descarta totes les imatges carregades.
+     * @post La memòria cau és buida.
+     */
+    public static synchronized void buidar() {
+        _imatges.clear();
+        _fitxerRegles = null;
+        _pixels = 0;
+    }
+
+    /**
+     * @brief Clau d'una imatge.
+     */
+    private static String clau(String ruta, int pixels) {
+        return pixels + "@" + ruta;
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * @file CercaMCTS.java
+ * @brief Motor de la CPU basat en la cerca en arbre de Monte Carlo.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * @class CercaMCTS
+ * @brief Escull les jugades d'un jugador CPU amb una cerca en arbre de Monte Carlo (selecció UCT), una alternativa a
+ *        JugadorCPU per a regles amb tantes jugades per posició que la cerca alpha-beta no arriba a prou profunditat.
+ * @details Cada iteració baixa per l'arbre escollint la jugada amb més valor UCT, expandeix la fulla i en simula una
+ *          continuació a l'atzar de com a molt LLARGADA_SIMULACIO tirades, que es valora pel material si no acaba la
+ *          partida. Les simulacions prefereixen lleugerament les captures.
+ *
+ *          Les iteracions es fan en paral·lel en diversos fils sobre el mateix arbre. Mentre un fil baixa per un node
+ *          ja hi compta una visita sense resultat (pèrdua virtual), perquè els altres fils explorin altres branques.
+ *
+ *          Una mateixa CercaMCTS s'ha de fer servir per a totes les jugades d'un mateix jugador: en demanar una
+ *          jugada es reaprofita la part de l'arbre de la cerca anterior que correspon a la posició actual.
+ */
+public class CercaMCTS {
+    public static final String PROPIETAT_TEMPS = "escacs.mcts.temps"; ///< Propietat amb el temps per jugada (ms).
+    public static final String PROPIETAT_FILS = "escacs.mcts.fils";   ///< Propietat amb el nombre de fils.
+    private static final long TEMPS_DEFECTE = 2000;     ///< Temps per jugada si no s'indica cap propietat (ms).
+    private static final double EXPLORACIO = 1.4;       ///< Constant d'exploració de la fórmula UCT.
+    private static final int LLARGADA_SIMULACIO = 16;   ///< Tirades màximes de cada simulació.
+
+    /**
+     * @class Node
+     * @brief Posició de l'arbre de cerca, a la qual s'arriba amb una jugada des del node pare.
+     * @details Els resultats són per al jugador que ha fet la jugada del node, de manera que el pare escull el fill
+     *          amb més resultat mitjà.
+     */
+    private static final class Node {
+        private final Jugada _jugada;                               ///< Jugada que porta al node (null a l'arrel).
+        private final int _torn;                                    ///< Jugador que té el torn al node.
+        private final AtomicInteger _visites = new AtomicInteger(); ///< Iteracions que han passat pel node.
+        private final DoubleAdder _resultats = new DoubleAdder();   ///< Suma dels resultats d'aquestes iteracions.
+        private volatile Node[] _fills;                             ///< Fills, o null si encara no s'ha expandit.
+
+        Node(Jugada jugada, int torn) {
+            _jugada = jugada;
+            _torn = torn;
+        }
+    }
+
+    private final int _fils;        ///< Nombre de fils de la cerca.
+    private final long _iteracions; ///< Iteracions màximes per jugada (0 sense límit).
+    private final long _temps;      ///< Temps màxim per jugada en mil·lisegons (0 sense límit).
+    private TaulerEscacs _tauler;   ///< Tauler de l'arrel de l'arbre, null si encara no s'ha cercat cap jugada.
+    private Node _arrel;            ///< Arrel de l'arbre de cerca.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre \p fils > 0, \p iteracions >= 0, \p temps >= 0 i algun dels dos límits és més gran que 0.
+     * @post Es crea una cerca sense cap arbre.
+     * @param fils Nombre de fils que fan iteracions alhora.
+     * @param iteracions Iteracions màximes per jugada (0 sense límit).
+     * @param temps Temps màxim per jugada en mil·lisegons (0 sense límit).
+     * @throws IllegalArgumentException Si els paràmetres no compleixen la precondició.
+     */
+    public CercaMCTS(int fils, long iteracions, long temps) {
+        if (fils <= 0 || iteracions < 0 || temps < 0 || (iteracions == 0 && temps == 0))
+            throw new IllegalArgumentException("Error: els límits de la cerca MCTS no són vàlids");
+        _fils = fils;
+        _iteracions = iteracions;
+        _temps = temps;
+    }
+
+    /**
+     * @brief Cerca amb els límits per defecte.
+     * @post Es crea una cerca que dura el temps per jugada de la propietat del sistema \c escacs.mcts.temps (2000 ms
+     *       si no està definida) amb els fils de la propietat \c escacs.mcts.fils (tants com processadors si no està
+     *       definida).
+     * @return La cerca creada.
+     */
+    public static CercaMCTS perDefecte() {
+        long temps = Long.getLong(PROPIETAT_TEMPS, TEMPS_DEFECTE);
+        int fils = Integer.getInteger(PROPIETAT_FILS, Runtime.getRuntime().availableProcessors());
+        return new CercaMCTS(fils, 0, temps);
+    }
+
+    /**
+     * @brief Es retorna la jugada del jugador CPU.
+     * @pre \p t no pot ser buit, el torn és de \p jugador i aquest té alguna jugada.
+     * @post Es retorna la jugada de l'arrel més visitada després de la cerca. L'arbre es conserva per la propera
+     *       jugada, de manera que si la posició de llavors és una resposta a aquesta jugada, no es comença de zero.
+     * @param t Tauler d'escacs sobre el que s'està disputant la partida. No es modifica.
+     * @param jugador Color del jugador CPU: 1 si és el negre i 0 si és el blanc.
+     * @return La jugada escollida, ordinària o enroc.
+     */
+    public synchronized Jugada demanarJugada(TaulerEscacs t, int jugador) {
+        reutilitzarArbre(t, jugador);
+        _tauler.calcularDestins(); //els fils en fan còpies, que comparteixen els destins calculats
+
+        final long limit = _temps > 0 ? System.nanoTime() + _temps * 1000000 : Long.MAX_VALUE;
+        final AtomicInteger iteracions = new AtomicInteger();
+        Runnable iterar = () -> {
+            while (System.nanoTime() < limit && (_iteracions == 0 || iteracions.getAndIncrement() < _iteracions)) {
+                iterar();
+                if (_arrel._fills.length <= 1) break; //no hi ha res a escollir
+            }
+        };
+        expandir(_arrel, _tauler);
+        List<Thread> fils = new ArrayList<>();
+        for (int i = 1; i < _fils; i++) {
+            Thread fil = new Thread(iterar, "mcts-" + i);
+            fil.setDaemon(true);
+            fil.start();
+            fils.add(fil);
+        }
+        iterar.run();
+        for (Thread fil : fils) {
+            try {
+                fil.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Node millor = null;
+        for (Node fill : _arrel._fills)
+            if (millor == null || fill._visites.get() > millor._visites.get()) millor = fill;
+        aplicar(_tauler, millor._jugada);
+        _arrel = millor;
+        return copiar(millor._jugada);
+    }
+
+    //*************************************************************************************************MÈTODES PRIVATS*****************************************************************************************
+
+    /**
+     * @brief Situa l'arrel de l'arbre a la posició \p t.
+     * @post Si \p t és la posició de l'arrel o d'un dels seus fils amb el torn de \p jugador, aquest node passa a ser
+     *       l'arrel i se'n conserven els resultats. Altrament es comença un arbre nou.
+     */
+    private void reutilitzarArbre(TaulerEscacs t, int jugador) {
+        if (_arrel != null) {
+            if (_arrel._torn == jugador && _tauler.casellesDiferents(t).isEmpty()) return;
+            Node[] fills = _arrel._fills;
+            if (fills != null) {
+                for (Node fill : fills) {
+                    TaulerEscacs aux = new TaulerEscacs(_tauler);
+                    aplicar(aux, fill._jugada);
+                    if (fill._torn == jugador && aux.casellesDiferents(t).isEmpty()) {
+                        _tauler = aux;
+                        _arrel = fill;
+                        return;
+                    }
+                }
+            }
+        }
+        _tauler = new TaulerEscacs(t);
+        _arrel = new Node(null, jugador);
+    }
+
+    /**
+     * @brief Fa una iteració de la cerca.
+     * @post S'ha baixat des de l'arrel fins a una fulla, s'ha expandit, s'ha simulat una continuació des d'un dels
+     *       seus fills i s'ha afegit el resultat a tots els nodes del camí.
+     */
+    private void iterar() {
+        TaulerEscacs t = new TaulerEscacs(_tauler);
+        List<Node> cami = new ArrayList<>();
+        Node node = _arrel;
+        node._visites.incrementAndGet();
+        cami.add(node);
+        while (node._fills != null && node._fills.length > 0) {
+            node = seleccionar(node);
+            node._visites.incrementAndGet(); //pèrdua virtual fins que s'afegeixi el resultat
+            aplicar(t, node._jugada);
+            cami.add(node);
+            if (node._fills == null) {
+                expandir(node, t);
+                if (node._fills.length > 0) {
+                    node = seleccionar(node);
+                    node._visites.incrementAndGet();
+                    aplicar(t, node._jugada);
+                    cami.add(node);
+                }
+                break;
+            }
+        }
+
+        double resultat = simular(t, node._torn); //per al jugador de blanques
+        for (Node n : cami)
+            if (n._jugada != null) n._resultats.add(n._torn == 0 ? 1 - resultat : resultat);
+    }
+
+    /**
+     * @brief Crea els fils d'un node.
+     * @pre \p t és la posició de \p node.
+     * @post Si \p node no té fills, se'n crea un per cada jugada del jugador que té el torn.
+     */
+    private static void expandir(Node node, TaulerEscacs t) {
+        if (node._fills != null) return;
+        synchronized (node) {
+            if (node._fills != null) return;
+            int contrincant = node._torn == 0 ? 1 : 0;
+            List<Jugada> jugades = JugadorCPU.jugadesLegals(t, node._torn);
+            Node[] fills = new Node[jugades.size()];
+            for (int i = 0; i < fills.length; i++)
+                fills[i] = new Node(jugades.get(i), contrincant);
+            node._fills = fills;
+        }
+    }
+
+    /**
+     * @brief Fill amb més valor UCT.
+     * @pre \p node té algun fill.
+     * @post Es retorna el primer fill sense visites o, si tots en tenen, el que maximitza el resultat mitjà més el
+     *       terme d'exploració.
+     */
+    private static Node seleccionar(Node node) {
+        double logVisites = Math.log(Math.max(1, node._visites.get()));
+        Node millor = null;
+        double millorValor = Double.NEGATIVE_INFINITY;
+        for (Node fill : node._fills) {
+            int visites = fill._visites.get();
+            if (visites == 0) return fill;
+            double valor = fill._resultats.sum() / visites + EXPLORACIO * Math.sqrt(logVisites / visites);
+            if (valor > millorValor) {
+                millorValor = valor;
+                millor = fill;
+            }
+        }
+        return millor;
+    }
+
+    /**
+     * @brief Simula una continuació a l'atzar de la partida.
+     * @pre \p torn és el jugador que té el torn a \p t.
+     * @post \p t queda modificat. Es retorna 1 si guanyen les blanques, 0 si guanyen les negres i 0.5 si són taules;
+     *       si la partida no acaba en LLARGADA_SIMULACIO tirades, un valor entre 0 i 1 segons el material.
+     */
+    private static double simular(TaulerEscacs t, int torn) {
+        Random atzar = ThreadLocalRandom.current();
+        for (int i = 0; i <= LLARGADA_SIMULACIO; i++) {
+            List<Jugada> jugades = JugadorCPU.jugadesLegals(t, torn);
+            int contrincant = torn == 0 ? 1 : 0;
+            if (jugades.isEmpty()) { //escac i mat o rei ofegat
+                if (t.estatActual(contrincant) != TaulerEscacs.resTauler.ESCAC_MAT) return 0.5;
+                return torn == 0 ? 0 : 1;
+            }
+            if (i == LLARGADA_SIMULACIO) break;
+            Jugada jugada = jugades.get(atzar.nextInt(jugades.size()));
+            Jugada altra = jugades.get(atzar.nextInt(jugades.size()));
+            if (valorCapturat(t, altra) > valorCapturat(t, jugada)) jugada = altra; //es prefereixen les captures
+            aplicar(t, jugada);
+            torn = contrincant;
+        }
+        return valorMaterial(t);
+    }
+
+    /**
+     * @brief Valor de la peça que hi ha al destí d'una jugada.
+     * @return El valor de la peça del destí de \p jugada si és ordinària, o 0 si no n'hi ha cap.
+     */
+    private static int valorCapturat(TaulerEscacs t, Jugada jugada) {
+        if (!(jugada instanceof JugadaOrdinaria)) return 0;
+        Peca peca = t.solicitarPeca(((JugadaOrdinaria) jugada).desti());
+        return peca == null ? 0 : peca.valor();
+    }
+
+    /**
+     * @brief Valoració del tauler segons el material.
+     * @post Es retorna 0.5 més la meitat de la diferència de material a favor de les blanques dividida pel material
+     *       total, de manera que el resultat és entre 0 i 1. Els reis no hi compten: el seu valor, molt més gran que
+     *       el de les altres peces, diluiria la diferència de material.
+     */
+    private static double valorMaterial(TaulerEscacs t) {
+        int blanques = 0;
+        int total = 0;
+        for (int i = 1; i <= t._fila; i++) {
+            for (int j = 1; j <= t._columna; j++) {
+                Peca peca = t.solicitarPeca(new Posicio(j, i));
+                if (peca != null && !peca.tipus().esRei()) {
+                    total += peca.valor();
+                    if (peca.color() == 0) blanques += peca.valor();
+                }
+            }
+        }
+        return total == 0 ? 0.5 : (double) blanques / total;
+    }
+
+    /**
+     * @brief Aplica una jugada sobre un tauler.
+     * @pre \p jugada és una jugada legal a \p t.
+     * @post S'ha aplicat una còpia de \p jugada, perquè els enrocs es modifiquen en aplicar-los i diversos fils poden
+     *       aplicar la mateixa jugada de l'arbre alhora.
+     */
+    private static void aplicar(TaulerEscacs t, Jugada jugada) {
+        if (jugada instanceof JugadaOrdinaria) t.aplicarJugadaOrdinaria((JugadaOrdinaria) jugada);
+        else t.aplicarJugadaEnroc((JugadaEnroc) copiar(jugada));
+    }
+
+    /**
+     * @brief Còpia d'una jugada sense aplicar.
+     */
+    private static Jugada copiar(Jugada jugada) {
+        if (jugada instanceof JugadaOrdinaria) {
+            JugadaOrdinaria ord = (JugadaOrdinaria) jugada;
+            return new JugadaOrdinaria(ord.origen(), ord.desti());
+        }
+        JugadaEnroc enr = (JugadaEnroc) jugada;
+        return new JugadaEnroc(enr.posicioPrimera(), enr.posicioSegona());
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * @file Checkpoint.java
+ * @brief Mòdul que permet desar i recuperar l'estat d'una partida en format binari.
+ */
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @class Checkpoint
+ * @brief Mòdul que desa l'estat d'una partida en un fitxer binari compacte que acompanya el fitxer JSON de
+ *        desenvolupament. Permet reprendre la partida sense haver de reproduir totes les tirades.
+ * @details El fitxer JSON continua sent el format d'intercanvi; el fitxer binari només és una memòria cau que es
+ *          descarta si el fitxer JSON o el fitxer de regles han canviat des que es va generar.
+ *          Cada peça es guarda amb el mateix codi d'un byte que fa servir el tauler (veure Peca::codi()). Cada
+ *          casella es codifica en un byte amb la fila i la columna (base 0) a 4 bits cadascuna.
+ */
+public abstract class Checkpoint {
+    public static final String EXTENSIO = ".ckpt";   ///< Extensió dels fitxers binaris.
+    private static final int MAGIC = 0x45434B50;    ///< Identificador dels fitxers binaris ("ECKP").
+    private static final int VERSIO = 4;            ///< Versió del format binari.
+
+    /**
+     * @brief Ruta del fitxer binari associat a un fitxer de desenvolupament.
+     * @pre \p fitxerPartida != null
+     * @post Es retorna la ruta de \p fitxerPartida canviant la extensió ".json" per ".ckpt".
+     * @param fitxerPartida Ruta del fitxer JSON de desenvolupament.
+     * @return La ruta del fitxer binari.
+     */
+    public static String rutaCheckpoint(String fitxerPartida) {
+        return fitxerPartida.replaceFirst("\\.json$", "") + EXTENSIO;
+    }
+
+    /**
+     * @brief Desar l'estat d'una partida en format binari al costat del seu fitxer de desenvolupament.
+     * @pre \p fitxerPartida és la ruta d'un fitxer JSON on s'acaba de desar el desenvolupament de \p partida.
+     * @post S'ha escrit el fitxer binari amb els resums del fitxer de regles i de \p fitxerPartida i l'estat de
+     *       \p partida.
+     * @param fitxerPartida Ruta del fitxer JSON de desenvolupament.
+     * @param partida Partida que es vol desar.
+     * @throws IOException Si no s'ha pogut llegir algun dels fitxers o escriure el fitxer binari.
+     */
+    public static void guardar(String fitxerPartida, Partida partida) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(rutaCheckpoint(fitxerPartida))))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSIO);
+            out.write(resumFitxer(fitxerPartida));
+            escriurePartida(out, partida);
+        }
+    }
+
+    /**
+     * @brief Carregar una partida a partir del fitxer binari associat a un fitxer de desenvolupament.
+     * @pre \p fitxerPartida és la ruta d'un fitxer JSON de desenvolupament.
+     * @post Es retorna la partida en el mateix estat que s'obtindria carregant \p fitxerPartida, sense reproduir cap
+     *       tirada.
+     * @param fitxerPartida Ruta del fitxer JSON de desenvolupament.
+     * @return La partida carregada.
+     * @throws IOException Si el fitxer binari no existeix o no es pot llegir.
+     * @throws IllegalStateException Si la partida ja està finalitzada.
+     * @throws IllegalArgumentException Si el fitxer binari no és vàlid o no es correspon amb \p fitxerPartida o amb
+     *                                  el fitxer de regles actual.
+     */
+    public static Partida carregar(String fitxerPartida) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(rutaCheckpoint(fitxerPartida))))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSIO)
+                throw new IllegalArgumentException("Error: el fitxer binari no té un format vàlid");
+
+            byte[] resumPartida = new byte[32];
+            in.readFully(resumPartida);
+            if (!Arrays.equals(resumPartida, resumFitxer(fitxerPartida)))
+                throw new IllegalArgumentException("Error: el fitxer binari no correspon a la partida");
+
+            return llegirPartida(in);
+        }
+    }
+
+    /**
+     * @brief Escriure una partida en format binari.
+     * @pre \p out != null i \p partida != null.
+     * @post S'ha escrit la ruta i el resum del fitxer de regles, les mides del tauler, els noms de les peces i
+     *       l'estat de \p partida.
+     * @param out Sortida on s'escriu la partida.
+     * @param partida Partida que es vol escriure.
+     * @throws IOException Si no s'ha pogut llegir el fitxer de regles o escriure la partida.
+     */
+    static void escriurePartida(DataOutput out, Partida partida) throws IOException {
+        List<String> noms = partida.nomsPeces();
+        out.writeUTF(partida.fitxerRegles());
+        out.write(resumFitxer(partida.fitxerRegles()));
+        out.writeByte(partida.filesTauler());
+        out.writeByte(partida.columnesTauler());
+        out.writeByte(noms.size());
+        for (String nom : noms)
+            out.writeUTF(nom);
+        partida.escriureEstat(out);
+    }
+
+    /**
+     * @brief Llegir una partida escrita amb escriurePartida().
+     * @pre \p in != null
+     * @post Es retorna la partida en el mateix estat en què es va escriure, sense reproduir cap tirada.
+     * @param in Entrada d'on es llegeix la partida.
+     * @return La partida llegida.
+     * @throws IOException Si no s'ha pogut llegir.
+     * @throws IllegalStateException Si la partida ja està finalitzada.
+     * @throws IllegalArgumentException Si les dades estan incompletes o no es corresponen amb el fitxer de regles
+     *                                  actual.
+     */
+    static Partida llegirPartida(DataInput in) throws IOException {
+        try {
+            String fitxerRegles = in.readUTF();
+            byte[] resumRegles = new byte[32];
+            in.readFully(resumRegles);
+            if (!Arrays.equals(resumRegles, resumFitxer(fitxerRegles)))
+                throw new IllegalArgumentException("Error: el fitxer de regles ha canviat");
+
+            int files = in.readUnsignedByte();
+            int columnes = in.readUnsignedByte();
+            String[] noms = new String[in.readUnsignedByte()];
+            for (int i = 0; i < noms.length; i++)
+                noms[i] = in.readUTF();
+
+            Partida partida = Loader.carregarRegles(fitxerRegles, false, 0);
+            if (partida.filesTauler() != files || partida.columnesTauler() != columnes
+                    || !partida.nomsPeces().equals(Arrays.asList(noms)))
+                throw new IllegalArgumentException("Error: el fitxer binari no correspon a les regles");
+
+            partida.llegirEstat(in);
+            return partida;
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Error: el fitxer binari està incomplet");
+        }
+    }
+
+    /**
+     * @brief Resum SHA-256 del contingut d'un fitxer.
+     * @pre \p path != null
+     * @post Es retorna el resum de 32 bytes del contingut del fitxer \p path.
+     * @param path Ruta del fitxer.
+     * @return El resum del fitxer.
+     * @throws IOException Si no es pot llegir el fitxer.
+     */
+    static byte[] resumFitxer(String path) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new FileInputStream(path)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                md.update(buffer, 0, n);
+        }
+        return md.digest();
+    }
+
+    /**
+     * @brief Codifica una peça en un byte.
+     * @post Es retorna 0 si \p p és null, altrament el codi de la peça.
+     * @param p Peça que es vol codificar.
+     * @return El codi de la peça.
+     */
+    static int codificarPeca(Peca p) {
+        return p == null ? 0 : p.codi();
+    }
+
+    /**
+     * @brief Descodifica una peça a partir del seu codi.
+     * @pre \p codi != 0 i és un codi generat per codificarPeca() amb els mateixos noms que conté \p partida.
+     * @post Es retorna una peça nova del tipus, color i estat indicats per \p codi.
+     * @param codi Codi de la peça.
+     * @param partida Partida d'on s'obtenen les peces disponibles.
+     * @param noms Noms dels tipus de peça ordenats per identificador.
+     * @return La peça descodificada.
+     * @throws IllegalArgumentException Si \p codi no correspon a cap tipus de peça.
+     */
+    static Peca descodificarPeca(int codi, Partida partida, List<String> noms) {
+        int tipus = (codi & Peca.MASCARA_TIPUS) - 1;
+        if (tipus < 0 || tipus >= noms.size())
+            throw new IllegalArgumentException("Error: el fitxer binari conté una peça desconeguda");
+        Peca p = partida.pecaDisponible(noms.get(tipus));
+        p.assignarColor((codi & Peca.BIT_COLOR) != 0 ? 1 : 0);
+        if ((codi & Peca.BIT_MOGUDA) != 0) p.actualitzarMoguda();
+        return p;
+    }
+
+    /**
+     * @brief Codifica una posició en un byte.
+     * @pre \p pos != null i la fila i la columna són entre 1 i 16.
+     * @return El codi de la posició.
+     */
+    static int codificarCasella(Posicio pos) {
+        return ((pos.fila() - 1) << 4) | (pos.columna() - 1);
+    }
+
+    /**
+     * @brief Descodifica una posició a partir del seu codi.
+     * @pre 0 <= \p codi <= 255
+     * @return La posició que representa \p codi.
+     */
+    static Posicio descodificarCasella(int codi) {
+        return new Posicio((codi & 0xF) + 1, (codi >> 4) + 1);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * @file ClientCarrega.java
+ * @brief Client de proves de càrrega pel servidor de partides.
+ */
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @class ClientCarrega
+ * @brief Client que simula molts jugadors connectats alhora a un ServidorPartides.
+ * @details Obre un nombre de sessions que inicien una partida i es queden inactives. Una part d'aquestes sessions
+ *          són actives i demanen jugades a la CPU del servidor. En acabar, mostra els temps de resposta de les
+ *          jugades i l'estat del servidor.
+ */
+public abstract class ClientCarrega {
+    /**
+     * @class Connexio
+     * @brief Connexió d'una sessió amb el servidor.
+     */
+    private static class Connexio implements Closeable {
+        private final Socket _socket;           ///< Socket connectat al servidor.
+        private final BufferedReader _in;       ///< Lector de les respostes.
+        private final Writer _out;              ///< Escriptor de les comandes.
+
+        /**
+         * @brief Constructor amb paràmetres.
+         * @post S'ha obert una connexió amb el servidor de \p port de l'adreça local.
+         * @throws IOException Si no s'ha pogut connectar.
+         */
+        Connexio(int port) throws IOException {
+            _socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            _in = new BufferedReader(new InputStreamReader(_socket.getInputStream(), StandardCharsets.UTF_8));
+            _out = new BufferedWriter(new OutputStreamWriter(_socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @brief Enviar una comanda i esperar-ne la resposta.
+         * @return La línia final de la resposta.
+         * @throws IOException Si s'ha perdut la connexió o el servidor ha respost amb un error.
+         */
+        String enviar(String comanda) throws IOException {
+            _out.write(comanda + "\n");
+            _out.flush();
+            String linia;
+            while ((linia = _in.readLine()) != null) {
+                if (linia.startsWith("OK")) return linia;
+                if (linia.startsWith("ERROR")) throw new IOException(comanda + ": " + linia);
+            }
+            throw new EOFException("El servidor ha tancat la connexió");
+        }
+
+        @Override
+        public void close() throws IOException {
+            _socket.close();
+        }
+    }
+
+    /**
+     * @brief Executar una prova de càrrega.
+     * @pre \p args conté el port del servidor, el fitxer de regles (relatiu al directori de partides del servidor), el
+     *      nombre de sessions, el nombre de sessions actives i el nombre de jugades de cada sessió activa.
+     * @post S'han obert les sessions, les actives han demanat les jugades i s'han mostrat els temps de resposta i
+     *       l'estat del servidor.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 5) {
+            System.out.println("Utilització: java ClientCarrega port regles sessions actives jugades");
+            return;
+        }
+        final int port = Integer.parseInt(args[0]);
+        final String regles = args[1];
+        int nSessions = Integer.parseInt(args[2]);
+        final int nActives = Math.min(Integer.parseInt(args[3]), nSessions);
+        final int nJugades = Integer.parseInt(args[4]);
+
+        // Obrir les sessions inactives
+        List<Connexio> connexions = new ArrayList<>();
+        long t0 = System.nanoTime();
+        for (int i = nActives; i < nSessions; i++) {
+            Connexio c = new Connexio(port);
+            c.enviar("nova " + regles);
+            connexions.add(c);
+        }
+        System.out.println((nSessions - nActives) + " sessions inactives obertes en " +
+                (System.nanoTime() - t0) / 1000000 + " ms");
+
+        // Executar les sessions actives
+        final List<Long> temps = Collections.synchronizedList(new ArrayList<Long>());
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch fi = new CountDownLatch(nActives);
+        t0 = System.nanoTime();
+        for (int i = 0; i < nActives; i++) {
+            ServidorPartides.iniciarFil(new Runnable() {
+                public void run() {
+                    try (Connexio c = new Connexio(port)) {
+                        c.enviar("nova " + regles);
+                        for (int j = 0; j < nJugades; j++) {
+                            long t = System.nanoTime();
+                            c.enviar("jugar");
+                            temps.add(System.nanoTime() - t);
+                        }
+                    } catch (IOException e) {
+                        if (errors.getAndIncrement() == 0) System.out.println(e.getMessage());
+                    } finally {
+                        fi.countDown();
+                    }
+                }
+            }, "client-" + i);
+        }
+        fi.await();
+        long total = System.nanoTime() - t0;
+
+        // Mostrar resultats
+        try (Connexio c = new Connexio(port)) {
+            System.out.println("Estat del servidor: " + c.enviar("estat").substring(2).trim());
+        }
+        for (Connexio c : connexions)
+            c.close();
+
+        List<Long> ordenats = new ArrayList<>(temps);
+        Collections.sort(ordenats);
+        System.out.println(ordenats.size() + " jugades en " + total / 1000000 + " ms, " + errors.get() + " errors");
+        if (!ordenats.isEmpty()) {
+            long suma = 0;
+            for (long t : ordenats)
+                suma += t;
+            System.out.println("Temps de resposta (ms): mitjana=" + suma / ordenats.size() / 1000000 +
+                    " p50=" + percentil(ordenats, 50) + " p95=" + percentil(ordenats, 95) +
+                    " p99=" + percentil(ordenats, 99) + " max=" + percentil(ordenats, 100));
+        }
+    }
+
+    /**
+     * @brief Percentil d'una llista de temps ordenada.
+     * @pre \p ordenats no és buida i està ordenada, 0 < \p p <= 100.
+     * @return El percentil \p p de \p ordenats en mil·lisegons.
+     */
+    private static long percentil(List<Long> ordenats, int p) {
+        int i = (int) Math.ceil(p / 100.0 * ordenats.size()) - 1;
+        return ordenats.get(Math.max(0, i)) / 1000000;
+    }
+}
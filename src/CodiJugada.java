@@ -0,0 +1,95 @@
+/**
+ * @file CodiJugada.java
+ * @brief Codificació d'una jugada en un enter.
+ */
+
+/**
+ * @class CodiJugada
+ * @brief Representació d'una jugada en un sol \c int, perquè el motor pugui generar i aplicar jugades sense crear cap
+ *        objecte. Els objectes Jugada només es creen quan cal donar la jugada a la interfície o guardar-la.
+ * @details Bits del codi:
+ *          - 0..7: casella d'origen (la de la primera peça si és un enroc), amb l'índex de Bitboard256::index().
+ *          - 8..15: casella de destí (la de la segona peça si és un enroc).
+ *          - 16: tipus de jugada, ORDINARIA o ENROC.
+ *          - 17..22: índex, dins PieceType::movimentsCompilats(), del moviment que porta la peça d'origen a destí, o
+ *            REGLA_DESCONEGUDA.
+ *
+ *          La promoció no forma part del codi: es tria després d'haver aplicat la jugada (veure Partida::promocio()).
+ */
+public final class CodiJugada {
+    public static final int ORDINARIA = 0;          ///< Tipus d'una jugada ordinària.
+    public static final int ENROC = 1;              ///< Tipus d'una jugada d'enroc.
+    public static final int REGLA_DESCONEGUDA = 63; ///< Índex de moviment d'un enroc o d'una jugada de la qual no se sap.
+
+    private CodiJugada() {}
+
+    /**
+     * @brief Codi d'una jugada ordinària.
+     * @pre 0 <= \p origen, \p desti < 256 i 0 <= \p regla <= REGLA_DESCONEGUDA
+     * @param origen Índex de la casella d'origen.
+     * @param desti Índex de la casella de destí.
+     * @param regla Índex del moviment de la peça que permet la jugada, o REGLA_DESCONEGUDA.
+     */
+    public static int ordinaria(int origen, int desti, int regla) {
+        return origen | desti << 8 | ORDINARIA << 16 | regla << 17;
+    }
+
+    /**
+     * @brief Codi d'una jugada d'enroc.
+     * @pre 0 <= \p primera, \p segona < 256
+     * @param primera Índex de la casella de la primera peça.
+     * @param segona Índex de la casella de la segona peça.
+     */
+    public static int enroc(int primera, int segona) {
+        return primera | segona << 8 | ENROC << 16 | REGLA_DESCONEGUDA << 17;
+    }
+
+    /**
+     * @brief Codi d'un objecte Jugada.
+     * @pre \p jugada és una JugadaOrdinaria o una JugadaEnroc.
+     * @return El codi de la jugada, amb REGLA_DESCONEGUDA com a moviment.
+     */
+    public static int codificar(Jugada jugada) {
+        if (jugada instanceof JugadaEnroc) {
+            JugadaEnroc enroc = (JugadaEnroc) jugada;
+            return enroc(Bitboard256.index(enroc.posicioPrimera()), Bitboard256.index(enroc.posicioSegona()));
+        }
+        JugadaOrdinaria ordinaria = (JugadaOrdinaria) jugada;
+        return ordinaria(Bitboard256.index(ordinaria.origen()), Bitboard256.index(ordinaria.desti()), REGLA_DESCONEGUDA);
+    }
+
+    /**
+     * @brief Objecte Jugada d'un codi.
+     * @return Una JugadaOrdinaria o una JugadaEnroc amb les caselles de \p jugada.
+     */
+    public static Jugada jugada(int jugada) {
+        Posicio origen = posicio(origen(jugada));
+        Posicio desti = posicio(desti(jugada));
+        return tipus(jugada) == ENROC ? new JugadaEnroc(origen, desti) : new JugadaOrdinaria(origen, desti);
+    }
+
+    /** @brief Índex de la casella d'origen, o de la primera peça si és un enroc. */
+    public static int origen(int jugada) {
+        return jugada & 0xFF;
+    }
+
+    /** @brief Índex de la casella de destí, o de la segona peça si és un enroc. */
+    public static int desti(int jugada) {
+        return jugada >>> 8 & 0xFF;
+    }
+
+    /** @brief Tipus de la jugada: ORDINARIA o ENROC. */
+    public static int tipus(int jugada) {
+        return jugada >>> 16 & 1;
+    }
+
+    /** @brief Índex del moviment que permet la jugada, o REGLA_DESCONEGUDA. */
+    public static int regla(int jugada) {
+        return jugada >>> 17 & 0x3F;
+    }
+
+    /** @brief Posició de la casella amb índex \p index. */
+    public static Posicio posicio(int index) {
+        return new Posicio(Bitboard256.columna(index), Bitboard256.fila(index));
+    }
+}
@@ -0,0 +1,586 @@
+/**
+ * @file ComparadorTaulers.java
+ * @brief Prova diferencial d'implementacions del tauler contra TaulerEscacs.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * @class ComparadorTaulers
+ * @brief Juga partides a l'atzar alhora sobre TaulerEscacs, que fa de referència, i sobre una implementació
+ *        candidata del tauler, i s'atura a la primera diferència.
+ * @details A cada posició es comparen els codis de les caselles, l'estat dels dos reis (TaulerEscacs::estatActual())
+ *          i els destins i companyes d'enroc de cada peça. Després s'aplica cada jugada legal sobre còpies de tots dos
+ *          taulers i se'n comparen les caselles resultants (i per tant les peces capturades, també pels moviments que
+ *          capturen saltant), si hi ha hagut captura, la peça que pot promocionar i les caselles finals dels enrocs.
+ *          Les partides no promocionen mai, cosa que les regles permeten.
+ *
+ *          Quan es troba una diferència, el cas es redueix: es busca la posició més propera a la diferència des de la
+ *          qual encara es reprodueix i, mentre es continuï reproduint, es treuen les jugades del final, blocs de
+ *          jugades cada cop més petits fins a jugades soles, i les peces de la posició (excepte els reis) que no calen.
+ *
+ *          Sense cap implementació candidata, es compara TaulerEscacs amb ell mateix reconstruït de zero a cada
+ *          posició (veure Reconstruit), cosa que prova que els destins calculats i compartits entre còpies es
+ *          mantenen al dia. Amb la classe ComparadorTaulers$Interpretat es comparen els moviments compilats amb
+ *          l'intèrpret de Moviment; verificarMovimentsCompilats() fa aquesta comparació de manera determinista sobre
+ *          unes posicions fixes, també per les jugades empaquetades de CodiJugada.
+ */
+public class ComparadorTaulers {
+
+    /**
+     * @interface Model
+     * @brief Operacions d'un tauler que es comparen amb les de TaulerEscacs, amb el mateix significat.
+     */
+    interface Model {
+        byte[] codis();                                         ///< Veure TaulerEscacs::codis().
+        Set<Posicio> solicitarDestinsPeca(Posicio pos);         ///< Veure TaulerEscacs::solicitarDestinsPeca().
+        Set<Posicio> solicitarCompanyesEnroc(Posicio pos);      ///< Veure TaulerEscacs::solicitarCompanyesEnroc().
+        TaulerEscacs.resTauler estatActual(int jugador);        ///< Veure TaulerEscacs::estatActual().
+        boolean aplicarJugadaOrdinaria(JugadaOrdinaria jugada); ///< Veure TaulerEscacs::aplicarJugadaOrdinaria().
+        void aplicarJugadaEnroc(JugadaEnroc jugada);            ///< Veure TaulerEscacs::aplicarJugadaEnroc().
+        Posicio hiHaPromocio();                                 ///< Veure TaulerEscacs::hiHaPromocio().
+        Model copia();                                          ///< Còpia independent del tauler.
+    }
+
+    /**
+     * @interface Implementacio
+     * @brief Crea els taulers d'una implementació candidata.
+     */
+    interface Implementacio {
+        /**
+         * @brief Crea un tauler.
+         * @param regles Regles del tauler.
+         * @param codis Codis de les caselles, en el format de TaulerEscacs::codis().
+         * @return Un tauler amb les peces de \p codis i sense cap promoció pendent.
+         */
+        Model crear(RuleSet regles, byte[] codis);
+    }
+
+    /**
+     * @class Referencia
+     * @brief Model que delega en un TaulerEscacs.
+     */
+    static class Referencia implements Model {
+        final TaulerEscacs _t;  ///< Tauler de referència.
+
+        Referencia(TaulerEscacs t) {
+            _t = t;
+        }
+
+        public byte[] codis() { return _t.codis(); }
+        public Set<Posicio> solicitarDestinsPeca(Posicio pos) { return _t.solicitarDestinsPeca(pos); }
+        public Set<Posicio> solicitarCompanyesEnroc(Posicio pos) { return _t.solicitarCompanyesEnroc(pos); }
+        public TaulerEscacs.resTauler estatActual(int jugador) { return _t.estatActual(jugador); }
+        public boolean aplicarJugadaOrdinaria(JugadaOrdinaria jugada) { return _t.aplicarJugadaOrdinaria(jugada); }
+        public void aplicarJugadaEnroc(JugadaEnroc jugada) { _t.aplicarJugadaEnroc(jugada); }
+        public Posicio hiHaPromocio() { return _t.hiHaPromocio(); }
+        public Model copia() { return new Referencia(new TaulerEscacs(_t)); }
+    }
+
+    /**
+     * @class Reconstruit
+     * @brief Implementació candidata per defecte: TaulerEscacs reconstruït a partir dels codis a cada posició, de
+     *        manera que no aprofita cap càlcul d'una posició anterior.
+     */
+    static class Reconstruit implements Implementacio {
+        public Model crear(RuleSet regles, byte[] codis) {
+            return new Referencia(crearTauler(regles, codis)) {
+                private TaulerEscacs _nou;  ///< Tauler reconstruït per la posició actual, null si encara no s'ha fet.
+
+                private TaulerEscacs nou() {
+                    if (_nou == null) _nou = crearTauler(regles, _t.codis());
+                    return _nou;
+                }
+                public Set<Posicio> solicitarDestinsPeca(Posicio pos) { return nou().solicitarDestinsPeca(pos); }
+                public Set<Posicio> solicitarCompanyesEnroc(Posicio pos) { return nou().solicitarCompanyesEnroc(pos); }
+                public TaulerEscacs.resTauler estatActual(int jugador) { return nou().estatActual(jugador); }
+                public boolean aplicarJugadaOrdinaria(JugadaOrdinaria jugada) {
+                    _nou = null;
+                    return _t.aplicarJugadaOrdinaria(jugada);
+                }
+                public void aplicarJugadaEnroc(JugadaEnroc jugada) {
+                    _nou = null;
+                    _t.aplicarJugadaEnroc(jugada);
+                }
+                public Model copia() { return crear(regles, _t.codis()); }
+            };
+        }
+    }
+
+    /**
+     * @class Interpretat
+     * @brief Implementació candidata que genera els destins interpretant cada Moviment de les regles en lloc de fer servir
+     *        els MovimentCompilat (veure TaulerEscacs::interpretarMoviments()). Compara els moviments compilats amb
+     *        l'intèrpret, que fa de referència.
+     */
+    static class Interpretat implements Implementacio {
+        public Model crear(RuleSet regles, byte[] codis) {
+            TaulerEscacs t = crearTauler(regles, codis);
+            t.interpretarMoviments(true);
+            return new Referencia(t);
+        }
+    }
+
+    /**
+     * @class Divergencia
+     * @brief Cas en què la implementació candidata es comporta diferent de TaulerEscacs.
+     */
+    static final class Divergencia {
+        final String _fitxerRegles;     ///< Fitxer de regles.
+        final byte[] _codis;            ///< Codis de les caselles de la posició de partida.
+        final int _torn;                ///< Jugador que té el torn a la posició de partida.
+        final List<Jugada> _jugades;    ///< Jugades des de la posició de partida fins a la diferència.
+        final String _descripcio;       ///< Què és diferent.
+
+        Divergencia(String fitxerRegles, byte[] codis, int torn, List<Jugada> jugades, String descripcio) {
+            _fitxerRegles = fitxerRegles;
+            _codis = codis;
+            _torn = torn;
+            _jugades = jugades;
+            _descripcio = descripcio;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder res = new StringBuilder("Regles: " + _fitxerRegles + "\nTorn: " + Partida.COLOR[_torn] + "\n");
+            try {
+                res.append(crearTauler(RuleSet.obtenir(_fitxerRegles), _codis));
+            } catch (IOException e) {
+                res.append(e.getMessage()).append('\n');
+            }
+            res.append("Jugades:");
+            for (Jugada jugada : _jugades) res.append(' ').append(jugada.toString().split("\\n")[0].replace(" ", ""));
+            return res.append("\nDiferència: ").append(_descripcio).toString();
+        }
+    }
+
+    static final int VERIFICACIO_PARTIDES = 8;  ///< Partides de verificarMovimentsCompilats() per fitxer de regles.
+    static final int VERIFICACIO_TIRADES = 60;  ///< Tirades màximes de cada partida de verificarMovimentsCompilats().
+
+    private final Implementacio _candidata; ///< Implementació que es compara amb TaulerEscacs.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @param candidata Implementació que es compara amb TaulerEscacs.
+     */
+    public ComparadorTaulers(Implementacio candidata) {
+        _candidata = candidata;
+    }
+
+    /**
+     * @brief Juga una partida a l'atzar sobre els dos taulers.
+     * @pre \p maxTirades >= 0
+     * @post S'ha jugat des de la posició inicial de \p fitxerRegles fins que la partida ha acabat, s'han fet
+     *       \p maxTirades tirades o s'ha trobat una diferència.
+     * @param fitxerRegles Fitxer de regles JSON.
+     * @param llavor Llavor de les jugades.
+     * @param maxTirades Nombre màxim de tirades.
+     * @return La diferència trobada, ja reduïda, o null si no n'hi ha cap.
+     * @throws IOException Si no es poden llegir les regles.
+     */
+    public Divergencia provar(String fitxerRegles, long llavor, int maxTirades) throws IOException {
+        RuleSet regles = RuleSet.obtenir(fitxerRegles);
+        TaulerEscacs referencia = Loader.carregarRegles(fitxerRegles, true, 0).instantania().copiaTauler();
+        byte[] inicial = referencia.codis();
+        Model candidat = _candidata.crear(regles, inicial);
+        Random atzar = new Random(llavor);
+        List<Jugada> jugades = new ArrayList<>();
+        int torn = 0;
+        for (int i = 0; i <= maxTirades; i++) {
+            String diferencia = compararPosicio(referencia, candidat, torn);
+            if (diferencia != null)
+                return reduir(new Divergencia(fitxerRegles, inicial, 0, jugades, diferencia), regles);
+            List<Jugada> legals = JugadorCPU.jugadesLegals(referencia, torn);
+            if (i == maxTirades || legals.isEmpty() || referencia.fiJoc()) break;
+
+            Jugada jugada = legals.get(atzar.nextInt(legals.size()));
+            jugades.add(jugada);
+            diferencia = aplicar(referencia, candidat, jugada);
+            if (diferencia != null)
+                return reduir(new Divergencia(fitxerRegles, inicial, 0, jugades, diferencia), regles);
+            torn = torn == 0 ? 1 : 0;
+        }
+        return null;
+    }
+
+    /**
+     * @brief Compara dos taulers en una posició i en totes les jugades legals a partir d'ella.
+     * @pre Tots dos taulers tenen les mateixes peces i el torn és de \p torn.
+     * @return La descripció de la primera diferència, o null si no n'hi ha cap.
+     */
+    private static String compararPosicio(TaulerEscacs referencia, Model candidat, int torn) {
+        if (!Arrays.equals(referencia.codis(), candidat.codis())) return "caselles diferents";
+        for (int jugador = 0; jugador <= 1; jugador++) {
+            TaulerEscacs.resTauler esperat = referencia.estatActual(jugador);
+            TaulerEscacs.resTauler obtingut = candidat.estatActual(jugador);
+            if (esperat != obtingut)
+                return "estatActual(" + jugador + "): " + esperat + " en lloc de " + obtingut;
+        }
+        for (int fila = 1; fila <= referencia._fila; fila++) {
+            for (int columna = 1; columna <= referencia._columna; columna++) {
+                Posicio pos = new Posicio(columna, fila);
+                if (referencia.solicitarPeca(pos) == null) continue;
+                Set<Posicio> esperat = referencia.solicitarDestinsPeca(pos);
+                Set<Posicio> obtingut = candidat.solicitarDestinsPeca(pos);
+                if (!esperat.equals(obtingut))
+                    return "destins de " + pos + ": " + ordenar(esperat) + " en lloc de " + ordenar(obtingut);
+                esperat = referencia.solicitarCompanyesEnroc(pos);
+                obtingut = candidat.solicitarCompanyesEnroc(pos);
+                if (!esperat.equals(obtingut))
+                    return "enrocs de " + pos + ": " + ordenar(esperat) + " en lloc de " + ordenar(obtingut);
+            }
+        }
+        for (Jugada jugada : JugadorCPU.jugadesLegals(referencia, torn)) {
+            String diferencia = aplicar(new TaulerEscacs(referencia), candidat.copia(), jugada);
+            if (diferencia != null) return diferencia;
+        }
+        return null;
+    }
+
+    /**
+     * @brief Aplica una jugada sobre els dos taulers i en compara el resultat.
+     * @pre \p jugada és legal a \p referencia.
+     * @return La descripció de la diferència, o null si la jugada té el mateix efecte sobre tots dos taulers.
+     */
+    private static String aplicar(TaulerEscacs referencia, Model candidat, Jugada jugada) {
+        String nom = jugada.toString().split("\\n")[0];
+        String esperat;
+        String obtingut;
+        if (jugada instanceof JugadaOrdinaria) {
+            JugadaOrdinaria ord = (JugadaOrdinaria) jugada;
+            esperat = "captura " + referencia.aplicarJugadaOrdinaria(new JugadaOrdinaria(ord.origen(), ord.desti()));
+            obtingut = "captura " + candidat.aplicarJugadaOrdinaria(new JugadaOrdinaria(ord.origen(), ord.desti()));
+        } else {
+            JugadaEnroc enr = (JugadaEnroc) jugada;
+            JugadaEnroc jugadaRef = new JugadaEnroc(enr.posicioPrimera(), enr.posicioSegona());
+            JugadaEnroc jugadaCand = new JugadaEnroc(enr.posicioPrimera(), enr.posicioSegona());
+            referencia.aplicarJugadaEnroc(jugadaRef);
+            candidat.aplicarJugadaEnroc(jugadaCand);
+            esperat = "enroc " + jugadaRef.toString().replace('\n', ' ');
+            obtingut = "enroc " + jugadaCand.toString().replace('\n', ' ');
+        }
+        if (!esperat.equals(obtingut)) return nom + ": " + esperat + " en lloc de " + obtingut;
+        Posicio promoEsperada = referencia.hiHaPromocio();
+        Posicio promoObtinguda = candidat.hiHaPromocio();
+        if (!Objects.equals(promoEsperada, promoObtinguda))
+            return nom + ": promoció a " + promoEsperada + " en lloc de " + promoObtinguda;
+        if (!Arrays.equals(referencia.codis(), candidat.codis())) return nom + ": caselles diferents després de la jugada";
+        return null;
+    }
+
+    /**
+     * @brief Reprodueix un cas.
+     * @return La descripció de la diferència si el cas encara fa que els taulers es comportin diferent, o null si no
+     *         (també si alguna jugada ja no és legal).
+     */
+    private String reproduir(RuleSet regles, byte[] codis, int torn, List<Jugada> jugades) {
+        TaulerEscacs referencia = crearTauler(regles, codis);
+        Model candidat = _candidata.crear(regles, codis);
+        for (Jugada jugada : jugades) {
+            String diferencia = compararPosicio(referencia, candidat, torn);
+            if (diferencia != null) return diferencia;
+            if (!esLegal(referencia, jugada, torn)) return null;
+            diferencia = aplicar(referencia, candidat, jugada);
+            if (diferencia != null) return diferencia;
+            torn = torn == 0 ? 1 : 0;
+        }
+        return compararPosicio(referencia, candidat, torn);
+    }
+
+    /**
+     * @brief Redueix un cas.
+     * @pre \p d es reprodueix.
+     * @post Es retorna un cas que es reprodueix i que parteix de la posició més avançada de \p d des de la qual es
+     *       reprodueix, sense les jugades ni les peces que no calen per reproduir-lo.
+     */
+    private Divergencia reduir(Divergencia d, RuleSet regles) {
+        //posicions de la partida, des de la inicial fins a l'última jugada
+        List<byte[]> posicions = new ArrayList<>();
+        TaulerEscacs t = crearTauler(regles, d._codis);
+        posicions.add(t.codis());
+        for (Jugada jugada : d._jugades) {
+            aplicar(t, jugada);
+            posicions.add(t.codis());
+        }
+
+        //la posició més avançada des de la qual es reprodueix
+        byte[] codis = d._codis;
+        int torn = d._torn;
+        List<Jugada> jugades = d._jugades;
+        String descripcio = d._descripcio;
+        for (int i = d._jugades.size(); i > 0; i--) {
+            int tornI = (d._torn + i) % 2;
+            List<Jugada> resta = d._jugades.subList(i, d._jugades.size());
+            String diferencia = reproduir(regles, posicions.get(i), tornI, resta);
+            if (diferencia != null) {
+                codis = posicions.get(i);
+                torn = tornI;
+                jugades = new ArrayList<>(resta);
+                descripcio = diferencia;
+                break;
+            }
+        }
+
+        //es treuen les jugades i les peces que no calen, fins que no es pot treure res més
+        boolean reduit = true;
+        while (reduit) {
+            reduit = false;
+
+            //les jugades del final que no calen
+            for (int n = 0; n < jugades.size(); n++) {
+                String diferencia = reproduir(regles, codis, torn, jugades.subList(0, n));
+                if (diferencia != null) {
+                    jugades = new ArrayList<>(jugades.subList(0, n));
+                    descripcio = diferencia;
+                    reduit = true;
+                    break;
+                }
+            }
+
+            //blocs de jugades cada cop més petits, fins a jugades soles
+            for (int mida = jugades.size() / 2; mida >= 1; mida /= 2) {
+                for (int inici = 0; inici + mida <= jugades.size(); ) {
+                    List<Jugada> menys = new ArrayList<>(jugades.subList(0, inici));
+                    menys.addAll(jugades.subList(inici + mida, jugades.size()));
+                    String diferencia = reproduir(regles, codis, torn, menys);
+                    if (diferencia != null) {
+                        jugades = menys;
+                        descripcio = diferencia;
+                        reduit = true;
+                    }
+                    else inici += mida;
+                }
+            }
+
+            //les peces que no calen
+            for (int i = 0; i < codis.length; i++) {
+                if (codis[i] == 0 || regles.tipus((codis[i] & Peca.MASCARA_TIPUS) - 1).esRei()) continue;
+                byte[] menys = codis.clone();
+                menys[i] = 0;
+                String diferencia = reproduir(regles, menys, torn, jugades);
+                if (diferencia != null) {
+                    codis = menys;
+                    descripcio = diferencia;
+                    reduit = true;
+                }
+            }
+        }
+        return new Divergencia(d._fitxerRegles, codis, torn, jugades, descripcio);
+    }
+
+    /**
+     * @brief Comprova que els moviments compilats generen les mateixes jugades que l'intèrpret de Moviment.
+     * @pre \p fitxerRegles és un fitxer de regles JSON.
+     * @post S'ha comprovat que les regles només es compilen una vegada i, a la posició inicial i a cada posició de
+     *       VERIFICACIO_PARTIDES partides a l'atzar amb les llavors 0, 1... de com a molt VERIFICACIO_TIRADES
+     *       tirades, s'han comparat un tauler amb moviments compilats i un amb moviments interpretats: tot el que
+     *       compara compararPosicio() i, per cada jugador, les jugades de TaulerEscacs::jugadesLegals() i el resultat
+     *       d'aplicar cadascuna amb TaulerEscacs::aplicarJugada(). El resultat és sempre el mateix per unes mateixes
+     *       regles.
+     * @param fitxerRegles Fitxer de regles JSON.
+     * @return La descripció de la primera diferència, o null si no n'hi ha cap.
+     * @throws IOException Si no es poden llegir les regles.
+     */
+    public static String verificarMovimentsCompilats(String fitxerRegles) throws IOException {
+        RuleSet regles = RuleSet.obtenir(fitxerRegles);
+        if (RuleSet.obtenir(fitxerRegles) != regles) return "les regles s'han compilat més d'una vegada";
+        byte[] inicial = Loader.carregarRegles(fitxerRegles, true, 0).instantania().copiaTauler().codis();
+        for (int partida = 0; partida < VERIFICACIO_PARTIDES; partida++) {
+            Random atzar = new Random(partida);
+            TaulerEscacs t = crearTauler(regles, inicial);
+            int torn = 0;
+            for (int i = 0; i <= VERIFICACIO_TIRADES; i++) {
+                String diferencia = compararGeneradors(regles, t.codis(), torn);
+                if (diferencia != null)
+                    return "partida " + partida + ", tirada " + i + ": " + diferencia + "\n" + t;
+                int[] legals = t.jugadesLegals(torn);
+                if (legals.length == 0 || t.fiJoc()) break;
+                t.aplicarJugada(legals[atzar.nextInt(legals.length)]);
+                t.hiHaPromocio();
+                torn = torn == 0 ? 1 : 0;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @brief Compara els moviments compilats amb els interpretats en una posició.
+     * @pre \p codis conté els dos reis i el torn és de \p torn.
+     * @return La descripció de la primera diferència, o null si no n'hi ha cap.
+     */
+    private static String compararGeneradors(RuleSet regles, byte[] codis, int torn) {
+        TaulerEscacs compilat = crearTauler(regles, codis);
+        TaulerEscacs interpretat = crearTauler(regles, codis);
+        interpretat.interpretarMoviments(true);
+        String diferencia = compararPosicio(interpretat, new Referencia(compilat), torn);
+        if (diferencia != null) return diferencia;
+
+        for (int color = 0; color <= 1; color++) {
+            int[] obtingudes = compilat.jugadesLegals(color);
+            int[] esperades = interpretat.jugadesLegals(color);
+            for (int k = 0; k < esperades.length; k++)
+                esperades[k] = treureRegla(esperades[k]);
+            int[] senseRegla = new int[obtingudes.length];
+            for (int k = 0; k < obtingudes.length; k++)
+                senseRegla[k] = treureRegla(obtingudes[k]);
+            int[] ordenades = senseRegla.clone();
+            Arrays.sort(ordenades);
+            Arrays.sort(esperades);
+            if (!Arrays.equals(esperades, ordenades))
+                return "jugadesLegals(" + color + "): " + noms(esperades) + " en lloc de " + noms(ordenades);
+
+            for (int k = 0; k < obtingudes.length; k++) {
+                TaulerEscacs esperat = new TaulerEscacs(interpretat);
+                TaulerEscacs obtingut = new TaulerEscacs(compilat);
+                boolean capturaEsperada = esperat.aplicarJugada(senseRegla[k]);
+                boolean capturaObtinguda = obtingut.aplicarJugada(obtingudes[k]);
+                if (capturaEsperada != capturaObtinguda)
+                    return nom(obtingudes[k]) + ": captura " + capturaEsperada + " en lloc de " + capturaObtinguda;
+                Posicio promoEsperada = esperat.hiHaPromocio();
+                Posicio promoObtinguda = obtingut.hiHaPromocio();
+                if (!Objects.equals(promoEsperada, promoObtinguda))
+                    return nom(obtingudes[k]) + ": promoció a " + promoEsperada + " en lloc de " + promoObtinguda;
+                if (!Arrays.equals(esperat.codis(), obtingut.codis()))
+                    return nom(obtingudes[k]) + ": caselles diferents després de la jugada";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @brief El codi d'una jugada amb CodiJugada::REGLA_DESCONEGUDA com a moviment, per comparar només les caselles.
+     */
+    private static int treureRegla(int jugada) {
+        if (CodiJugada.tipus(jugada) == CodiJugada.ENROC) return jugada;
+        return CodiJugada.ordinaria(CodiJugada.origen(jugada), CodiJugada.desti(jugada), CodiJugada.REGLA_DESCONEGUDA);
+    }
+
+    /**
+     * @brief Nom d'una jugada per escriure-la.
+     */
+    private static String nom(int jugada) {
+        String separador = CodiJugada.tipus(jugada) == CodiJugada.ENROC ? "-" : "";
+        return CodiJugada.posicio(CodiJugada.origen(jugada)) + separador + CodiJugada.posicio(CodiJugada.desti(jugada));
+    }
+
+    /**
+     * @brief Noms d'unes jugades per escriure-les.
+     */
+    private static List<String> noms(int[] jugades) {
+        List<String> res = new ArrayList<>();
+        for (int jugada : jugades) res.add(nom(jugada));
+        return res;
+    }
+
+    /**
+     * @brief Crea un TaulerEscacs amb les peces indicades pels codis.
+     */
+    static TaulerEscacs crearTauler(RuleSet regles, byte[] codis) {
+        TaulerEscacs t = new TaulerEscacs(regles.files(), regles.columnes(), regles.peces().values(), regles.resum());
+        t.assignarCodis(codis);
+        return t;
+    }
+
+    /**
+     * @brief Indica si \p torn pot fer \p jugada sobre \p t.
+     */
+    private static boolean esLegal(TaulerEscacs t, Jugada jugada, int torn) {
+        if (jugada instanceof JugadaOrdinaria) {
+            JugadaOrdinaria ord = (JugadaOrdinaria) jugada;
+            return t.esPotFerJugadaOrdinaria(new JugadaOrdinaria(ord.origen(), ord.desti()), torn);
+        }
+        JugadaEnroc enr = (JugadaEnroc) jugada;
+        return t.esPotFerJugadaEnroc(new JugadaEnroc(enr.posicioPrimera(), enr.posicioSegona()), torn);
+    }
+
+    /**
+     * @brief Aplica una còpia de \p jugada sobre \p t.
+     */
+    private static void aplicar(TaulerEscacs t, Jugada jugada) {
+        if (jugada instanceof JugadaOrdinaria) {
+            JugadaOrdinaria ord = (JugadaOrdinaria) jugada;
+            t.aplicarJugadaOrdinaria(new JugadaOrdinaria(ord.origen(), ord.desti()));
+        } else {
+            JugadaEnroc enr = (JugadaEnroc) jugada;
+            t.aplicarJugadaEnroc(new JugadaEnroc(enr.posicioPrimera(), enr.posicioSegona()));
+        }
+    }
+
+    /**
+     * @brief Posicions ordenades per escriure-les.
+     */
+    private static List<String> ordenar(Set<Posicio> posicions) {
+        List<String> res = new ArrayList<>();
+        for (Posicio pos : posicions) res.add(pos.toString());
+        Collections.sort(res);
+        return res;
+    }
+
+    /**
+     * @brief Comparar una implementació del tauler amb TaulerEscacs.
+     * @pre \p args conté un fitxer de regles o un directori de fitxers de regles (".json"), el nombre de partides per
+     *      fitxer i, opcionalment, la llavor, el nombre màxim de tirades per partida i el nom d'una classe amb un
+     *      constructor sense paràmetres que implementi Implementacio (per defecte Reconstruit).
+     *      Amb "-verificar" com a primer argument, \p args pot contenir un fitxer de regles o un directori (per
+     *      defecte "documentation", on hi ha les regles que acompanyen el programa).
+     * @post S'han jugat les partides fins a la primera diferència, que s'escriu reduïda a la sortida estàndard. Amb
+     *       "-verificar" s'ha fet verificarMovimentsCompilats() per cada fitxer de regles. Si hi ha alguna diferència,
+     *       el programa acaba amb codi 1.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 1 && args[0].equals("-verificar")) {
+            for (String fitxer : fitxersRegles(args.length > 1 ? args[1] : "documentation")) {
+                String diferencia = verificarMovimentsCompilats(fitxer);
+                if (diferencia != null) {
+                    System.out.println("Diferència entre els moviments compilats i interpretats de " + fitxer + "\n"
+                            + diferencia);
+                    System.exit(1);
+                }
+                System.out.println(fitxer + ": moviments compilats i interpretats iguals");
+            }
+            return;
+        }
+        if (args.length < 2) {
+            System.out.println("Ús: ComparadorTaulers <fitxerRegles|directori> <partides> [llavor] [maxTirades] [classe]");
+            System.out.println("    ComparadorTaulers -verificar [fitxerRegles|directori]");
+            return;
+        }
+        List<String> fitxers = fitxersRegles(args[0]);
+        int nPartides = Integer.parseInt(args[1]);
+        long llavor = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        int maxTirades = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        Implementacio candidata = args.length > 4
+                ? (Implementacio) Class.forName(args[4]).getDeclaredConstructor().newInstance()
+                : new Reconstruit();
+
+        ComparadorTaulers comparador = new ComparadorTaulers(candidata);
+        for (String fitxer : fitxers) {
+            for (int i = 0; i < nPartides; i++) {
+                Divergencia d = comparador.provar(fitxer, llavor + i, maxTirades);
+                if (d != null) {
+                    System.out.println("Diferència a la partida amb llavor " + (llavor + i) + "\n" + d);
+                    System.exit(1);
+                }
+            }
+            System.out.println(fitxer + ": " + nPartides + " partides sense diferències");
+        }
+    }
+
+    /**
+     * @brief Fitxers de regles indicats per un argument.
+     * @return Els fitxers ".json" de \p ruta ordenats si és un directori, o només \p ruta altrament.
+     */
+    private static List<String> fitxersRegles(String ruta) {
+        List<String> fitxers = new ArrayList<>();
+        File[] json = new File(ruta).listFiles((dir, nom) -> nom.endsWith(".json"));
+        if (json == null) {
+            fitxers.add(ruta);
+        } else {
+            Arrays.sort(json);
+            for (File f : json) fitxers.add(f.getPath());
+        }
+        return fitxers;
+    }
+}
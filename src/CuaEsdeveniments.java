@@ -0,0 +1,89 @@
+/**
+ * @file CuaEsdeveniments.java
+ * @brief Cua fitada d'esdeveniments d'una partida.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @class CuaEsdeveniments
+ * @brief Oient que guarda els esdeveniments d'una partida perquè els consumeixi un altre fil al seu ritme.
+ * @details La partida no s'atura mai a esperar el consumidor: si la cua és plena, es descarten els esdeveniments
+ *          pendents i se'n deixa un de sol de tipus \b RESINCRONITZAR amb l'estat més recent, que indica al
+ *          consumidor que ha de tornar a llegir tot el tauler.
+ */
+public class CuaEsdeveniments implements OientPartida {
+    private final BlockingQueue<EsdevenimentPartida> _cua; ///< Esdeveniments pendents de consumir.
+    private long _descartats;                              ///< Esdeveniments descartats per manca d'espai.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre \p capacitat > 1
+     * @post Es crea una cua buida que pot guardar fins a \p capacitat esdeveniments.
+     * @param capacitat Nombre màxim d'esdeveniments pendents.
+     * @throws IllegalArgumentException Si \p capacitat no és més gran que 1.
+     */
+    public CuaEsdeveniments(int capacitat) {
+        if (capacitat <= 1)
+            throw new IllegalArgumentException("Error: la capacitat de la cua ha de ser més gran que 1");
+        _cua = new ArrayBlockingQueue<>(capacitat);
+    }
+
+    @Override
+    public synchronized void esdeveniment(EsdevenimentPartida e) {
+        if (!_cua.offer(e)) {
+            _descartats += _cua.size() + 1;
+            _cua.clear();
+            _cua.add(resincronitzar(e.instantania()));
+        }
+    }
+
+    /**
+     * @brief Agafar el següent esdeveniment.
+     * @pre \p temps >= 0 i \p unitat != null.
+     * @post S'ha tret de la cua el primer esdeveniment, esperant com a molt \p temps si no n'hi havia cap.
+     * @return El primer esdeveniment, o null si no n'ha arribat cap a temps.
+     * @throws InterruptedException Si s'ha interromput el fil mentre esperava.
+     */
+    public EsdevenimentPartida agafar(long temps, TimeUnit unitat) throws InterruptedException {
+        return _cua.poll(temps, unitat);
+    }
+
+    /**
+     * @brief Agafar tots els esdeveniments pendents sense esperar.
+     * @post La cua queda buida.
+     * @return Els esdeveniments que hi havia a la cua, per ordre d'arribada.
+     */
+    public List<EsdevenimentPartida> buidar() {
+        List<EsdevenimentPartida> res = new ArrayList<>();
+        _cua.drainTo(res);
+        return res;
+    }
+
+    /**
+     * @brief Esdeveniments descartats.
+     * @return El nombre total d'esdeveniments que s'han substituït per un \b RESINCRONITZAR perquè la cua era plena.
+     */
+    public synchronized long descartats() {
+        return _descartats;
+    }
+
+    /**
+     * @brief Esdeveniment que indica que cal tornar a llegir tot el tauler.
+     * @pre \p inst != null
+     * @return Un esdeveniment \b RESINCRONITZAR amb l'estat \p inst i totes les caselles del tauler com a canvis.
+     */
+    private static EsdevenimentPartida resincronitzar(Partida.Instantania inst) {
+        List<Posicio> totes = new ArrayList<>();
+        for (int f = 1; f <= inst.files(); f++)
+            for (int c = 1; c <= inst.columnes(); c++)
+                totes.add(new Posicio(c, f));
+        return new EsdevenimentPartida(EsdevenimentPartida.Tipus.RESINCRONITZAR, inst, totes,
+                Collections.<Posicio>emptyList(), null);
+    }
+}
@@ -34,6 +34,11 @@ public class Enroc {
         return _pecaA;
     }
 
+    /**@brief Retorna el nom de la segona peça de l'enroc **/
+    public String segonaPeca(){
+        return _pecaB;
+    }
+
     /**@brief Retorna cert si per fer l'enroc les peces mai s'han hagut de moure, fals altrament. **/
     public boolean quiets(){
         return _quiets;
@@ -6,6 +6,8 @@
 
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.geometry.Rectangle2D;
@@ -21,6 +23,7 @@ import javafx.scene.text.FontPosture;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.TextFlow;
 import javafx.stage.FileChooser;
+import javafx.stage.Modality;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
 
@@ -28,6 +31,8 @@ import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -40,6 +45,8 @@ public class EscacsGrafic extends Application {
     private final Group _rajoles = new Group();     ///< Grup de les rajoles del tauler.
     private final Group _rajolesAtac = new Group(); ///< Grup de les rajoles on un peça podrà moure's.
     private final Group _peces = new Group();       ///< Grup de les peces gràfiques que es posicionen sobre el tauler.
+    private final Map<Posicio,PecaGrafica> _pecesTauler = new HashMap<>(); ///< Peça gràfica de cada casella ocupada.
+    private Partida.Instantania _estatDibuixat;     ///< Estat de la partida que mostren les peces gràfiques.
     private Partida _partida;                       ///< Partida sobre la qual es juga la partida d'escacs.
     private Label _torn;                            ///< Rètol que indica el torn actual i s'actualitza amb cada jugada.
     private int _pixelsRajola;                      ///< Mida en píxels de les rajoles del tauler.
@@ -49,6 +56,7 @@ public class EscacsGrafic extends Application {
     private volatile boolean _calAcabarCPU;
         ///< Indica si, després de la jugada que està efectuant, el jugador CPU ha de parar.
     private Thread _thread;                         ///< Procés on es calculen les tirades del jugador CPU.
+    private ReflexioCPU _reflexio;                  ///< Cerca de la CPU mentre pensa el jugador humà, o null.
 
     /**
      * @brief Funció principal.
@@ -74,7 +82,8 @@ public class EscacsGrafic extends Application {
     /**
      * @brief Inicialitza els atributs bàsics.
      * @pre ---
-     * @post S'inicialitza la mida de la rajola i de la lletra segons la mida de la pantalla de l'usuari.
+     * @post S'inicialitza la mida de la rajola i de la lletra segons la mida de la pantalla de l'usuari i es carreguen
+     *       les imatges de totes les peces de les regles a aquesta mida (veure CacheImatges).
      */
     private void inicialitzarAtr() {
         Rectangle2D r = Screen.getPrimary().getBounds();
@@ -82,6 +91,7 @@ public class EscacsGrafic extends Application {
         int aux2 = (int)r.getWidth()/_partida.columnesTauler();
         _pixelsRajola = (int) (Math.min(aux1, aux2)*0.7);
         _pixelsLletra = (int) (Font.getDefault().getSize()*2);
+        CacheImatges.preparar(_partida.fitxerRegles(), _pixelsRajola, _partida.rutesImatges());
     }
 
     /**
@@ -187,22 +197,83 @@ public class EscacsGrafic extends Application {
     /**
      * @brief S'obre el fitxer, es carrega o s'inicia la partida i es comença a jugar.
      * @pre \p file és un fitxer vàlid.
-     * @post Es carreguen les dades del fitxer \p file i si \p iniciar és \b true, s'inicia una partida, altrament es
-     *       carrega una partida. A continuació es mostra la finestra de joc i es pot començar a jugar.
+     * @post Es carreguen les dades del fitxer \p file en segon pla, mostrant quantes tirades s'han reproduït, i si
+     *       \p iniciar és \b true, s'inicia una partida, altrament es carrega una partida. Quan la partida és a punt es
+     *       mostra la finestra de joc i es pot començar a jugar. Si es cancel·la la càrrega, es continua a la finestra
+     *       de benvinguda.
      * @param file Fitxer que conté les regles o el desenvolupament d'una partida.
      * @param iniciar Indica si cal iniciar una partida nova o si cal carregar-ne una d'ajornada.
      */
     private void obrirFitxer(File file, boolean iniciar) {
-        try {
-            if(iniciar) _partida = Loader.carregarPartidaNova(file.getAbsolutePath());
-            else _partida = Loader.carregarPartidaComencada(file.getAbsolutePath());
+        String ruta = file.getAbsolutePath();
+        Task<Partida> carrega = new Task<Partida>() {
+            @Override
+            protected Partida call() throws Exception {
+                updateMessage("Carregant " + file.getName());
+                if(iniciar) return Loader.carregarPartidaNova(ruta);
+                return Loader.carregarPartidaComencada(ruta, (fet, total) -> {
+                    updateMessage("Tirades reproduïdes: " + fet + " de " + total);
+                    updateProgress(fet, total);
+                });
+            }
+        };
+        carrega.setOnSucceeded(e -> {
+            aturarReflexio();
+            _partida = carrega.getValue();
             _stage.close();
             jugar();
-        } catch (IOException e) {
-            crearPopup(e.getMessage(), "Error obrint el fitxer", Alert.AlertType.ERROR).showAndWait();
-        } catch (IllegalArgumentException | IllegalStateException | ClassCastException e) {
-            crearPopup(e.getMessage(), "", Alert.AlertType.ERROR).showAndWait();
-        }
+        });
+        carrega.setOnFailed(e -> {
+            Throwable error = carrega.getException();
+            if(error instanceof IOException)
+                crearPopup(error.getMessage(), "Error obrint el fitxer", Alert.AlertType.ERROR).showAndWait();
+            else
+                crearPopup(error.getMessage(), "", Alert.AlertType.ERROR).showAndWait();
+        });
+        executarAmbProgres("Carregant partida", carrega);
+    }
+
+    /**
+     * @brief Executar una tasca en segon pla mostrant-ne el progrés.
+     * @pre \p tasca != null i encara no s'ha executat.
+     * @post S'executa \p tasca en un fil en segon pla i es mostra una finestra amb el seu missatge, el seu progrés i
+     *       un botó per cancel·lar-la. La finestra es tanca quan la tasca acaba, falla o es cancel·la.
+     * @param titol Títol de la finestra.
+     * @param tasca Tasca que es vol executar.
+     */
+    private void executarAmbProgres(String titol, Task<?> tasca) {
+        // Elements de la finestra
+        Label missatge = new Label();
+        missatge.textProperty().bind(tasca.messageProperty());
+        ProgressBar barra = new ProgressBar();
+        barra.setPrefWidth(300);
+        barra.progressProperty().bind(tasca.progressProperty());
+        Button cancelar = new Button("Cancel·lar");
+        cancelar.setOnAction(e -> tasca.cancel());
+
+        VBox layout = new VBox(15);
+        layout.setAlignment(Pos.CENTER);
+        layout.setPadding(new Insets(20, 20, 20, 20));
+        layout.getChildren().addAll(missatge, barra, cancelar);
+
+        // Finestra
+        Stage finestra = new Stage();
+        finestra.initOwner(_stage);
+        finestra.initModality(Modality.WINDOW_MODAL);
+        finestra.setTitle(titol);
+        finestra.setResizable(false);
+        finestra.setScene(new Scene(layout));
+        finestra.setOnCloseRequest(e -> tasca.cancel());
+        tasca.stateProperty().addListener((obs, abans, ara) -> {
+            if(ara == Worker.State.SUCCEEDED || ara == Worker.State.FAILED || ara == Worker.State.CANCELLED)
+                finestra.close();
+        });
+        finestra.show();
+
+        // Executar la tasca
+        Thread fil = new Thread(tasca, titol);
+        fil.setDaemon(true);
+        fil.start();
     }
 
     /**
@@ -248,21 +319,65 @@ public class EscacsGrafic extends Application {
     }
 
     /**
-     * @brief Redibuixar les peces del tauler.
+     * @brief Dibuixar totes les peces del tauler.
      * @pre ---
-     * @post S'esborren totes les peces del grup de peces i es tornen a crear.
+     * @post S'esborren totes les peces del grup de peces i es tornen a crear a partir de l'estat actual de la partida.
      */
-    private void redibuixarPeces() {
-        _peces.getChildren().clear();
-        for (int i = _partida.filesTauler(); i>=1; --i) {
-            for (int j = 1; j <= _partida.columnesTauler(); ++j) {
-                Peca p = _partida.pecaTauler(new Posicio(j,i));
-                if(p != null) {
-                    PecaGrafica fitxa = crearPecaGrafica(p,j,_partida.filesTauler()+1-i);
-                    _peces.getChildren().add(fitxa);
-                }
+    private void dibuixarPeces() {
+        esborrarPeces();
+        Partida.Instantania estat = _partida.instantania();
+        for (int i = estat.files(); i>=1; --i) {
+            for (int j = 1; j <= estat.columnes(); ++j) {
+                Posicio pos = new Posicio(j,i);
+                Peca p = estat.pecaTauler(pos);
+                if(p != null) afegirPecaGrafica(p, pos);
             }
         }
+        _estatDibuixat = estat;
+    }
+
+    /**
+     * @brief Redibuixar les peces del tauler que han canviat.
+     * @pre ---
+     * @post Només es tornen a crear les peces gràfiques de les caselles que són diferents entre l'estat dibuixat i
+     *       l'estat actual de la partida (peça moguda, peces capturades, companya d'enroc, promoció, jugades desfetes
+     *       o refetes...), de manera que el cost no depèn de la mida del tauler. Si no hi havia res dibuixat, es
+     *       dibuixen totes les peces.
+     */
+    private void redibuixarPeces() {
+        if(_estatDibuixat == null) {
+            dibuixarPeces();
+            return;
+        }
+        Partida.Instantania estat = _partida.instantania();
+        for (Posicio pos : estat.casellesDiferents(_estatDibuixat)) {
+            PecaGrafica anterior = _pecesTauler.remove(pos);
+            if(anterior != null) _peces.getChildren().remove(anterior);
+            Peca p = estat.pecaTauler(pos);
+            if(p != null) afegirPecaGrafica(p, pos);
+        }
+        _estatDibuixat = estat;
+    }
+
+    /**
+     * @brief Afegir una peça gràfica al tauler.
+     * @pre \p p != null, \p pos != null i no hi ha cap peça gràfica a \p pos.
+     * @post S'ha creat la peça gràfica de \p p a la casella \p pos.
+     */
+    private void afegirPecaGrafica(Peca p, Posicio pos) {
+        PecaGrafica fitxa = crearPecaGrafica(p, pos.columna(), _partida.filesTauler()+1-pos.fila());
+        _pecesTauler.put(pos, fitxa);
+        _peces.getChildren().add(fitxa);
+    }
+
+    /**
+     * @brief Esborrar totes les peces gràfiques.
+     * @post El grup de peces és buit i no hi ha cap estat dibuixat.
+     */
+    private void esborrarPeces() {
+        _peces.getChildren().clear();
+        _pecesTauler.clear();
+        _estatDibuixat = null;
     }
 
     /**
@@ -275,13 +390,14 @@ public class EscacsGrafic extends Application {
      * @param tipus Tipus de peça.
      */
     private void redibuixarAtacs(Posicio posPeca, Peca tipus) {
-        // Obtenir destins possibles i enrocs possibles
-        Set<Posicio> destinsPossibles = _partida.destinsPeca(posPeca);
-        Set<Posicio> companyesEnroc = _partida.enrocsPeca(posPeca);
+        // Obtenir destins possibles i enrocs possibles (d'un mateix estat, encara que la CPU estigui jugant)
+        Partida.Instantania estat = _partida.instantania();
+        Set<Posicio> destinsPossibles = estat.destinsPeca(posPeca);
+        Set<Posicio> companyesEnroc = estat.enrocsPeca(posPeca);
 
         // Dibuixar destins
         for (Posicio pos : destinsPossibles) {
-            if(tipus.color() == _partida.tornActual()) {
+            if(tipus.color() == estat.tornActual()) {
                 Rajola rajola = new Rajola(_pixelsRajola, Color.GREEN);
                 rajola.setX(pos.columna() * _pixelsRajola);
                 rajola.setY((_partida.filesTauler()+1-pos.fila()) * _pixelsRajola);
@@ -292,7 +408,7 @@ public class EscacsGrafic extends Application {
 
         // Dibuixar enrocs
         for(Posicio pos : companyesEnroc){
-            if(tipus.color() == _partida.tornActual()){
+            if(tipus.color() == estat.tornActual()){
                 Rajola rajola = new Rajola(_pixelsRajola, Color.BLUE);
                 rajola.setX(pos.columna() * _pixelsRajola);
                 rajola.setY((_partida.filesTauler()+1-pos.fila()) * _pixelsRajola);
@@ -318,6 +434,7 @@ public class EscacsGrafic extends Application {
         }
         actualitzarTorn();
         redibuixarPeces();
+        iniciarReflexio();
     }
 
     /**
@@ -336,36 +453,65 @@ public class EscacsGrafic extends Application {
         }
         actualitzarTorn();
         redibuixarPeces();
+        iniciarReflexio();
     }
 
     /**
      * @brief Guardar la partida i tornar a la finestra de benvinguda.
      * @pre ---
      * @post Es torna a la finestra de benvinguda i es mostra un selector de fitxers on cal escollir un fitxer per
-     *       guardar la partida. En cas que no es seleccioni cap fitxer es mostra una finestra per confirmar la pèrdua
-     *       de les dades de la partida. Si s'accepta es perden les dades i, si es denega, es torna a iniciar el procés
-     *       de guardar la partida. En cas d'escollir un fitxer vàlid, es guarda el desenvolupament de la partida.
+     *       guardar la partida. En cas que no es seleccioni cap fitxer o es cancel·li el desament es mostra una
+     *       finestra per confirmar la pèrdua de les dades de la partida. Si s'accepta es perden les dades i, si es
+     *       denega, es torna a iniciar el procés de guardar la partida. En cas d'escollir un fitxer vàlid, es guarda
+     *       el desenvolupament de la partida en segon pla, mostrant quants bytes s'han escrit.
      */
     private void guardarPartida() {
+        aturarReflexio();
         demanarDades();
         FileChooser fileChooser = new FileChooser();
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON", "*.json"));
         fileChooser.setInitialFileName("*.json");
         fileChooser.setInitialDirectory(new File(System.getProperty("user.home")));
         File file = fileChooser.showSaveDialog(_stage);
-        try {
-            Saver.guardarPartida(file.getAbsolutePath(), _partida.dadesDesenvolupament());
-        } catch (IOException e) {
-            crearPopup(e.getMessage(), "Error guardant el fitxer", Alert.AlertType.ERROR).showAndWait();
-        } catch (NullPointerException e) {
+        if(file == null) {
             // Si no s'ha escollit cap fitxer
-            Alert alert = crearPopup("No s'ha escollit cap fitxer per guardar la partida. Segur que vols " +
-                            "continuar? (perdràs el progrés)", "", Alert.AlertType.CONFIRMATION);
-            Optional<ButtonType> res = alert.showAndWait();
-            if(res.isPresent()) {
-                if(res.get() != ButtonType.OK)
-                    guardarPartida();
+            confirmarPerdua("No s'ha escollit cap fitxer per guardar la partida.");
+            return;
+        }
+
+        Partida partida = _partida;
+        String ruta = file.getAbsolutePath();
+        Task<Void> desament = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                updateMessage("Desant " + file.getName());
+                Saver.guardarPartida(ruta, partida, (fet, total) -> {
+                    updateMessage("Bytes escrits: " + fet + " de " + total);
+                    updateProgress(fet, total);
+                });
+                return null;
             }
+        };
+        desament.setOnFailed(e -> crearPopup(desament.getException().getMessage(), "Error guardant el fitxer",
+                Alert.AlertType.ERROR).showAndWait());
+        desament.setOnCancelled(e -> confirmarPerdua("S'ha cancel·lat el desament de la partida."));
+        executarAmbProgres("Desant partida", desament);
+    }
+
+    /**
+     * @brief Confirmar que es vol perdre la partida sense desar-la.
+     * @pre \p motiu != null
+     * @post Es mostra \p motiu i es demana confirmació. Si no es confirma, es torna a iniciar el procés de guardar la
+     *       partida.
+     * @param motiu Per què no s'ha desat la partida.
+     */
+    private void confirmarPerdua(String motiu) {
+        Alert alert = crearPopup(motiu + " Segur que vols continuar? (perdràs el progrés)", "",
+                Alert.AlertType.CONFIRMATION);
+        Optional<ButtonType> res = alert.showAndWait();
+        if(res.isPresent()) {
+            if(res.get() != ButtonType.OK)
+                guardarPartida();
         }
     }
 
@@ -468,13 +614,9 @@ public class EscacsGrafic extends Application {
                 rajola.setX(j * _pixelsRajola);
                 rajola.setY(i * _pixelsRajola);
                 _rajoles.getChildren().add(rajola);
-                Peca peca = _partida.pecaTauler(new Posicio(j,i));
-                if(peca != null) {
-                    PecaGrafica fitxa = crearPecaGrafica(peca,j,_partida.filesTauler()+1-i);
-                    _peces.getChildren().add(fitxa);
-                }
             }
         }
+        dibuixarPeces();
         // Dibuixar lletres
         for (int j = 1; j <= _partida.columnesTauler(); ++j) {
             Label l = crearLabel(Character.toString((char)(j+96)),FontWeight.BOLD,(int)(_pixelsRajola * 0.4));
@@ -887,13 +1029,14 @@ public class EscacsGrafic extends Application {
 
             // Gestionar acabament de la partida
             if(calAcabar) {
+                aturarReflexio();
                 crearPopup(_partida.resultatPartida(), null, Alert.AlertType.INFORMATION).showAndWait();
                 _stage.close();
                 _blanquesCPU = _negresCPU = _calAcabarCPU = false;
                 demanarDades();
                 _rajolesAtac.getChildren().clear();
                 _rajoles.getChildren().clear();
-                _peces.getChildren().clear();
+                esborrarPeces();
                 guardarPartida();
             }
 
@@ -908,7 +1051,8 @@ public class EscacsGrafic extends Application {
      * @brief Gestionar una tirada controlada per la CPU.
      * @pre ---
      * @post Si és el torn de la CPU, s'efectua una tirada de forma automàtica, és a dir, controlada pel programa. També
-     *       es gestiona la promoció i l'acabament de la partida, en cas que calgui acabar-la.
+     *       es gestiona la promoció i l'acabament de la partida, en cas que calgui acabar-la. Si és el torn d'un humà
+     *       que juga contra la CPU, la CPU comença a reflexionar sobre la seva resposta.
      */
     private void gestionarCPU() {
         // Comprovar si es torn de la CPU
@@ -916,9 +1060,13 @@ public class EscacsGrafic extends Application {
 
         // Si es torn de la CPU gestionar la tirada de la CPU
         if(tornCPU) {
+            // La CPU aprofita la reflexió feta durant el torn del contrincant, si n'hi ha
+            ReflexioCPU reflexio = _reflexio;
+            _reflexio = null;
+
             // Es posa en segon pla el càlcul del jugadorCPU per evitar retards en la UI
             _thread = new Thread(() -> {
-                boolean calAcabar = _partida.efectuarJugadaCPU();
+                boolean calAcabar = _partida.efectuarJugadaCPU(reflexio);
 
                 Platform.runLater(() -> {
                     redibuixarPeces();
@@ -933,7 +1081,7 @@ public class EscacsGrafic extends Application {
                         demanarDades();
                         _rajolesAtac.getChildren().clear();
                         _rajoles.getChildren().clear();
-                        _peces.getChildren().clear();
+                        esborrarPeces();
                         guardarPartida();
                     }
                 });
@@ -941,6 +1089,33 @@ public class EscacsGrafic extends Application {
             _thread.setDaemon(true);
             _thread.start();
         }
+        else iniciarReflexio();
+    }
+
+    /**
+     * @brief Fer que la CPU reflexioni durant el torn del jugador humà.
+     * @pre ---
+     * @post S'atura la reflexió anterior, si n'hi havia. Si la partida no s'ha acabat, el torn és d'un humà i el
+     *       contrincant és la CPU, es comença una nova reflexió sobre l'estat actual (veure ReflexioCPU).
+     */
+    private void iniciarReflexio() {
+        aturarReflexio();
+        int torn = _partida.tornActual();
+        boolean tornHuma = torn == 0 && !_blanquesCPU || torn == 1 && !_negresCPU;
+        boolean contrincantCPU = torn == 0 && _negresCPU || torn == 1 && _blanquesCPU;
+        if(tornHuma && contrincantCPU && _partida.resultatPartida().isEmpty())
+            _reflexio = _partida.reflexionarCPU();
+    }
+
+    /**
+     * @brief Aturar la reflexió de la CPU.
+     * @post No hi ha cap reflexió en curs.
+     */
+    private void aturarReflexio() {
+        if(_reflexio != null) {
+            _reflexio.aturar();
+            _reflexio = null;
+        }
     }
 
     /**
@@ -72,7 +72,7 @@ public abstract class EscacsTXT{
             try {
                 System.out.print("Entra el nom del fitxer on es guardarà la partida:  ");
                 path = in.nextLine();
-                Saver.guardarPartida(path, partida.dadesDesenvolupament());
+                Saver.guardarPartida(path, partida);
                 fitxerCorrecte = true;
             } catch (IOException e) {
                 System.out.println("Error: no s'ha pogut obrir el fitxer");
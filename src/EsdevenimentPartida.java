@@ -0,0 +1,104 @@
+/**
+ * @file EsdevenimentPartida.java
+ * @brief Canvi produït en una partida d'escacs.
+ */
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @class EsdevenimentPartida
+ * @brief Descripció immutable d'un canvi de la partida (veure Partida::afegirOient()).
+ * @details Cada esdeveniment inclou la instantània de la partida just després del canvi i les caselles que han
+ *          canviat respecte l'anterior, de manera que qui el rep només ha d'actualitzar aquestes caselles.
+ */
+public final class EsdevenimentPartida {
+
+    /**
+     * @brief Tipus de canvi.
+     */
+    public enum Tipus {
+        POSICIONAR,         ///< S'han col·locat o carregat les peces del tauler.
+        JUGADA,             ///< S'ha efectuat una jugada ordinària.
+        ENROC,              ///< S'ha efectuat un enroc.
+        PROMOCIO,           ///< S'ha promocionat la peça que ha mogut la darrera jugada.
+        TIRADA_ESPECIAL,    ///< S'ha efectuat una tirada que no mou peces (taules, rendició, ajornament...).
+        DESFER,             ///< S'ha desfet la darrera tirada.
+        REFER,              ///< S'ha refet la darrera tirada desfeta.
+        FI,                 ///< La partida s'ha acabat.
+        RESINCRONITZAR      ///< S'han perdut esdeveniments: cal tornar a llegir tot el tauler (veure CuaEsdeveniments).
+    }
+
+    private final Tipus _tipus;                     ///< Tipus de canvi.
+    private final Partida.Instantania _instantania; ///< Estat de la partida després del canvi.
+    private final List<Posicio> _canvis;            ///< Caselles que han canviat.
+    private final List<Posicio> _captures;          ///< Caselles on s'ha capturat una peça.
+    private final Map<String,String> _tirada;       ///< Tirada de l'historial afectada, o null.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre \p tipus != null, \p instantania != null, \p canvis != null i \p captures != null.
+     * @post Es crea un esdeveniment amb còpies no modificables de les llistes i de la tirada.
+     * @param tipus Tipus de canvi.
+     * @param instantania Estat de la partida després del canvi.
+     * @param canvis Caselles on la peça (o l'absència de peça) és diferent de l'estat anterior.
+     * @param captures Caselles on hi havia una peça del contrincant que s'ha capturat.
+     * @param tirada Tirada de l'historial (torn, origen, desti i resultat) que s'ha efectuat, refet o desfet; null si
+     *               el canvi no correspon a cap tirada.
+     */
+    EsdevenimentPartida(Tipus tipus, Partida.Instantania instantania, List<Posicio> canvis, List<Posicio> captures,
+                        Map<String,String> tirada) {
+        _tipus = tipus;
+        _instantania = instantania;
+        _canvis = Collections.unmodifiableList(canvis);
+        _captures = Collections.unmodifiableList(captures);
+        _tirada = tirada == null ? null : Collections.unmodifiableMap(tirada);
+    }
+
+    /**
+     * @brief Tipus de canvi.
+     */
+    public Tipus tipus() {
+        return _tipus;
+    }
+
+    /**
+     * @brief Estat de la partida just després del canvi.
+     */
+    public Partida.Instantania instantania() {
+        return _instantania;
+    }
+
+    /**
+     * @brief Caselles que han canviat.
+     * @return Una llista no modificable amb les posicions on hi ha una peça diferent (o cap peça) que abans del
+     *         canvi. Per \b RESINCRONITZAR conté totes les caselles del tauler.
+     */
+    public List<Posicio> canvis() {
+        return _canvis;
+    }
+
+    /**
+     * @brief Caselles on s'ha capturat una peça.
+     * @return Una llista no modificable, buida si el canvi no ha capturat res.
+     */
+    public List<Posicio> captures() {
+        return _captures;
+    }
+
+    /**
+     * @brief Tirada de l'historial a què correspon el canvi.
+     * @return Un mapa no modificable amb les claus torn, origen, desti i resultat, o null si el canvi no correspon a
+     *         cap tirada.
+     */
+    public Map<String,String> tirada() {
+        return _tirada;
+    }
+
+    @Override
+    public String toString() {
+        return _tipus + " " + (_tirada == null ? "" : _tirada.values() + " ") + "canvis=" + _canvis + " captures=" +
+                _captures;
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * @file GeneradorPartides.java
+ * @brief Generador de partides a l'atzar per a proves i mesures de rendiment.
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @class GeneradorPartides
+ * @brief Juga partides amb jugades legals escollides a l'atzar directament sobre TaulerEscacs, sense passar per
+ *        Partida, i en pot guardar totes les posicions en un corpus.
+ * @details Cada partida acaba pels mateixos motius que a Partida: escac i mat, rei ofegat, el límit de tirades sense
+ *          capturar cap peça o el límit d'escacs consecutius. Les promocions es fan a una peça escollida a l'atzar
+ *          (o no es fan) abans de valorar la tirada.
+ *
+ *          La partida número \a i es juga amb una llavor obtinguda de la llavor del generador i de \a i, de manera
+ *          que les mateixes regles i la mateixa llavor donen sempre les mateixes partides.
+ *
+ *          El corpus és un fitxer amb una capçalera (identificador del format, versió, resum de les regles, files i
+ *          columnes) seguida d'un registre de mida fixa per posició: el jugador que té el torn i el codi de cada
+ *          casella (veure TaulerEscacs::codis()). Es pot recórrer amb llegirCorpus().
+ */
+public class GeneradorPartides {
+    public static final String ESCAC_MAT = "ESCAC I MAT";                           ///< Resultat per escac i mat.
+    public static final String REI_OFEGAT = Partida.REI_OFEGAT;                     ///< Resultat per rei ofegat.
+    public static final String TAULES_INACCIO = Partida.TAULES_INACCIO;             ///< Resultat pel límit d'inacció.
+    public static final String TAULES_ESCAC_CONTINU = Partida.TAULES_ESCAC_CONTINU; ///< Resultat pel límit d'escacs.
+    private static final int MAGIC = 0x45504F53;    ///< Identificador dels fitxers de corpus ("EPOS").
+    private static final int VERSIO = 1;            ///< Versió del format.
+    private static final int MIDA_RESUM = 64;       ///< Caràcters del resum hexadecimal de les regles.
+
+    /**
+     * @interface OientPosicions
+     * @brief Rep les posicions d'unes partides generades o d'un corpus.
+     */
+    interface OientPosicions {
+        /**
+         * @brief S'ha arribat a una posició.
+         * @param t Tauler de la posició. Només és vàlid durant la crida i no s'ha de modificar.
+         * @param torn Jugador que té el torn.
+         */
+        void posicio(TaulerEscacs t, int torn);
+    }
+
+    private final RuleSet _regles;                          ///< Regles de les partides.
+    private final TaulerEscacs _inicial;                    ///< Tauler amb la posició inicial.
+    private final long _llavor;                             ///< Llavor de les partides.
+    private final AtomicLong _partides = new AtomicLong();  ///< Partides jugades.
+    private final AtomicLong _tirades = new AtomicLong();   ///< Tirades efectuades.
+    private final AtomicLong _generacions = new AtomicLong(); ///< Crides a la generació de jugades legals.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @post Es crea un generador de partides amb les regles i la posició inicial de \p fitxerRegles.
+     * @param fitxerRegles Fitxer de regles JSON.
+     * @param llavor Llavor de la qual s'obtenen les de cada partida.
+     * @throws IOException Si no es pot llegir el fitxer de regles.
+     */
+    public GeneradorPartides(String fitxerRegles, long llavor) throws IOException {
+        _regles = RuleSet.obtenir(fitxerRegles);
+        _inicial = Loader.carregarRegles(fitxerRegles, true, 0).instantania().copiaTauler();
+        _llavor = llavor;
+    }
+
+    /** @brief Partides jugades fins ara. */
+    public long partides() {
+        return _partides.get();
+    }
+
+    /** @brief Tirades efectuades fins ara. */
+    public long tirades() {
+        return _tirades.get();
+    }
+
+    /** @brief Crides a la generació de jugades legals fins ara. */
+    public long generacions() {
+        return _generacions.get();
+    }
+
+    /**
+     * @brief Juga una partida a l'atzar.
+     * @pre \p numero >= 0
+     * @post S'ha jugat la partida número \p numero fins que ha acabat i s'ha passat cada posició a \p oient, des de la
+     *       inicial fins a la final. Es pot cridar des de diversos fils alhora.
+     * @param numero Número de la partida, del qual depèn la seva llavor.
+     * @param oient Rep les posicions de la partida (pot ser null).
+     * @return El resultat de la partida: ESCAC_MAT, REI_OFEGAT, TAULES_INACCIO o TAULES_ESCAC_CONTINU.
+     */
+    public String jugarPartida(long numero, OientPosicions oient) {
+        Random atzar = new Random(_llavor * 0x9E3779B97F4A7C15L + numero);
+        TaulerEscacs t = new TaulerEscacs(_inicial);
+        int torn = 0;
+        int tornsInaccio = 0;
+        int[] tornsEscacs = new int[2];
+        long tirades = 0;
+        String resultat = null;
+        while (resultat == null) {
+            if (oient != null) oient.posicio(t, torn);
+            List<Jugada> jugades = JugadorCPU.jugadesLegals(t, torn);
+            _generacions.incrementAndGet();
+            if (jugades.isEmpty()) { //només pot passar a la posició inicial
+                resultat = REI_OFEGAT;
+                break;
+            }
+
+            Jugada jugada = jugades.get(atzar.nextInt(jugades.size()));
+            boolean captura = false;
+            if (jugada instanceof JugadaOrdinaria) captura = t.aplicarJugadaOrdinaria((JugadaOrdinaria) jugada);
+            else t.aplicarJugadaEnroc((JugadaEnroc) jugada);
+            Posicio posPromo = t.hiHaPromocio();
+            if (posPromo != null) promocionar(t, posPromo, torn, atzar);
+            tirades++;
+
+            //es valora la tirada com Partida::evaluarResultatTirada()
+            tornsInaccio = captura ? 0 : tornsInaccio + 1;
+            if (tornsInaccio >= _regles.limitInaccio()) {
+                resultat = TAULES_INACCIO;
+            } else {
+                switch (t.estatActual(torn)) {
+                    case ESCAC: tornsEscacs[torn]++; break;
+                    case ESCAC_MAT: resultat = ESCAC_MAT; break;
+                    case REI_OFEGAT: resultat = REI_OFEGAT; break;
+                    default: tornsEscacs[torn] = 0;
+                }
+                if (tornsEscacs[0] >= _regles.limitEscacs() || tornsEscacs[1] >= _regles.limitEscacs())
+                    resultat = TAULES_ESCAC_CONTINU;
+            }
+            torn = torn == 0 ? 1 : 0;
+        }
+        if (oient != null && tirades > 0) oient.posicio(t, torn);
+        _tirades.addAndGet(tirades);
+        _partides.incrementAndGet();
+        return resultat;
+    }
+
+    /**
+     * @brief Promociona a l'atzar una peça.
+     * @post La peça de \p pos s'ha promocionat a un tipus de peça qualsevol que no sigui el rei, potser el seu.
+     */
+    private void promocionar(TaulerEscacs t, Posicio pos, int torn, Random atzar) {
+        List<PieceType> tipus = new ArrayList<>();
+        for (PieceType tipusPeca : _regles.peces().values())
+            if (!tipusPeca.esRei()) tipus.add(tipusPeca);
+        Peca peca = new Peca(tipus.get(atzar.nextInt(tipus.size())));
+        peca.assignarColor(torn);
+        if (!peca.nom().equals(t.solicitarPeca(pos).nom())) t.efecuarPromocio(peca, pos);
+    }
+
+    /**
+     * @brief Escriptor de les posicions d'un corpus.
+     * @pre \p out és al principi d'un fitxer buit.
+     * @post S'ha escrit la capçalera del corpus a \p out i es retorna un oient que hi escriu les posicions que rep.
+     *       L'oient es pot cridar des de diversos fils alhora, i cal buidar \p out quan s'acabi.
+     * @throws IOException Si no es pot escriure la capçalera.
+     */
+    public OientPosicions escriptorCorpus(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSIO);
+        out.write(_regles.resum().getBytes(StandardCharsets.US_ASCII));
+        out.writeByte(_inicial._fila);
+        out.writeByte(_inicial._columna);
+        return (t, torn) -> {
+            byte[] codis = t.codis();
+            synchronized (out) {
+                try {
+                    out.writeByte(torn);
+                    out.write(codis);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @brief Recórrer les posicions d'un corpus.
+     * @pre \p fitxerRegles són les regles amb què s'ha generat el corpus.
+     * @post S'ha passat a \p oient cada posició del corpus, en l'ordre en què es van escriure.
+     * @param fitxerCorpus Fitxer del corpus.
+     * @param fitxerRegles Fitxer de regles JSON.
+     * @param oient Rep les posicions.
+     * @return El nombre de posicions llegides.
+     * @throws IOException Si no es pot llegir el corpus, no té el format esperat o és d'unes altres regles.
+     */
+    public static long llegirCorpus(String fitxerCorpus, String fitxerRegles, OientPosicions oient) throws IOException {
+        RuleSet regles = RuleSet.obtenir(fitxerRegles);
+        TaulerEscacs t = Loader.carregarRegles(fitxerRegles, true, 0).instantania().copiaTauler();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fitxerCorpus)))) {
+            byte[] resum = new byte[MIDA_RESUM];
+            if (in.readInt() != MAGIC || in.readShort() != VERSIO)
+                throw new IOException("Error: " + fitxerCorpus + " no és un corpus de posicions");
+            in.readFully(resum);
+            if (!new String(resum, StandardCharsets.US_ASCII).equals(regles.resum())
+                    || in.readByte() != t._fila || in.readByte() != t._columna)
+                throw new IOException("Error: el corpus " + fitxerCorpus + " és d'unes altres regles");
+
+            byte[] codis = t.codis();
+            long posicions = 0;
+            int torn;
+            while ((torn = in.read()) != -1) {
+                in.readFully(codis);
+                t.assignarCodis(codis);
+                oient.posicio(t, torn);
+                posicions++;
+            }
+            return posicions;
+        }
+    }
+
+    /**
+     * @brief Generar partides a l'atzar.
+     * @pre \p args conté el fitxer de regles, el nombre de partides i, opcionalment, la llavor, el nombre de fils i
+     *      el fitxer on escriure el corpus de posicions.
+     * @post S'han jugat les partides, s'han escrit a la sortida estàndard els resultats, les partides per segon i
+     *       les generacions de jugades per segon, i s'ha escrit el corpus si s'ha indicat.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Ús: GeneradorPartides <fitxerRegles> <partides> [llavor] [fils] [fitxerCorpus]");
+            return;
+        }
+        final long nPartides = Long.parseLong(args[1]);
+        long llavor = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        int nFils = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        final GeneradorPartides generador = new GeneradorPartides(args[0], llavor);
+        DataOutputStream corpus = args.length > 4 ? new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(args[4]), 1 << 16)) : null;
+        final OientPosicions oient = corpus == null ? null : generador.escriptorCorpus(corpus);
+
+        final Map<String,Long> resultats = new TreeMap<>();
+        final AtomicLong seguent = new AtomicLong();
+        long inici = System.nanoTime();
+        List<Thread> fils = new ArrayList<>();
+        for (int i = 0; i < nFils; i++) {
+            Thread fil = new Thread(() -> {
+                long numero;
+                while ((numero = seguent.getAndIncrement()) < nPartides) {
+                    String resultat = generador.jugarPartida(numero, oient);
+                    synchronized (resultats) {
+                        resultats.merge(resultat, 1L, Long::sum);
+                    }
+                }
+            }, "generador-" + i);
+            fil.start();
+            fils.add(fil);
+        }
+        for (Thread fil : fils) fil.join();
+        if (corpus != null) corpus.close();
+
+        double segons = (System.nanoTime() - inici) / 1e9;
+        for (Map.Entry<String,Long> resultat : resultats.entrySet())
+            System.out.println(resultat.getKey() + ": " + resultat.getValue());
+        System.out.printf("%d partides, %d tirades en %.1f s: %.1f partides/s, %.0f generacions/s%n",
+                generador.partides(), generador.tirades(), segons, generador.partides() / segons,
+                generador.generacions() / segons);
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * @file GeneradorRegles.java
+ * @brief Generador de fitxers de regles a l'atzar per a proves i mesures de rendiment.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * @class GeneradorRegles
+ * @brief Genera fitxers de regles JSON vàlids i inusuals, per provar el motor amb regles diferents de les d'uns
+ *        escacs convencionals (veure GeneradorPartides i ComparadorTaulers).
+ * @details Les regles generades poden tenir taulers de fins a 16x16 i fins a MAX_TIPUS tipus de peça, amb
+ *          moviments de tota la gramàtica de Moviment (literals a, b, n, m i els seus negatius, increments numèrics,
+ *          moviments que només capturen, que salten o que capturen saltant), moviments inicials, diversos enrocs
+ *          amb \c quiets i \c buitAlMig, peces invulnerables i peces que promocionen.
+ *
+ *          Cada fitxer generat es compila amb el Loader i se'n juguen unes quantes tirades a l'atzar des de la
+ *          posició inicial; si alguna cosa falla, o la posició inicial ja és escac, es genera un altre fitxer.
+ *          Amb la mateixa llavor es generen sempre els mateixos fitxers.
+ */
+public class GeneradorRegles {
+    public static final int MAX_TIPUS = 12;         ///< Nombre màxim de tipus de peça, comptant el rei.
+    private static final int TIRADES_PROVA = 12;    ///< Tirades a l'atzar amb què es comprova cada fitxer generat.
+    private static final int MAX_INTENTS = 1000;    ///< Fitxers que es poden descartar abans de donar-se per vençut.
+    private static final String[] IMATGES = {"alfil", "cavall", "dama", "peo", "torre"}; ///< Imatges existents.
+    private static final String[][] RECTILINIS = {{"a", "0"}, {"0", "a"}, {"b", "0"}, {"0", "b"}, {"n", "0"},
+            {"-n", "0"}, {"0", "n"}, {"0", "-n"}, {"m", "0"}, {"0", "-m"}};             ///< Moviments rectilinis literals.
+    private static final String[][] DIAGONALS = {{"a", "a"}, {"a", "-a"}, {"b", "b"}, {"b", "-b"}, {"n", "n"},
+            {"-n", "-n"}, {"n", "-n"}, {"-n", "n"}, {"m", "m"}, {"-m", "-m"}};          ///< Moviments diagonals literals.
+    private static final String[][] COMBINATS = {{"a", "b"}, {"b", "a"}, {"n", "m"}, {"-n", "m"}, {"n", "-m"},
+            {"-n", "-m"}, {"m", "n"}};                                                  ///< Moviments combinats literals.
+
+    private final Random _atzar;    ///< Generador de nombres aleatoris.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @param llavor Llavor del generador.
+     */
+    public GeneradorRegles(long llavor) {
+        _atzar = new Random(llavor);
+    }
+
+    /**
+     * @brief Genera un fitxer de regles.
+     * @post Es retorna el contingut d'un fitxer de regles que el Loader accepta, amb una posició inicial que no és
+     *       escac i des de la qual es poden jugar tirades.
+     * @return El contingut JSON del fitxer.
+     * @throws IllegalStateException Si no s'ha pogut generar cap fitxer vàlid després de MAX_INTENTS intents.
+     */
+    public String generar() {
+        for (int intent = 0; intent < MAX_INTENTS; intent++) {
+            String regles = generarCandidat();
+            if (esValid(regles)) return regles;
+        }
+        throw new IllegalStateException("Error: no s'ha pogut generar cap fitxer de regles vàlid");
+    }
+
+    /**
+     * @brief Genera un fitxer de regles sense comprovar-lo.
+     */
+    private String generarCandidat() {
+        int files = 4 + _atzar.nextInt(13);
+        int columnes = 4 + _atzar.nextInt(13);
+        if (_atzar.nextInt(4) == 0) files = columnes = 16; //els taulers grans són els que més costen
+        int nTipus = 2 + _atzar.nextInt(MAX_TIPUS - 1);
+
+        //tipus de peça: el rei és el primer i el de més valor
+        List<String> noms = new ArrayList<>();
+        noms.add("REI");
+        for (int i = 1; i < nTipus; i++) noms.add("PECA" + i);
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"nFiles\": ").append(files).append(",\n");
+        json.append("  \"nCols\": ").append(columnes).append(",\n");
+        json.append("  \"peces\": [\n");
+        for (int i = 0; i < nTipus; i++) {
+            boolean rei = i == 0;
+            String imatge = rei ? "rei" : IMATGES[_atzar.nextInt(IMATGES.length)];
+            json.append("    {\n");
+            json.append("      \"nom\": \"").append(noms.get(i)).append("\",\n");
+            json.append("      \"simbol\": \"").append(rei ? 'R' : (char) ('A' + i)).append("\",\n");
+            json.append("      \"imatgeBlanca\": \"").append(imatge).append("B.png\",\n");
+            json.append("      \"imatgeNegra\": \"").append(imatge).append("N.png\",\n");
+            json.append("      \"valor\": ").append(rei ? 1000 : 1 + _atzar.nextInt(99)).append(",\n");
+            int nMoviments = rei ? 2 + _atzar.nextInt(6) : 1 + _atzar.nextInt(5);
+            List<Moviment> moviments = moviments(nMoviments, files, columnes, rei);
+            json.append("      \"moviments\": ").append(escriureMoviments(moviments)).append(",\n");
+            List<Moviment> inicials = _atzar.nextInt(3) == 0 ? moviments(1, files, columnes, rei) : new ArrayList<>();
+            json.append("      \"movimentsInicials\": ").append(escriureMoviments(inicials)).append(",\n");
+            json.append("      \"promocio\": ").append(!rei && _atzar.nextInt(3) == 0).append(",\n");
+            json.append("      \"invulnerabilitat\": ").append(!rei && _atzar.nextInt(8) == 0).append("\n");
+            json.append(i + 1 < nTipus ? "    },\n" : "    }\n");
+        }
+        json.append("  ],\n");
+
+        //posició inicial: com a molt la meitat de files menys una, i sempre menys peces que caselles
+        int filesInicials = 1 + _atzar.nextInt(Math.max(1, files / 2 - 1));
+        List<String> ordre = new ArrayList<>();
+        for (int i = 0; i < filesInicials * columnes; i++)
+            ordre.add(_atzar.nextInt(3) == 0 ? "" : noms.get(1 + _atzar.nextInt(nTipus - 1)));
+        ordre.set(_atzar.nextInt(columnes), "REI");
+        json.append("  \"posInicial\": [");
+        for (int i = 0; i < ordre.size(); i++)
+            json.append(i == 0 ? "" : ", ").append('"').append(ordre.get(i)).append('"');
+        json.append("],\n");
+        json.append("  \"limitEscacsSeguits\": ").append(2 + _atzar.nextInt(10)).append(",\n");
+        json.append("  \"limitTornsInaccio\": ").append(2 + _atzar.nextInt(60)).append(",\n");
+
+        //enrocs: alguns amb el rei i alguns entre altres peces, sense repetir parelles
+        json.append("  \"enrocs\": [");
+        Set<String> parelles = new HashSet<>();
+        int nEnrocs = _atzar.nextInt(Math.min(4, nTipus));
+        for (int i = 0; i < nEnrocs; i++) {
+            String a = i == 0 || _atzar.nextBoolean() ? "REI" : noms.get(1 + _atzar.nextInt(nTipus - 1));
+            String b = noms.get(1 + _atzar.nextInt(nTipus - 1));
+            if (a.equals(b) || !parelles.add(a + "-" + b) || !parelles.add(b + "-" + a)) continue;
+            json.append(parelles.size() > 2 ? ",\n" : "\n");
+            json.append("    {\n");
+            json.append("      \"peçaA\": \"").append(a).append("\",\n");
+            json.append("      \"peçaB\": \"").append(b).append("\",\n");
+            json.append("      \"quiets\": ").append(_atzar.nextBoolean()).append(",\n");
+            json.append("      \"buitAlMig\": ").append(_atzar.nextBoolean()).append("\n");
+            json.append("    }");
+        }
+        json.append(parelles.isEmpty() ? "]\n" : "\n  ]\n");
+        return json.append("}\n").toString();
+    }
+
+    /**
+     * @brief Genera moviments que no comparteixen destí entre ells.
+     * @post Es retornen com a molt \p n moviments. Els del rei són d'una sola casella.
+     */
+    private List<Moviment> moviments(int n, int files, int columnes, boolean rei) {
+        List<Moviment> res = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Moviment mov;
+            try {
+                mov = rei ? movimentRei() : moviment(Math.min(files, columnes) - 1);
+            } catch (IllegalArgumentException e) {
+                continue; //combinació que Moviment no accepta
+            }
+            boolean unic = true;
+            for (Moviment altre : res) unic = unic && !mov.comparteixenDesti(altre);
+            if (unic) res.add(mov);
+        }
+        return res;
+    }
+
+    /**
+     * @brief Moviment a l'atzar de qualsevol tipus de la gramàtica de Moviment.
+     * @param maxDespl Desplaçament màxim dels increments numèrics.
+     */
+    private Moviment moviment(int maxDespl) {
+        String[] despl;
+        boolean combinat = false;
+        switch (_atzar.nextInt(6)) {
+            case 0: despl = RECTILINIS[_atzar.nextInt(RECTILINIS.length)]; break;
+            case 1: despl = DIAGONALS[_atzar.nextInt(DIAGONALS.length)]; break;
+            case 2: despl = COMBINATS[_atzar.nextInt(COMBINATS.length)]; combinat = true; break;
+            case 3: { //combinat d'un literal i un increment numèric
+                String literal = new String[]{"a", "b", "n", "-n", "m", "-m"}[_atzar.nextInt(6)];
+                String numero = Integer.toString(numero(maxDespl));
+                despl = _atzar.nextBoolean() ? new String[]{literal, numero} : new String[]{numero, literal};
+                combinat = true;
+                break;
+            }
+            case 4: { //numèric rectilini o diagonal
+                int k = numero(maxDespl);
+                int tipus = _atzar.nextInt(3);
+                despl = tipus == 0 ? new String[]{Integer.toString(k), "0"}
+                        : tipus == 1 ? new String[]{"0", Integer.toString(k)}
+                        : new String[]{Integer.toString(k), Integer.toString(_atzar.nextBoolean() ? k : -k)};
+                break;
+            }
+            default: { //numèric combinat
+                int f = numero(maxDespl);
+                int c = numero(maxDespl);
+                if (Math.abs(f) == Math.abs(c)) c = c > 0 ? c + 1 : c - 1;
+                despl = new String[]{Integer.toString(f), Integer.toString(c)};
+                combinat = true;
+            }
+        }
+        int capturar = new int[]{0, 1, 1, 1, 2}[_atzar.nextInt(5)];
+        int saltar = combinat ? 1 : new int[]{0, 0, 0, 1, 2}[_atzar.nextInt(5)];
+        return new Moviment(despl[0], despl[1], capturar, saltar);
+    }
+
+    /**
+     * @brief Moviment d'una casella a l'atzar.
+     */
+    private Moviment movimentRei() {
+        int f = _atzar.nextInt(3) - 1;
+        int c = f == 0 ? (_atzar.nextBoolean() ? 1 : -1) : _atzar.nextInt(3) - 1;
+        return new Moviment(Integer.toString(f), Integer.toString(c), 1, 0);
+    }
+
+    /**
+     * @brief Enter diferent de 0 entre -\p max i \p max, normalment petit.
+     */
+    private int numero(int max) {
+        int k = 1 + (_atzar.nextInt(4) == 0 ? _atzar.nextInt(max) : _atzar.nextInt(Math.min(3, max)));
+        return _atzar.nextBoolean() ? k : -k;
+    }
+
+    /**
+     * @brief Escriu uns moviments en el format del fitxer de regles.
+     */
+    private static String escriureMoviments(List<Moviment> moviments) {
+        StringBuilder res = new StringBuilder("[");
+        for (int i = 0; i < moviments.size(); i++) {
+            Moviment mov = moviments.get(i);
+            res.append(i == 0 ? "" : ", ").append("[").append(valor(mov.fila())).append(", ")
+                    .append(valor(mov.columna())).append(", ").append(mov.movCaptura()).append(", ")
+                    .append(mov.movSalta()).append("]");
+        }
+        return res.append("]").toString();
+    }
+
+    /**
+     * @brief Increment en el format del fitxer de regles: els numèrics com a nombres i els literals com a cadenas.
+     */
+    private static String valor(String despl) {
+        return despl.matches("^-?\\d+$") ? despl : "\"" + despl + "\"";
+    }
+
+    /**
+     * @brief Comprova un fitxer de regles generat.
+     * @return Cert si el Loader l'accepta, la posició inicial no és escac ni final de partida i es poden jugar
+     *         TIRADES_PROVA tirades a l'atzar sense cap error.
+     */
+    private boolean esValid(String contingut) {
+        try {
+            RuleSet regles = Loader.compilarRegles(contingut, "");
+            TaulerEscacs t = new TaulerEscacs(regles.files(), regles.columnes(), regles.peces().values(), regles.resum());
+            Partida p = new Partida(t, regles.peces(), regles.limitEscacs(), regles.limitInaccio(), "", "", 0);
+            p.inicialitzarPeces(regles.ordrePeces());
+            t = p.instantania().copiaTauler();
+            if (t.estatActual(0) != TaulerEscacs.resTauler.NO_EFECTE
+                    || t.estatActual(1) != TaulerEscacs.resTauler.NO_EFECTE) return false;
+            int torn = 0;
+            for (int i = 0; i < TIRADES_PROVA; i++) {
+                List<Jugada> jugades = JugadorCPU.jugadesLegals(t, torn);
+                if (jugades.isEmpty()) return i > 0;
+                Jugada jugada = jugades.get(_atzar.nextInt(jugades.size()));
+                if (jugada instanceof JugadaOrdinaria) t.aplicarJugadaOrdinaria((JugadaOrdinaria) jugada);
+                else t.aplicarJugadaEnroc((JugadaEnroc) jugada);
+                t.hiHaPromocio();
+                t.estatActual(torn);
+                torn = torn == 0 ? 1 : 0;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @brief Generar fitxers de regles a l'atzar.
+     * @pre \p args conté el directori on escriure els fitxers, el nombre de fitxers i, opcionalment, la llavor.
+     * @post S'han escrit els fitxers "regles_<i>.json", codificats en UTF-8, al directori indicat.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Ús: GeneradorRegles <directori> <fitxers> [llavor]");
+            return;
+        }
+        File directori = new File(args[0]);
+        if (!directori.isDirectory() && !directori.mkdirs())
+            throw new IOException("Error: no es pot crear el directori " + directori);
+        int nFitxers = Integer.parseInt(args[1]);
+        GeneradorRegles generador = new GeneradorRegles(args.length > 2 ? Long.parseLong(args[2]) : 0);
+        for (int i = 0; i < nFitxers; i++) {
+            File fitxer = new File(directori, String.format("regles_%03d.json", i));
+            Files.write(fitxer.toPath(), generador.generar().getBytes(StandardCharsets.UTF_8));
+            System.out.println(fitxer.getPath());
+        }
+    }
+}
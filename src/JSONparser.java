@@ -39,7 +39,15 @@ public class JSONparser {
      */
     public Map<String,Object> parse(String path) throws IOException, IllegalArgumentException {
         if(!path.matches(".+\\.json")) throw new IllegalArgumentException("El fitxer no és un JSON");
-        String data = new String(Files.readAllBytes(Paths.get(path)));
+        return parseText(new String(Files.readAllBytes(Paths.get(path))));
+    }
+
+    /**
+     * @brief Analitza un text en format JSON i retorna les dades en un mapa.
+     * @param data Contingut en format JSON.
+     * @return Un mapa amb totes les dades del JSON estructurades segons String, Object.
+     */
+    public Map<String,Object> parseText(String data) {
         Object x;
         try { x = _parser.eval("Java.asJSONCompatible(" + data + ")"); }
         catch (ScriptException e) { throw new RuntimeException("Error: No s'ha pogut interpretar el JSON"); }
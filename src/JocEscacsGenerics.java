@@ -10,8 +10,10 @@ import javafx.application.Application;
  */
 public class JocEscacsGenerics {
     /**
-     @pre \p args és -t o -g.
-     @post Executa un joc de d'escacs genèric; amb l'opció -t s'executa en mode text i amb l'opció -g en mode gràfic.
+     @pre \p args és -t, -g, -s seguit opcionalment del port o -u seguit opcionalment del fitxer de regles.
+     @post Executa un joc de d'escacs genèric; amb l'opció -t s'executa en mode text, amb l'opció -g en mode gràfic,
+           amb l'opció -s com a servidor de partides (veure ServidorPartides) i amb l'opció -u com a motor amb un
+           protocol semblant a UCI (veure MotorUCI).
      */
     public static void main(String[] args) {
         boolean mostrarAjuda = false;
@@ -22,8 +24,14 @@ public class JocEscacsGenerics {
                 else if(args[0].equals("-g")) {
                     Application.launch(EscacsGrafic.class,args);
                 }
+                else if(args[0].equals("-s")) ServidorPartides.main(new String[0]);
+                else if(args[0].equals("-u")) MotorUCI.main(new String[0]);
                 else mostrarAjuda = true;
             }
+            else if(args.length == 2 && args[0].equals("-s"))
+                ServidorPartides.main(new String[]{args[1]});
+            else if(args.length == 2 && args[0].equals("-u"))
+                MotorUCI.main(new String[]{args[1]});
             else mostrarAjuda = true;
         }
         catch (Exception e) {
@@ -34,6 +42,8 @@ public class JocEscacsGenerics {
         if(mostrarAjuda)
             System.out.println("\nUtilització: \n" +
                     "\t\tMode gràfic\t->\tjava -jar JocEscacsGenerics -g\n" +
-                    "\t\tMode text\t->\tjava -jar JocEscacsGenerics -t\n");
+                    "\t\tMode text\t->\tjava -jar JocEscacsGenerics -t\n" +
+                    "\t\tServidor\t->\tjava -jar JocEscacsGenerics -s [port]\n" +
+                    "\t\tMotor UCI\t->\tjava -jar JocEscacsGenerics -u [regles]\n");
     }
 }
@@ -83,6 +83,16 @@ public class JugadaEnroc implements Jugada{
         _posPecaFSegona = pos;
     }
 
+    /**@brief Retorna la posició final de la primera peça un cop fet l'enroc, o null si encara no s'ha fet**/
+    public Posicio posicioFinalPrimera(){
+        return _posPecaFPrimera;
+    }
+
+    /**@brief Retorna la posició final de la segona peça un cop fet l'enroc, o null si encara no s'ha fet**/
+    public Posicio posicioFinalSegona(){
+        return _posPecaFSegona;
+    }
+
     /**@brief Retorna un \c String que representa aquesta jugada**/
     @Override
     public String toString() {
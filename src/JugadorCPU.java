@@ -12,6 +12,102 @@ import java.util.*;
 
 public abstract class JugadorCPU{
     private final static int maxProf = 2; ///< Enter que indica la profunditat màxima a la que s'explora l'arbre de joc.
+    public final static int MAX_PROFUNDITAT = 64; ///< Profunditat màxima d'una cerca sense límit de profunditat.
+    private final static int SENSE_VALOR = Integer.MIN_VALUE; ///< Valor que indica que les taules de finals no coneixen una posició.
+    private final static long CLAU_NEGRES = 0x5A3C96E1D2B4F078L; ///< Es combina amb la clau de transposició quan el jugadorCPU és el negre.
+    private final static int VALOR_MAT = Integer.MAX_VALUE/2; ///< Valor d'un escac i mat a favor del jugadorCPU sense cap tirada.
+    private final static int MARGE_MAT = 1 << 16; ///< Tirades fins a l'escac i mat més llargues que es poden distingir en un valor.
+    private final static int VALOR_ESCAC = VALOR_MAT - (1 << 20); ///< Valor d'un escac a favor del jugadorCPU, sense el material.
+
+    /** @class  LimitsCerca
+        @brief  Límits d'una cerca iniciada amb cercar(). Un límit igual a 0 vol dir que no hi ha límit.
+        @details La cerca es pot aturar des d'un altre fil amb aturar(). La primera profunditat sempre es completa,
+                 perquè la cerca pugui retornar alguna jugada.
+     */
+    public static class LimitsCerca {
+        private final int _profunditat;     ///< Profunditat màxima.
+        private final long _nodes;          ///< Nombre màxim de nodes explorats.
+        private final long _temps;          ///< Temps màxim en mil·lisegons.
+        private volatile boolean _aturada;  ///< Si s'ha demanat aturar la cerca.
+
+        /** @brief  Constructor amb paràmetres.
+            @pre    \p profunditat >= 0, \p nodes >= 0 i \p temps >= 0.
+            @param  profunditat és la profunditat màxima (0 sense límit).
+            @param  nodes és el nombre màxim de nodes explorats (0 sense límit).
+            @param  temps és el temps màxim en mil·lisegons (0 sense límit).
+            @post   Es creen uns límits de cerca amb els valors indicats.
+         */
+        public LimitsCerca(int profunditat, long nodes, long temps) {
+            _profunditat = profunditat;
+            _nodes = nodes;
+            _temps = temps;
+        }
+
+        /** @brief  Demana aturar la cerca.
+            @post   La cerca acaba tan aviat com pot i retorna la millor jugada de la darrera profunditat completada.
+         */
+        public void aturar() {
+            _aturada = true;
+        }
+    }
+
+    /** @interface OientCerca
+        @brief  Rep informació del progrés d'una cerca iniciada amb cercar().
+     */
+    public interface OientCerca {
+        /** @brief  S'ha completat una profunditat de la cerca.
+            @param  profunditat és la profunditat completada.
+            @param  puntuacio és el valor heurístic de la millor jugada per al jugador que cerca.
+            @param  nodes és el nombre de nodes explorats des de l'inici de la cerca.
+            @param  temps és el temps transcorregut des de l'inici de la cerca, en mil·lisegons.
+            @param  millor és la millor jugada trobada.
+         */
+        void informar(int profunditat, int puntuacio, long nodes, long temps, Jugada millor);
+    }
+
+    /** @class  Cerca
+        @brief  Estat d'una cerca: profunditat màxima de la iteració actual, nodes explorats i límits.
+     */
+    private static class Cerca {
+        private final LimitsCerca _limits;  ///< Límits de la cerca, null si no en té.
+        private final long _inici;          ///< Instant d'inici de la cerca (ns).
+        private int _profMax;               ///< Profunditat màxima de la iteració actual.
+        private long _nodes;                ///< Nodes explorats.
+        private boolean _interrompible;     ///< Si la cerca es pot aturar en aquest moment.
+
+        Cerca(int profMax, LimitsCerca limits) {
+            _profMax = profMax;
+            _limits = limits;
+            _inici = System.nanoTime();
+        }
+
+        /** @brief  Temps transcorregut des de l'inici, en mil·lisegons. */
+        long temps() {
+            return (System.nanoTime() - _inici) / 1000000;
+        }
+
+        /** @brief  Compta un node nou.
+            @post   S'ha incrementat el nombre de nodes.
+            @throws CercaAturada Si la cerca és interrompible i s'ha superat algun dels límits o s'ha demanat aturar.
+         */
+        void comptarNode() {
+            _nodes++;
+            if (_interrompible && (_limits._aturada || (_limits._nodes > 0 && _nodes > _limits._nodes)
+                    || (_limits._temps > 0 && (_nodes & 1023) == 0 && temps() >= _limits._temps)))
+                throw new CercaAturada();
+        }
+    }
+
+    /** @class  CercaAturada
+        @brief  Excepció que interromp una cerca quan s'arriba a un dels seus límits.
+     */
+    private static class CercaAturada extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CercaAturada() {
+            super(null, null, false, false);
+        }
+    }
 
     /** @brief  Es retorna la jugada del jugadorCPU.
         @pre    \p t no pot ser buit.
@@ -23,6 +119,73 @@ public abstract class JugadorCPU{
         return millorJugada(t, jugador);
     }
 
+    /** @brief  Avalua per endavant les jugades del jugadorCPU, de manera que es pugui aturar.
+        @pre    \p t no pot ser buit i el jugador \p jugador té alguna jugada. \p limits != null.
+        @param  t és el tauler sobre el qual jugarà el jugadorCPU.
+        @param  jugador és el color del jugadorCPU: 1 si és el negre i 0 si és el blanc.
+        @param  limits permet aturar la cerca (LimitsCerca::aturar()) o limitar-ne els nodes i el temps.
+        @post   Es retornen les jugades entre les quals demanarJugada() escolliria a l'atzar (veure escollirJugada()),
+                o null si la cerca s'ha aturat abans d'acabar.
+     */
+    public static List<Jugada> preveureJugades(TaulerEscacs t, int jugador, LimitsCerca limits){
+        return millorsJugades(t, jugador, maxProf, limits);
+    }
+
+    /** @brief  Prediu la jugada que farà un jugador amb una cerca d'un sol nivell.
+        @pre    \p t no pot ser buit i el jugador \p jugador té alguna jugada. \p limits != null.
+        @param  t és el tauler on ha de jugar \p jugador.
+        @param  jugador és el color del jugador: 1 si és el negre i 0 si és el blanc.
+        @param  limits permet aturar la cerca.
+        @post   Es retorna la primera de les jugades que deixen \p jugador en millor posició immediata, o null si la
+                cerca s'ha aturat abans d'acabar.
+     */
+    public static Jugada predirJugada(TaulerEscacs t, int jugador, LimitsCerca limits){
+        List<Jugada> millors = millorsJugades(t, jugador, 1, limits);
+        return millors == null ? null : millors.get(0);
+    }
+
+    /** @brief  Escull una de les millors jugades.
+        @pre    \p millors no és buida.
+        @post   Es retorna una jugada de \p millors escollida a l'atzar.
+     */
+    public static Jugada escollirJugada(List<Jugada> millors){
+        return millors.get(new Random().nextInt(millors.size()));
+    }
+
+    /** @brief  Cerca la millor jugada amb profunditat iterativa fins arribar a algun dels límits.
+        @pre    \p t no pot ser buit.
+        @param  t és el tauler d'escacs sobre el que s'està disputant la partida.
+        @param  jugador és el color del jugadorCPU: 1 si és el negre i 0 si és el blanc.
+        @param  limits són els límits de profunditat, nodes i temps de la cerca.
+        @param  oient rep la informació de cada profunditat completada (pot ser null).
+        @post   S'ha explorat l'arbre de joc a profunditats creixents, començant cada iteració per la millor jugada
+                de l'anterior, fins que s'ha arribat a algun dels límits o a MAX_PROFUNDITAT. Es retorna la millor
+                jugada de la darrera profunditat completada, o null si el jugador \p jugador no té cap jugada.
+     */
+    public static Jugada cercar(TaulerEscacs t, int jugador, LimitsCerca limits, OientCerca oient){
+        Cerca cerca = new Cerca(1, limits);
+        int profMax = limits._profunditat > 0 ? Math.min(limits._profunditat, MAX_PROFUNDITAT) : MAX_PROFUNDITAT;
+        List<Jugada> jugades = jugadesLegals(t, jugador);
+        Jugada millor = null;
+        for (int prof = 1; prof <= profMax; prof++) {
+            cerca._profMax = prof;
+            cerca._interrompible = millor != null;
+            List<Jugada> millors = new ArrayList<>();
+            int valor;
+            try {
+                valor = avaluarJugades(t, jugades, cerca, jugador, millors);
+            } catch (CercaAturada e) {
+                break;
+            }
+            if (millors.isEmpty()) return null; //no hi ha cap jugada possible
+            millor = millors.get(0);
+            jugades.remove(millor);
+            jugades.add(0, millor);
+            if (oient != null) oient.informar(prof, valor, cerca._nodes, cerca.temps(), millor);
+        }
+        return millor;
+    }
+
     /** @brief  Indica si el JugadorCPU accepta o no les taules del contrincant.
         @pre    El jugador contrari ha sol·licitat taules. <br>
                 El \c TaulerEscacs \p t no pot ser buit.
@@ -32,7 +195,7 @@ public abstract class JugadorCPU{
                 el jugadorCPU desitja acceptar les taules, \a ACCEPTAR_TAULES, o, pel contrari, prefereix denegar-les, \a DENEGAR_TAULES.
      */
     public static Partida.TiradaEspecial decidirTaules(TaulerEscacs t, int jugador){
-        int valor = minimax(t, 0, false, Integer.MIN_VALUE, Integer.MAX_VALUE, jugador); //la última jugada ha estat del jugadorCPU per tant cal minimitzar.
+        int valor = minimax(t, 0, false, Integer.MIN_VALUE, Integer.MAX_VALUE, jugador, new Cerca(maxProf, null)); //la última jugada ha estat del jugadorCPU per tant cal minimitzar.
         if(valor<0) return Partida.TiradaEspecial.ACCEPTAR_TAULES;
         else return Partida.TiradaEspecial.DENEGAR_TAULES;
     }
@@ -57,7 +220,7 @@ public abstract class JugadorCPU{
         for(Peca p : llPecesDisponibles) { //per cada peça per a la que es pot promocionar
             TaulerEscacs nouTauler = new TaulerEscacs(t); //es fa una copia del tauler actual.
             nouTauler.efecuarPromocio(p, pos); //s'efectua la promoció
-            int puntuacio = minimax(nouTauler, 1, false, Integer.MIN_VALUE, Integer.MAX_VALUE, jugador); //es simulen les jugades de l'adversari i s'obté el valor del tauler que millor minimitza les pèrdues.
+            int puntuacio = minimax(nouTauler, 1, false, Integer.MIN_VALUE, Integer.MAX_VALUE, jugador, new Cerca(maxProf, null)); //es simulen les jugades de l'adversari i s'obté el valor del tauler que millor minimitza les pèrdues.
             if (maxim < puntuacio) { //ens quedem amb la peça que ens dona un valor més gros
                 maxim = puntuacio;
                 promociona = p;
@@ -76,56 +239,183 @@ public abstract class JugadorCPU{
                 del jugadorCPU, considerant que el jugador contrari sempre escollirà el pitjor cas pel jugadorCPU.
      */
     private static Jugada millorJugada(TaulerEscacs t, int jugador) {
-        int millorValor = Integer.MIN_VALUE;
+        return escollirJugada(millorsJugades(t, jugador, maxProf, null));
+    }
+
+    /** @brief  Retorna totes les jugades que empaten amb el millor valor a una profunditat donada.
+        @pre    El \c TaulerEscacs \p t no pot ser buit, \p jugador té alguna jugada i \p profunditat >= 1.
+        @param  t és el tauler d'escacs sobre el que s'està disputant la partida.
+        @param  jugador és el color del jugador: 1 si és el negre i 0 si és el blanc.
+        @param  profunditat és la profunditat màxima de l'exploració.
+        @param  limits són els límits de la cerca; si és null la cerca no es pot aturar.
+        @post   Es retornen les jugades amb el millor valor, en l'ordre de jugadesLegals(), o null si la cerca s'ha
+                aturat abans d'acabar. Si les taules de finals coneixen la posició i totes les posicions a què porten
+                les jugades, no es fa cap cerca (veure jugadesTaules()).
+     */
+    private static List<Jugada> millorsJugades(TaulerEscacs t, int jugador, int profunditat, LimitsCerca limits) {
+        List<Jugada> jugadesTaules = jugadesTaules(t, jugador);
+        if (jugadesTaules != null) return jugadesTaules;
+
+        Cerca cerca = new Cerca(profunditat, limits);
+        cerca._interrompible = limits != null;
         List<Jugada> jugades = new ArrayList<>();
-        Jugada jugada = null;
-        for (int i = 1; i <= t._fila; i++) {
-            for (int j = 1; j <= t._columna; j++) {
-                Posicio posPeca = new Posicio(j, t._fila + 1 - i);
-                Peca peca = t.solicitarPeca(posPeca);
-                if (peca != null && peca.color() == jugador) {
-                    for (Posicio desti : t.solicitarDestinsPeca(posPeca)) {
-                        JugadaOrdinaria jugadaOrd = new JugadaOrdinaria(posPeca, desti);
-                        if (t.esPotFerJugadaOrdinaria(jugadaOrd, jugador)) {
-                            TaulerEscacs nouTauler = new TaulerEscacs(t);
-                            nouTauler.aplicarJugadaOrdinaria(jugadaOrd);
-                            int valor = minimax(nouTauler, 1, false, Integer.MIN_VALUE, Integer.MAX_VALUE, jugador);
-                            if (valor > millorValor) {
-                                millorValor = valor;
-                                jugades.clear();
-                                jugades.add(jugadaOrd);
-                            }else if(valor == millorValor){
-                                jugades.add(jugadaOrd);
-                            }
-                        }
-                    }
-                    for (Posicio posEnroc : t.solicitarCompanyesEnroc(posPeca)) {
-                        JugadaEnroc jugadaEnr = new JugadaEnroc(posPeca, posEnroc);
-                        if (t.esPotFerJugadaEnroc(jugadaEnr, jugador)) {
-                            TaulerEscacs nouTauler = new TaulerEscacs(t);
-                            nouTauler.aplicarJugadaEnroc(jugadaEnr);
-                            int valor = minimax(nouTauler, 1, false, Integer.MIN_VALUE, Integer.MAX_VALUE, jugador);
-                            if (valor > millorValor) {
-                                millorValor = valor;
-                                jugades.clear();
-                                jugades.add(jugadaEnr);
-                            }else if(valor == millorValor){
-                            jugades.add(jugadaEnr);
-                            }
-                        }
-                    }
-                }
+        try {
+            avaluarJugades(t, jugadesLegals(t, jugador), cerca, jugador, jugades);
+        } catch (CercaAturada e) {
+            return null;
+        }
+        return jugades;
+    }
+
+    /** @brief  Retorna totes les jugades que pot efectuar un jugador.
+        @pre    El \c TaulerEscacs \p t no pot ser buit.
+        @param  t és el tauler d'escacs sobre el que s'està disputant la partida.
+        @param  jugador és el color del jugador: 1 si és el negre i 0 si és el blanc.
+        @post   Es retorna una llista amb les jugades ordinàries i els enrocs que pot efectuar \p jugador, recorrent
+                el tauler de dalt a baix i d'esquerra a dreta.
+     */
+    static List<Jugada> jugadesLegals(TaulerEscacs t, int jugador) {
+        List<Jugada> jugades = new ArrayList<>();
+        for (int jugada : t.jugadesLegals(jugador))
+            jugades.add(CodiJugada.jugada(jugada));
+        return jugades;
+    }
+
+    /** @brief  Retorna les millors jugades segons les taules de finals.
+        @pre    El \c TaulerEscacs \p t no pot ser buit i el jugador \p jugador té el torn.
+        @param  t és el tauler d'escacs sobre el que s'està disputant la partida.
+        @param  jugador és el color del jugador: 1 si és el negre i 0 si és el blanc.
+        @post   Si les taules de finals de \p t coneixen la posició i la de després de cada jugada, es retornen les
+                jugades que porten més ràpid a l'escac i mat (o el retarden més, si es perd) o que mantenen les taules,
+                en l'ordre de jugadesLegals(). Altrament es retorna null.
+     */
+    private static List<Jugada> jugadesTaules(TaulerEscacs t, int jugador) {
+        if (t.taulesFinals() == null || valorTaules(t, 0, jugador, jugador) == SENSE_VALOR) return null;
+        int contrincant = (jugador == 0) ? 1 : 0;
+        int millorValor = Integer.MIN_VALUE;
+        List<Jugada> millors = new ArrayList<>();
+        for (Jugada jugada : jugadesLegals(t, jugador)) {
+            TaulerEscacs nouTauler = new TaulerEscacs(t);
+            if (jugada instanceof JugadaOrdinaria) nouTauler.aplicarJugadaOrdinaria((JugadaOrdinaria) jugada);
+            else nouTauler.aplicarJugadaEnroc((JugadaEnroc) jugada);
+            if (nouTauler.hiHaPromocio() != null) return null; //la promoció surt de les taules
+            int valor = valorTaules(nouTauler, 1, contrincant, jugador);
+            if (valor == SENSE_VALOR) return null;
+            if (valor > millorValor) {
+                millorValor = valor;
+                millors.clear();
+                millors.add(jugada);
+            } else if (valor == millorValor) {
+                millors.add(jugada);
+            }
+        }
+        return millors.isEmpty() ? null : millors;
+    }
+
+    /** @brief  Retorna el valor d'un tauler segons les taules de finals.
+        @pre    \p t != null, \p profunditat >= 0 i \p torn és el jugador que té el torn a \p t.
+        @param  t és el tauler que es vol puntuar.
+        @param  profunditat és el nombre de tirades des de l'arrel de la cerca fins a \p t.
+        @param  torn és el jugador que té el torn: 1 si és el negre i 0 si és el blanc.
+        @param  jugador és el color del jugadorCPU -1 si és el negre i 0 si és el blanc-.
+        @post   Si les taules de finals de \p t coneixen la posició, es retorna 0 si són taules, o un valor proper al
+                d'un escac i mat a favor o en contra de \p jugador que compta les tirades fins a l'escac i mat des de
+                l'arrel (veure valorMat()). Altrament es retorna SENSE_VALOR.
+     */
+    private static int valorTaules(TaulerEscacs t, int profunditat, int torn, int jugador) {
+        TaulesFinals taules = t.taulesFinals();
+        if (taules == null) return SENSE_VALOR;
+        int valor = taules.consultar(t, torn);
+        if (valor == TaulesFinals.DESCONEGUT) return SENSE_VALOR;
+        if (valor == TaulesFinals.TAULES) return 0;
+        int distancia = profunditat + TaulesFinals.distancia(valor);
+        if (TaulesFinals.guanya(valor) == (torn == jugador)) return valorMat(distancia);
+        else return -valorMat(distancia);
+    }
+
+    /** @brief  Retorna el valor d'un escac i mat a favor del jugadorCPU.
+        @pre    0 <= \p tirades < MARGE_MAT
+        @param  tirades és el nombre de tirades des de l'arrel de la cerca fins a l'escac i mat.
+        @post   Es retorna un valor més gran que el de qualsevol tauler sense escac i mat, i més gran com més curt és
+                el camí fins a l'escac i mat. El valor d'un escac i mat en contra és el mateix canviat de signe.
+     */
+    private static int valorMat(int tirades) {
+        return VALOR_MAT - tirades;
+    }
+
+    /** @brief  Indica si un valor és el d'un escac i mat a favor o en contra del jugadorCPU.
+        @param  valor és un valor retornat per la cerca.
+        @post   Es retorna cert si \p valor és un dels valors de valorMat(), positiu o negatiu.
+     */
+    public static boolean esMat(int valor) {
+        return (valor > VALOR_MAT - MARGE_MAT && valor <= VALOR_MAT) || (valor < -(VALOR_MAT - MARGE_MAT) && valor >= -VALOR_MAT);
+    }
+
+    /** @brief  Retorna les tirades fins a l'escac i mat d'un valor.
+        @pre    esMat(\p valor)
+        @param  valor és un valor retornat per la cerca.
+        @post   Es retorna el nombre de tirades des de l'arrel de la cerca fins a l'escac i mat.
+     */
+    public static int tiradesMat(int valor) {
+        return VALOR_MAT - Math.abs(valor);
+    }
+
+    /** @brief  Retorna el valor d'una posició tal com es guarda a la taula de transposició.
+        @pre    \p profunditat >= 0
+        @param  valor és el valor de la posició des de l'arrel de la cerca.
+        @param  profunditat és el nombre de tirades des de l'arrel fins a la posició.
+        @post   Si \p valor és d'un escac i mat, es retorna comptant les tirades des de la posició i no des de l'arrel,
+                perquè sigui vàlid sigui quina sigui la profunditat on es torni a trobar la posició.
+     */
+    private static int valorATaula(int valor, int profunditat) {
+        if (!esMat(valor)) return valor;
+        return valor > 0 ? valor + profunditat : valor - profunditat;
+    }
+
+    /** @brief  Retorna el valor d'una posició guardat a la taula de transposició.
+        @pre    \p profunditat >= 0
+        @param  valor és el valor guardat amb valorATaula().
+        @param  profunditat és el nombre de tirades des de l'arrel fins a la posició.
+        @post   Es retorna \p valor comptant les tirades fins a l'escac i mat des de l'arrel.
+     */
+    private static int valorDeTaula(int valor, int profunditat) {
+        if (!esMat(valor)) return valor;
+        return valor > 0 ? valor - profunditat : valor + profunditat;
+    }
+
+    /** @brief  Avalua unes jugades i es queda amb les millors.
+        @pre    El \c TaulerEscacs \p t no pot ser buit i les jugades de \p jugades són de \p jugador.
+        @param  t és el tauler d'escacs sobre el que s'està disputant la partida.
+        @param  jugades són les jugades que es volen avaluar.
+        @param  cerca és l'estat de la cerca.
+        @param  jugador és el color del jugadorCPU: 1 si és el negre i 0 si és el blanc.
+        @param  millors és la llista on s'afegeixen les jugades amb el millor valor, en l'ordre de \p jugades.
+        @post   S'ha avaluat cada jugada de \p jugades amb minimax, considerant que el jugador contrari sempre
+                escollirà el pitjor cas pel jugadorCPU, i es retorna el millor valor.
+        @throws CercaAturada Si la cerca s'ha aturat abans d'avaluar totes les jugades.
+     */
+    private static int avaluarJugades(TaulerEscacs t, List<Jugada> jugades, Cerca cerca, int jugador,
+                                      List<Jugada> millors) {
+        int millorValor = Integer.MIN_VALUE;
+        for (Jugada jugada : jugades) {
+            TaulerEscacs nouTauler = new TaulerEscacs(t);
+            if (jugada instanceof JugadaOrdinaria) nouTauler.aplicarJugadaOrdinaria((JugadaOrdinaria) jugada);
+            else nouTauler.aplicarJugadaEnroc((JugadaEnroc) jugada);
+            int valor = minimax(nouTauler, 1, false, Integer.MIN_VALUE, Integer.MAX_VALUE, jugador, cerca);
+            if (valor > millorValor) {
+                millorValor = valor;
+                millors.clear();
+                millors.add(jugada);
+            } else if (valor == millorValor) {
+                millors.add(jugada);
             }
         }
-        Random r = new Random();
-        int numRandom = r.nextInt(jugades.size());
-        jugada = jugades.get(numRandom);
-        return jugada;
+        return millorValor;
     }
 
 
     /** @brief  Retorna l'heurístic del tauler que minimitza la pèrdua màxima esperada per al jugadorCPU.
-        @pre    \p profunditat >= 0 i \p profunditat <= 2.
+        @pre    \p profunditat >= 0 i \p profunditat <= la profunditat màxima de \p cerca.
                 \p t != null.
         @param  t és el tauler que es prén com a referència per aplicar les diferents jugades del nivell.
         @param  profunditat és la profunditat a la que s'ha arribat en l'exploració de l'arbre de joc.
@@ -133,86 +423,110 @@ public abstract class JugadorCPU{
         @param  alpha és el valor de l'heurístic del millor tauler fins el moment quan es maximitza.
         @param  beta és el valor de l'heurístic del millor tauler fins el moment quan es minimitza.
         @param  jugador és el color del jugadorCPU -1 si és el negre i 0 si és el blanc-.
+        @param  cerca és l'estat de la cerca, amb la profunditat màxima i el nombre de nodes explorats.
         @post   S'ha aplicat l'algoritme minimax amb poda alpha-beta que retorna el valor del tauler que millor minimitza les pèrdues i maximitza els guanys pel jugadorCPU.
                 A l'hora de crear l'arbre de joc no es tenen en compte les promocions, és a dir, no s'efectuen tot i haver-hi la possibilitat.
+                Les posicions que coneixen les taules de finals no s'exploren i es valoren amb valorTaules(). Si hi ha
+                taula de transposició (veure TaulaTransposicio::global()), s'hi guarda el valor de cada posició explorada
+                i no es tornen a explorar les que ja hi són amb prou profunditat.
      */
-    private static int minimax(TaulerEscacs t, int profunditat, Boolean maximitzant, int alpha, int beta, int jugador){
-        if (profunditat == maxProf || t.fiJoc()) { //cas base: maxim profunditat o s'ha acabat el joc
-            return evaluarTauler(t, jugador);
+    private static int minimax(TaulerEscacs t, int profunditat, Boolean maximitzant, int alpha, int beta, int jugador,
+                               Cerca cerca){
+        cerca.comptarNode();
+        int jugadorTorn = maximitzant ? jugador : (jugador == 0 ? 1 : 0);
+        int valorTaules = valorTaules(t, profunditat, jugadorTorn, jugador);
+        if (valorTaules != SENSE_VALOR) return valorTaules; //la posició és a les taules de finals
+
+        //es consulta la taula de transposició: els valors són per al jugadorCPU i depenen de la profunditat restant
+        TaulaTransposicio taula = TaulaTransposicio.global();
+        int restant = cerca._profMax - profunditat;
+        long clau = 0;
+        if (taula != null) {
+            clau = t.clauTransposicio(jugadorTorn) ^ (jugador == 0 ? 0 : CLAU_NEGRES);
+            long dades = taula.consultar(clau);
+            if (dades != 0 && TaulaTransposicio.profunditat(dades) >= restant) {
+                int valor = valorDeTaula(TaulaTransposicio.valor(dades), profunditat);
+                int tipus = TaulaTransposicio.tipus(dades);
+                if (tipus == TaulaTransposicio.EXACTE || (tipus == TaulaTransposicio.INFERIOR && valor >= beta)
+                        || (tipus == TaulaTransposicio.SUPERIOR && valor <= alpha))
+                    return valor;
+            }
+        }
+
+        if (profunditat == cerca._profMax || t.fiJoc()) { //cas base: maxim profunditat o s'ha acabat el joc
+            int valor = evaluarTauler(t, profunditat, jugador);
+            if (taula != null) taula.guardar(clau, restant, valorATaula(valor, profunditat), TaulaTransposicio.EXACTE);
+            return valor;
         }
 
+        int valor = explorar(t, profunditat, maximitzant, alpha, beta, jugador, cerca);
+        if (taula != null) { //fora de la finestra només se sap que el valor és un límit
+            if (valor <= alpha) taula.guardar(clau, restant, valorATaula(alpha, profunditat), TaulaTransposicio.SUPERIOR);
+            else if (valor >= beta) taula.guardar(clau, restant, valorATaula(beta, profunditat), TaulaTransposicio.INFERIOR);
+            else taula.guardar(clau, restant, valorATaula(valor, profunditat), TaulaTransposicio.EXACTE);
+        }
+        return valor;
+    }
+
+    /** @brief  Explora les jugades d'un tauler que no és una fulla de l'arbre de joc.
+        @pre    Els de minimax() i \p profunditat < la profunditat màxima de \p cerca.
+        @post   Es retorna el valor de minimax() aplicant cada jugada del jugador que té el torn.
+     */
+    private static int explorar(TaulerEscacs t, int profunditat, Boolean maximitzant, int alpha, int beta, int jugador,
+                                Cerca cerca){
+        int jugadorTorn = maximitzant ? jugador : (jugador == 0 ? 1 : 0); //color del jugador que té el torn
+        int[] jugades = t.jugadesLegals(jugadorTorn); //codis de les jugades, agrupades per peça (veure CodiJugada)
         if(maximitzant){ //es vol maximitzar
             int millorValor = Integer.MIN_VALUE;
-            for(int i=1; i<=t._fila; i++) {
-                for (int j = 1; j <= t._columna; j++) { //es recorre el tauler
-                    Posicio origen = new Posicio(j, t._fila + 1 - i);
-                    Peca peca = t.solicitarPeca(origen); //obtenim la peca d'aquella posició
-                    if (peca != null && peca.color() == jugador) { //si hi ha una peça i aquesta és la del jugadorCPU
-                        //obtenim els destins possibles de la peça
-                        for (Posicio desti : t.solicitarDestinsPeca(origen)) { //per cada desti possible...
-                            JugadaOrdinaria jugadaOrd = new JugadaOrdinaria(origen, desti); //es crea la JugadaOrdinaria
-                            TaulerEscacs nouTauler = new TaulerEscacs(t); //es fa una còpia del tauler
-                            nouTauler.aplicarJugadaOrdinaria(jugadaOrd); //s'aplica la jugada sobre el nou tauler.
-                            int score = minimax(nouTauler, profunditat + 1, false, alpha, beta, jugador); //crida recursiva
-                            millorValor = Math.max(millorValor, score);
-                            alpha = Math.max(alpha, score);
-                            if (beta <= alpha) break;
-                        }
-                        for (Posicio posEnroc : t.solicitarCompanyesEnroc(origen)) { //per cada peça companya d'enroc...
-                            JugadaEnroc jugadaEnr = new JugadaEnroc(origen, posEnroc); //es crea la JugadaEnroc
-                            TaulerEscacs nouTauler = new TaulerEscacs(t); //es copia el tauler
-                            nouTauler.aplicarJugadaEnroc(jugadaEnr); //s'aplica la jugada sobre el nou tauler
-                            int score = minimax(nouTauler, profunditat + 1, false, alpha, beta, jugador); //crida recursiva
-                            millorValor = Math.max(millorValor, score);
-                            alpha = Math.max(alpha, score);
-                            if (beta <= alpha) break;
-                        }
-                    }
-                }
+            for (int k = 0; k < jugades.length; k++) { //per cada jugada possible...
+                TaulerEscacs nouTauler = new TaulerEscacs(t); //es fa una còpia del tauler
+                nouTauler.aplicarJugada(jugades[k]); //s'aplica la jugada sobre el nou tauler.
+                int score = minimax(nouTauler, profunditat + 1, false, alpha, beta, jugador, cerca); //crida recursiva
+                millorValor = Math.max(millorValor, score);
+                alpha = Math.max(alpha, score);
+                if (beta <= alpha) k = ultimaDelGrup(jugades, k); //es deixen les jugades del mateix tipus d'aquesta peça
             }
             return millorValor;
         }else{ //es tracta de minimitzar
             int millorValor = Integer.MAX_VALUE;
-            int jugadorCont = (jugador == 0) ? 1 : 0; //color del jugador contrari
-            for(int i=1; i<=t._fila; i++) {
-                for (int j = 1; j <= t._columna; j++) { //es recorre el tauler
-                    Posicio origen = new Posicio(j, t._fila + 1 - i);
-                    Peca peca = t.solicitarPeca(origen); //obtenim la peca d'aquella posició
-                    if (peca != null && peca.color() == jugadorCont) { //si és una peça hi aquesta és la del jugador contrari
-                        //obtenim els destins possibles de la peça
-                        for (Posicio desti : t.solicitarDestinsPeca(origen)) { //per cada destí...
-                            JugadaOrdinaria jugadaOrd = new JugadaOrdinaria(origen, desti); //es crea la JugadaOrdinaria
-                            TaulerEscacs nouTauler = new TaulerEscacs(t); //es fa una copia del tauler
-                            nouTauler.aplicarJugadaOrdinaria(jugadaOrd); //s'aplica la jugada sobre el tauler copiat
-                            int score = minimax(nouTauler, profunditat + 1, true, alpha, beta, jugador); //crida recursiva
-                            millorValor = Math.min(millorValor, score);
-                            beta = Math.min(beta, score);
-                            if (beta <= alpha) return beta;
-                        }
-                        for (Posicio posEnroc : t.solicitarCompanyesEnroc(origen)) { //per cada peça companya d'enroc...
-                            JugadaEnroc jugadaEnr = new JugadaEnroc(origen, posEnroc); //es crea una JugadaEnroc
-                            TaulerEscacs nouTauler = new TaulerEscacs(t); //es fa una copia del tauler
-                            nouTauler.aplicarJugadaEnroc(jugadaEnr); //s'aplica la jugada sobre el nou tauler
-                            int score = minimax(nouTauler, profunditat + 1, true, alpha, beta, jugador); //crida recursiva
-                            millorValor = Math.min(millorValor, score);
-                            beta = Math.min(beta, score);
-                            if (beta <= alpha) break;
-                        }
-                    }
+            for (int k = 0; k < jugades.length; k++) { //per cada jugada possible del jugador contrari...
+                TaulerEscacs nouTauler = new TaulerEscacs(t); //es fa una copia del tauler
+                nouTauler.aplicarJugada(jugades[k]); //s'aplica la jugada sobre el tauler copiat
+                int score = minimax(nouTauler, profunditat + 1, true, alpha, beta, jugador, cerca); //crida recursiva
+                millorValor = Math.min(millorValor, score);
+                beta = Math.min(beta, score);
+                if (beta <= alpha) {
+                    if (CodiJugada.tipus(jugades[k]) == CodiJugada.ORDINARIA) return beta;
+                    k = ultimaDelGrup(jugades, k); //es deixen els enrocs d'aquesta peça
                 }
             }
             return millorValor;
         }
     }
 
+    /** @brief  Retorna l'índex de l'última jugada consecutiva a partir de \p k amb la mateixa peça d'origen i el
+                mateix tipus (ordinària o enroc) que la jugada \p k.
+        @pre    0 <= \p k < \p jugades.length
+     */
+    private static int ultimaDelGrup(int[] jugades, int k) {
+        int origen = CodiJugada.origen(jugades[k]);
+        int tipus = CodiJugada.tipus(jugades[k]);
+        while (k + 1 < jugades.length && CodiJugada.origen(jugades[k + 1]) == origen
+                && CodiJugada.tipus(jugades[k + 1]) == tipus)
+            k++;
+        return k;
+    }
+
     /** @brief  Es retorna el valor heurístic que descriu com de bo és el tauler pel jugadorCPU
         @pre    \p t != null.
         @param  t és el tauler que és vol puntuar.
+        @param  profunditat és el nombre de tirades des de l'arrel de la cerca fins a \p t.
         @param  jugador és el color del jugadorCPU -1 si és el negre i 0 si és el blanc-.
         @post   Es retorna un enter que representa l'heurístic que determina com de favorable
-                és la situació del \c Tauler \p t per al jugadorCPU.
+                és la situació del \c Tauler \p t per al jugadorCPU. Un escac i mat val valorMat(\p profunditat),
+                sense tenir en compte el material.
      */
-    private static int evaluarTauler(TaulerEscacs t, int jugador) {
+    private static int evaluarTauler(TaulerEscacs t, int profunditat, int jugador) {
         int sumaAccumulada = 0;
 
         for (int i = 1; i <= t._fila; i++) {
@@ -230,10 +544,9 @@ public abstract class JugadorCPU{
         TaulerEscacs.resTauler res = t.estatActual(jugador);
         switch(res){ //com es troba el rei de l'adversari en aquest tauler?
             case ESCAC_MAT:
-                sumaAccumulada += Integer.MAX_VALUE/2;
-                break;
+                return valorMat(profunditat);
             case ESCAC:
-                sumaAccumulada += Integer.MAX_VALUE/2-1000;
+                sumaAccumulada += VALOR_ESCAC;
                 break;
             default:
                 break;
@@ -243,10 +556,9 @@ public abstract class JugadorCPU{
             TaulerEscacs.resTauler resOponent = t.estatActual(colorOponent);
             switch (resOponent){ //com es troba el rei del jugadorCPU en aquest tauler?
                 case ESCAC_MAT:
-                    sumaAccumulada += Integer.MIN_VALUE/2;
-                    break;
+                    return -valorMat(profunditat);
                 case ESCAC:
-                    sumaAccumulada += Integer.MIN_VALUE/2+1000;
+                    sumaAccumulada -= VALOR_ESCAC;
                     break;
                 default:
                     break;
@@ -0,0 +1,387 @@
+/**
+ * @file LlibreObertures.java
+ * @brief Llibre d'obertures construït a partir de partides desades.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @class LlibreObertures
+ * @brief Jugades que s'han fet a les primeres posicions d'un conjunt de partides desades amb unes mateixes regles,
+ *        amb el nombre de vegades que s'ha fet cada jugada i els resultats obtinguts.
+ * @details El llibre es construeix amb construir() a partir d'un directori de fitxers de desenvolupament (veure
+ *          Saver) i es guarda en un fitxer amb una capçalera i registres de mida fixa ordenats per resum de posició
+ *          (veure TaulerEscacs::resumPosicio()). Per consultar-lo el fitxer es projecta a memòria i es fa una cerca
+ *          binària, de manera que obrir-lo no llegeix cap registre.
+ *
+ *          La capçalera conté l'identificador del format, la versió, la mida dels registres, el resum de les regles
+ *          (veure RuleSet::resum()) i el nombre de registres. Cada registre conté el resum de la posició, l'origen i
+ *          el destí de la jugada (veure Checkpoint::codificarCasella()), si és un enroc, i el nombre de partides,
+ *          victòries i taules del jugador que la va fer.
+ *
+ *          La CPU fa servir el llibre de les regles de la partida si es troba al directori indicat per la propietat
+ *          del sistema \c escacs.llibres amb el nom del resum de les regles i l'extensió ".llibre".
+ */
+public final class LlibreObertures {
+    public static final String PROPIETAT_LLIBRES = "escacs.llibres";   ///< Propietat amb el directori dels llibres.
+    public static final String EXTENSIO = ".llibre";                   ///< Extensió dels fitxers de llibre.
+    public static final int MAX_TIRADES = 20;       ///< Jugades de cada partida que es guarden per defecte.
+    private static final int MAGIC = 0x454C4C4F;    ///< Identificador dels fitxers de llibre ("ELLO").
+    private static final int VERSIO = 1;            ///< Versió del format.
+    private static final int MIDA_RESUM = 64;       ///< Caràcters del resum hexadecimal de les regles.
+    private static final int MIDA_CAPCALERA = 4 + 2 + 2 + MIDA_RESUM + 4;  ///< Bytes de la capçalera.
+    private static final int MIDA_REGISTRE = 24;    ///< Bytes de cada registre.
+    private static final ConcurrentHashMap<String,Optional<LlibreObertures>> _llibres = new ConcurrentHashMap<>();
+        ///< Llibres oberts per perRegles(), indexats pel resum de les regles.
+
+    private final String _resumRegles;              ///< Resum de les regles del llibre.
+    private final ByteBuffer _registres;            ///< Registres del llibre, projectats a memòria.
+    private final int _nRegistres;                  ///< Nombre de registres.
+
+    /**
+     * @class Estadistica
+     * @brief Resultats acumulats d'una jugada en una posició.
+     */
+    private static class Estadistica {
+        int _partides;      ///< Partides en què s'ha fet la jugada.
+        int _victories;     ///< Partides que ha guanyat el jugador que ha fet la jugada.
+        int _taules;        ///< Partides acabades en taules.
+    }
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre \p registres conté \p nRegistres registres ordenats a partir de la posició 0.
+     */
+    private LlibreObertures(String resumRegles, ByteBuffer registres, int nRegistres) {
+        _resumRegles = resumRegles;
+        _registres = registres;
+        _nRegistres = nRegistres;
+    }
+
+    /**
+     * @brief Obrir un fitxer de llibre.
+     * @pre \p path != null
+     * @post Es retorna el llibre amb el fitxer projectat a memòria. No es llegeix cap registre.
+     * @param path Ruta del fitxer de llibre.
+     * @return El llibre obert.
+     * @throws IOException Si el fitxer no es pot obrir.
+     * @throws IllegalArgumentException Si el fitxer no té un format vàlid.
+     */
+    public static LlibreObertures obrir(String path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel canal = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+        if (buffer.capacity() < MIDA_CAPCALERA || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSIO
+                || buffer.getShort(6) != MIDA_REGISTRE)
+            throw new IllegalArgumentException("Error: el fitxer de llibre no té un format vàlid");
+
+        byte[] resum = new byte[MIDA_RESUM];
+        buffer.position(8);
+        buffer.get(resum);
+        int nRegistres = buffer.getInt(8 + MIDA_RESUM);
+        if (nRegistres < 0 || buffer.capacity() != MIDA_CAPCALERA + (long) nRegistres * MIDA_REGISTRE)
+            throw new IllegalArgumentException("Error: el fitxer de llibre està incomplet");
+
+        buffer.position(MIDA_CAPCALERA);
+        return new LlibreObertures(new String(resum, StandardCharsets.US_ASCII), buffer.slice(), nRegistres);
+    }
+
+    /**
+     * @brief Llibre d'unes regles.
+     * @pre \p resumRegles != null
+     * @post La primera consulta d'unes regles obre el fitxer \c <resumRegles>.llibre del directori indicat per la
+     *       propietat del sistema \c escacs.llibres, si n'hi ha. Les consultes següents retornen el mateix llibre.
+     * @param resumRegles Resum del fitxer de regles (veure RuleSet::resum()).
+     * @return El llibre de les regles, o null si no n'hi ha cap o no es pot fer servir.
+     */
+    public static LlibreObertures perRegles(String resumRegles) {
+        Optional<LlibreObertures> llibre = _llibres.get(resumRegles);
+        if (llibre == null) {
+            llibre = Optional.ofNullable(obrirDirectori(resumRegles));
+            Optional<LlibreObertures> previ = _llibres.putIfAbsent(resumRegles, llibre);
+            if (previ != null) llibre = previ;
+        }
+        return llibre.orElse(null);
+    }
+
+    /**
+     * @brief Oblida els llibres oberts.
+     * @post Les properes consultes de perRegles() tornaran a buscar els fitxers al directori de llibres.
+     */
+    public static void buidarCache() {
+        _llibres.clear();
+    }
+
+    /**
+     * @brief Resum de les regles del llibre.
+     * @return El resum SHA-256 (hexadecimal) del fitxer de regles amb què es van jugar les partides.
+     */
+    public String resumRegles() {
+        return _resumRegles;
+    }
+
+    /**
+     * @brief Nombre de registres.
+     * @return El nombre de parells posició - jugada diferents que conté el llibre.
+     */
+    public int registres() {
+        return _nRegistres;
+    }
+
+    /**
+     * @brief Escollir una jugada del llibre.
+     * @pre \p t és un tauler amb les regles del llibre i 0 <= \p torn <= 1.
+     * @post Es retorna una de les jugades del llibre per a la posició de \p t que \p torn pot efectuar, escollida a
+     *       l'atzar amb un pes proporcional als punts que ha obtingut (dos per victòria i un per taules). Les
+     *       jugades que no han obtingut cap punt no s'escullen mai.
+     * @param t Tauler de la partida.
+     * @param torn Jugador que té el torn.
+     * @return La jugada escollida, o null si el llibre no en té cap per a aquesta posició.
+     */
+    public Jugada consultar(TaulerEscacs t, int torn) {
+        long clau = t.resumPosicio(torn);
+        List<Jugada> jugades = new ArrayList<>();
+        List<Integer> pesos = new ArrayList<>();
+        int total = 0;
+        for (int i = primerRegistre(clau); i < _nRegistres && clau(i) == clau; i++) {
+            int base = i * MIDA_REGISTRE;
+            int pes = 2 * _registres.getInt(base + 16) + _registres.getInt(base + 20);
+            Jugada jug = jugada(_registres.get(base + 8) & 0xFF, _registres.get(base + 9) & 0xFF,
+                    _registres.get(base + 10) != 0);
+            if (pes > 0 && esPotFer(t, jug, torn)) {
+                jugades.add(jug);
+                pesos.add(pes);
+                total += pes;
+            }
+        }
+        if (total == 0) return null;
+
+        int r = new Random().nextInt(total);
+        int i = 0;
+        while (r >= pesos.get(i))
+            r -= pesos.get(i++);
+        return jugades.get(i);
+    }
+
+    /**
+     * @brief Construir un llibre d'obertures a partir d'un directori de partides desades.
+     * @pre \p directoriPartides és un directori, \p fitxerRegles és un fitxer de regles vàlid i \p maxTirades > 0.
+     * @post S'ha escrit a \p fitxerLlibre un llibre amb les primeres \p maxTirades jugades de cada fitxer de
+     *       desenvolupament de \p directoriPartides que es va jugar amb un fitxer de regles amb el mateix contingut
+     *       que \p fitxerRegles. Els fitxers que no es poden llegir o que són d'altres regles s'ignoren.
+     * @param directoriPartides Directori amb els fitxers de desenvolupament (extensió ".json").
+     * @param fitxerRegles Fitxer de regles del llibre.
+     * @param fitxerLlibre Ruta del fitxer de llibre que es crearà.
+     * @param maxTirades Nombre màxim de jugades de cada partida que es guarden.
+     * @return El nombre de partides que s'han afegit al llibre.
+     * @throws IOException Si no es pot llegir el fitxer de regles o escriure el fitxer de llibre.
+     */
+    public static int construir(String directoriPartides, String fitxerRegles, String fitxerLlibre, int maxTirades)
+            throws IOException {
+        String resumRegles = RuleSet.obtenir(fitxerRegles).resum();
+        TreeMap<Long,Map<Integer,Estadistica>> posicions = new TreeMap<>(Long::compareUnsigned);
+
+        File[] fitxers = new File(directoriPartides).listFiles((dir, nom) -> nom.endsWith(".json"));
+        if (fitxers == null) throw new IOException("Error: no es pot llegir el directori " + directoriPartides);
+        Arrays.sort(fitxers);
+
+        int nPartides = 0;
+        for (File fitxer : fitxers) {
+            try {
+                if (afegirPartida(fitxer.getPath(), resumRegles, maxTirades, posicions)) nPartides++;
+            } catch (IOException | RuntimeException e) {
+                System.out.println("S'ignora " + fitxer.getName() + ": " + e.getMessage());
+            }
+        }
+
+        escriure(fitxerLlibre, resumRegles, posicions);
+        return nPartides;
+    }
+
+    /**
+     * @brief Afegir les jugades d'una partida desada.
+     * @pre \p maxTirades > 0
+     * @post Si la partida de \p path es va jugar amb les regles \p resumRegles, s'han afegit a \p posicions les seves
+     *       primeres \p maxTirades jugades amb el resultat de la partida.
+     * @return Cert si s'ha afegit la partida, fals si és d'altres regles o no té cap jugada.
+     * @throws IOException Si no es pot llegir el fitxer.
+     * @throws IllegalArgumentException Si el fitxer no és un desenvolupament de partida vàlid.
+     */
+    private static boolean afegirPartida(String path, String resumRegles, int maxTirades,
+                                         Map<Long,Map<Integer,Estadistica>> posicions) throws IOException {
+        List<Long> claus = new ArrayList<>();
+        List<Integer> jugades = new ArrayList<>();
+        List<Integer> torns = new ArrayList<>();
+        boolean[] reglesIguals = {true};
+        String resultat = Loader.reproduirPartida(path, (partida, origen, desti) -> {
+            if (!partida.resumRegles().equals(resumRegles)) {
+                reglesIguals[0] = false;
+                return false;
+            }
+            Partida.Instantania inst = partida.instantania();
+            claus.add(inst.resumPosicio());
+            jugades.add(codificarJugada(origen, desti));
+            torns.add(inst.tornActual());
+            return claus.size() < maxTirades;
+        });
+        if (!reglesIguals[0] || claus.isEmpty()) return false;
+
+        int guanyador = resultat.equals(Partida.COLOR[0] + " GUANYEN") ? 0
+                      : resultat.equals(Partida.COLOR[1] + " GUANYEN") ? 1 : -1;
+        boolean taules = resultat.startsWith("TAULES");
+        for (int i = 0; i < claus.size(); i++) {
+            Map<Integer,Estadistica> jugadesPosicio = posicions.computeIfAbsent(claus.get(i), k -> new HashMap<>());
+            Estadistica e = jugadesPosicio.computeIfAbsent(jugades.get(i), k -> new Estadistica());
+            e._partides++;
+            if (guanyador == torns.get(i)) e._victories++;
+            if (taules) e._taules++;
+        }
+        return true;
+    }
+
+    /**
+     * @brief Escriure el fitxer de llibre.
+     * @pre \p posicions està ordenat pel resum de la posició sense signe.
+     * @post S'ha escrit la capçalera i un registre per cada jugada de cada posició, amb les jugades de cada posició
+     *       de més a menys partides.
+     * @throws IOException Si no es pot escriure el fitxer.
+     */
+    private static void escriure(String fitxerLlibre, String resumRegles,
+                                 TreeMap<Long,Map<Integer,Estadistica>> posicions) throws IOException {
+        int nRegistres = 0;
+        for (Map<Integer,Estadistica> jugades : posicions.values())
+            nRegistres += jugades.size();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fitxerLlibre)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSIO);
+            out.writeShort(MIDA_REGISTRE);
+            out.write(resumRegles.getBytes(StandardCharsets.US_ASCII));
+            out.writeInt(nRegistres);
+
+            for (Map.Entry<Long,Map<Integer,Estadistica>> posicio : posicions.entrySet()) {
+                List<Map.Entry<Integer,Estadistica>> jugades = new ArrayList<>(posicio.getValue().entrySet());
+                jugades.sort((a, b) -> b.getValue()._partides - a.getValue()._partides);
+                for (Map.Entry<Integer,Estadistica> jugada : jugades) {
+                    out.writeLong(posicio.getKey());
+                    out.writeByte(jugada.getKey() >> 16);
+                    out.writeByte(jugada.getKey() >> 8);
+                    out.writeByte(jugada.getKey());
+                    out.writeByte(0);
+                    out.writeInt(jugada.getValue()._partides);
+                    out.writeInt(jugada.getValue()._victories);
+                    out.writeInt(jugada.getValue()._taules);
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Obrir el llibre d'unes regles del directori de llibres.
+     * @return El llibre, o null si la propietat \c escacs.llibres no està definida, el fitxer no existeix, no es pot
+     *         llegir o no correspon a les regles.
+     */
+    private static LlibreObertures obrirDirectori(String resumRegles) {
+        String directori = System.getProperty(PROPIETAT_LLIBRES);
+        if (directori == null || directori.isEmpty()) return null;
+        File fitxer = new File(directori, resumRegles + EXTENSIO);
+        if (!fitxer.isFile()) return null;
+        try {
+            LlibreObertures llibre = obrir(fitxer.getPath());
+            if (llibre._resumRegles.equals(resumRegles)) return llibre;
+            System.out.println("El llibre " + fitxer.getName() + " no correspon a les regles, s'ignora");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("No s'ha pogut obrir el llibre " + fitxer.getName() + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @brief Primer registre amb un resum de posició més gran o igual que \p clau (sense signe).
+     * @return L'índex del registre, o el nombre de registres si no n'hi ha cap.
+     */
+    private int primerRegistre(long clau) {
+        int min = 0;
+        int max = _nRegistres;
+        while (min < max) {
+            int mig = (min + max) >>> 1;
+            if (Long.compareUnsigned(clau(mig), clau) < 0) min = mig + 1;
+            else max = mig;
+        }
+        return min;
+    }
+
+    /**
+     * @brief Resum de posició del registre \p i.
+     */
+    private long clau(int i) {
+        return _registres.getLong(i * MIDA_REGISTRE);
+    }
+
+    /**
+     * @brief Codifica una jugada d'un fitxer de desenvolupament.
+     * @pre \p origen i \p desti són els d'una jugada ordinària o un enroc d'un fitxer de desenvolupament.
+     * @return L'origen, el destí i si és un enroc, un per byte.
+     */
+    private static int codificarJugada(String origen, String desti) {
+        if (origen.matches(JugadaEnroc.regex)) {
+            JugadaEnroc enroc = new JugadaEnroc(origen);
+            return Checkpoint.codificarCasella(enroc.posicioPrimera()) << 16
+                    | Checkpoint.codificarCasella(enroc.posicioSegona()) << 8 | 1;
+        }
+        return Checkpoint.codificarCasella(new Posicio(origen)) << 16
+                | Checkpoint.codificarCasella(new Posicio(desti)) << 8;
+    }
+
+    /**
+     * @brief Descodifica la jugada d'un registre.
+     */
+    private static Jugada jugada(int origen, int desti, boolean enroc) {
+        Posicio a = Checkpoint.descodificarCasella(origen);
+        Posicio b = Checkpoint.descodificarCasella(desti);
+        return enroc ? new JugadaEnroc(a, b) : new JugadaOrdinaria(a, b);
+    }
+
+    /**
+     * @brief Indica si \p torn pot efectuar \p jug sobre \p t.
+     */
+    private static boolean esPotFer(TaulerEscacs t, Jugada jug, int torn) {
+        if (jug instanceof JugadaEnroc) {
+            JugadaEnroc enroc = (JugadaEnroc) jug;
+            return t.existeixPos(enroc.posicioPrimera()) && t.existeixPos(enroc.posicioSegona())
+                    && t.esPotFerJugadaEnroc(enroc, torn);
+        }
+        JugadaOrdinaria ord = (JugadaOrdinaria) jug;
+        return t.existeixPos(ord.origen()) && t.existeixPos(ord.desti()) && t.esPotFerJugadaOrdinaria(ord, torn);
+    }
+
+    /**
+     * @brief Construir un llibre d'obertures.
+     * @pre \p args conté el directori de partides desades, el fitxer de regles i, opcionalment, el nombre màxim de
+     *      jugades de cada partida. El llibre s'escriu al directori indicat per la propietat del sistema
+     *      \c escacs.llibres, o al directori actual si no està definida.
+     * @post S'ha escrit el llibre amb el nom que busca perRegles().
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Ús: LlibreObertures <directoriPartides> <fitxerRegles> [maxTirades]");
+            return;
+        }
+        int maxTirades = args.length > 2 ? Integer.parseInt(args[2]) : MAX_TIRADES;
+        String directori = System.getProperty(PROPIETAT_LLIBRES, ".");
+        if (directori.isEmpty()) directori = ".";
+        File fitxer = new File(directori, RuleSet.obtenir(args[1]).resum() + EXTENSIO);
+        int nPartides = construir(args[0], args[1], fitxer.getPath(), maxTirades);
+        System.out.println("Llibre " + fitxer.getPath() + " creat amb " + nPartides + " partides");
+    }
+}
@@ -3,6 +3,7 @@
  * @brief Mòdul que permet carregar una partida.
  * @author David Pérez Sánchez
  */
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -42,7 +43,9 @@ public abstract class Loader {
      * @brief Carregar una partida a partir d'un fitxer de desenvolupament de partida.
      * @pre \p path és la ruta a un fitxer JSON vàlid i conté el desenvolupament d'una partida amb un format vàlid.
      * @post Es retorna una Partida carregada amb el fitxer de desenvolupament \p path. La partida estarà
-     *       just en el punt en què es va ajornar o començarà amb les posicions inicials i el torn indicats.
+     *       just en el punt en què es va ajornar o començarà amb les posicions inicials i el torn indicats. Si
+     *       existeix un fitxer binari vàlid associat a \p path (veure Checkpoint), es carrega directament l'estat
+     *       sense reproduir les tirades.
      * @param path Ruta a un fitxer de dades JSON.
      * @return Una partida carregada amb el fitxer de desenvolupament.
      * @throws IOException Si el fitxer no és un JSON o no es pot obrir.
@@ -51,69 +54,194 @@ public abstract class Loader {
      *                                  o els tipus de dades no són correctes.
      */
     public static Partida carregarPartidaComencada(String path) throws IOException {
-        try {
-            // Per comprovar format
-            String[] pattern = {"fitxerRegles", "posIniBlanques", "posIniNegres", "proper_torn", "tirades",
-                    "resultat_final"};
-
-            // Llegir fitxer
-            Map<String,Object> map = parser.parse(path);
+        return carregarPartidaComencada(path, null);
+    }
 
-            // Comprovar format
-            validarFormat(map.keySet().toArray(), pattern);
+    /**
+     * @brief Carregar una partida a partir d'un fitxer de desenvolupament de partida informant del progrés.
+     * @pre \p path és la ruta a un fitxer JSON vàlid i conté el desenvolupament d'una partida amb un format vàlid.
+     * @post Igual que carregarPartidaComencada(String). Si \p oient no és null, rep el nombre de tirades reproduïdes
+     *       després de cada tirada (o una sola notificació si es carrega el fitxer binari).
+     * @param path Ruta a un fitxer de dades JSON.
+     * @param oient Receptor del progrés (pot ser null).
+     * @return Una partida carregada amb el fitxer de desenvolupament.
+     * @throws IOException Si el fitxer no és un JSON o no es pot obrir.
+     * @throws IllegalStateException Si la partida ja està finalitzada.
+     * @throws IllegalArgumentException Si el format del fitxer no és correcte, les dades contingudes no són coherents
+     *                                  o els tipus de dades no són correctes.
+     * @throws java.util.concurrent.CancellationException Si s'interromp el fil mentre es reprodueixen les tirades.
+     */
+    public static Partida carregarPartidaComencada(String path, OientProgres oient) throws IOException {
+        // Intentar reprendre des del fitxer binari
+        if (new File(Checkpoint.rutaCheckpoint(path)).isFile()) {
+            try {
+                Partida partida = Checkpoint.carregar(path);
+                if (oient != null) oient.progres(1, 1);
+                return partida;
+            } catch (IOException | IllegalArgumentException | ClassCastException e) {
+                System.out.println("No s'ha pogut fer servir el fitxer binari, es carrega el JSON");
+            }
+        }
 
-            // Agafar valors
-            Object[] values = map.values().toArray();
+        try {
+            Object[] values = llegirDesenvolupament(path);
 
             // Comprovar que no s'hagi acabat la partida
             String resultatFinal = (String) values[5];
             if(!resultatFinal.equals("PARTIDA AJORNADA") && !resultatFinal.equals(""))
                 throw new IllegalStateException("Error: la partida ja està acabada");
 
-            // Carregar regles
-            String fitxerRegles = (String) values[0];
-            String properTorn = (String) values[3];
-            int torn = properTorn.equals("BLANQUES") ? 0 : 1;
-            Partida partida = carregarRegles(fitxerRegles, false, torn);
-
-            // Llegir dades restants
-            List<Map<String,Object>> posIniBlanques = (List<Map<String,Object>>) values[1];
-            List<Map<String,Object>> posIniNegres = (List<Map<String,Object>>) values[2];
-            List<Map<String,Object>> tirades = (List<Map<String,Object>>) values[4];
+            Partida partida = prepararPartida(values);
+            aplicarTirades((List<Map<String,Object>>) values[4], partida, (String) values[3], oient, null);
 
-            // Carregar les peces a la posició corresponent
-            Map<Posicio,Peca> posIni = new HashMap<>();
-            llegirPos(posIni, posIniBlanques, partida, 0);
-            llegirPos(posIni, posIniNegres, partida, 1);
-            partida.repartirPeces(posIni);
+            return partida;
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException("Error: els tipus de dades no són correctes");
+        }
+    }
 
-            aplicarTirades(tirades, partida, properTorn);
+    /**
+     * @interface OientTirades
+     * @brief Rep cada jugada d'una partida que es reprodueix amb reproduirPartida().
+     */
+    interface OientTirades {
+        /**
+         * @brief S'efectuarà una jugada.
+         * @pre \p partida és en l'estat d'abans de la jugada.
+         * @param partida Partida que es reprodueix, que no es pot modificar.
+         * @param origen Origen de la jugada, o les dues posicions si és un enroc.
+         * @param desti Destí de la jugada.
+         * @return Cert per continuar la reproducció, fals per aturar-la.
+         */
+        boolean jugada(Partida partida, String origen, String desti);
+    }
 
-            return partida;
+    /**
+     * @brief Reproduir un fitxer de desenvolupament de partida, encara que la partida estigui acabada.
+     * @pre \p path és la ruta a un fitxer JSON vàlid i conté el desenvolupament d'una partida amb un format vàlid.
+     *      \p oient != null
+     * @post S'han reproduït les tirades del fitxer, sense fer servir el fitxer binari, fins al final o fins que
+     *       \p oient ha demanat aturar. \p oient ha rebut cada jugada ordinària o enroc abans d'efectuar-la.
+     * @param path Ruta a un fitxer de dades JSON.
+     * @param oient Receptor de les jugades.
+     * @return El resultat final que indica el fitxer.
+     * @throws IOException Si el fitxer no és un JSON o no es pot obrir.
+     * @throws IllegalArgumentException Si el format del fitxer no és correcte, les dades contingudes no són coherents
+     *                                  o els tipus de dades no són correctes.
+     */
+    static String reproduirPartida(String path, OientTirades oient) throws IOException {
+        try {
+            Object[] values = llegirDesenvolupament(path);
+            Partida partida = prepararPartida(values);
+            aplicarTirades((List<Map<String,Object>>) values[4], partida, (String) values[3], null, oient);
+            return (String) values[5];
         } catch (ClassCastException e) {
             throw new IllegalArgumentException("Error: els tipus de dades no són correctes");
         }
     }
 
+    /**
+     * @brief Llegir un fitxer de desenvolupament de partida.
+     * @pre \p path != null
+     * @post Es retornen els valors del fitxer en l'ordre: fitxer de regles, posicions inicials de blanques i de negres,
+     *       proper torn, tirades i resultat final.
+     * @throws IOException Si el fitxer no és un JSON o no es pot obrir.
+     * @throws IllegalArgumentException Si el format del fitxer no és correcte.
+     */
+    private static Object[] llegirDesenvolupament(String path) throws IOException {
+        // Per comprovar format
+        String[] pattern = {"fitxerRegles", "posIniBlanques", "posIniNegres", "proper_torn", "tirades",
+                "resultat_final"};
+
+        // Llegir fitxer
+        Map<String,Object> map = parser.parse(path);
+
+        // Comprovar format
+        validarFormat(map.keySet().toArray(), pattern);
+
+        // Agafar valors
+        return map.values().toArray();
+    }
+
+    /**
+     * @brief Crear la partida d'un fitxer de desenvolupament abans d'aplicar-hi cap tirada.
+     * @pre \p values són els valors retornats per llegirDesenvolupament().
+     * @post Es retorna una partida amb les regles, el torn i les posicions inicials del fitxer.
+     * @throws IOException Si el fitxer de regles no es pot obrir.
+     * @throws ClassCastException Si els tipus de dades no són correctes.
+     */
+    private static Partida prepararPartida(Object[] values) throws IOException {
+        // Carregar regles
+        String fitxerRegles = (String) values[0];
+        String properTorn = (String) values[3];
+        int torn = properTorn.equals("BLANQUES") ? 0 : 1;
+        Partida partida = carregarRegles(fitxerRegles, false, torn);
+
+        // Llegir dades restants
+        List<Map<String,Object>> posIniBlanques = (List<Map<String,Object>>) values[1];
+        List<Map<String,Object>> posIniNegres = (List<Map<String,Object>>) values[2];
+
+        // Carregar les peces a la posició corresponent
+        Map<Posicio,Peca> posIni = new HashMap<>();
+        llegirPos(posIni, posIniBlanques, partida, 0);
+        llegirPos(posIni, posIniNegres, partida, 1);
+        partida.repartirPeces(posIni);
+        return partida;
+    }
+
     /**
      * @brief Iniciar una partida a partir d'un fitxer de regles.
      * @pre \p path és la ruta a un fitxer JSON vàlid i conté les regles d'una partida amb un format vàlid i
      *      0 <= properTorn <= 1
      * @post Es retorna una Partida iniciada amb el fitxer de regles \p path i es retorna. La partida estarà a punt per
      *       començar amb el jugador que indiqui \p properTorn. Si \p partidaNova és cert, es posicionaran les peces a
-     *       la seva posició inicial, altrament no es posicionarà cap peça.
+     *       la seva posició inicial, altrament no es posicionarà cap peça. Les regles compilades es comparteixen amb
+     *       totes les partides que fan servir un fitxer de regles amb el mateix contingut (veure RuleSet).
      * @param path Ruta a un fitxer de regles JSON.
      * @param partidaNova Indica si la partida és nova o es reprèn el joc.
      * @param properTorn Indica a quin jugador li toca tirar a continuació.
      * @return Una partida iniciada amb el fitxer de regles.
      * @throws IOException Si el fitxer no és un JSON o no es pot obrir.
      */
-    private static Partida carregarRegles(String path, boolean partidaNova, int properTorn) throws IOException {
+    static Partida carregarRegles(String path, boolean partidaNova, int properTorn) throws IOException {
+        RuleSet regles = RuleSet.obtenir(path);
+
+        // Comprovar que no hi hagi més peces que caselles
+        int nPeces = 0;
+        for (String s : regles.ordrePeces())
+            if (!s.equals("") && !s.equals("REI")) nPeces++;
+        nPeces *= 2;
+        if(partidaNova && regles.columnes()*regles.files() <= nPeces)
+            throw new IllegalArgumentException("Error: No hi poden haver més peces que caselles");
+
+        // Crear tauler i partida
+        TaulerEscacs t = new TaulerEscacs(regles.files(), regles.columnes(), regles.peces().values(), regles.resum());
+        t.assignarTaulesFinals(TaulesFinals.perRegles(regles.resum()));
+        Partida p = new Partida(t, regles.peces(), regles.limitEscacs(), regles.limitInaccio(), path,
+                                regles.resum(), properTorn);
+        if (partidaNova) p.inicialitzarPeces(regles.ordrePeces());
+        return p;
+    }
+
+    /**
+     * @brief Compilar unes regles a partir del contingut d'un fitxer de regles.
+     * @pre \p data és el contingut d'un fitxer de regles JSON.
+     * @post Es retornen les regles llegides i comprovades.
+     * @param data Contingut del fitxer de regles.
+     * @param resum Resum del contingut, que identifica les regles.
+     * @return Les regles compilades.
+     * @throws IllegalArgumentException Si el format del fitxer no és correcte o les dades contingudes no són
+     *                                  coherents.
+     */
+    static RuleSet compilarRegles(String data, String resum) {
         // Per comprovar format
         String[] pattern = {"nFiles", "nCols", "peces", "posInicial", "limitEscacsSeguits", "limitTornsInaccio", "enrocs"};
 
-        // Llegir fitxer
-        Map<String,Object> map = parser.parse(path);
+        // Llegir fitxer (el motor de JavaScript no es pot fer servir des de diversos fils alhora)
+        Map<String,Object> map;
+        synchronized (parser) {
+            map = parser.parseText(data);
+        }
 
         // Comprovar format
         validarFormat(map.keySet().toArray(), pattern);
@@ -132,47 +260,38 @@ public abstract class Loader {
         List<Map<String,Object>> enrocs = (List<Map<String,Object>>) values[6];
 
         // Generar enrocsDisponibles i pecesDisponibles
-        HashMap<String, HashMap<String, Enroc>> enrocsDisponibles = llegirEnrocs(enrocs); // Peca, <AltraPeca,enroc>
-        HashMap<String, Peca> pecesDisponibles = llegirPeces(peces, enrocsDisponibles);
+        List<Enroc> llistaEnrocs = llegirEnrocs(enrocs);
+        HashMap<String, HashMap<String, Enroc>> enrocsDisponibles = agruparEnrocs(llistaEnrocs); // Peca, <AltraPeca,enroc>
+        HashMap<String, PieceType> pecesDisponibles = llegirPeces(peces, enrocsDisponibles);
 
-        // Comprovar que cada bàndol té un sol REI, que no hi hagi més peces que caselles i que les peces de
-        // ordrePeces existeixen
+        // Comprovar que cada bàndol té un sol REI i que les peces de ordrePeces existeixen
         List<String> ordrePeces = (List<String>) values[3];
         int i = 0;
-        int nPeces = 0;
         for (String s : ordrePeces) {
             if (s.equals("REI")) i++;
-            else if(!s.equals("")) nPeces++;
 
             if(!s.equals("") && !pecesDisponibles.containsKey(s))
                 throw new IllegalArgumentException("Error: a les posicions inicials només poden haver-hi " +
                         "peces definides");
         }
-        nPeces *= 2;
-        if(partidaNova && nCols*nFiles <= nPeces)
-            throw new IllegalArgumentException("Error: No hi poden haver més peces que caselles");
         if(i != 1) throw new IllegalArgumentException("Error: cada bàndol ha de tenir un \"REI\"");
 
-        // Crear tauler i partida
-        TaulerEscacs t = new TaulerEscacs(nFiles, nCols);
-        Partida p = new Partida(t, pecesDisponibles, limitEscacsSeguits, limitTornsInaccio, path, properTorn);
-        if (partidaNova) p.inicialitzarPeces(ordrePeces);
-        return p;
+        return new RuleSet(resum, nFiles, nCols, limitEscacsSeguits, limitTornsInaccio, pecesDisponibles,
+                           ordrePeces, llistaEnrocs);
     }
 
     /**
      * @brief Llegir els enrocs disponibles.
      * @pre \p enrocs != null. Les dades tenen el format correcte.
-     * @post Es llegeixen i comproven els enrocs disponibles del fitxer. Es crea un mapa amb els enrocs de cada peça
-     *       juntament amb quina peça el realitzen i l'objecte Enroc.
+     * @post Es llegeixen i comproven els enrocs disponibles del fitxer.
      * @param enrocs Llista que conté els mapes que defineixen els enrocs disponibles.
-     * @return Un mapa que és els enrocs de cada peça juntament amb quina peça el realitzen i l'objecte Enroc.
+     * @return Una llista amb els enrocs llegits.
      */
-    private static HashMap<String, HashMap<String, Enroc>> llegirEnrocs(List<Map<String,Object>> enrocs) {
+    private static List<Enroc> llegirEnrocs(List<Map<String,Object>> enrocs) {
         // Per comprovar format
         String[] pattern = {"peçaA", "peçaB", "quiets", "buitAlMig"};
 
-        HashMap<String, HashMap<String, Enroc>> enrocsDisponibles = new HashMap<>(); // Peca, <AltraPeca,enroc>
+        List<Enroc> res = new ArrayList<>();
         for (Map<String, Object> aux : enrocs) {
             // Comprovar format
             validarFormat(aux.keySet().toArray(), pattern);
@@ -185,7 +304,23 @@ public abstract class Loader {
             String pecaB = values[1].toString();
             boolean quiets = Boolean.parseBoolean(values[2].toString());
             boolean buitAlMig = Boolean.parseBoolean(values[3].toString());
-            Enroc e = new Enroc(pecaA, pecaB, quiets, buitAlMig);
+            res.add(new Enroc(pecaA, pecaB, quiets, buitAlMig));
+        }
+        return res;
+    }
+
+    /**
+     * @brief Agrupar els enrocs per peça.
+     * @pre \p enrocs != null
+     * @post Es crea un mapa amb els enrocs de cada peça juntament amb quina peça el realitzen i l'objecte Enroc.
+     * @param enrocs Enrocs disponibles.
+     * @return Un mapa que és els enrocs de cada peça juntament amb quina peça el realitzen i l'objecte Enroc.
+     */
+    static HashMap<String, HashMap<String, Enroc>> agruparEnrocs(List<Enroc> enrocs) {
+        HashMap<String, HashMap<String, Enroc>> enrocsDisponibles = new HashMap<>(); // Peca, <AltraPeca,enroc>
+        for (Enroc e : enrocs) {
+            String pecaA = e.primeraPeca();
+            String pecaB = e.segonaPeca();
 
             // enrocsDisponibles per la primera peca
             HashMap<String, Enroc> temp = new HashMap<>();
@@ -217,13 +352,13 @@ public abstract class Loader {
      *                                  positius, si el rei és invulnerable, si no hi ha un rei, si el rei no té el
      *                                  valor més alt, si les dades no tenen un format correcte.
      */
-    private static HashMap<String, Peca> llegirPeces(List<Map<String,Object>> peces,
-                                                     HashMap<String,HashMap<String,Enroc>> enrocsDisponibles) {
+    private static HashMap<String, PieceType> llegirPeces(List<Map<String,Object>> peces,
+                                                          HashMap<String,HashMap<String,Enroc>> enrocsDisponibles) {
         // Per comprovar format
         String[] pattern = {"nom", "simbol", "imatgeBlanca", "imatgeNegra", "valor", "moviments",
                 "movimentsInicials", "promocio", "invulnerabilitat"};
 
-        HashMap<String, Peca> pecesDisponibles = new HashMap<String, Peca>();
+        HashMap<String, PieceType> pecesDisponibles = new HashMap<String, PieceType>();
         Iterator<Map<String,Object>> itPeces = peces.iterator();
         int i = 0;
         boolean reiExisteix = false;
@@ -278,13 +413,13 @@ public abstract class Loader {
                 if(promocio) throw new IllegalArgumentException("Error: El \"REI\" no ha de poder promocionar");
             }
 
-            // Crear Peca
-            Peca p;
+            // Crear el tipus de peça, l'identificador és l'ordre dins el fitxer
+            PieceType p;
             HashMap<String,Enroc> temp;
             if(enrocsDisponibles.containsKey(nom)) temp = enrocsDisponibles.get(nom);
             else temp = new HashMap<>();
-            p = new Peca(nom, simbol,imatgeBlanca, imatgeNegra, valor, moviments, movimentsInicials, promocio,
-                         invulnerabilitat, temp);
+            p = new PieceType(i, nom, simbol,imatgeBlanca, imatgeNegra, valor, moviments, movimentsInicials, promocio,
+                              invulnerabilitat, temp);
 
             // Afegir al resultat
             pecesDisponibles.put(nom, p);
@@ -399,15 +534,22 @@ public abstract class Loader {
      * @param tirades Llista que conté la definició de les tirades a realitzar.
      * @param partida Partida on s'aplicaran les tirades.
      * @param properTorn Torn del jugador que comença a tirar.
+     * @param oient Receptor del nombre de tirades reproduïdes (pot ser null).
+     * @param oientTirades Receptor de cada jugada abans d'efectuar-la, que pot aturar la reproducció (pot ser null).
      * @throws IllegalArgumentException Si les dades no tenen un format correcte, si les tirades no són coherents, si
      *                                  el proper torn no és coherent.
+     * @throws java.util.concurrent.CancellationException Si s'interromp el fil abans d'acabar.
      */
-    private static void aplicarTirades(List<Map<String,Object>> tirades, Partida partida, String properTorn) {
+    private static void aplicarTirades(List<Map<String,Object>> tirades, Partida partida, String properTorn,
+                                       OientProgres oient, OientTirades oientTirades) {
         // Per comprovar format
         String[] pattern = {"torn", "origen", "desti", "resultat"};
         boolean esPrimeraTirada = true;
+        int fetes = 0;
 
         for (Map<String, Object> aux : tirades) {
+            OientProgres.comprovarCancellacio();
+
             // Comprovar format
             validarFormat(aux.keySet().toArray(), pattern);
 
@@ -428,6 +570,7 @@ public abstract class Loader {
             // Aplicar tirades
             try {
                 boolean jugadaNormal = !origen.isEmpty() && !desti.isEmpty();
+                if (jugadaNormal && oientTirades != null && !oientTirades.jugada(partida, origen, desti)) return;
                 if (jugadaNormal) {
                     if (origen.matches(JugadaEnroc.regex)) { // ENROC
                         Jugada jug = new JugadaEnroc(origen);
@@ -457,6 +600,8 @@ public abstract class Loader {
                 e.printStackTrace();
                 throw new IllegalArgumentException("Error en la càrrega del fitxer: " + e.getMessage());
             }
+
+            if (oient != null) oient.progres(++fetes, tirades.size());
         }
     }
 
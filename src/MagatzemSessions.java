@@ -0,0 +1,350 @@
+/**
+ * @file MagatzemSessions.java
+ * @brief Magatzem de les sessions del servidor de partides.
+ */
+
+import java.io.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * @class MagatzemSessions
+ * @brief Guarda les sessions del ServidorPartides indexades per un identificador. Manté en memòria les sessions
+ *        usades més recentment i escriu a disc les inactives, que es tornen a llegir quan es necessiten.
+ * @details Una sessió s'expulsa de la memòria quan fa més temps que el màxim d'inactivitat que no s'usa o quan hi ha
+ *          més sessions en memòria que el màxim permès (s'expulsen primer les usades fa més temps). Les sessions
+ *          expulsades s'escriuen comprimides (veure SessioPartida::escriure()) al directori del magatzem, amb un
+ *          fitxer per sessió, de manera que també es conserven si es reinicia el servidor.
+ *
+ *          Les sessions sense cap partida en joc no s'escriuen a disc: s'eliminen en expulsar-les. Les sessions
+ *          amb una sol·licitud de taules pendent de resposta no s'expulsen fins que es responen.
+ *
+ *          Cada sessió només la pot fer servir un fil alhora, entre agafar() i retornar().
+ */
+public class MagatzemSessions {
+    public static final String EXTENSIO = ".sessio";    ///< Extensió dels fitxers de les sessions expulsades.
+
+    /**
+     * @class Entrada
+     * @brief Sessió en memòria i el seu estat d'ús.
+     */
+    private static class Entrada {
+        SessioPartida _sessio;      ///< Sessió, null mentre s'està llegint de disc.
+        long _darrerUs;             ///< Instant (ms) en què s'ha retornat per darrer cop.
+        boolean _enUs;              ///< Si algun fil l'ha agafada i encara no l'ha retornada.
+    }
+
+    private final ServidorPartides _servidor;                                   ///< Servidor de les sessions.
+    private final File _directori;                                              ///< Directori de les sessions expulsades.
+    private final int _maxEnMemoria;                                            ///< Sessions en memòria permeses.
+    private final long _maxInactivitat;                                         ///< Temps d'inactivitat màxim (ms).
+    private final LinkedHashMap<String,Entrada> _enMemoria = new LinkedHashMap<>(16, 0.75f, true);
+        ///< Sessions en memòria, de la usada fa més temps a la més recent.
+    private final Map<String,SessioPartida> _enExpulsio = new HashMap<>();      ///< Sessions que s'estan escrivint.
+    private final Set<String> _enDisc = new HashSet<>();                        ///< Sessions escrites a disc.
+    private final Map<String,Integer> _connexions = new HashMap<>();            ///< Connexions obertes de cada sessió.
+    private final SecureRandom _aleatori = new SecureRandom();                  ///< Generador d'identificadors.
+
+    private final AtomicLong _encerts = new AtomicLong();       ///< Sessions agafades de memòria.
+    private final AtomicLong _fallades = new AtomicLong();      ///< Sessions agafades llegint-les de disc.
+    private final AtomicLong _expulsions = new AtomicLong();    ///< Sessions escrites a disc.
+    private final AtomicLong _descartades = new AtomicLong();   ///< Sessions eliminades en expulsar-les.
+    private final AtomicLong _errors = new AtomicLong();        ///< Errors d'escriptura o lectura de disc.
+    private final AtomicLong _bytesDisc = new AtomicLong();     ///< Bytes escrits a disc per la darrera expulsió.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre \p servidor != null, \p directori != null, \p maxEnMemoria > 0 i \p maxInactivitat > 0.
+     * @post Es crea un magatzem que escriu les sessions expulsades a \p directori. Les sessions que ja hi havia al
+     *       directori es poden tornar a agafar.
+     * @param servidor Servidor on s'executaran les jugades de la CPU de les sessions.
+     * @param directori Directori on s'escriuen les sessions expulsades.
+     * @param maxEnMemoria Nombre màxim de sessions en memòria (sense comptar les que s'estan fent servir).
+     * @param maxInactivitat Temps en mil·lisegons sense usar una sessió a partir del qual s'expulsa.
+     * @throws IOException Si no es pot crear el directori.
+     */
+    public MagatzemSessions(ServidorPartides servidor, File directori, int maxEnMemoria, long maxInactivitat)
+            throws IOException {
+        _servidor = servidor;
+        _directori = directori;
+        _maxEnMemoria = maxEnMemoria;
+        _maxInactivitat = maxInactivitat;
+        if (!directori.isDirectory() && !directori.mkdirs())
+            throw new IOException("No s'ha pogut crear el directori " + directori);
+        File[] fitxers = directori.listFiles();
+        if (fitxers != null)
+            for (File f : fitxers)
+                if (f.getName().endsWith(EXTENSIO))
+                    _enDisc.add(f.getName().substring(0, f.getName().length() - EXTENSIO.length()));
+    }
+
+    /**
+     * @brief Crear una sessió nova.
+     * @post S'ha afegit una sessió nova sense partida, agafada pel fil que crida.
+     * @return L'identificador de la sessió.
+     */
+    public synchronized String crear() {
+        String id;
+        do {
+            id = Long.toHexString(_aleatori.nextLong() & Long.MAX_VALUE);
+        } while (_enMemoria.containsKey(id) || _enDisc.contains(id) || _enExpulsio.containsKey(id));
+        Entrada e = new Entrada();
+        e._sessio = new SessioPartida(_servidor);
+        e._enUs = true;
+        _enMemoria.put(id, e);
+        _connexions.put(id, 1);
+        return id;
+    }
+
+    /**
+     * @brief Indica si existeix una sessió.
+     * @return Cert si hi ha una sessió amb identificador \p id, en memòria o a disc.
+     */
+    public synchronized boolean existeix(String id) {
+        return _enMemoria.containsKey(id) || _enExpulsio.containsKey(id) || _enDisc.contains(id);
+    }
+
+    /**
+     * @brief Reprendre una sessió des d'una connexió.
+     * @post Si existeix la sessió \p id, consta com a oberta per una connexió més, fins que aquesta crida tancar().
+     * @return Cert si existeix la sessió.
+     */
+    public synchronized boolean reprendre(String id) {
+        if (!existeix(id)) return false;
+        _connexions.merge(id, 1, Integer::sum);
+        return true;
+    }
+
+    /**
+     * @brief Agafar una sessió per fer-la servir.
+     * @pre \p id != null
+     * @post Es retorna la sessió i queda en ús fins que es crida retornar(). Si la sessió era a disc, s'ha llegit
+     *       i s'ha esborrat el fitxer.
+     * @param id Identificador de la sessió.
+     * @return La sessió.
+     * @throws NoSuchElementException Si no hi ha cap sessió amb identificador \p id.
+     * @throws IllegalStateException Si un altre fil està fent servir la sessió.
+     * @throws IOException Si la sessió era a disc i no s'ha pogut llegir.
+     */
+    public SessioPartida agafar(String id) throws IOException {
+        Entrada e;
+        synchronized (this) {
+            e = _enMemoria.get(id);
+            if (e != null) {
+                if (e._enUs) throw new IllegalStateException("La sessió " + id + " està ocupada");
+                e._enUs = true;
+                _encerts.incrementAndGet();
+                return e._sessio;
+            }
+            if (_enExpulsio.containsKey(id)) {
+                e = new Entrada();
+                e._sessio = _enExpulsio.remove(id);
+                e._enUs = true;
+                _enMemoria.put(id, e);
+                _encerts.incrementAndGet();
+                return e._sessio;
+            }
+            if (!_enDisc.remove(id)) throw new NoSuchElementException("No existeix la sessió " + id);
+            e = new Entrada();
+            e._enUs = true;
+            _enMemoria.put(id, e);
+        }
+
+        // Llegir la sessió de disc sense bloquejar les altres
+        File f = fitxer(id);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(
+                new FileInputStream(f))))) {
+            e._sessio = SessioPartida.llegir(in, _servidor);
+        } catch (IOException | RuntimeException ex) {
+            _errors.incrementAndGet();
+            synchronized (this) {
+                _enMemoria.remove(id);
+                _enDisc.add(id);
+            }
+            throw new IOException("No s'ha pogut recuperar la sessió " + id + ": " + ex.getMessage());
+        }
+        f.delete();
+        _fallades.incrementAndGet();
+        return e._sessio;
+    }
+
+    /**
+     * @brief Retornar una sessió que s'ha acabat de fer servir.
+     * @pre La sessió \p id l'ha agafada el fil que crida.
+     * @post La sessió deixa d'estar en ús. Si hi ha més sessions en memòria que les permeses, s'expulsen les usades
+     *       fa més temps.
+     * @param id Identificador de la sessió.
+     */
+    public void retornar(String id) {
+        synchronized (this) {
+            Entrada e = _enMemoria.get(id);
+            if (e == null) return;
+            e._enUs = false;
+            e._darrerUs = System.currentTimeMillis();
+        }
+        expulsar(false);
+    }
+
+    /**
+     * @brief Eliminar una sessió.
+     * @pre La sessió \p id l'ha agafada el fil que crida o no està en ús.
+     * @post S'ha eliminat la sessió de memòria i de disc.
+     * @param id Identificador de la sessió.
+     */
+    public void eliminar(String id) {
+        boolean aDisc;
+        synchronized (this) {
+            _enMemoria.remove(id);
+            _enExpulsio.remove(id);
+            aDisc = _enDisc.remove(id);
+        }
+        if (aDisc) fitxer(id).delete();
+    }
+
+    /**
+     * @brief Tancar una sessió de la qual s'ha desconnectat el client.
+     * @pre La sessió \p id l'ha creada o represa la connexió que crida, i aquesta encara no l'ha tancada.
+     * @post La sessió consta com a oberta per una connexió menys. Si ja no la té oberta cap connexió, és en memòria,
+     *       no està en ús i no té cap partida en joc, s'ha eliminat. Altrament es conserva perquè es pugui reprendre.
+     * @param id Identificador de la sessió.
+     */
+    public synchronized void tancar(String id) {
+        Integer connexions = _connexions.remove(id);
+        if (connexions != null && connexions > 1) {
+            _connexions.put(id, connexions - 1);
+            return;
+        }
+        Entrada e = _enMemoria.get(id);
+        if (e != null && !e._enUs && !e._sessio.enJoc())
+            _enMemoria.remove(id);
+    }
+
+    /**
+     * @brief Expulsar les sessions inactives.
+     * @post S'han expulsat de memòria les sessions que fa més del temps d'inactivitat màxim que no s'usen, i les
+     *       usades fa més temps si n'hi ha més de les permeses.
+     * @return El nombre de sessions expulsades.
+     */
+    public int expulsarInactives() {
+        return expulsar(true);
+    }
+
+    /**
+     * @brief Estadístiques del magatzem.
+     * @return Una línia amb les sessions en memòria i a disc, els encerts i fallades en agafar sessions, les
+     *         expulsions, les sessions descartades, els errors i la mida de la darrera sessió escrita.
+     */
+    public String estadistiques() {
+        synchronized (this) {
+            return "enMemoria=" + _enMemoria.size() + " enDisc=" + (_enDisc.size() + _enExpulsio.size()) +
+                    " encerts=" + _encerts.get() + " fallades=" + _fallades.get() +
+                    " expulsions=" + _expulsions.get() + " descartades=" + _descartades.get() +
+                    " errorsDisc=" + _errors.get() + " bytesDarreraExpulsio=" + _bytesDisc.get();
+        }
+    }
+
+    /**
+     * @brief Expulsar sessions de memòria.
+     * @post S'han expulsat les sessions sobrants i, si \p perInactivitat, també les inactives. Les sessions es
+     *       treuen de memòria amb el magatzem bloquejat però s'escriuen a disc sense bloquejar-lo; mentre
+     *       s'escriuen, es poden tornar a agafar.
+     * @return El nombre de sessions expulsades.
+     */
+    private int expulsar(boolean perInactivitat) {
+        List<String> expulsades = new ArrayList<>();
+        synchronized (this) {
+            long limit = System.currentTimeMillis() - _maxInactivitat;
+            int sobrants = _enMemoria.size() - _maxEnMemoria;
+            Iterator<Map.Entry<String,Entrada>> it = _enMemoria.entrySet().iterator();
+            while (it.hasNext() && (sobrants > 0 || perInactivitat)) {
+                Map.Entry<String,Entrada> entrada = it.next();
+                Entrada e = entrada.getValue();
+                if (e._enUs) continue;
+                if (sobrants <= 0 && e._darrerUs > limit) break;    // La resta s'han usat més recentment
+                if (!e._sessio.enJoc()) {
+                    it.remove();
+                    _descartades.incrementAndGet();
+                    sobrants--;
+                }
+                else if (e._sessio.esPotEscriure()) {
+                    it.remove();
+                    _enExpulsio.put(entrada.getKey(), e._sessio);
+                    expulsades.add(entrada.getKey());
+                    sobrants--;
+                }
+            }
+        }
+
+        for (String id : expulsades)
+            escriure(id);
+        return expulsades.size();
+    }
+
+    /**
+     * @brief Escriure a disc una sessió que s'està expulsant.
+     * @pre \p id és a les sessions en expulsió.
+     * @post Si la sessió no s'ha tornat a agafar mentre s'escrivia, s'ha escrit a disc. Si no s'ha pogut escriure,
+     *       torna a la memòria.
+     */
+    private void escriure(String id) {
+        SessioPartida sessio;
+        synchronized (this) {
+            sessio = _enExpulsio.get(id);
+        }
+        if (sessio == null) return;
+
+        File f = fitxer(id);
+        File temporal = new File(f.getPath() + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(
+                new FileOutputStream(temporal), deflater)))) {
+            sessio.escriure(out);
+        } catch (IOException | RuntimeException e) {
+            _errors.incrementAndGet();
+            temporal.delete();
+            synchronized (this) {
+                if (_enExpulsio.remove(id) != null) tornarAMemoria(id, sessio);
+            }
+            return;
+        } finally {
+            deflater.end();
+        }
+
+        synchronized (this) {
+            if (_enExpulsio.get(id) == sessio) {
+                _enExpulsio.remove(id);
+                if (temporal.renameTo(f)) {
+                    _enDisc.add(id);
+                    _expulsions.incrementAndGet();
+                    _bytesDisc.set(f.length());
+                    return;
+                }
+                _errors.incrementAndGet();
+                tornarAMemoria(id, sessio);
+            }
+        }
+        temporal.delete();  // S'ha tornat a agafar o eliminar mentre s'escrivia, o no s'ha pogut reanomenar
+    }
+
+    /**
+     * @brief Torna a posar en memòria una sessió que no s'ha pogut escriure a disc.
+     * @pre El fil que crida té el magatzem bloquejat.
+     */
+    private void tornarAMemoria(String id, SessioPartida sessio) {
+        Entrada entrada = new Entrada();
+        entrada._sessio = sessio;
+        entrada._darrerUs = System.currentTimeMillis();
+        _enMemoria.put(id, entrada);
+    }
+
+    /**
+     * @brief Fitxer on s'escriu una sessió expulsada.
+     */
+    private File fitxer(String id) {
+        return new File(_directori, id + EXTENSIO);
+    }
+}
@@ -0,0 +1,354 @@
+/**
+ * @file MotorUCI.java
+ * @brief Motor d'escacs amb un protocol de text semblant a UCI.
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @class MotorUCI
+ * @brief Adaptador que permet fer servir el JugadorCPU des de programes externs (gestors de tornejos, eines
+ *        d'anàlisi...) amb un protocol semblant a UCI per l'entrada i la sortida estàndard.
+ * @details Comandes acceptades: \c uci, \c isready, \c setoption, \c ucinewgame, \c position, \c go, \c stop,
+ *          \c quit i \c d (mostra el tauler). Extensions per variants genèriques:
+ *          - El fitxer de regles s'indica amb <tt>setoption name Regles value F</tt>. La posició inicial
+ *            (\c startpos) és la definida al fitxer de regles.
+ *          - <tt>position fitxer F [moves ...]</tt> parteix d'una partida començada desada al fitxer de
+ *            desenvolupament F.
+ *          - Les caselles poden tenir més d'una xifra (\c a10). Una jugada és l'origen i el destí seguits
+ *            opcionalment del símbol de la peça de promoció (\c d7d8d). Un enroc s'escriu amb les posicions de les
+ *            dues peces (\c f1h1), com en les variants de posició inicial aleatòria.
+ *
+ *          La cerca s'executa en un fil propi, de manera que es pot aturar amb \c stop. Després de cada profunditat
+ *          completada s'escriu una línia \c info amb la profunditat, la puntuació, els nodes, els nodes per segon, el
+ *          temps i la jugada.
+ */
+public class MotorUCI {
+    public static final String NOM = "JocEscacsGenerics";   ///< Nom del motor.
+    private static final Pattern JUGADA = Pattern.compile("^([a-z]\\d+)-?([a-z]\\d+)([a-z]?)$");
+        ///< Expressió regular d'una jugada.
+
+    private final PrintStream _out;                 ///< Sortida on s'escriuen les respostes.
+    private String _fitxerRegles = "";              ///< Fitxer de regles de les partides.
+    private Partida _partida;                       ///< Posició actual, null si encara no se n'ha indicat cap.
+    private Thread _fil;                            ///< Fil de la cerca en curs, null si no n'hi ha.
+    private JugadorCPU.LimitsCerca _limits;         ///< Límits de la cerca en curs.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre \p out != null
+     * @post Es crea un motor que escriu les respostes a \p out.
+     * @param out Sortida on s'escriuen les respostes.
+     */
+    public MotorUCI(PrintStream out) {
+        _out = out;
+    }
+
+    /**
+     * @brief Executar les comandes rebudes fins a \c quit o el final de l'entrada.
+     * @pre \p in != null
+     * @post S'han executat totes les comandes de \p in i s'ha aturat la cerca en curs.
+     * @param in Entrada d'on es llegeixen les comandes.
+     * @throws IOException Si no s'ha pogut llegir l'entrada.
+     */
+    public void executar(BufferedReader in) throws IOException {
+        String linia;
+        while ((linia = in.readLine()) != null) {
+            if (!executarComanda(linia.trim())) break;
+        }
+        aturar();
+    }
+
+    /**
+     * @brief Executar una comanda.
+     * @pre \p linia != null
+     * @post S'ha executat la comanda \p linia. Els errors s'indiquen amb una línia <tt>info string</tt>.
+     * @param linia Comanda rebuda.
+     * @return Fals si la comanda és \c quit, cert altrament.
+     */
+    boolean executarComanda(String linia) {
+        String[] s = linia.split("\\s+");
+        try {
+            switch (s[0]) {
+                case "uci":
+                    escriure("id name " + NOM);
+                    escriure("id author David Pérez Sánchez i Laura Galera Alfaro");
+                    escriure("option name Regles type string default " + _fitxerRegles);
+                    escriure("uciok");
+                    break;
+                case "isready":
+                    escriure("readyok");
+                    break;
+                case "setoption":
+                    assignarOpcio(linia);
+                    break;
+                case "ucinewgame":
+                    aturar();
+                    _partida = null;
+                    if (TaulaTransposicio.global() != null) TaulaTransposicio.global().buidar();
+                    break;
+                case "position":
+                    aturar();
+                    posicio(s);
+                    break;
+                case "go":
+                    aturar();
+                    cercar(s);
+                    break;
+                case "stop":
+                    aturar();
+                    break;
+                case "d":
+                    if (_partida != null) escriure(_partida.dibuixTauler());
+                    break;
+                case "quit":
+                    return false;
+                default:
+                    if (!s[0].isEmpty()) escriure("info string Comanda desconeguda: " + s[0]);
+            }
+        } catch (ExcepcioJugadaErronia | IOException | RuntimeException e) {
+            escriure("info string Error: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * @brief Assignar una opció del motor.
+     * @pre \p linia té el format <tt>setoption name N value V</tt>.
+     * @post Si l'opció és \c Regles, s'han canviat les regles de les partides i s'ha descartat la posició actual.
+     */
+    private void assignarOpcio(String linia) {
+        Matcher m = Pattern.compile("^setoption\\s+name\\s+(.+?)(?:\\s+value\\s+(.*))?$").matcher(linia);
+        if (!m.matches()) throw new IllegalArgumentException("Format: setoption name N value V");
+        if (!m.group(1).equalsIgnoreCase("Regles"))
+            throw new IllegalArgumentException("Opció desconeguda: " + m.group(1));
+        aturar();
+        _fitxerRegles = m.group(2) == null ? "" : m.group(2).trim();
+        _partida = null;
+    }
+
+    /**
+     * @brief Establir la posició actual.
+     * @pre \p s són les paraules d'una comanda \c position.
+     * @post La posició actual és la posició inicial de les regles o la de la partida desada indicada, després
+     *       d'efectuar les jugades que segueixen \c moves.
+     * @throws IOException Si no s'ha pogut llegir el fitxer de regles o de desenvolupament.
+     * @throws ExcepcioJugadaErronia Si alguna de les jugades no té un format correcte o no es pot efectuar.
+     */
+    private void posicio(String[] s) throws IOException, ExcepcioJugadaErronia {
+        int i = 1;
+        if (s.length > 1 && s[1].equals("startpos")) {
+            _partida = partidaNova();
+            i = 2;
+        }
+        else if (s.length > 2 && s[1].equals("fitxer")) {
+            _partida = Loader.carregarPartidaComencada(s[2]);
+            i = 3;
+        }
+        else throw new ExcepcioJugadaErronia("Format: position [startpos | fitxer F] [moves ...]");
+
+        if (i < s.length) {
+            if (!s[i].equals("moves")) throw new ExcepcioJugadaErronia("S'esperava \"moves\"");
+            for (i++; i < s.length; i++)
+                efectuar(s[i]);
+        }
+    }
+
+    /**
+     * @brief Efectuar una jugada a la posició actual.
+     * @pre \p jugada està en el format del protocol.
+     * @post S'ha efectuat la jugada i, si s'indica, la promoció.
+     * @throws ExcepcioJugadaErronia Si \p jugada no té un format correcte o no es pot efectuar.
+     */
+    private void efectuar(String jugada) throws ExcepcioJugadaErronia {
+        Matcher m = JUGADA.matcher(jugada);
+        if (!m.matches()) throw new ExcepcioJugadaErronia("Format de la jugada incorrecte: " + jugada);
+        Posicio origen = new Posicio(m.group(1));
+        Posicio desti = new Posicio(m.group(2));
+
+        Peca pecaOrigen = _partida.pecaTauler(origen);
+        Peca pecaDesti = _partida.pecaTauler(desti);
+        boolean esEnroc = pecaOrigen != null && pecaDesti != null && pecaOrigen.color() == pecaDesti.color()
+                && _partida.enrocsPeca(origen).contains(desti);
+        Jugada jug = esEnroc ? new JugadaEnroc(m.group(1) + " - " + m.group(2))
+                             : new JugadaOrdinaria(m.group(1) + " " + m.group(2));
+        _partida.efectuarTiradaOrdinaria(jug);
+
+        if (!m.group(3).isEmpty()) {
+            Posicio posPromo = _partida.posicioPromocio();
+            if (posPromo == null) throw new ExcepcioJugadaErronia("La jugada no permet promocionar: " + jugada);
+            _partida.efectuarPromocio(posPromo, nomPerSimbol(m.group(3).charAt(0)));
+        }
+    }
+
+    /**
+     * @brief Iniciar una cerca.
+     * @pre \p s són les paraules d'una comanda \c go.
+     * @post S'ha iniciat un fil que cerca la millor jugada de la posició actual amb els límits indicats, escriu
+     *       les línies \c info i, en acabar, la línia \c bestmove.
+     * @throws IOException Si cal crear la posició inicial i no s'ha pogut llegir el fitxer de regles.
+     */
+    private void cercar(String[] s) throws IOException {
+        if (_partida == null) _partida = partidaNova();
+        final Partida partida = _partida;
+        final int torn = partida.tornActual();
+
+        int profunditat = 0;
+        long nodes = 0, movetime = 0, movestogo = 0;
+        long[] temps = new long[2];
+        long[] increment = new long[2];
+        boolean infinit = false;
+        for (int i = 1; i < s.length; i++) {
+            String valor = i + 1 < s.length ? s[i + 1] : "0";
+            switch (s[i]) {
+                case "depth": profunditat = Integer.parseInt(valor); i++; break;
+                case "nodes": nodes = Long.parseLong(valor); i++; break;
+                case "movetime": movetime = Long.parseLong(valor); i++; break;
+                case "wtime": temps[0] = Long.parseLong(valor); i++; break;
+                case "btime": temps[1] = Long.parseLong(valor); i++; break;
+                case "winc": increment[0] = Long.parseLong(valor); i++; break;
+                case "binc": increment[1] = Long.parseLong(valor); i++; break;
+                case "movestogo": movestogo = Long.parseLong(valor); i++; break;
+                case "infinite": infinit = true; break;
+                default: break;
+            }
+        }
+        if (movetime == 0 && temps[torn] > 0 && !infinit)
+            movetime = tempsJugada(temps[torn], increment[torn], movestogo);
+
+        final JugadorCPU.LimitsCerca limits = new JugadorCPU.LimitsCerca(profunditat, nodes, movetime);
+        _limits = limits;
+        _fil = new Thread(new Runnable() {
+            public void run() {
+                escriure("bestmove " + millorJugada(partida, limits));
+            }
+        }, "cerca-uci");
+        _fil.start();
+    }
+
+    /**
+     * @brief Cerca la millor jugada d'una partida.
+     * @post Es retorna la jugada en el format del protocol, o \c 0000 si no hi ha cap jugada possible.
+     */
+    private String millorJugada(final Partida partida, JugadorCPU.LimitsCerca limits) {
+        try {
+            Jugada jug = partida.cercarJugadaCPU(limits, new JugadorCPU.OientCerca() {
+                public void informar(int profunditat, int puntuacio, long nodes, long temps, Jugada millor) {
+                    escriure("info depth " + profunditat + " score " + puntuacio(puntuacio) +
+                            " nodes " + nodes + " nps " + nodes * 1000 / Math.max(1, temps) + " time " + temps +
+                            " pv " + text(millor, null, partida));
+                }
+            });
+            if (jug == null) return "0000";
+            return text(jug, partida.promocioCPU(jug), partida);
+        } catch (ExcepcioJugadaErronia | RuntimeException e) {
+            escriure("info string Error: " + e.getMessage());
+            return "0000";
+        }
+    }
+
+    /**
+     * @brief Aturar la cerca en curs.
+     * @post Si hi havia una cerca en curs, s'ha aturat i ja s'ha escrit la seva línia \c bestmove.
+     */
+    private void aturar() {
+        if (_fil == null) return;
+        _limits.aturar();
+        try {
+            _fil.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        _fil = null;
+        _limits = null;
+    }
+
+    /**
+     * @brief Partida nova amb les regles actuals.
+     * @throws IOException Si no s'ha pogut llegir el fitxer de regles.
+     * @throws IllegalArgumentException Si no s'ha indicat cap fitxer de regles o no és correcte.
+     */
+    private Partida partidaNova() throws IOException {
+        if (_fitxerRegles.isEmpty())
+            throw new IllegalArgumentException("Cal indicar el fitxer de regles amb setoption name Regles value F");
+        return Loader.carregarPartidaNova(_fitxerRegles);
+    }
+
+    /**
+     * @brief Nom de la peça per la qual es pot promocionar que té un símbol.
+     * @throws ExcepcioJugadaErronia Si cap de les peces per les quals es pot promocionar té el símbol \p simbol.
+     */
+    private String nomPerSimbol(char simbol) throws ExcepcioJugadaErronia {
+        Set<String> noms = _partida.nomPromocionables();
+        for (String nom : noms)
+            if (Character.toLowerCase(_partida.pecaDisponible(nom).simbol()) == simbol) return nom;
+        throw new ExcepcioJugadaErronia("No es pot promocionar a la peça " + simbol);
+    }
+
+    /**
+     * @brief Text d'una jugada en el format del protocol.
+     * @param jug Jugada.
+     * @param promocio Nom de la peça de promoció o null si no n'hi ha.
+     * @param partida Partida on s'efectua la jugada.
+     */
+    private static String text(Jugada jug, String promocio, Partida partida) {
+        String[] linies = jug.toString().split("\\n");
+        String res = jug instanceof JugadaEnroc ? linies[0].replaceAll("[ -]", "") : linies[0] + linies[1];
+        if (promocio != null) res += Character.toLowerCase(partida.pecaDisponible(promocio).simbol());
+        return res;
+    }
+
+    /**
+     * @brief Puntuació d'una cerca en el format del protocol.
+     * @return \c mate seguit de les jugades fins l'escac i mat (negatiu si el rebrà el jugador que cerca) si la cerca
+     *         ha trobat un escac i mat, o \c cp seguit de la puntuació en centèsimes del valor de les peces altrament.
+     */
+    private static String puntuacio(int puntuacio) {
+        if (JugadorCPU.esMat(puntuacio)) {
+            int tirades = JugadorCPU.tiradesMat(puntuacio);
+            return puntuacio > 0 ? "mate " + (tirades + 1) / 2 : "mate -" + tirades / 2;
+        }
+        long cp = Math.max(-30000, Math.min(30000, puntuacio * 100L));
+        return "cp " + cp;
+    }
+
+    /**
+     * @brief Temps que es dedica a una jugada segons el rellotge.
+     * @pre \p temps > 0
+     * @return El temps restant dividit entre les jugades que falten (30 si no se sap) més la meitat de l'increment,
+     *         sense superar el temps restant menys un marge.
+     */
+    private static long tempsJugada(long temps, long increment, long movestogo) {
+        long t = temps / (movestogo > 0 ? movestogo : 30) + increment / 2;
+        return Math.max(1, Math.min(t, temps - 50));
+    }
+
+    /**
+     * @brief Escriu una línia a la sortida.
+     */
+    private void escriure(String linia) {
+        synchronized (_out) {
+            _out.println(linia);
+            _out.flush();
+        }
+    }
+
+    /**
+     * @brief Executar el motor per l'entrada i la sortida estàndard.
+     * @pre \p args pot contenir el fitxer de regles.
+     * @post S'han executat les comandes de l'entrada estàndard fins a \c quit.
+     */
+    public static void main(String[] args) throws IOException {
+        PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false, "UTF-8");
+        System.setOut(new PrintStream(new OutputStream() {   // Els missatges del Loader no han d'arribar al client
+            public void write(int b) {}
+        }));
+        MotorUCI motor = new MotorUCI(out);
+        if (args.length > 0) motor._fitxerRegles = args[0];
+        motor.executar(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+    }
+}
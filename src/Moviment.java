@@ -25,10 +25,10 @@ import java.util.*;
 
 public class Moviment {
 
-    private String _fila;    ///< Increment de la fila. Pot ser un enter determinat o un literal del conjunt {a,b,n,m}, incloent els negatius -n i -m.
-    private String _columna; ///< Increment de la columna. Pot ser un enter determinat o un literal del conjunt {a,b,n,m}, incloent els negatius -n, -m i -a, -b (els dos últims reservats per moviments diagonals).
-    private int _capturar;   ///< Valor numèric per indicar si el moviment permet a la peça capturar en destí.
-    private int _saltar;     ///< Valor numèric per indicar si el moviment permet a la peça saltar o saltar capturant altres peces.
+    private final String _fila;    ///< Increment de la fila. Pot ser un enter determinat o un literal del conjunt {a,b,n,m}, incloent els negatius -n i -m.
+    private final String _columna; ///< Increment de la columna. Pot ser un enter determinat o un literal del conjunt {a,b,n,m}, incloent els negatius -n, -m i -a, -b (els dos últims reservats per moviments diagonals).
+    private final int _capturar;   ///< Valor numèric per indicar si el moviment permet a la peça capturar en destí.
+    private final int _saltar;     ///< Valor numèric per indicar si el moviment permet a la peça saltar o saltar capturant altres peces.
 
 
     /**@brief Enumeració usada per a classificar el moviment segons els valors de \a fila i \a columna.**/
@@ -49,15 +49,13 @@ public class Moviment {
         @throws IllegalArgumentException si els paràmetres d'entrada no es troben entre els valors permesos per un moviment.
      */
     public Moviment(String f, String c, int capt, int salt) throws IllegalArgumentException{
+        _fila = f;
+        _columna = c;
+        _capturar = capt;
+        _saltar = salt;
         boolean formatCorrecte = esValorPermesFila(f) && esValorPermesCol(f,c) && esValorCaptSalta(capt) && esValorCaptSalta(salt);
-        if(formatCorrecte) {
-            _fila = f;
-            _columna = c;
-            _capturar = capt;
-            _saltar = salt;
-            if(esCombinat() && _saltar!=1)
-                formatCorrecte = false;
-        }
+        if(formatCorrecte && esCombinat() && _saltar!=1)
+            formatCorrecte = false;
         if(!formatCorrecte)
             throw new IllegalArgumentException("Error: el moviment" + this + " no és vàlid");
     }
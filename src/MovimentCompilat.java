@@ -0,0 +1,149 @@
+/**
+ * @file MovimentCompilat.java
+ * @brief Moviment d'un tipus de peça preparat per generar destins sense interpretar-lo.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @class MovimentCompilat
+ * @brief Un Moviment d'un tipus de peça, per un color, amb tot el que TaulerEscacs necessita per recórrer els seus
+ *        destins ja calculat.
+ * @details Els moviments literals enters es divideixen en moviments literals naturals, els de les negres s'inverteixen i
+ *          els increments de fila i columna es converteixen en enters una sola vegada, quan es carreguen les regles (veure
+ *          PieceType). Cada part té una de tres formes:
+ *          - FIXA: un sol destí a un desplaçament concret, com [2,1].
+ *          - RAIG: destins successius avançant sempre el mateix pas, com [n,0] o [-n,n].
+ *          - COMBINAT: totes les combinacions d'increments de fila i columna, com [n,m] o [n,3].
+ */
+public final class MovimentCompilat {
+    public static final int FIXA = 0;       ///< Forma d'una part amb un sol destí.
+    public static final int RAIG = 1;       ///< Forma d'una part que avança en línia recta o diagonal.
+    public static final int COMBINAT = 2;   ///< Forma d'una part combinada.
+
+    private final Moviment _original;       ///< Moviment de les regles, sense dividir ni invertir.
+    private final Moviment[] _parts;        ///< Moviment de cada part, ja dividit i invertit pel color.
+    private final int[] _forma;             ///< Forma de cada part (FIXA, RAIG o COMBINAT).
+    private final int[] _columna;           ///< Desplaçament (FIXA), pas (RAIG) o increment inicial (COMBINAT) de la columna.
+    private final int[] _fila;              ///< Desplaçament (FIXA), pas (RAIG) o increment inicial (COMBINAT) de la fila.
+    private final boolean[] _columnaFixa;   ///< Si l'increment de columna d'una part COMBINAT és un número i no n, m, -n o -m.
+    private final boolean[] _filaFixa;      ///< Si l'increment de fila d'una part COMBINAT és un número i no n, m, -n o -m.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre \p moviment és un moviment vàlid de les regles i 0 <= \p color <= 1.
+     * @post Es compila \p moviment per les peces de color \p color, de la mateixa manera que el recorreria
+     *       TaulerEscacs interpretant-lo.
+     * @param moviment Moviment de les regles.
+     * @param color 0 per les peces blanques, 1 per les negres.
+     */
+    public MovimentCompilat(Moviment moviment, int color) {
+        _original = moviment;
+        List<Moviment> parts = new ArrayList<>();
+        if (moviment.consultarSubtipus() == Moviment.subTipus.LITERAL_ENTER) //si el moviment és literal enter...
+            parts.addAll(moviment.dividirMov()); //dividim el moviment en dos moviments naturals
+        else
+            parts.add(moviment);
+        int n = parts.size();
+        _parts = new Moviment[n];
+        _forma = new int[n];
+        _columna = new int[n];
+        _fila = new int[n];
+        _columnaFixa = new boolean[n];
+        _filaFixa = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            Moviment mov = color == 1 ? parts.get(i).invertir() : parts.get(i); //el moviment de les negres s'inverteix
+            _parts[i] = mov;
+            if (mov.consultarSubtipus() == Moviment.subTipus.NUMERIC) {
+                _forma[i] = FIXA;
+                _columna[i] = Integer.parseInt(mov.columna());
+                _fila[i] = Integer.parseInt(mov.fila());
+            } else if (mov.esCombinat()) {
+                _forma[i] = COMBINAT;
+                _columna[i] = increment(mov.columna());
+                _fila[i] = increment(mov.fila());
+                _columnaFixa[i] = esNumero(mov.columna());
+                _filaFixa[i] = esNumero(mov.fila());
+            } else {
+                _forma[i] = RAIG;
+                _columna[i] = Integer.signum(increment(mov.columna()));
+                _fila[i] = Integer.signum(increment(mov.fila()));
+            }
+        }
+    }
+
+    /** @brief Moviment de les regles, sense dividir ni invertir. */
+    public Moviment original() {
+        return _original;
+    }
+
+    /** @brief Nombre de parts. */
+    public int parts() {
+        return _parts.length;
+    }
+
+    /**
+     * @brief Moviment de la part \p i, ja invertit si la peça és negra.
+     * @pre 0 <= \p i < parts()
+     */
+    public Moviment moviment(int i) {
+        return _parts[i];
+    }
+
+    /**
+     * @brief Forma de la part \p i: FIXA, RAIG o COMBINAT.
+     * @pre 0 <= \p i < parts()
+     */
+    public int forma(int i) {
+        return _forma[i];
+    }
+
+    /**
+     * @brief Desplaçament, pas o increment inicial de la columna de la part \p i, segons la seva forma.
+     * @pre 0 <= \p i < parts()
+     */
+    public int columna(int i) {
+        return _columna[i];
+    }
+
+    /**
+     * @brief Desplaçament, pas o increment inicial de la fila de la part \p i, segons la seva forma.
+     * @pre 0 <= \p i < parts()
+     */
+    public int fila(int i) {
+        return _fila[i];
+    }
+
+    /**
+     * @brief Indica si la columna de la part COMBINAT \p i avança un nombre concret de caselles.
+     * @pre 0 <= \p i < parts() i forma(\p i) == COMBINAT
+     * @return Cert si només es pot fer un pas de columna(\p i) caselles, fals si se'n poden fer tants com càpiguen al tauler.
+     */
+    public boolean columnaFixa(int i) {
+        return _columnaFixa[i];
+    }
+
+    /**
+     * @brief Indica si la fila de la part COMBINAT \p i avança un nombre concret de caselles.
+     * @pre 0 <= \p i < parts() i forma(\p i) == COMBINAT
+     * @return Cert si només es pot fer un pas de fila(\p i) caselles, fals si se'n poden fer tants com càpiguen al tauler.
+     */
+    public boolean filaFixa(int i) {
+        return _filaFixa[i];
+    }
+
+    /**
+     * @brief Increment d'un component d'un moviment literal natural: 1 per n i m, -1 per -n i -m, o el número.
+     */
+    private static int increment(String despl) {
+        if (despl.equals("n") || despl.equals("m")) return 1;
+        if (despl.equals("-n") || despl.equals("-m")) return -1;
+        return Integer.parseInt(despl);
+    }
+
+    /** @brief Indica si un component d'un moviment literal natural és un número i no n, m, -n o -m. */
+    private static boolean esNumero(String despl) {
+        return !despl.endsWith("n") && !despl.endsWith("m");
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * @file OientPartida.java
+ * @brief Receptor dels canvis d'una partida d'escacs.
+ */
+
+/**
+ * @interface OientPartida
+ * @brief Rep els esdeveniments d'una partida a la qual s'ha registrat amb Partida::afegirOient().
+ * @details Els esdeveniments es lliuren en ordre des del fil que modifica la partida, mentre en té el monitor: la
+ *          implementació ha de ser ràpida i no pot modificar la partida. Per consumir-los des d'un altre fil es pot
+ *          fer servir CuaEsdeveniments.
+ */
+public interface OientPartida {
+
+    /**
+     * @brief S'ha produït un canvi a la partida.
+     * @pre \p e != null
+     * @param e Descripció del canvi.
+     */
+    void esdeveniment(EsdevenimentPartida e);
+}
@@ -0,0 +1,32 @@
+/**
+ * @file OientProgres.java
+ * @brief Receptor del progrés d'una operació llarga.
+ */
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * @interface OientProgres
+ * @brief Rep el progrés de la càrrega o el desament d'una partida (veure Loader i Saver).
+ * @details Aquestes operacions s'aturen llançant una CancellationException si s'interromp el fil que les executa.
+ */
+public interface OientProgres {
+
+    /**
+     * @brief S'ha avançat en l'operació.
+     * @pre 0 <= \p fet <= \p total
+     * @param fet Unitats completades (tirades reproduïdes, bytes escrits...).
+     * @param total Unitats totals de l'operació.
+     */
+    void progres(long fet, long total);
+
+    /**
+     * @brief Atura l'operació si s'ha demanat cancel·lar-la.
+     * @post Si el fil actual està interromput, es llança l'excepció i el fil continua marcat com a interromput.
+     * @throws CancellationException Si el fil actual s'ha interromput.
+     */
+    static void comprovarCancellacio() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("Operació cancel·lada");
+    }
+}
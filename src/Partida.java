@@ -6,7 +6,11 @@
 
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * @class Partida
@@ -14,6 +18,9 @@ import java.util.*;
  */
 public class Partida {
     public final static String [] COLOR = {"BLANQUES","NEGRES"};   ///< Colors dels jugadors.
+    public final static String REI_OFEGAT = "TAULES PER REI OFEGAT";           ///< Resultat final per rei ofegat.
+    public final static String TAULES_INACCIO = "TAULES PER INACCIÓ";          ///< Resultat final pel límit d'inacció.
+    public final static String TAULES_ESCAC_CONTINU = "TAULES PER ESCAC CONTINU"; ///< Resultat final pel límit d'escacs.
 
     /**
      * @brief Enumeració dels tipus de tirades especials que es poden efectuar en una partida.
@@ -34,6 +41,31 @@ public class Partida {
         }
     }
 
+    /**
+     * @brief Enumeració dels motors amb què la CPU pot escollir les jugades d'un jugador.
+     */
+    public enum MotorCPU {
+        MINIMAX,    ///< Cerca alpha-beta de JugadorCPU.
+        MCTS;       ///< Cerca en arbre de Monte Carlo de CercaMCTS, per a regles amb moltes jugades per posició.
+
+        public static final String PROPIETAT = "escacs.motorsCPU"; ///< Propietat amb els motors per defecte.
+
+        /**
+         * @brief Motor per defecte d'un jugador.
+         * @pre 0 <= \p jugador <= 1
+         * @post La propietat del sistema \c escacs.motorsCPU pot indicar un motor per als dos jugadors (p. ex.
+         *       \c MCTS) o un per cada jugador separats per una coma, primer el de blanques (p. ex. \c MINIMAX,MCTS).
+         * @return El motor que indica la propietat per a \p jugador, o MINIMAX si no està definida.
+         * @throws IllegalArgumentException Si la propietat no indica cap motor vàlid.
+         */
+        public static MotorCPU perDefecte(int jugador) {
+            String propietat = System.getProperty(PROPIETAT);
+            if (propietat == null || propietat.trim().isEmpty()) return MINIMAX;
+            String[] motors = propietat.split(",");
+            return valueOf(motors[Math.min(jugador, motors.length - 1)].trim().toUpperCase());
+        }
+    }
+
     /**
      * @brief Enumeració dels possibles resultats d'una tirada.
      */
@@ -56,6 +88,18 @@ public class Partida {
                 default: return "";
             }
         }
+
+        /**
+         * @brief Resultat a partir del seu text.
+         * @pre \p text és el toString() d'algun resultat.
+         * @return El primer resultat amb el text \p text (NO_EFECTE si és buit).
+         * @throws IllegalArgumentException Si cap resultat no té el text \p text.
+         */
+        public static ResultatTirada deText(String text) {
+            for (ResultatTirada res : values())
+                if (res.toString().equals(text)) return res;
+            throw new IllegalArgumentException("Error: resultat de tirada desconegut: " + text);
+        }
     }
 
     /**
@@ -64,7 +108,10 @@ public class Partida {
      *        actual de la Partida.
      */
     private static class Dades {
-        public final TaulerEscacs _tauler; ///< Tauler d'escacs sobre el que es duu a terme el joc.
+        public TaulerEscacs _tauler;       ///< Tauler d'escacs sobre el que es duu a terme el joc, o null si encara
+                                           ///< s'ha de reconstruir a partir de _anteriors.
+        private byte[] _anteriors;         ///< Parelles (casella, codi de peça) de les caselles que la tirada següent
+                                           ///< va canviar, amb el codi que tenien abans, o null si _tauler != null.
         public int _tornActual;            ///< Torn actual.
         public int _tornsEscacsB;          ///< Torns consecutius fins al moment on s'ha produit escac per blanques.
         public int _tornsEscacsN;          ///< Torns consecutius fins al moment on s'ha produit escac per negres.
@@ -101,23 +148,298 @@ public class Partida {
             _tornsEscacsN = d._tornsEscacsN;
             _tornsInaccio = d._tornsInaccio;
         }
+
+        /**
+         * @brief Constructor d'un estat de l'historial llegit d'un fitxer binari, sense tauler.
+         * @pre \p anteriors != null i conté parelles (índex de casella de CodiJugada, codi de peça).
+         * @post Es crea un objecte Dades sense tauler, que es reconstrueix amb reconstruir() quan es necessita.
+         * @param anteriors Codis que tenien les caselles que va canviar la tirada següent.
+         */
+        public Dades(byte[] anteriors, int tornActual, int tornsEscacsB, int tornsEscacsN, int tornsInaccio){
+            this((TaulerEscacs) null, tornActual, tornsEscacsB, tornsEscacsN, tornsInaccio);
+            _anteriors = anteriors;
+        }
+
+        /**
+         * @brief Reconstrueix el tauler d'un estat llegit sense tauler.
+         * @pre \p seguent és el tauler de l'estat posterior a la tirada que parteix d'aquest estat.
+         * @post Si _tauler era null, ara és una còpia de \p seguent amb les caselles de _anteriors restaurades.
+         */
+        public void reconstruir(TaulerEscacs seguent) {
+            if (_tauler != null) return;
+            _tauler = new TaulerEscacs(seguent);
+            _tauler.restaurarCaselles(_anteriors);
+            _anteriors = null;
+        }
     }
     private Dades _dades;   ///< Dades susceptibles de ser modificades al realitzar una tirada.
 
+    /**
+     * @class Tirada
+     * @brief Entrada de l'historial de tirades.
+     * @details Es guarda la jugada amb el codi de CodiJugada i el resultat amb ResultatTirada, sense cap cadena de
+     *          caràcters llevat del text de la promoció. El mapa amb el format del fitxer JSON només es genera amb
+     *          dades(), quan es desa la partida o s'avisa els oients.
+     */
+    private static final class Tirada {
+        public static final int ESPECIAL = -1;  ///< Jugada d'una tirada especial (rendició, ajornament, taules...).
+
+        public final int _torn;             ///< Jugador que ha fet la tirada.
+        public final int _jugada;           ///< Codi de la jugada (veure CodiJugada), o ESPECIAL.
+        public final int _finalPrimera;     ///< Índex de la casella final de la primera peça d'un enroc.
+        public final int _finalSegona;      ///< Índex de la casella final de la segona peça d'un enroc.
+        public ResultatTirada _resultat;    ///< Com ha afectat la tirada a la partida.
+        public String _promocio;            ///< Text de la promoció de la peça que ha mogut, o null.
+
+        /**
+         * @brief Constructor amb paràmetres.
+         * @pre 0 <= \p torn <= 1, \p jugada és un codi de CodiJugada o ESPECIAL i, si és un enroc, \p finalPrimera i
+         *      \p finalSegona són els índexs de les caselles finals de les dues peces.
+         * @post Es crea una tirada sense promoció.
+         */
+        public Tirada(int torn, int jugada, int finalPrimera, int finalSegona, ResultatTirada resultat) {
+            _torn = torn;
+            _jugada = jugada;
+            _finalPrimera = finalPrimera;
+            _finalSegona = finalSegona;
+            _resultat = resultat;
+        }
+
+        /**
+         * @brief Tirada d'una jugada.
+         * @pre 0 <= \p torn <= 1 i \p jug és una JugadaOrdinaria o una JugadaEnroc.
+         */
+        public static Tirada deJugada(int torn, Jugada jug, ResultatTirada resultat) {
+            if (jug instanceof JugadaEnroc) {
+                JugadaEnroc enroc = (JugadaEnroc) jug;
+                return new Tirada(torn, CodiJugada.codificar(jug), Bitboard256.index(enroc.posicioFinalPrimera()),
+                        Bitboard256.index(enroc.posicioFinalSegona()), resultat);
+            }
+            return new Tirada(torn, CodiJugada.codificar(jug), 0, 0, resultat);
+        }
+
+        /** @brief Indica si és una tirada especial, és a dir, sense cap peça desplaçada. */
+        public boolean esEspecial() {
+            return _jugada == ESPECIAL;
+        }
+
+        /** @brief Indica si és un enroc. */
+        public boolean esEnroc() {
+            return !esEspecial() && CodiJugada.tipus(_jugada) == CodiJugada.ENROC;
+        }
+
+        /**
+         * @brief Resultat de la tirada tal com es desa.
+         * @return El resultat, seguit de la promoció si n'hi ha hagut (només la promoció si el resultat no té text).
+         */
+        public String resultat() {
+            if (_promocio == null) return _resultat.toString();
+            if (_resultat == ResultatTirada.NO_EFECTE) return _promocio;
+            return _resultat.toString() + ", " + _promocio;
+        }
+
+        /**
+         * @brief Mapa amb el format d'una tirada del fitxer JSON.
+         * @return Un mapa amb ordre d'inserció amb les claus torn, origen, desti i resultat. L'origen i el destí d'un
+         *         enroc són les caselles inicials i finals de les dues peces, i els d'una tirada especial són buits.
+         */
+        public LinkedHashMap<String,String> dades() {
+            String origen = "";
+            String desti = "";
+            if (esEnroc()) {
+                origen = CodiJugada.posicio(CodiJugada.origen(_jugada)) + " - " +
+                         CodiJugada.posicio(CodiJugada.desti(_jugada));
+                desti = CodiJugada.posicio(_finalPrimera) + " - " + CodiJugada.posicio(_finalSegona);
+            }
+            else if (!esEspecial()) {
+                origen = CodiJugada.posicio(CodiJugada.origen(_jugada)).toString();
+                desti = CodiJugada.posicio(CodiJugada.desti(_jugada)).toString();
+            }
+            LinkedHashMap<String,String> res = new LinkedHashMap<>();
+            res.put("torn",COLOR[_torn]);
+            res.put("origen",origen);
+            res.put("desti",desti);
+            res.put("resultat", resultat());
+            return res;
+        }
+    }
+
+    /**
+     * @class Instantania
+     * @brief Estat de la partida en un moment concret, que no canvia mai un cop creat.
+     * @details Les consultes no modifiquen res (els destins i enrocs del tauler ja estan calculats), de manera que es
+     *          poden fer des de qualsevol fil sense sincronització mentre la partida continua avançant.
+     */
+    public static final class Instantania {
+        private final long _versio;             ///< Nombre de modificacions de la partida quan es va crear.
+        private final TaulerEscacs _tauler;     ///< Còpia del tauler amb els destins i enrocs calculats.
+        private final int _tornActual;          ///< Torn actual.
+        private final String _resultatPartida;  ///< Resultat final de la partida (buit si no s'ha acabat).
+        private final Posicio _posPromocio;     ///< Posició de la peça que pot promocionar, o null.
+        private final int _tirades;             ///< Nombre de tirades efectuades.
+
+        /**
+         * @brief Constructor amb paràmetres.
+         * @pre \p t != null i ningú més no modificarà \p t.
+         * @post Es crea una instantània amb el tauler \p t, del qual es calculen tots els destins i enrocs.
+         */
+        private Instantania(long versio, TaulerEscacs t, int tornActual, String resultatPartida, Posicio posPromocio,
+                            int tirades) {
+            t.calcularDestins();
+            _versio = versio;
+            _tauler = t;
+            _tornActual = tornActual;
+            _resultatPartida = resultatPartida;
+            _posPromocio = posPromocio;
+            _tirades = tirades;
+        }
+
+        /**
+         * @brief Versió de la partida.
+         * @return Un nombre que creix cada vegada que es modifica la partida: dues instantànies amb la mateixa versió
+         *         representen el mateix estat.
+         */
+        public long versio() {
+            return _versio;
+        }
+
+        /**
+         * @brief Indica de qui és el torn.
+         * @return 0 si el torn és de blanques i 1 si és de negres.
+         */
+        public int tornActual() {
+            return _tornActual;
+        }
+
+        /**
+         * @brief Resultat final de la partida.
+         * @return Una cadena de caràcters amb el resultat final de la partida (buida si no s'havia acabat).
+         */
+        public String resultatPartida() {
+            return _resultatPartida;
+        }
+
+        /**
+         * @brief Posició de la peça que pot ser promocionada.
+         * @return La posició de la peça que ha mogut la darrera tirada si pot promocionar, null altrament.
+         */
+        public Posicio posicioPromocio() {
+            return _posPromocio;
+        }
+
+        /**
+         * @brief Nombre de tirades efectuades.
+         * @return La mida de l'historial de tirades.
+         */
+        public int tirades() {
+            return _tirades;
+        }
+
+        /**
+         * @brief Files del tauler.
+         */
+        public int files() {
+            return _tauler._fila;
+        }
+
+        /**
+         * @brief Columnes del tauler.
+         */
+        public int columnes() {
+            return _tauler._columna;
+        }
+
+        /**
+         * @brief Peca colocada sobre el tauler.
+         * @pre \p pos != null
+         * @return Una còpia de la peça situada a \p pos, o null si no n'hi ha cap.
+         */
+        public Peca pecaTauler(Posicio pos) {
+            return _tauler.solicitarPeca(pos);
+        }
+
+        /**
+         * @brief Destins possibles d'una peça del tauler.
+         * @pre \p pos != null i hi ha una peça a \p pos.
+         * @return Un conjunt no modificable de posicions a les quals la peça pot anar.
+         */
+        public Set<Posicio> destinsPeca(Posicio pos) {
+            return Collections.unmodifiableSet(_tauler.solicitarDestinsPeca(pos));
+        }
+
+        /**
+         * @brief Enrocs possibles d'una peça del tauler.
+         * @pre \p pos != null
+         * @return Un conjunt no modificable de posicions on es troben les peces amb què la peça de \p pos pot enrocar.
+         */
+        public Set<Posicio> enrocsPeca(Posicio pos) {
+            return Collections.unmodifiableSet(_tauler.solicitarCompanyesEnroc(pos));
+        }
+
+        /**
+         * @brief Indica quin és l'estat del rei contrari de \p jugador.
+         * @pre 0 <= \p jugador <= 1
+         * @return Un enum que indica l'estat.
+         */
+        public TaulerEscacs.resTauler estatReiContrincant(int jugador) {
+            return _tauler.estatActual(jugador);
+        }
+
+        /**
+         * @brief Dibuix del tauler en text.
+         * @return Cadena de caràcters que dibuixa el tauler en mode text.
+         */
+        public String dibuixTauler() {
+            return _tauler.toString();
+        }
+
+        /**
+         * @brief Caselles que han canviat entre dues instantànies.
+         * @pre \p altra != null i és una instantània de la mateixa partida.
+         * @return Les posicions on la peça (tipus, color i si s'ha mogut) d'aquesta instantània i la d'\p altra són
+         *         diferents.
+         */
+        public List<Posicio> casellesDiferents(Instantania altra) {
+            return _tauler.casellesDiferents(altra._tauler);
+        }
+
+        /**
+         * @brief Resum de la posició.
+         * @return Un valor de 64 bits que identifica les peces del tauler i el torn (veure LlibreObertures).
+         */
+        long resumPosicio() {
+            return _tauler.resumPosicio(_tornActual);
+        }
+
+        /**
+         * @brief Còpia modificable del tauler.
+         * @return Un tauler nou, independent de la instantània, sobre el qual es poden efectuar jugades.
+         */
+        TaulerEscacs copiaTauler() {
+            return new TaulerEscacs(_tauler);
+        }
+    }
+    private volatile Instantania _instantania; ///< Darrer estat publicat de la partida.
+    private long _versio;                      ///< Nombre de modificacions efectuades sobre la partida.
+    private final List<OientPartida> _oients;  ///< Oients registrats als esdeveniments de la partida.
+
     private final int _limitEscacs; ///< Nombre d'escacs consecutius permesos.
     private final int _limitInaccio; ///< Nombre de torns seguits sense capturar cap peça permesos.
-    private final Map<String,Peca> _pecesDisponibles; ///< Totes les peces amb què es pot jugar en la partida actual.
+    private final Map<String,PieceType> _pecesDisponibles; ///< Tots els tipus de peça amb què es pot jugar en la partida actual.
     private final String _fitxerRegles; ///< Ruta del fitxer de regles.
+    private final String _resumRegles; ///< Resum SHA-256 (hexadecimal) del contingut del fitxer de regles.
     private final LinkedHashMap<Posicio,Peca> _posicionsInicials; ///< Posicions de les peces a l'inici de la partida.
     private String _resultatPartida; ///< Resultat final de la partida, és a dir, per quina raó ha finalitzat.
+    private final MotorCPU[] _motorsCPU; ///< Motor de la CPU de cada jugador.
+    private final CercaMCTS[] _cerquesMCTS; ///< Cerca MCTS de cada jugador que en fa servir, amb l'arbre de la darrera jugada.
 
     private final Stack<Dades> _historialDadesTirar;
         ///< Historial dels estats de la partida abans de cada tirada efectuada.
     private final Stack<Dades> _historialDadesDesfer;
         ///< Historial dels estats de la partida de les tirades desfetes.
-    private final Stack<LinkedHashMap<String,String>> _historialJugadesTirar;
+    private final Stack<Tirada> _historialJugadesTirar;
         ///< Historial de les jugades realitzades.
-    private final Stack<LinkedHashMap<String,String>> _historialJugadesDesfer;
+    private final Stack<Tirada> _historialJugadesDesfer;
         ///< Historial de les jugades desfetes.
 
     /**
@@ -131,17 +453,19 @@ public class Partida {
      * @param limitInaccio Nombre de torns seguits (parell de tirades consecutives) que han de passar sense que es
      *                     capturi cap peça perquè es consideri que la partida ha de finalitzar en taules.
      * @param fitxerRegles Fitxer que conté les regles del joc.
+     * @param resumRegles Resum del contingut de \p fitxerRegles (veure RuleSet::resum()).
      * @param torn Torn amb què començarà la partida.
      * @throws IllegalArgumentException Si els límits no són més grans que 1.
      */
-    Partida(TaulerEscacs t, Map<String,Peca> pecesDisponibles, int limitEscacs, int limitInaccio, String fitxerRegles,
-            int torn) {
+    Partida(TaulerEscacs t, Map<String,PieceType> pecesDisponibles, int limitEscacs, int limitInaccio, String fitxerRegles,
+            String resumRegles, int torn) {
         if(limitEscacs <= 1 || limitInaccio <= 1)
             throw new IllegalArgumentException("Error: els límits han de ser nombres enters més grans que 1");
         _pecesDisponibles = pecesDisponibles;
         _limitEscacs = limitEscacs;
         _limitInaccio = limitInaccio;
         _fitxerRegles = fitxerRegles;
+        _resumRegles = resumRegles;
         _posicionsInicials = new LinkedHashMap<>();
         _resultatPartida = "";
         _historialDadesTirar = new Stack<>();
@@ -150,6 +474,10 @@ public class Partida {
         _historialJugadesDesfer = new Stack<>();
         _resultatPartida = "";
         _dades = new Dades(t, torn, 0, 0, 0);
+        _motorsCPU = new MotorCPU[]{MotorCPU.perDefecte(0), MotorCPU.perDefecte(1)};
+        _cerquesMCTS = new CercaMCTS[2];
+        _oients = new CopyOnWriteArrayList<>();
+        publicar(EsdevenimentPartida.Tipus.POSICIONAR, null);
     }
 
     /**
@@ -159,7 +487,7 @@ public class Partida {
      *       també (però de forma simètrica al altre costat del tauler).
      * @param ordrePeces Ordre en el que s'han de posicionar les peces a tauler segons la perspectiva del jugador blanc.
      */
-    public void inicialitzarPeces(Collection<String> ordrePeces) {
+    public synchronized void inicialitzarPeces(Collection<String> ordrePeces) {
         Iterator<String> it = ordrePeces.iterator();
         Map<Posicio,Peca> res = new HashMap<>();
         int mida = _dades._tauler._fila * _dades._tauler._columna;
@@ -195,6 +523,7 @@ public class Partida {
         copiarPosIni(res);
 
         _dades._tauler.posicionarPeces(res);
+        publicar(EsdevenimentPartida.Tipus.POSICIONAR, null);
     }
 
     /**
@@ -203,9 +532,10 @@ public class Partida {
      * @post El tauler té les peces situades segons indica \p posicioPeces.
      * @param posicioPeces Posicions del tauler amb la peça que s'hi ha de posicionar.
      */
-    public void repartirPeces(Map<Posicio,Peca> posicioPeces) {
+    public synchronized void repartirPeces(Map<Posicio,Peca> posicioPeces) {
         copiarPosIni(posicioPeces);
         _dades._tauler.posicionarPeces(posicioPeces);
+        publicar(EsdevenimentPartida.Tipus.POSICIONAR, null);
     }
 
     /**
@@ -218,27 +548,35 @@ public class Partida {
      * @throws ExcepcioJugadaErronia Si les característiques d'aquesta Jugada no són compatibles amb l'estat actual
      *                               de \p tauler.
      */
-    public boolean efectuarTiradaOrdinaria(Jugada jug) throws ExcepcioJugadaErronia {
+    public synchronized boolean efectuarTiradaOrdinaria(Jugada jug) throws ExcepcioJugadaErronia {
+        boolean calAcabar = tiradaOrdinaria(jug);
+        publicar(tipusJugada(jug), _historialJugadesTirar.peek());
+        return calAcabar;
+    }
+
+    /**
+     * @brief Efectuar una jugada ordinària sense publicar el nou estat.
+     * @pre \p jug ha de ser una jugada correcta i el fil té el monitor de la partida.
+     * @post Igual que efectuarTiradaOrdinaria(), però la instantània no s'actualitza.
+     */
+    private boolean tiradaOrdinaria(Jugada jug) throws ExcepcioJugadaErronia {
         // Guardar estat del tauler abans d'efecutar la tirada
         Dades dades = new Dades(new Dades(_dades));
 
         // Efectuar jugada
-        boolean pecaCapturada = jug.efectuarJugada(_dades._tauler, tornActual());
+        boolean pecaCapturada = jug.efectuarJugada(_dades._tauler, _dades._tornActual);
         if (! pecaCapturada) _dades._tornsInaccio++;
         else _dades._tornsInaccio = 0;
 
         // Evaluar estat tauler
         Pair<ResultatTirada,Boolean> resultatTirada = evaluarResultatTirada();
-        String aux = resultatTirada.first.toString();
 
         // Empilar estat de la partida
         _historialDadesTirar.push(dades);
         _historialDadesDesfer.clear();
 
         // Empilar Tirada
-        String origen = jug.toString().split("\\n")[0];
-        String desti = jug.toString().split("\\n")[1];
-        _historialJugadesTirar.add(generarTirada(tornActual(),origen,desti,aux));
+        _historialJugadesTirar.add(Tirada.deJugada(_dades._tornActual, jug, resultatTirada.first));
         _historialJugadesDesfer.clear();
 
         // Següent torn
@@ -256,7 +594,7 @@ public class Partida {
      * @param tirada Tirada que es vol efectuar.
      * @return Cert si cal acabar la partida, fals altrament.
      */
-    public boolean efectuarTiradaEspecial(TiradaEspecial tirada) {
+    public synchronized boolean efectuarTiradaEspecial(TiradaEspecial tirada) {
         ResultatTirada resJug = ResultatTirada.NO_EFECTE;
         switch (tirada) {
             case RENDIR: resJug = ResultatTirada.RENDICIO; break;
@@ -270,20 +608,13 @@ public class Partida {
                                 resJug == ResultatTirada.AJORNAMENT ||
                                 resJug == ResultatTirada.TAULES_ACCEPTADES;
 
-        String resultatTirada;
-
         if(resJug != ResultatTirada.TAULES_DENEGADES) {
             // Empilar estat de la partida
             _historialDadesTirar.push(new Dades(_dades));
             _historialDadesDesfer.clear();
 
-            // Guardar resultat de la jugada
-            resultatTirada = resJug.toString();
-
             // Empilar Tirada
-            String origen = "";
-            String desti = "";
-            _historialJugadesTirar.add(generarTirada(tornActual(),origen,desti,resultatTirada));
+            _historialJugadesTirar.add(new Tirada(_dades._tornActual, Tirada.ESPECIAL, 0, 0, resJug));
             _historialJugadesDesfer.clear();
         }
         else {
@@ -295,6 +626,8 @@ public class Partida {
         if(acabarPartida)
             assignarResultatPartida(resJug);
         seguentTorn();
+        publicar(EsdevenimentPartida.Tipus.TIRADA_ESPECIAL,
+                resJug != ResultatTirada.TAULES_DENEGADES ? _historialJugadesTirar.peek() : null);
 
         return acabarPartida;
     }
@@ -303,39 +636,165 @@ public class Partida {
      * @brief Efectuar una jugada del jugador CPU.
      * @pre ---
      * @post S'ha efectuat una jugada de forma automàtica, gestionant la promoció en cas de produir-se la situació i es
-     *       retorna un booleà que indica si cal acabar la partida.
+     *       retorna un booleà que indica si cal acabar la partida. La jugada es cerca sobre la instantània actual
+     *       sense bloquejar la partida; si mentrestant algú l'ha modificat, es torna a cercar sobre el nou estat. La
+     *       jugada l'escull el motor del jugador que té el torn (veure assignarMotorCPU()).
      * @return Cert si la partida ha finalitzat i cal acabar la partida, fals altrament.
      */
     public boolean efectuarJugadaCPU(){
-        // Copiar TaulerEscacs
-        TaulerEscacs aux = new TaulerEscacs(_dades._tauler);
-
-        // Generar jugada del jugadorCPU
-        Jugada jug = JugadorCPU.demanarJugada(aux, tornActual());
+        return efectuarJugadaCPU(null);
+    }
 
-        // Efectuar la tirada
-        boolean calAcabar = false;
-        try {
-            calAcabar = efectuarTiradaOrdinaria(jug);
-        } catch (ExcepcioJugadaErronia excepcioJugadaErronia) {
-            excepcioJugadaErronia.printStackTrace();
+    /**
+     * @brief Efectuar una jugada del jugador CPU aprofitant la reflexió feta durant el torn del contrincant.
+     * @pre ---
+     * @post Igual que efectuarJugadaCPU(). Si \p reflexio havia previst la jugada del contrincant, la jugada de la CPU
+     *       surt de la seva cerca; altrament la reflexió s'atura i la jugada es cerca des de zero. La reflexió només
+     *       s'aprofita si el jugador fa servir el motor MINIMAX.
+     * @param reflexio Reflexió iniciada amb reflexionarCPU() abans de la jugada del contrincant (pot ser null).
+     * @return Cert si la partida ha finalitzat i cal acabar la partida, fals altrament.
+     */
+    public boolean efectuarJugadaCPU(ReflexioCPU reflexio){
+        while (true) {
+            // Generar jugada del jugadorCPU
+            Instantania inst = _instantania;
+            Jugada jug = jugadaLlibre(inst);
+            if (reflexio != null && (jug != null || motorCPU(inst.tornActual()) != MotorCPU.MINIMAX)) reflexio.aturar();
+            else if (reflexio != null) jug = reflexio.resposta(inst._tauler, inst.tornActual());
+            reflexio = null;
+            if (jug == null) jug = jugadaMotor(inst);
+
+            synchronized (this) {
+                if (inst != _instantania) continue;
+
+                // Efectuar la tirada
+                boolean calAcabar = false;
+                try {
+                    calAcabar = tiradaOrdinaria(jug);
+                } catch (ExcepcioJugadaErronia excepcioJugadaErronia) {
+                    excepcioJugadaErronia.printStackTrace();
+                }
+
+                publicar(tipusJugada(jug), _historialJugadesTirar.peek());
+
+                // Comprovar promocio
+                Posicio posPromo = _instantania.posicioPromocio();
+                if(posPromo != null) {
+                    TaulerEscacs aux = new TaulerEscacs(_dades._tauler);
+                    String pecaVella = aux.solicitarPeca(posPromo).nom();
+                    int jugTornAnterior = _historialDadesTirar.peek()._tornActual;
+                    String pecaNova = JugadorCPU.promocionarPeca(aux,pecesPromocionables(jugTornAnterior),posPromo,
+                            jugTornAnterior);
+                    if(!pecaVella.equals(pecaNova)) {
+                        calAcabar = promocio(posPromo,pecaNova);
+                        publicar(EsdevenimentPartida.Tipus.PROMOCIO, _historialJugadesTirar.peek());
+                    }
+                }
+
+                return calAcabar;
+            }
         }
+    }
 
-        // Copiar TaulerEscacs
-        aux = new TaulerEscacs(_dades._tauler);
+    /**
+     * @brief Jugada del llibre d'obertures per a un estat de la partida.
+     * @pre \p inst != null
+     * @post No es modifica la partida.
+     * @return Una jugada del llibre d'obertures de les regles de la partida (veure LlibreObertures::perRegles()), o
+     *         null si no n'hi ha cap per a la posició de \p inst.
+     */
+    private Jugada jugadaLlibre(Instantania inst) {
+        LlibreObertures llibre = LlibreObertures.perRegles(_resumRegles);
+        return llibre == null ? null : llibre.consultar(inst.copiaTauler(), inst.tornActual());
+    }
 
-        // Comprovar promocio
-        Posicio posPromo = posicioPromocio();
-        if(posPromo != null) {
-            String pecaVella = pecaTauler(posPromo).nom();
-            int jugTornAnterior = _historialDadesTirar.peek()._tornActual;
-            String pecaNova = JugadorCPU.promocionarPeca(aux,pecesPromocionables(jugTornAnterior),posPromo,
-                    jugTornAnterior);
-            if(!pecaVella.equals(pecaNova))
-                calAcabar = efectuarPromocio(posPromo,pecaNova);
+    /**
+     * @brief Jugada que escull el motor de la CPU per a un estat de la partida.
+     * @pre \p inst != null, la partida no s'ha acabat i el jugador que té el torn té alguna jugada.
+     * @post No es modifica la partida. Si el motor és MCTS, es conserva l'arbre de la cerca per la propera jugada.
+     * @return La jugada escollida pel motor del jugador que té el torn a \p inst.
+     */
+    private Jugada jugadaMotor(Instantania inst) {
+        int torn = inst.tornActual();
+        if (motorCPU(torn) == MotorCPU.MINIMAX) return JugadorCPU.demanarJugada(inst.copiaTauler(), torn);
+        CercaMCTS cerca;
+        synchronized (this) {
+            if (_cerquesMCTS[torn] == null) _cerquesMCTS[torn] = CercaMCTS.perDefecte();
+            cerca = _cerquesMCTS[torn];
         }
+        return cerca.demanarJugada(inst.copiaTauler(), torn);
+    }
 
-        return calAcabar;
+    /**
+     * @brief Motor amb què la CPU escull les jugades d'un jugador.
+     * @pre 0 <= \p jugador <= 1
+     * @return El motor de \p jugador. Per defecte és el de MotorCPU::perDefecte().
+     */
+    public synchronized MotorCPU motorCPU(int jugador) {
+        return _motorsCPU[jugador];
+    }
+
+    /**
+     * @brief Assignar el motor amb què la CPU escull les jugades d'un jugador.
+     * @pre 0 <= \p jugador <= 1 i \p motor != null.
+     * @post Les properes jugades de la CPU per \p jugador (veure efectuarJugadaCPU()) les escull \p motor. Les
+     *       promocions i les respostes a les taules sempre les decideix JugadorCPU.
+     * @param jugador Color del jugador: 0 per blanques i 1 per negres.
+     * @param motor Motor que escollirà les jugades.
+     */
+    public synchronized void assignarMotorCPU(int jugador, MotorCPU motor) {
+        if (motor != _motorsCPU[jugador]) _cerquesMCTS[jugador] = null;
+        _motorsCPU[jugador] = motor;
+    }
+
+    /**
+     * @brief Començar a reflexionar pel jugador CPU durant el torn del contrincant.
+     * @pre La partida no s'ha acabat, la CPU és el contrincant del jugador que té el torn i aquest té alguna jugada.
+     * @post S'ha iniciat en segon pla la predicció de la jugada del jugador que té el torn i la cerca de la resposta
+     *       de la CPU (veure ReflexioCPU). La partida no es modifica.
+     * @return La reflexió, que cal passar a efectuarJugadaCPU(ReflexioCPU) o aturar amb ReflexioCPU::aturar(), o
+     *         null si la CPU no fa servir el motor MINIMAX.
+     */
+    public ReflexioCPU reflexionarCPU() {
+        Instantania inst = _instantania;
+        int jugadorCPU = inst.tornActual() == 0 ? 1 : 0;
+        if (motorCPU(jugadorCPU) != MotorCPU.MINIMAX) return null;
+        return new ReflexioCPU(inst.copiaTauler(), jugadorCPU);
+    }
+
+    /**
+     * @brief Cercar la millor jugada pel jugador que té el torn, sense efectuar-la.
+     * @pre ---
+     * @post Es retorna la jugada que escull la CPU amb una cerca de profunditat iterativa limitada per \p limits
+     *       (veure JugadorCPU::cercar()).
+     * @param limits Límits de la cerca.
+     * @param oient Rep la informació de cada profunditat completada (pot ser null).
+     * @return La millor jugada trobada, o null si el jugador que té el torn no té cap jugada.
+     */
+    public Jugada cercarJugadaCPU(JugadorCPU.LimitsCerca limits, JugadorCPU.OientCerca oient) {
+        Instantania inst = _instantania;
+        return JugadorCPU.cercar(inst.copiaTauler(), inst.tornActual(), limits, oient);
+    }
+
+    /**
+     * @brief Promoció que escolliria la CPU després d'efectuar una jugada.
+     * @pre \p jug és una jugada que pot efectuar el jugador que té el torn.
+     * @post No es modifica la partida.
+     * @param jug Jugada que s'efectuaria.
+     * @return El nom de la peça per la qual la CPU promocionaria la peça moguda, o null si la jugada no permet cap
+     *         promoció o la CPU no vol promocionar.
+     * @throws ExcepcioJugadaErronia Si \p jug no es pot efectuar.
+     */
+    public String promocioCPU(Jugada jug) throws ExcepcioJugadaErronia {
+        Instantania inst = _instantania;
+        TaulerEscacs aux = inst.copiaTauler();
+        jug.efectuarJugada(aux, inst.tornActual());
+        Posicio posPromo = aux.hiHaPromocio();
+        if(posPromo == null) return null;
+        String pecaVella = aux.solicitarPeca(posPromo).nom();
+        String pecaNova = JugadorCPU.promocionarPeca(aux, pecesPromocionables(inst.tornActual()), posPromo,
+                inst.tornActual());
+        return pecaVella.equals(pecaNova) ? null : pecaNova;
     }
 
     /**
@@ -346,7 +805,8 @@ public class Partida {
      *         En cas contrari serà TiradaEspecial.DENEGAR_TAULES.
      */
     public TiradaEspecial respondreTaulesCPU(){
-        return JugadorCPU.decidirTaules(new TaulerEscacs(_dades._tauler), tornActual());
+        Instantania inst = _instantania;
+        return JugadorCPU.decidirTaules(inst.copiaTauler(), inst.tornActual());
     }
 
     /**
@@ -355,7 +815,7 @@ public class Partida {
      *         promoció disponible.
      */
     public Posicio posicioPromocio() {
-        return _dades._tauler.hiHaPromocio();
+        return _instantania.posicioPromocio();
     }
 
     /**
@@ -380,15 +840,23 @@ public class Partida {
      * @param nomPecaNova Nom de la peça per la qual es vol promocionar.
      * @return Cert si la partida ha finalitzat i cal gestionar-ne l'acabament, fals altrament.
      */
-    public boolean efectuarPromocio(Posicio posPromo, String nomPecaNova) {
+    public synchronized boolean efectuarPromocio(Posicio posPromo, String nomPecaNova) {
+        boolean calAcabar = promocio(posPromo, nomPecaNova);
+        publicar(EsdevenimentPartida.Tipus.PROMOCIO, _historialJugadesTirar.peek());
+        return calAcabar;
+    }
+
+    /**
+     * @brief Promocionar una peça sense publicar el nou estat.
+     * @pre Les d'efectuarPromocio() i el fil té el monitor de la partida.
+     * @post Igual que efectuarPromocio(), però la instantània no s'actualitza.
+     */
+    private boolean promocio(Posicio posPromo, String nomPecaNova) {
         // Obtenir nom de la peca vella
         String nomPecaVella = _dades._tauler.solicitarPeca(posPromo).nom();
 
         // Agafar el jugador de la tirada anterior
-        int jugAnterior;
-        if(_historialJugadesTirar.peek().get("torn").equals("BLANQUES")) // CANVIAR A ENUMERACIO
-            jugAnterior = 0;
-        else jugAnterior = 1;
+        int jugAnterior = _historialJugadesTirar.peek()._torn;
 
         // Crear peca amb el color corresponent
         Peca pecaPromo = pecaDisponible(nomPecaNova.toUpperCase());
@@ -405,11 +873,9 @@ public class Partida {
         Pair<ResultatTirada,Boolean> res = evaluarResultatTirada();
 
         // Modificar el resultat de la tirada anterior
-        String promo = "PROMOCIÓ: " + nomPecaVella + "-" + nomPecaNova;
-        if(res.first == ResultatTirada.NO_EFECTE)
-            _historialJugadesTirar.peek().replace("resultat",promo);
-        else
-            _historialJugadesTirar.peek().replace("resultat", res.first.toString() + ", " + promo);
+        Tirada anterior = _historialJugadesTirar.peek();
+        anterior._resultat = res.first;
+        anterior._promocio = "PROMOCIÓ: " + nomPecaVella + "-" + nomPecaNova;
 
         assignarResultatPartida(res.first);
 
@@ -422,11 +888,12 @@ public class Partida {
      * @post S'ha refet la darrera jugada desfeta.
      * @throws CannotRedoException Si no hi ha hagut cap jugada desfeta abans.
      */
-    public void referJugada() {
+    public synchronized void referJugada() {
         if(_historialDadesDesfer.isEmpty()) throw new CannotRedoException();
         _historialDadesTirar.push(_dades);
         _dades = _historialDadesDesfer.pop();
         _historialJugadesTirar.push(_historialJugadesDesfer.pop());
+        publicar(EsdevenimentPartida.Tipus.REFER, _historialJugadesTirar.peek());
     }
 
     /**
@@ -435,11 +902,43 @@ public class Partida {
      * @post S'ha desfet la darrera jugada efectuada.
      * @throws CannotUndoException Si no hi ha hagut cap jugada realitzada abans.
      */
-    public void desferJugada() {
+    public synchronized void desferJugada() {
         if(_historialDadesTirar.isEmpty()) throw new CannotUndoException();
         _historialDadesDesfer.push(_dades);
-        _dades = _historialDadesTirar.pop();
+        Dades anterior = _historialDadesTirar.pop();
+        anterior.reconstruir(_dades._tauler);
+        _dades = anterior;
         _historialJugadesDesfer.push(_historialJugadesTirar.pop());
+        publicar(EsdevenimentPartida.Tipus.DESFER, _historialJugadesDesfer.peek());
+    }
+
+    /**
+     * @brief Registrar un oient dels esdeveniments de la partida.
+     * @pre \p oient != null
+     * @post \p oient rebrà, en ordre, un EsdevenimentPartida per cada canvi que es faci a partir d'ara. Les
+     *       excepcions que llanci no afecten la partida ni la resta d'oients.
+     * @param oient Oient que es vol registrar.
+     */
+    public void afegirOient(OientPartida oient) {
+        _oients.add(oient);
+    }
+
+    /**
+     * @brief Deixar de notificar un oient.
+     * @post \p oient ja no rep cap més esdeveniment.
+     * @param oient Oient registrat amb afegirOient().
+     */
+    public void eliminarOient(OientPartida oient) {
+        _oients.remove(oient);
+    }
+
+    /**
+     * @brief Estat actual de la partida.
+     * @return La darrera instantània publicada. Totes les consultes sobre una mateixa instantània són coherents entre
+     *         elles encara que la partida canviï mentrestant.
+     */
+    public Instantania instantania() {
+        return _instantania;
     }
 
     /**
@@ -447,7 +946,7 @@ public class Partida {
      * @return El nombre corresponent al jugador que li toca el torn (0 per blanques i 1 per negres)
      */
     public int tornActual() {
-        return _dades._tornActual;
+        return _instantania.tornActual();
     }
 
     /**
@@ -472,7 +971,7 @@ public class Partida {
      * @return Una cadena de caràcters amb el resultat final de la partida (buida si no s'ha acabat).
      */
     public String resultatPartida() {
-        return _resultatPartida;
+        return _instantania.resultatPartida();
     }
 
     /**
@@ -480,7 +979,7 @@ public class Partida {
      * @return Un enum que indica l'estat.
      */
     public TaulerEscacs.resTauler estatReiContrincant(int jugador) {
-        return _dades._tauler.estatActual(jugador);
+        return _instantania.estatReiContrincant(jugador);
     }
 
     /**
@@ -504,7 +1003,7 @@ public class Partida {
      * @return Cadena de caràcters que dibuixa el tauler actual en mode text.
      */
     public String dibuixTauler() {
-        return _dades._tauler.toString();
+        return _instantania.dibuixTauler();
     }
 
     /**
@@ -515,7 +1014,7 @@ public class Partida {
      * @return La peça situada a la posició indicada.
      */
     public Peca pecaTauler(Posicio pos) {
-        return _dades._tauler.solicitarPeca(pos);
+        return _instantania.pecaTauler(pos);
     }
 
     /**
@@ -526,7 +1025,7 @@ public class Partida {
      * @return Un conjunt de posicions a les quals la peça pot anar.
      */
     public Set<Posicio> destinsPeca(Posicio pos) {
-        return _dades._tauler.solicitarDestinsPeca(pos);
+        return _instantania.destinsPeca(pos);
     }
 
     /**
@@ -538,7 +1037,7 @@ public class Partida {
      * @return Un conjunt de posicions a les quals la peça enrocar.
      */
     public Set<Posicio> enrocsPeca(Posicio pos) {
-        return _dades._tauler.solicitarCompanyesEnroc(pos);
+        return _instantania.enrocsPeca(pos);
     }
 
     /**
@@ -548,7 +1047,7 @@ public class Partida {
      *       (blanques i negres), el proper torn, l'historial de tirades i el resultat final de la partida.
      * @return Un mapa amb ordre d'inserció amb les dades del desenvolupament de la partida.
      */
-    public LinkedHashMap<String,Object> dadesDesenvolupament() {
+    public synchronized LinkedHashMap<String,Object> dadesDesenvolupament() {
         // PosIni
         List<Object> posIniBlanques = new ArrayList<>();
         List<Object> posIniNegres = new ArrayList<>();
@@ -564,17 +1063,261 @@ public class Partida {
                 posIniNegres.add(aux);
         }
 
+        // Tirades (mapes nous, perquè es puguin recórrer mentre la partida avança)
+        List<LinkedHashMap<String,String>> tirades = new ArrayList<>();
+        for (Tirada tirada : _historialJugadesTirar)
+            tirades.add(tirada.dades());
+
         // Mapa principal
         LinkedHashMap<String, Object> map = new LinkedHashMap<>();
         map.put("fitxerRegles", _fitxerRegles);
         map.put("posIniBlanques", posIniBlanques);
         map.put("posIniNegres", posIniNegres);
-        map.put("proper_torn", _historialJugadesTirar.firstElement().get("torn"));
-        map.put("tirades", _historialJugadesTirar);
+        map.put("proper_torn", COLOR[_historialJugadesTirar.firstElement()._torn]);
+        map.put("tirades", tirades);
         map.put("resultat_final", _resultatPartida);
         return map;
     }
 
+    /**
+     * @brief Ruta del fitxer de regles.
+     * @return La ruta del fitxer de regles amb què s'ha carregat la partida.
+     */
+    String fitxerRegles() {
+        return _fitxerRegles;
+    }
+
+    /**
+     * @brief Resum del fitxer de regles.
+     * @return El resum SHA-256 (hexadecimal) del contingut del fitxer de regles.
+     */
+    String resumRegles() {
+        return _resumRegles;
+    }
+
+    /**
+     * @brief Noms de les peces disponibles.
+     * @return Una llista amb els noms de totes les peces disponibles, ordenats per l'identificador del seu tipus.
+     */
+    List<String> nomsPeces() {
+        String[] noms = new String[_pecesDisponibles.size()];
+        for (PieceType t : _pecesDisponibles.values())
+            noms[t.id()] = t.nom();
+        return Arrays.asList(noms);
+    }
+
+    /**
+     * @brief Rutes de les imatges de les peces.
+     * @return Les rutes de les imatges de blanques i de negres de totes les peces disponibles.
+     */
+    Set<String> rutesImatges() {
+        Set<String> rutes = new LinkedHashSet<>();
+        for (PieceType t : _pecesDisponibles.values()) {
+            rutes.add(t.pathImg(0));
+            rutes.add(t.pathImg(1));
+        }
+        return rutes;
+    }
+
+    /**
+     * @brief Escriu l'estat de la partida en format binari.
+     * @pre \p out != null
+     * @post S'ha escrit el resultat, les posicions inicials, l'estat actual i l'historial de tirades. Les tirades
+     *       especials del final de l'historial (ajornament, rendició...) no s'escriuen, igual que no es reprodueixen
+     *       en carregar el fitxer JSON. Només l'estat actual s'escriu amb tot el tauler; de cada tirada de l'historial
+     *       s'escriu la jugada, el torn, els comptadors i el codi anterior de les caselles que va canviar (peça moguda,
+     *       peça capturada...).
+     * @param out Sortida on s'escriu l'estat.
+     * @throws IOException Si no s'ha pogut escriure.
+     */
+    synchronized void escriureEstat(DataOutput out) throws IOException {
+        // Descartar les tirades especials finals
+        int nTirades = _historialJugadesTirar.size();
+        Dades actual = _dades;
+        while (nTirades > 0 && _historialJugadesTirar.get(nTirades - 1).esEspecial()) {
+            nTirades--;
+            actual = _historialDadesTirar.get(nTirades);
+        }
+
+        out.writeUTF(_resultatPartida);
+        out.writeShort(_posicionsInicials.size());
+        for (Map.Entry<Posicio, Peca> entry : _posicionsInicials.entrySet()) {
+            out.writeByte(Checkpoint.codificarCasella(entry.getKey()));
+            out.writeByte(Checkpoint.codificarPeca(entry.getValue()));
+        }
+        escriureDades(out, actual);
+        out.writeInt(nTirades);
+        for (int i = 0; i < nTirades; i++) {
+            Dades d = _historialDadesTirar.get(i);
+            escriureTirada(out, _historialJugadesTirar.get(i));
+            out.writeByte(d._tornActual);
+            out.writeInt(d._tornsEscacsB);
+            out.writeInt(d._tornsEscacsN);
+            out.writeInt(d._tornsInaccio);
+            byte[] anteriors = d._tauler == null ? d._anteriors
+                    : anteriors(d._tauler, i + 1 < _historialDadesTirar.size() ? _historialDadesTirar.get(i + 1) : _dades);
+            out.writeByte(anteriors.length / 2);
+            out.write(anteriors);
+        }
+    }
+
+    /**
+     * @brief Caselles que ha canviat una tirada.
+     * @pre \p abans és el tauler anterior a la tirada i \p despres l'estat posterior, amb tauler.
+     * @post Es retornen parelles (índex de casella de CodiJugada, codi de peça) amb el codi que tenia a \p abans
+     *       cada casella on els dos taulers són diferents.
+     */
+    private static byte[] anteriors(TaulerEscacs abans, Dades despres) {
+        List<Posicio> diferents = despres._tauler.casellesDiferents(abans);
+        byte[] res = new byte[2 * diferents.size()];
+        for (int k = 0; k < diferents.size(); k++) {
+            Posicio pos = diferents.get(k);
+            res[2 * k] = (byte) Checkpoint.codificarCasella(pos);
+            res[2 * k + 1] = (byte) Checkpoint.codificarPeca(abans.solicitarPeca(pos));
+        }
+        return res;
+    }
+
+    /**
+     * @brief Llegeix l'estat de la partida en format binari.
+     * @pre \p in != null, la partida no té cap tirada efectuada i les dades s'han escrit amb escriureEstat() amb
+     *      les mateixes regles.
+     * @post La partida queda en el mateix punt en què es va escriure, amb l'historial de tirades recuperat. Els
+     *       taulers de l'historial no es construeixen fins que es desfà la tirada corresponent, desfent els canvis de
+     *       les caselles a partir del tauler posterior.
+     * @param in Entrada d'on es llegeix l'estat.
+     * @throws IOException Si no s'ha pogut llegir.
+     * @throws IllegalStateException Si la partida ja està finalitzada.
+     */
+    synchronized void llegirEstat(DataInput in) throws IOException {
+        List<String> noms = nomsPeces();
+
+        String resultat = in.readUTF();
+        if(!resultat.equals("PARTIDA AJORNADA") && !resultat.equals(""))
+            throw new IllegalStateException("Error: la partida ja està acabada");
+
+        int nPosIni = in.readUnsignedShort();
+        Map<Posicio,Peca> posIni = new LinkedHashMap<>();
+        for (int i = 0; i < nPosIni; i++) {
+            Posicio pos = Checkpoint.descodificarCasella(in.readUnsignedByte());
+            posIni.put(pos, Checkpoint.descodificarPeca(in.readUnsignedByte(), this, noms));
+        }
+        copiarPosIni(posIni);
+
+        _dades = llegirDades(in, noms);
+        int nTirades = in.readInt();
+        for (int i = 0; i < nTirades; i++) {
+            _historialJugadesTirar.push(llegirTirada(in));
+            int torn = in.readUnsignedByte();
+            int tornsEscacsB = in.readInt();
+            int tornsEscacsN = in.readInt();
+            int tornsInaccio = in.readInt();
+            byte[] anteriors = new byte[2 * in.readUnsignedByte()];
+            in.readFully(anteriors);
+            _historialDadesTirar.push(new Dades(anteriors, torn, tornsEscacsB, tornsEscacsN, tornsInaccio));
+        }
+        publicar(EsdevenimentPartida.Tipus.POSICIONAR, null);
+    }
+
+    /**
+     * @brief Escriu un estat de la partida en format binari.
+     * @pre \p out != null i \p d != null.
+     * @post S'ha escrit el codi de cada casella del tauler, el torn i els comptadors de torns.
+     */
+    private static void escriureDades(DataOutput out, Dades d) throws IOException {
+        TaulerEscacs t = d._tauler;
+        for (int f = 1; f <= t._fila; f++)
+            for (int c = 1; c <= t._columna; c++)
+                out.writeByte(Checkpoint.codificarPeca(t.solicitarPeca(new Posicio(c, f))));
+        out.writeByte(d._tornActual);
+        out.writeInt(d._tornsEscacsB);
+        out.writeInt(d._tornsEscacsN);
+        out.writeInt(d._tornsInaccio);
+    }
+
+    /**
+     * @brief Llegeix un estat de la partida en format binari.
+     * @pre \p in != null i les dades s'han escrit amb escriureDades().
+     * @post Es retorna l'estat llegit. Els destins de les peces no es calculen fins que es consulten.
+     */
+    private Dades llegirDades(DataInput in, List<String> noms) throws IOException {
+        TaulerEscacs t = new TaulerEscacs(filesTauler(), columnesTauler(), _pecesDisponibles.values(), _resumRegles);
+        Map<Posicio,Peca> peces = new HashMap<>();
+        for (int f = 1; f <= t._fila; f++) {
+            for (int c = 1; c <= t._columna; c++) {
+                int codi = in.readUnsignedByte();
+                if (codi != 0) peces.put(new Posicio(c, f), Checkpoint.descodificarPeca(codi, this, noms));
+            }
+        }
+        t.posicionarPeces(peces);
+        int torn = in.readUnsignedByte();
+        int tornsEscacsB = in.readInt();
+        int tornsEscacsN = in.readInt();
+        int tornsInaccio = in.readInt();
+        return new Dades(t, torn, tornsEscacsB, tornsEscacsN, tornsInaccio);
+    }
+
+    /**
+     * @brief Escriu una tirada de l'historial en format binari.
+     * @pre \p out != null i \p tirada != null
+     * @post S'ha escrit el torn, el tipus de tirada (0 especial, 1 ordinària, 2 enroc), les caselles implicades i
+     *       el resultat. Els índexs de CodiJugada són els mateixos que els codis de Checkpoint::codificarCasella().
+     */
+    private static void escriureTirada(DataOutput out, Tirada tirada) throws IOException {
+        out.writeByte(tirada._torn);
+        if (tirada.esEspecial()) {
+            out.writeByte(0);
+        }
+        else if (tirada.esEnroc()) {
+            out.writeByte(2);
+            out.writeByte(CodiJugada.origen(tirada._jugada));
+            out.writeByte(CodiJugada.desti(tirada._jugada));
+            out.writeByte(tirada._finalPrimera);
+            out.writeByte(tirada._finalSegona);
+        }
+        else {
+            out.writeByte(1);
+            out.writeByte(CodiJugada.origen(tirada._jugada));
+            out.writeByte(CodiJugada.desti(tirada._jugada));
+        }
+        out.writeUTF(tirada.resultat());
+    }
+
+    /**
+     * @brief Llegeix una tirada de l'historial en format binari.
+     * @pre \p in != null i les dades s'han escrit amb escriureTirada().
+     * @post Es retorna la tirada llegida, amb el resultat i la promoció separats de nou.
+     */
+    private static Tirada llegirTirada(DataInput in) throws IOException {
+        int torn = in.readUnsignedByte();
+        int tipus = in.readUnsignedByte();
+        int jugada = Tirada.ESPECIAL;
+        int finalPrimera = 0;
+        int finalSegona = 0;
+        if (tipus == 1) {
+            int origen = in.readUnsignedByte();
+            jugada = CodiJugada.ordinaria(origen, in.readUnsignedByte(), CodiJugada.REGLA_DESCONEGUDA);
+        }
+        else if (tipus == 2) {
+            int primera = in.readUnsignedByte();
+            jugada = CodiJugada.enroc(primera, in.readUnsignedByte());
+            finalPrimera = in.readUnsignedByte();
+            finalSegona = in.readUnsignedByte();
+        }
+
+        // Separar la promoció del resultat
+        String resultat = in.readUTF();
+        String promocio = null;
+        int inici = resultat.indexOf("PROMOCIÓ: ");
+        if (inici >= 0) {
+            promocio = resultat.substring(inici);
+            resultat = inici == 0 ? "" : resultat.substring(0, inici - ", ".length());
+        }
+        Tirada res = new Tirada(torn, jugada, finalPrimera, finalSegona, ResultatTirada.deText(resultat));
+        res._promocio = promocio;
+        return res;
+    }
+
     /**
      * @brief Peces a les que es pot promocionar.
      * @pre 0 <= \p jugador <= 1
@@ -584,7 +1327,7 @@ public class Partida {
      */
     private Set<Peca> pecesPromocionables(int jugador) {
         Set<Peca> list = new HashSet<>();
-        for (Map.Entry<String, Peca> entry : _pecesDisponibles.entrySet()) {
+        for (Map.Entry<String, PieceType> entry : _pecesDisponibles.entrySet()) {
             if(!entry.getKey().equals("REI")) {
                 Peca p = new Peca(entry.getValue());
                 p.assignarColor(jugador);
@@ -609,9 +1352,9 @@ public class Partida {
 
         // Comprovar taules d'inaccio
         if(_limitInaccio > _dades._tornsInaccio) {
-            switch (estatReiContrincant(tornActual())) {
+            switch (_dades._tauler.estatActual(_dades._tornActual)) {
                 case ESCAC:
-                    if(tornActual() == 0) _dades._tornsEscacsB++;
+                    if(_dades._tornActual == 0) _dades._tornsEscacsB++;
                     else _dades._tornsEscacsN++;
                     resultat = ResultatTirada.ESCAC;
                     break;
@@ -624,7 +1367,7 @@ public class Partida {
                     resultat = ResultatTirada.REI_OFEGAT;
                     break;
                 default:
-                    if(tornActual() == 0) _dades._tornsEscacsB = 0;
+                    if(_dades._tornActual == 0) _dades._tornsEscacsB = 0;
                     else _dades._tornsEscacsN = 0;
                     resultat = ResultatTirada.NO_EFECTE;
             }
@@ -643,27 +1386,6 @@ public class Partida {
         return new Pair<>(resultat, acabarPartida);
     }
 
-    /**
-     * @brief Genera una estructura amb les dades d'una tirada.
-     * @pre 0 <= \p torn <= 1, \p origen i \p desti són posicions vàlides i \p resultat és un dels resultats de la
-     *      tirada possibles.
-     * @post Es retorna un mapa amb les dades d'una tirada.
-     * @param torn Jugador que ha realitzat la jugada.
-     * @param origen Posicio d'origen de la jugada.
-     * @param desti Posicio de destí de la jugada.
-     * @param resultat Com ha afectat la jugada al tauler i a la partida.
-     * @return Un mapa amb ordre d'inserció que conté les dades de la tirada seguint l'ordre dels paràmetre, és a dir,
-     *         les claus són (per ordre): torn, origen, desti i resultat.
-     */
-    private LinkedHashMap<String,String> generarTirada(int torn, String origen, String desti, String resultat) {
-        LinkedHashMap<String,String> res = new LinkedHashMap<>();
-        res.put("torn",COLOR[torn]);
-        res.put("origen",origen);
-        res.put("desti",desti);
-        res.put("resultat", resultat);
-        return res;
-    }
-
     /**
      * @brief Copiar un mapa de posicions i peces a l'atribut de la classe.
      * @pre \p map != null
@@ -687,19 +1409,19 @@ public class Partida {
     private void assignarResultatPartida(ResultatTirada res) {
         switch (res) {
             case ESCAC_MAT:
-                _resultatPartida = COLOR[tornActual()] + " GUANYEN";
+                _resultatPartida = COLOR[_dades._tornActual] + " GUANYEN";
                 break;
             case REI_OFEGAT:
-                _resultatPartida = "TAULES PER REI OFEGAT";
+                _resultatPartida = REI_OFEGAT;
                 break;
             case TAULES_INACCIO:
-                _resultatPartida = "TAULES PER INACCIÓ";
+                _resultatPartida = TAULES_INACCIO;
                 break;
             case TAULES_ESCAC_CONTINU:
-                _resultatPartida = "TAULES PER ESCAC CONTINU";
+                _resultatPartida = TAULES_ESCAC_CONTINU;
                 break;
             case RENDICIO:
-                int contrincant = tornActual() == 0 ? 1 : 0;
+                int contrincant = _dades._tornActual == 0 ? 1 : 0;
                 _resultatPartida = COLOR[contrincant] + " GUANYEN";
                 break;
             case AJORNAMENT:
@@ -719,4 +1441,62 @@ public class Partida {
     private void seguentTorn() {
         _dades._tornActual = _dades._tornActual == 0 ? 1 : 0;
     }
+
+    /**
+     * @brief Tipus d'esdeveniment que genera una jugada.
+     */
+    private static EsdevenimentPartida.Tipus tipusJugada(Jugada jug) {
+        return jug instanceof JugadaEnroc ? EsdevenimentPartida.Tipus.ENROC : EsdevenimentPartida.Tipus.JUGADA;
+    }
+
+    /**
+     * @brief Publica l'estat actual de la partida perquè el puguin consultar altres fils i n'avisa els oients.
+     * @pre El fil té el monitor de la partida (o s'està construint) i \p tipus descriu el canvi que s'acaba de fer.
+     * @post La instantània conté una còpia de l'estat actual i la promoció pendent del tauler s'ha traspassat a la
+     *       instantània. Cada oient ha rebut l'esdeveniment \p tipus i, si la partida s'acaba d'acabar, un \b FI.
+     * @param tipus Tipus del canvi.
+     * @param tirada Tirada de l'historial afectada pel canvi, o null.
+     */
+    private void publicar(EsdevenimentPartida.Tipus tipus, Tirada tirada) {
+        Instantania anterior = _instantania;
+        Posicio posPromo = _dades._tauler.hiHaPromocio();
+        Instantania nova = new Instantania(++_versio, new TaulerEscacs(_dades._tauler), _dades._tornActual,
+                _resultatPartida, posPromo, _historialJugadesTirar.size());
+        _instantania = nova;
+        if (anterior == null || _oients.isEmpty()) return;
+
+        // Caselles modificades i peces capturades
+        List<Posicio> canvis = nova.casellesDiferents(anterior);
+        List<Posicio> captures = new ArrayList<>();
+        if (tipus == EsdevenimentPartida.Tipus.JUGADA || tipus == EsdevenimentPartida.Tipus.ENROC ||
+                tipus == EsdevenimentPartida.Tipus.REFER) {
+            int jugador = anterior.tornActual();
+            for (Posicio pos : canvis) {
+                Peca abans = anterior.pecaTauler(pos);
+                Peca despres = nova.pecaTauler(pos);
+                if (abans != null && abans.color() != jugador && (despres == null || despres.color() == jugador))
+                    captures.add(pos);
+            }
+        }
+
+        notificar(new EsdevenimentPartida(tipus, nova, canvis, captures,
+                tirada == null ? null : tirada.dades()));
+        if (anterior.resultatPartida().isEmpty() && !_resultatPartida.isEmpty())
+            notificar(new EsdevenimentPartida(EsdevenimentPartida.Tipus.FI, nova, Collections.<Posicio>emptyList(),
+                    Collections.<Posicio>emptyList(), null));
+    }
+
+    /**
+     * @brief Lliura un esdeveniment a tots els oients registrats.
+     * @post Cada oient ha rebut \p e; si algun llança una excepció, s'escriu i es continua amb la resta.
+     */
+    private void notificar(EsdevenimentPartida e) {
+        for (OientPartida oient : _oients) {
+            try {
+                oient.esdeveniment(e);
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
 }
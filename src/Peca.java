@@ -4,8 +4,6 @@
  * @author David Pérez Sánchez
  */
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -13,52 +11,36 @@ import java.util.List;
  * @brief Peça d'escacs que es mou sobre un tauler efectuant moviments permesos.
  */
 public class Peca implements Comparable<Peca>{
-    private final String _nom;                          ///< Nom amb què s'identifica la peça.
-    private final char _simbol;                         ///< Símbol amb què es representa.
-    private final String _imatgeBlanca;                 ///< Ruta a la imatge del jugador de blanques.
-    private final String _imatgeNegra;                  ///< Ruta a la imatge del jugador de negres.
-    private final int _valor;                           ///< Valor de la peça.
-    private final List<Moviment> _moviments;            ///< Llista de moviments que pot realitzar.
-    private final List<Moviment> _movimentsInicials;
-        ///< Llista de moviments que pot realitzar si no ha estat moguda de la seva posició inicial.
-    private final boolean _potPromocionar;              ///< Si la peça pot promocionar en una altra peça.
-    private final boolean _esInvulnerable;              ///< Si la peça és invulnerable, és a dir, no ser capturada.
+    static final int MASCARA_TIPUS = 0x1F;              ///< Bits del codi d'una peça amb l'identificador del tipus + 1.
+    static final int BIT_COLOR = 0x20;                  ///< Bit del codi d'una peça que indica que és de negres.
+    static final int BIT_MOGUDA = 0x40;                 ///< Bit del codi d'una peça que indica que s'ha mogut.
+
+    private final PieceType _tipus;                     ///< Tipus de la peça, compartit amb totes les del mateix tipus.
     private int _color;                                 ///< Jugador al qual pertany la peça (negres o blanques).
     private boolean _esMoguda;                          ///< Si la peça s'ha mogut de la seva posició inical.
-    private final HashMap<String,Enroc> _enrocs;
-        ///< Llista d'enrocs que pot realitzar la peça i amb quina peça el pot realitzar.
 
     /**
      * @brief Constructor amb paràmetres.
-     * @pre Cap paràmetre pot ser null, \p imatgeNegra és la ruta a una imatge vàlida, \p imatgeBlanca és la ruta a una
-     *      imatge vàlida, 0 <= valor.
-     * @post Es crea una peça del jugador de blanques i no moguda de la seva posició inicial amb els paràmetres
-     *       d'entrada.
-     * @param nom Nom de la peça.
-     * @param simbol Símbol amb què es representa.
-     * @param imatgeBlanca Imatge amb què es representa gràficament una peça del jugador de blanques.
-     * @param imatgeNegra Imatge amb què es representa gràficament una peça del jugador de negres.
-     * @param valor Valor de la peça.
-     * @param mov Moviments que pot realitzar.
-     * @param movIni Moviments que pot realitzar quan no s'ha mogut de la seva posició inicial.
-     * @param promo Si pot promocionar.
-     * @param invulnerable Si no pot ser capturada.
-     * @param enrocs Enrocs que pot realitzar la peça i amb quina peça el pot fer.
-     */
-    public Peca (String nom, char simbol, String imatgeBlanca, String imatgeNegra, int valor, List<Moviment> mov,
-                 List<Moviment> movIni, boolean promo, boolean invulnerable, HashMap<String,Enroc> enrocs) {
-        _nom = nom;
-        _simbol = simbol;
-        _imatgeBlanca = imatgeBlanca;
-        _imatgeNegra = imatgeNegra;
-        _valor = valor;
-        _moviments = mov;
-        _movimentsInicials = movIni;
-        _potPromocionar = promo;
-        _esInvulnerable = invulnerable;
-        _enrocs = enrocs;
-        _color = 0;
-        _esMoguda = false;
+     * @pre \p tipus != null
+     * @post Es crea una peça de tipus \p tipus del jugador de blanques i no moguda de la seva posició inicial.
+     * @param tipus Tipus de la peça.
+     */
+    public Peca(PieceType tipus) {
+        this(tipus, 0, false);
+    }
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre \p tipus != null i 0 <= \p color <= 1
+     * @post Es crea una peça de tipus \p tipus del jugador \p color, moguda o no segons \p moguda.
+     * @param tipus Tipus de la peça.
+     * @param color Jugador al qual pertany la peça.
+     * @param moguda Si la peça s'ha mogut de la seva posició inicial.
+     */
+    Peca(PieceType tipus, int color, boolean moguda) {
+        _tipus = tipus;
+        _color = color;
+        _esMoguda = moguda;
     }
 
     /**
@@ -68,18 +50,28 @@ public class Peca implements Comparable<Peca>{
      * @param p Peca que es vol copiar.
      */
     public Peca(Peca p) {
-        _nom = p._nom;
-        _simbol = p._simbol;
-        _imatgeBlanca = p._imatgeBlanca;
-        _imatgeNegra = p._imatgeNegra;
-        _valor = p._valor;
-        _moviments = p._moviments;
-        _movimentsInicials = p._movimentsInicials;
-        _potPromocionar = p._potPromocionar;
-        _esInvulnerable = p._esInvulnerable;
+        _tipus = p._tipus;
         _color = p._color;
         _esMoguda = p._esMoguda;
-        _enrocs = p._enrocs;
+    }
+
+    /**
+     * @brief Tipus de la peça.
+     * @return El tipus compartit de la peça.
+     */
+    public PieceType tipus() {
+        return _tipus;
+    }
+
+    /**
+     * @brief Codi de la peça amb què es guarda a les caselles del tauler.
+     * @return L'identificador del tipus + 1 als 5 bits baixos, el color al bit 5 i si s'ha mogut al bit 6.
+     */
+    int codi() {
+        int codi = _tipus.id() + 1;
+        if (_color == 1) codi |= BIT_COLOR;
+        if (_esMoguda) codi |= BIT_MOGUDA;
+        return codi;
     }
 
     /**
@@ -87,7 +79,7 @@ public class Peca implements Comparable<Peca>{
      * @return El nom de la peça.
      */
     public String nom() {
-        return _nom;
+        return _tipus.nom();
     }
 
     /**
@@ -95,8 +87,7 @@ public class Peca implements Comparable<Peca>{
      * @return El caràcter que representa aquesta peça.
      */
     public char simbol() {
-        if(_color == 0) return Character.toUpperCase(_simbol);
-        else return Character.toLowerCase(_simbol);
+        return _tipus.simbol(_color);
     }
 
     /**
@@ -112,7 +103,7 @@ public class Peca implements Comparable<Peca>{
      * @return El valor d'aquesta peça.
      */
     public int valor() {
-        return _valor;
+        return _tipus.valor();
     }
 
     /**
@@ -120,7 +111,32 @@ public class Peca implements Comparable<Peca>{
      * @return La ruta a la imatge.
      */
     public String pathImg() {
-        return _color == 0 ? _imatgeBlanca : _imatgeNegra;
+        return _tipus.pathImg(_color);
+    }
+
+    /**
+     * @brief Ruta a la imatge que representa aquesta peça per un jugador determinat.
+     * @pre 0 <= \p color <= 1
+     * @return La ruta a la imatge del jugador \p color.
+     */
+    String pathImg(int color) {
+        return _tipus.pathImg(color);
+    }
+
+    /**
+     * @brief Moviments que la peça pot realitzar sempre, sense comptar els inicials.
+     * @return La llista de moviments de la peça.
+     */
+    List<Moviment> moviments() {
+        return _tipus.moviments();
+    }
+
+    /**
+     * @brief Moviments que la peça pot realitzar només si no s'ha mogut de la seva posició inicial.
+     * @return La llista de moviments inicials de la peça.
+     */
+    List<Moviment> movimentsInicials() {
+        return _tipus.movimentsInicials();
     }
 
     /**
@@ -136,7 +152,7 @@ public class Peca implements Comparable<Peca>{
      * @return Cert si la peça no pot ser capturada, fals altrament.
      */
     public boolean esInvulnerable() {
-        return _esInvulnerable;
+        return _tipus.esInvulnerable();
     }
 
     /**
@@ -144,7 +160,7 @@ public class Peca implements Comparable<Peca>{
      * @return Cert si pot promocionar, fals altrament.
      */
     public boolean potPromocionar() {
-        return _potPromocionar;
+        return _tipus.potPromocionar();
     }
 
     /**
@@ -152,7 +168,7 @@ public class Peca implements Comparable<Peca>{
      * @return Cert si aquesta peça disposa de, com a mínim, un enroc. Fals altrament.
      */
     public boolean potEnrocar() {
-        return ! _enrocs.isEmpty();
+        return _tipus.potEnrocar();
     }
 
     /**
@@ -160,12 +176,10 @@ public class Peca implements Comparable<Peca>{
      * @pre ---
      * @post Retorna tots els moviments que la peça pot realitzar i, en cas de no haver-se mogut de la seva posició
      *       inicial, també els moviments inicials.
-     * @return Una llista amb tots els moviments disponibles en las situació actual.
+     * @return Una llista no modificable amb tots els moviments disponibles en las situació actual.
      */
-    public List<Moviment> obtenirMoviments() { // FER DEEP COPY
-        List<Moviment> aux = new ArrayList<>(_moviments);
-        if(! _esMoguda) aux.addAll(_movimentsInicials);
-        return aux;
+    public List<Moviment> obtenirMoviments() {
+        return _tipus.moviments(_esMoguda);
     }
 
     /**
@@ -176,7 +190,7 @@ public class Peca implements Comparable<Peca>{
      * @return Un enroc amb la peça \p p en cas que existeixi, null altrament.
      */
     public Enroc obtenirEnroc(Peca p) {
-        return _enrocs.get(p._nom); // Retorna null si no hi és
+        return _tipus.obtenirEnroc(p._tipus); // Retorna null si no hi és
     }
 
     /**
@@ -205,11 +219,11 @@ public class Peca implements Comparable<Peca>{
      */
     @Override
     public int compareTo(Peca o) {
-        return Integer.compare(_valor, o._valor);
+        return Integer.compare(_tipus.valor(), o._tipus.valor());
     }
 
     @Override
     public String toString() {
-        return _nom;
+        return _tipus.nom();
     }
 }
\ No newline at end of file
@@ -8,9 +8,6 @@ import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.StackPane;
 
-import java.io.File;
-import java.util.HashMap;
-
 /** @class      PecaGrafica
     @brief      Una peça d'escacs, representada per una imatge.
     @details    Les coordenades oldX() i oldY() fan referència al centre de
@@ -19,7 +16,6 @@ import java.util.HashMap;
 
 public class PecaGrafica extends StackPane {
 
-    private final static HashMap<String,Image> _imatges = new HashMap<>();  ///< \c HashMap de \c String - \c Image on la clau representa la ruta de la imatge i com a valor hi té la imatge.
     private final int _pixels;                                              ///< Amplada de la casella.
     private double _mouseX;                                                 ///< Coordenada x del click mouse en píxels.
     private double _mouseY;                                                 ///< Coordenada y del click mouse en píxels.
@@ -80,15 +76,10 @@ public class PecaGrafica extends StackPane {
     }
 
     /**
-     * @brief Genera un node amb la imatge de la peça
+     * @brief Genera un node amb la imatge de la peça, presa de CacheImatges.
      */
     private ImageView generarImatge() {
-        Image img = _imatges.get(_peca.pathImg());
-        if(img == null) {
-            File f = new File(_peca.pathImg());
-            img = new Image(f.toURI().toString(),_pixels,_pixels, true,true, true);
-            _imatges.put(_peca.pathImg(),img);
-        }
+        Image img = CacheImatges.imatge(_peca.pathImg(), _pixels);
         return new ImageView(img);
     }
 }
@@ -0,0 +1,192 @@
+/**
+ * @file PieceType.java
+ * @brief Tipus de peça d'escacs.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @class PieceType
+ * @brief Dades immutables d'un tipus de peça (nom, símbol, imatges, valor, moviments i enrocs). Cada fitxer de regles
+ *        en crea una única instància per tipus, que comparteixen totes les peces i tots els taulers.
+ * @details Cada tipus té un identificador entre 0 i 24 (l'ordre en què apareix al fitxer de regles), que és el que
+ *          guarden les caselles del tauler.
+ */
+public final class PieceType {
+    private final int _id;                              ///< Identificador del tipus dins les seves regles.
+    private final String _nom;                          ///< Nom amb què s'identifica la peça.
+    private final char _simbol;                         ///< Símbol amb què es representa.
+    private final String _imatgeBlanca;                 ///< Ruta a la imatge del jugador de blanques.
+    private final String _imatgeNegra;                  ///< Ruta a la imatge del jugador de negres.
+    private final int _valor;                           ///< Valor de la peça.
+    private final List<Moviment> _moviments;            ///< Moviments que pot realitzar.
+    private final List<Moviment> _movimentsInicials;
+        ///< Moviments que pot realitzar si no ha estat moguda de la seva posició inicial.
+    private final List<Moviment> _movimentsNoMoguda;
+        ///< Moviments i moviments inicials junts, per quan no ha estat moguda.
+    private final List<List<MovimentCompilat>> _compilats;
+        ///< Moviments compilats de cada color: índex 2 * color si s'ha mogut, 2 * color + 1 si no.
+    private final boolean _potPromocionar;              ///< Si la peça pot promocionar en una altra peça.
+    private final boolean _esInvulnerable;              ///< Si la peça és invulnerable, és a dir, no ser capturada.
+    private final boolean _esRei;                       ///< Si la peça és el rei.
+    private final Map<String,Enroc> _enrocs;            ///< Enrocs que pot realitzar i amb quina peça.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre Cap paràmetre pot ser null, 0 <= \p id < 25, \p imatgeNegra i \p imatgeBlanca són rutes a imatges vàlides,
+     *      0 <= valor.
+     * @post Es crea un tipus de peça amb còpies no modificables de les llistes i del mapa d'enrocs.
+     * @param id Identificador del tipus.
+     * @param nom Nom de la peça.
+     * @param simbol Símbol amb què es representa.
+     * @param imatgeBlanca Imatge amb què es representa gràficament una peça del jugador de blanques.
+     * @param imatgeNegra Imatge amb què es representa gràficament una peça del jugador de negres.
+     * @param valor Valor de la peça.
+     * @param mov Moviments que pot realitzar.
+     * @param movIni Moviments que pot realitzar quan no s'ha mogut de la seva posició inicial.
+     * @param promo Si pot promocionar.
+     * @param invulnerable Si no pot ser capturada.
+     * @param enrocs Enrocs que pot realitzar la peça i amb quina peça el pot fer.
+     */
+    public PieceType(int id, String nom, char simbol, String imatgeBlanca, String imatgeNegra, int valor,
+                     List<Moviment> mov, List<Moviment> movIni, boolean promo, boolean invulnerable,
+                     Map<String,Enroc> enrocs) {
+        _id = id;
+        _nom = nom;
+        _simbol = simbol;
+        _imatgeBlanca = imatgeBlanca;
+        _imatgeNegra = imatgeNegra;
+        _valor = valor;
+        _moviments = Collections.unmodifiableList(new ArrayList<>(mov));
+        _movimentsInicials = Collections.unmodifiableList(new ArrayList<>(movIni));
+        List<Moviment> tots = new ArrayList<>(mov);
+        tots.addAll(movIni);
+        _movimentsNoMoguda = Collections.unmodifiableList(tots);
+        List<List<MovimentCompilat>> compilats = new ArrayList<>();
+        for (int color = 0; color <= 1; color++) {
+            compilats.add(compilar(_moviments, color));
+            compilats.add(compilar(_movimentsNoMoguda, color));
+        }
+        _compilats = Collections.unmodifiableList(compilats);
+        _potPromocionar = promo;
+        _esInvulnerable = invulnerable;
+        _esRei = nom.equals("REI");
+        _enrocs = Collections.unmodifiableMap(new HashMap<>(enrocs));
+    }
+
+    /** @brief Identificador del tipus dins les seves regles. */
+    public int id() {
+        return _id;
+    }
+
+    /** @brief Nom del tipus de peça. */
+    public String nom() {
+        return _nom;
+    }
+
+    /**
+     * @brief Caràcter amb què es representa el tipus per un jugador.
+     * @pre 0 <= \p color <= 1
+     * @return El símbol en majúscula per blanques i en minúscula per negres.
+     */
+    public char simbol(int color) {
+        return color == 0 ? Character.toUpperCase(_simbol) : Character.toLowerCase(_simbol);
+    }
+
+    /**
+     * @brief Ruta a la imatge que representa el tipus per un jugador.
+     * @pre 0 <= \p color <= 1
+     * @return La ruta a la imatge.
+     */
+    public String pathImg(int color) {
+        return color == 0 ? _imatgeBlanca : _imatgeNegra;
+    }
+
+    /** @brief Valor del tipus de peça. */
+    public int valor() {
+        return _valor;
+    }
+
+    /** @brief Llista no modificable dels moviments que pot fer sempre, sense comptar els inicials. */
+    public List<Moviment> moviments() {
+        return _moviments;
+    }
+
+    /** @brief Llista no modificable dels moviments que només pot fer si no s'ha mogut. */
+    public List<Moviment> movimentsInicials() {
+        return _movimentsInicials;
+    }
+
+    /**
+     * @brief Moviments disponibles segons si la peça s'ha mogut o no.
+     * @param moguda Si la peça s'ha mogut de la seva posició inicial.
+     * @return Una llista no modificable amb els moviments, i també els inicials si \p moguda és fals. No es crea cap
+     *         llista nova.
+     */
+    public List<Moviment> moviments(boolean moguda) {
+        return moguda ? _moviments : _movimentsNoMoguda;
+    }
+
+    /**
+     * @brief Moviments compilats disponibles segons el color i si la peça s'ha mogut o no.
+     * @pre 0 <= \p color <= 1
+     * @param moguda Si la peça s'ha mogut de la seva posició inicial.
+     * @param color 0 per les peces blanques, 1 per les negres.
+     * @return Una llista no modificable amb un MovimentCompilat per cada moviment de moviments(\p moguda), en el mateix ordre.
+     *         No es crea cap llista nova.
+     */
+    public List<MovimentCompilat> movimentsCompilats(boolean moguda, int color) {
+        return _compilats.get(2 * color + (moguda ? 0 : 1));
+    }
+
+    /** @brief Indica si pot promocionar. */
+    public boolean potPromocionar() {
+        return _potPromocionar;
+    }
+
+    /** @brief Indica si és invulnerable. */
+    public boolean esInvulnerable() {
+        return _esInvulnerable;
+    }
+
+    /** @brief Indica si és el rei. */
+    public boolean esRei() {
+        return _esRei;
+    }
+
+    /** @brief Indica si té algun enroc. */
+    public boolean potEnrocar() {
+        return !_enrocs.isEmpty();
+    }
+
+    /**
+     * @brief Enroc que pot realitzar amb un altre tipus de peça.
+     * @pre \p altre != null
+     * @return L'enroc amb \p altre o null si no n'hi ha cap.
+     */
+    public Enroc obtenirEnroc(PieceType altre) {
+        return _enrocs.get(altre._nom);
+    }
+
+    /** @brief Totes les parelles d'enroc d'aquest tipus en un mapa no modificable. */
+    Map<String,Enroc> enrocs() {
+        return _enrocs;
+    }
+
+    @Override
+    public String toString() {
+        return _nom;
+    }
+
+    /** @brief Llista no modificable amb els moviments de \p moviments compilats pel color \p color. */
+    private static List<MovimentCompilat> compilar(List<Moviment> moviments, int color) {
+        List<MovimentCompilat> res = new ArrayList<>();
+        for (Moviment mov : moviments)
+            res.add(new MovimentCompilat(mov, color));
+        return Collections.unmodifiableList(res);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * @file ReflexioCPU.java
+ * @brief Cerca de la CPU durant el temps de reflexió del contrincant.
+ */
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * @class ReflexioCPU
+ * @brief Mentre el contrincant pensa, prediu la seva jugada i prepara la resposta de la CPU a aquesta jugada.
+ * @details La cerca es fa en un fil en segon pla sobre còpies del tauler, sense bloquejar la partida. Quan el
+ *          contrincant juga, resposta() comprova si el tauler és el previst: si ho és, s'aprofita la cerca (acabada o
+ *          encara en curs) i la jugada s'escull exactament com ho faria JugadorCPU::demanarJugada(); si no, la cerca
+ *          s'atura i la CPU cerca la jugada normalment.
+ */
+public class ReflexioCPU {
+    private final int _jugadorCPU;                          ///< Color de la CPU.
+    private final JugadorCPU.LimitsCerca _limits;           ///< Permet aturar la cerca.
+    private final FutureTask<List<Jugada>> _cerca;          ///< Cerca de les millors respostes de la CPU.
+    private volatile TaulerEscacs _previst;                 ///< Tauler després de la jugada prevista, null si encara no es coneix.
+    private volatile Jugada _prediccio;                     ///< Jugada prevista del contrincant.
+
+    /**
+     * @brief Comença a reflexionar.
+     * @pre \p t és el tauler actual, el torn és del contrincant de \p jugadorCPU i aquest té alguna jugada.
+     * @post S'ha iniciat en segon pla la predicció de la jugada del contrincant i la cerca de la resposta.
+     * @param t Còpia del tauler, que la reflexió pot modificar.
+     * @param jugadorCPU Color de la CPU.
+     */
+    ReflexioCPU(TaulerEscacs t, int jugadorCPU) {
+        _jugadorCPU = jugadorCPU;
+        _limits = new JugadorCPU.LimitsCerca(0, 0, 0);
+        _cerca = new FutureTask<>(() -> reflexionar(t));
+        Thread fil = new Thread(_cerca, "reflexio-cpu");
+        fil.setDaemon(true);
+        fil.start();
+    }
+
+    /**
+     * @brief Jugada del contrincant que s'ha previst.
+     * @return La jugada prevista, o null si encara no s'ha previst.
+     */
+    public Jugada prediccio() {
+        return _prediccio;
+    }
+
+    /**
+     * @brief Atura la reflexió.
+     * @post La cerca en segon pla s'atura tan aviat com pot i resposta() ja no donarà cap jugada.
+     */
+    public void aturar() {
+        _limits.aturar();
+    }
+
+    /**
+     * @brief Resposta de la CPU si el contrincant ha fet la jugada prevista.
+     * @pre \p t és el tauler actual i el torn és de \p torn.
+     * @post Si el tauler és el previst i el torn és de la CPU, s'espera que acabi la cerca i es retorna la jugada
+     *       escollida. Altrament s'atura la reflexió i es retorna null.
+     * @param t Tauler actual de la partida.
+     * @param torn Jugador que té el torn.
+     * @return La jugada de la CPU, o null si no s'ha pogut aprofitar la reflexió.
+     */
+    Jugada resposta(TaulerEscacs t, int torn) {
+        TaulerEscacs previst = _previst;
+        if (torn != _jugadorCPU || previst == null || !t.casellesDiferents(previst).isEmpty()) {
+            aturar();
+            return null;
+        }
+        try {
+            List<Jugada> millors = _cerca.get();
+            return millors == null || millors.isEmpty() ? null : JugadorCPU.escollirJugada(millors);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @brief Prediu la jugada del contrincant i cerca les millors respostes.
+     * @return Les millors respostes de la CPU al tauler previst, o null si s'ha aturat abans d'acabar.
+     */
+    private List<Jugada> reflexionar(TaulerEscacs t) throws ExcepcioJugadaErronia {
+        int contrincant = _jugadorCPU == 0 ? 1 : 0;
+        Jugada prediccio = JugadorCPU.predirJugada(t, contrincant, _limits);
+        if (prediccio == null) return null;
+        prediccio.efectuarJugada(t, contrincant);
+        _prediccio = prediccio;
+        _previst = t;
+        return JugadorCPU.preveureJugades(t, _jugadorCPU, _limits);
+    }
+}
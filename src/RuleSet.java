@@ -0,0 +1,302 @@
+/**
+ * @file RuleSet.java
+ * @brief Regles d'una partida compilades i compartides.
+ */
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @class RuleSet
+ * @brief Conjunt immutable de regles (tauler, límits, peces, enrocs i posició inicial) obtingut d'un fitxer de
+ *        regles. Es comparteix entre totes les partides que fan servir unes regles amb el mateix contingut.
+ * @details Els conjunts de regles es guarden en una memòria cau en memòria indexada pel resum SHA-256 del contingut
+ *          del fitxer de regles. Si la propietat del sistema \c escacs.cacheRegles indica un directori, també es
+ *          guarden en format binari en aquest directori, de manera que no cal tornar a analitzar el JSON encara
+ *          que es reiniciï el programa.
+ */
+public final class RuleSet {
+    public static final String PROPIETAT_CACHE = "escacs.cacheRegles"; ///< Propietat amb el directori de la cau.
+    private static final int MAGIC = 0x45525347;    ///< Identificador dels fitxers binaris de regles ("ERSG").
+    private static final int VERSIO = 2;            ///< Versió del format binari.
+    private static final ConcurrentHashMap<String,RuleSet> _cache = new ConcurrentHashMap<>(); ///< Regles compilades per resum.
+
+    private final String _resum;                    ///< Resum SHA-256 (hexadecimal) del fitxer de regles.
+    private final int _files;                       ///< Files del tauler.
+    private final int _columnes;                    ///< Columnes del tauler.
+    private final int _limitEscacs;                 ///< Nombre d'escacs consecutius permesos.
+    private final int _limitInaccio;                ///< Nombre de torns seguits sense capturar cap peça permesos.
+    private final Map<String,PieceType> _peces;     ///< Tipus de peça disponibles indexats pel nom.
+    private final PieceType[] _tipus;               ///< Tipus de peça disponibles indexats per identificador.
+    private final List<String> _ordrePeces;         ///< Ordre de les peces a la posició inicial.
+    private final List<Enroc> _enrocs;              ///< Enrocs disponibles.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre Cap paràmetre és null i les dades ja s'han validat.
+     * @post Es crea un conjunt de regles amb còpies no modificables de les col·leccions.
+     */
+    RuleSet(String resum, int files, int columnes, int limitEscacs, int limitInaccio, Map<String,PieceType> peces,
+            List<String> ordrePeces, List<Enroc> enrocs) {
+        _resum = resum;
+        _files = files;
+        _columnes = columnes;
+        _limitEscacs = limitEscacs;
+        _limitInaccio = limitInaccio;
+        _peces = Collections.unmodifiableMap(new HashMap<>(peces));
+        _tipus = new PieceType[peces.size()];
+        for (PieceType t : peces.values())
+            _tipus[t.id()] = t;
+        _ordrePeces = Collections.unmodifiableList(new ArrayList<>(ordrePeces));
+        _enrocs = Collections.unmodifiableList(new ArrayList<>(enrocs));
+    }
+
+    /**
+     * @brief Obtenir les regles compilades d'un fitxer de regles.
+     * @pre \p path != null
+     * @post Si les regles amb el mateix contingut ja s'havien compilat, es retornen sense analitzar el fitxer. Si
+     *       no, es carreguen de la cau en disc o es compilen amb el Loader, i es guarden a la cau.
+     * @param path Ruta a un fitxer de regles JSON.
+     * @return Les regles compilades.
+     * @throws IOException Si el fitxer no es pot llegir.
+     * @throws IllegalArgumentException Si el fitxer no és un JSON o les regles no són correctes.
+     */
+    public static RuleSet obtenir(String path) throws IOException {
+        if(!path.matches(".+\\.json")) throw new IllegalArgumentException("El fitxer no és un JSON");
+        byte[] contingut = Files.readAllBytes(Paths.get(path));
+        String resum = hex(resum(contingut));
+
+        RuleSet regles = _cache.get(resum);
+        if (regles == null) {
+            regles = llegirCacheDisc(resum);
+            if (regles == null) {
+                regles = Loader.compilarRegles(new String(contingut), resum);
+                guardarCacheDisc(regles);
+            }
+            RuleSet previ = _cache.putIfAbsent(resum, regles);
+            if (previ != null) regles = previ;
+        }
+        return regles;
+    }
+
+    /**
+     * @brief Buida la memòria cau en memòria.
+     * @post Les properes consultes tornaran a carregar les regles del disc o del fitxer JSON.
+     */
+    public static void buidarCache() {
+        _cache.clear();
+    }
+
+    /** @brief Resum SHA-256 (hexadecimal) del fitxer de regles. */
+    public String resum() {
+        return _resum;
+    }
+
+    /** @brief Files del tauler. */
+    public int files() {
+        return _files;
+    }
+
+    /** @brief Columnes del tauler. */
+    public int columnes() {
+        return _columnes;
+    }
+
+    /** @brief Nombre d'escacs consecutius permesos. */
+    public int limitEscacs() {
+        return _limitEscacs;
+    }
+
+    /** @brief Nombre de torns seguits sense capturar cap peça permesos. */
+    public int limitInaccio() {
+        return _limitInaccio;
+    }
+
+    /**
+     * @brief Tipus de peça disponibles.
+     * @return Un mapa no modificable amb els tipus de peça indexats pel nom.
+     */
+    public Map<String,PieceType> peces() {
+        return _peces;
+    }
+
+    /**
+     * @brief Tipus de peça amb un identificador.
+     * @pre 0 <= \p id < nombre de tipus.
+     * @return El tipus de peça amb identificador \p id.
+     */
+    public PieceType tipus(int id) {
+        return _tipus[id];
+    }
+
+    /** @brief Llista no modificable amb l'ordre de les peces a la posició inicial. */
+    public List<String> ordrePeces() {
+        return _ordrePeces;
+    }
+
+    /** @brief Llista no modificable amb els enrocs disponibles. */
+    public List<Enroc> enrocs() {
+        return _enrocs;
+    }
+
+    /**
+     * @brief Resum SHA-256 d'un contingut.
+     * @pre \p contingut != null
+     * @return Els 32 bytes del resum.
+     */
+    static byte[] resum(byte[] contingut) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(contingut);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @brief Converteix bytes a text hexadecimal.
+     */
+    private static String hex(byte[] bytes) {
+        StringBuilder res = new StringBuilder();
+        for (byte b : bytes)
+            res.append(String.format("%02x", b));
+        return res.toString();
+    }
+
+    /**
+     * @brief Fitxer de la cau en disc per a un resum.
+     * @return El fitxer o null si la cau en disc no està activada.
+     */
+    private static File fitxerCache(String resum) {
+        String directori = System.getProperty(PROPIETAT_CACHE);
+        if (directori == null || directori.isEmpty()) return null;
+        return new File(directori, resum + ".regles");
+    }
+
+    /**
+     * @brief Llegeix unes regles compilades de la cau en disc.
+     * @pre \p resum != null
+     * @post Es retornen les regles si la cau en disc està activada i conté un fitxer vàlid pel resum, null
+     *       altrament.
+     */
+    private static RuleSet llegirCacheDisc(String resum) {
+        File f = fitxerCache(resum);
+        if (f == null || !f.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSIO || !in.readUTF().equals(resum)) return null;
+            int files = in.readUnsignedByte();
+            int columnes = in.readUnsignedByte();
+            int limitEscacs = in.readInt();
+            int limitInaccio = in.readInt();
+
+            int nEnrocs = in.readUnsignedShort();
+            List<Enroc> enrocs = new ArrayList<>();
+            for (int i = 0; i < nEnrocs; i++)
+                enrocs.add(new Enroc(in.readUTF(), in.readUTF(), in.readBoolean(), in.readBoolean()));
+            HashMap<String, HashMap<String, Enroc>> enrocsPeces = Loader.agruparEnrocs(enrocs);
+
+            int nPeces = in.readUnsignedByte();
+            Map<String,PieceType> peces = new HashMap<>();
+            for (int i = 0; i < nPeces; i++) {
+                String nom = in.readUTF();
+                char simbol = in.readChar();
+                String imatgeBlanca = in.readUTF();
+                String imatgeNegra = in.readUTF();
+                int valor = in.readInt();
+                List<Moviment> moviments = llegirMoviments(in);
+                List<Moviment> movimentsInicials = llegirMoviments(in);
+                boolean promocio = in.readBoolean();
+                boolean invulnerable = in.readBoolean();
+                HashMap<String,Enroc> enrocsPeca = enrocsPeces.containsKey(nom) ? enrocsPeces.get(nom) : new HashMap<>();
+                peces.put(nom, new PieceType(i, nom, simbol, imatgeBlanca, imatgeNegra, valor, moviments,
+                                             movimentsInicials, promocio, invulnerable, enrocsPeca));
+            }
+
+            int nOrdre = in.readUnsignedShort();
+            List<String> ordre = new ArrayList<>();
+            for (int i = 0; i < nOrdre; i++)
+                ordre.add(in.readUTF());
+
+            return new RuleSet(resum, files, columnes, limitEscacs, limitInaccio, peces, ordre, enrocs);
+        } catch (IOException | IllegalArgumentException e) {
+            return null; // Es tornarà a compilar des del JSON
+        }
+    }
+
+    /**
+     * @brief Guarda unes regles compilades a la cau en disc, si està activada.
+     * @pre \p regles != null
+     * @post S'ha escrit el fitxer binari de les regles. Si no es pot escriure, la cau en disc s'ignora.
+     */
+    private static void guardarCacheDisc(RuleSet regles) {
+        File f = fitxerCache(regles._resum);
+        if (f == null) return;
+        File temporal = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporal)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSIO);
+            out.writeUTF(regles._resum);
+            out.writeByte(regles._files);
+            out.writeByte(regles._columnes);
+            out.writeInt(regles._limitEscacs);
+            out.writeInt(regles._limitInaccio);
+
+            out.writeShort(regles._enrocs.size());
+            for (Enroc e : regles._enrocs) {
+                out.writeUTF(e.primeraPeca());
+                out.writeUTF(e.segonaPeca());
+                out.writeBoolean(e.quiets());
+                out.writeBoolean(e.buitAlMig());
+            }
+
+            out.writeByte(regles._peces.size());
+            for (PieceType p : regles._tipus) {
+                out.writeUTF(p.nom());
+                out.writeChar(p.simbol(0));
+                out.writeUTF(p.pathImg(0));
+                out.writeUTF(p.pathImg(1));
+                out.writeInt(p.valor());
+                escriureMoviments(out, p.moviments());
+                escriureMoviments(out, p.movimentsInicials());
+                out.writeBoolean(p.potPromocionar());
+                out.writeBoolean(p.esInvulnerable());
+            }
+
+            out.writeShort(regles._ordrePeces.size());
+            for (String nom : regles._ordrePeces)
+                out.writeUTF(nom);
+        } catch (IOException e) {
+            temporal.delete();
+            return;
+        }
+        if (!temporal.renameTo(f)) temporal.delete();
+    }
+
+    /**
+     * @brief Escriu una llista de moviments en format binari.
+     */
+    private static void escriureMoviments(DataOutput out, List<Moviment> moviments) throws IOException {
+        out.writeShort(moviments.size());
+        for (Moviment m : moviments) {
+            out.writeUTF(m.fila());
+            out.writeUTF(m.columna());
+            out.writeByte(m.movCaptura());
+            out.writeByte(m.movSalta());
+        }
+    }
+
+    /**
+     * @brief Llegeix una llista de moviments en format binari.
+     * @return Una llista no modificable amb els moviments llegits.
+     */
+    private static List<Moviment> llegirMoviments(DataInput in) throws IOException {
+        int n = in.readUnsignedShort();
+        List<Moviment> moviments = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            moviments.add(new Moviment(in.readUTF(), in.readUTF(), in.readUnsignedByte(), in.readUnsignedByte()));
+        return Collections.unmodifiableList(moviments);
+    }
+}
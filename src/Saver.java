@@ -3,8 +3,13 @@
  * @brief Mòdul que permet guardar una partida.
  * @author David Pérez Sánchez
  */
-import java.io.FileWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -18,6 +23,7 @@ import java.util.Map;
  */
 public abstract class Saver {
     private static final String tab = "  "; ///< Espai per indentar les línies.
+    private static final int MIDA_BLOC = 64 * 1024; ///< Bytes que s'escriuen entre dues notificacions de progrés.
 
     /**
      * @brief Guardar el desenvolupament d'una partida en fitxer en format JSON.
@@ -32,67 +38,157 @@ public abstract class Saver {
      */
     public static void guardarPartida(String fitxerDesti, LinkedHashMap<String, Object> dades) throws IOException,
             IllegalArgumentException {
+        guardarPartida(fitxerDesti, dades, null);
+    }
+
+    /**
+     * @brief Guardar el desenvolupament d'una partida en fitxer en format JSON informant del progrés.
+     * @pre Les de guardarPartida(String, LinkedHashMap).
+     * @post Igual que guardarPartida(String, LinkedHashMap). Si \p oient no és null, rep els bytes escrits després de
+     *       cada bloc. Si l'operació no s'acaba, \p fitxerDesti queda com estava.
+     * @param fitxerDesti Ruta del fitxer on es guardarà el desenvolupament.
+     * @param dades Dades del desenvolupament d'una partida organitzades en mapes.
+     * @param oient Receptor del progrés (pot ser null).
+     * @throws IOException Si no s'ha pogut desar correctament el fitxer.
+     * @throws IllegalArgumentException Si \p fitxerDesti no té la extensió d'un JSON.
+     * @throws java.util.concurrent.CancellationException Si s'interromp el fil abans d'acabar d'escriure.
+     */
+    public static void guardarPartida(String fitxerDesti, LinkedHashMap<String, Object> dades, OientProgres oient)
+            throws IOException, IllegalArgumentException {
         if(!fitxerDesti.matches(".+\\.json"))
             throw new IllegalArgumentException("El fitxer no té extensió \".json\"");
-        String json = "{\n";
+        StringBuilder json = new StringBuilder("{\n");
 
         for (Map.Entry<String, Object> entry : dades.entrySet()) {
             switch (entry.getKey()) {
                 case "fitxerRegles":
                 case "proper_torn":
-                    json += tab + "\"" + entry.getKey() + "\": \"" + entry.getValue() + "\",\n";
+                    json.append(tab).append("\"").append(entry.getKey()).append("\": \"").append(entry.getValue())
+                            .append("\",\n");
                     break;
                 case "posIniBlanques":
                 case "posIniNegres":
                 case "tirades":
-                    json += tab + "\"" + entry.getKey() + "\": " +
-                            guardarArray((List<LinkedHashMap<String, String>>) entry.getValue()) + ",\n";
+                    json.append(tab).append("\"").append(entry.getKey()).append("\": ");
+                    guardarArray(json, (List<LinkedHashMap<String, String>>) entry.getValue());
+                    json.append(",\n");
                     break;
                 case "resultat_final":
-                    json += tab + "\"" + entry.getKey() + "\": \"" + entry.getValue() + "\"\n";
+                    json.append(tab).append("\"").append(entry.getKey()).append("\": \"").append(entry.getValue())
+                            .append("\"\n");
                     break;
             }
         }
-        json += "}";
+        json.append("}");
 
-        FileWriter f = new FileWriter(fitxerDesti);
-        f.write(json);
-        f.close();
+        escriureFitxer(fitxerDesti, json.toString(), oient);
         System.out.println("S'ha desat el progrés correctament");
     }
 
+    /**
+     * @brief Guardar el desenvolupament d'una partida en format JSON i el seu estat en format binari.
+     * @pre \p fitxerDesti és el nom d'un fitxer vàlid amb extensió ".json" i \p partida != null.
+     * @post Es guarda el desenvolupament de \p partida al fitxer \p fitxerDesti i, al seu costat, el fitxer binari
+     *       que permet reprendre-la sense reproduir les tirades (veure Checkpoint). Si no es pot desar el fitxer
+     *       binari, només es desa el JSON.
+     * @param fitxerDesti Ruta del fitxer on es guardarà el desenvolupament.
+     * @param partida Partida que es vol desar.
+     * @throws IOException Si no s'ha pogut desar correctament el fitxer JSON.
+     * @throws IllegalArgumentException Si \p fitxerDesti no té la extensió d'un JSON.
+     */
+    public static void guardarPartida(String fitxerDesti, Partida partida) throws IOException,
+            IllegalArgumentException {
+        guardarPartida(fitxerDesti, partida, null);
+    }
+
+    /**
+     * @brief Guardar el desenvolupament d'una partida en format JSON i el seu estat en format binari informant del
+     *        progrés.
+     * @pre Les de guardarPartida(String, Partida).
+     * @post Igual que guardarPartida(String, Partida). Si \p oient no és null, rep els bytes del fitxer JSON escrits
+     *       després de cada bloc.
+     * @param fitxerDesti Ruta del fitxer on es guardarà el desenvolupament.
+     * @param partida Partida que es vol desar.
+     * @param oient Receptor del progrés (pot ser null).
+     * @throws IOException Si no s'ha pogut desar correctament el fitxer JSON.
+     * @throws IllegalArgumentException Si \p fitxerDesti no té la extensió d'un JSON.
+     * @throws java.util.concurrent.CancellationException Si s'interromp el fil abans d'acabar d'escriure el JSON.
+     */
+    public static void guardarPartida(String fitxerDesti, Partida partida, OientProgres oient) throws IOException,
+            IllegalArgumentException {
+        guardarPartida(fitxerDesti, partida.dadesDesenvolupament(), oient);
+        try {
+            Checkpoint.guardar(fitxerDesti, partida);
+        } catch (IOException e) {
+            new File(Checkpoint.rutaCheckpoint(fitxerDesti)).delete();
+            System.out.println("No s'ha pogut desar el fitxer binari: " + e.getMessage());
+        }
+    }
+
     /**
      * @brief Convertir una llista de mapes a una cadena de caràcters en format JSON .
-     * @pre \p list != null i conté les dades en el format propi d'un desenvolupament de partida.
-     * @post Es retorna una cadena de caràcters amb el contingut de \p list en format JSON.
+     * @pre \p res != null, \p list != null i conté les dades en el format propi d'un desenvolupament de partida.
+     * @post S'ha afegit a \p res el contingut de \p list en format JSON.
+     * @param res On s'afegeix el JSON.
      * @param list Dades que es volen convertir.
-     * @return Una cadena de caràcters en format JSON.
      */
-    private static String guardarArray(List<LinkedHashMap<String, String>> list) {
-        String res = "[";
+    private static void guardarArray(StringBuilder res, List<LinkedHashMap<String, String>> list) {
+        res.append("[");
 
         if(!list.isEmpty()) {
-            res += "\n";
+            res.append("\n");
             Iterator<LinkedHashMap<String, String>> it = list.iterator();
             while (it.hasNext()) {
-                res += tab + tab + "{\n";
+                res.append(tab).append(tab).append("{\n");
                 LinkedHashMap<String, String> map = it.next();
                 Iterator<Map.Entry<String, String>> itMap = map.entrySet().iterator();
                 while (itMap.hasNext()) {
                     Map.Entry<String, String> entry = itMap.next();
-                    res += tab + tab + tab + "\"" + entry.getKey() + "\": \"" + entry.getValue() + "\"";
+                    res.append(tab).append(tab).append(tab).append("\"").append(entry.getKey()).append("\": \"")
+                            .append(entry.getValue()).append("\"");
                     if (itMap.hasNext())
-                        res += ",";
-                    res += "\n";
+                        res.append(",");
+                    res.append("\n");
                 }
-                res += tab + tab + "}";
+                res.append(tab).append(tab).append("}");
                 if (it.hasNext())
-                    res += ",";
-                res += "\n";
+                    res.append(",");
+                res.append("\n");
+            }
+            res.append(tab);
+        }
+        res.append("]");
+    }
+
+    /**
+     * @brief Escriure un fitxer per blocs.
+     * @pre \p fitxerDesti != null i \p contingut != null.
+     * @post S'ha escrit \p contingut a \p fitxerDesti amb la codificació per defecte, avisant \p oient (si no és
+     *       null) després de cada bloc. El contingut s'escriu primer en un fitxer temporal del mateix directori, que
+     *       només substitueix \p fitxerDesti un cop escrit sencer. Si no s'ha pogut acabar, s'ha esborrat el fitxer
+     *       temporal i \p fitxerDesti queda com estava.
+     * @throws IOException Si no s'ha pogut escriure el fitxer.
+     * @throws java.util.concurrent.CancellationException Si s'interromp el fil abans d'acabar.
+     */
+    private static void escriureFitxer(String fitxerDesti, String contingut, OientProgres oient) throws IOException {
+        byte[] bytes = contingut.getBytes(Charset.defaultCharset());
+        File desti = new File(fitxerDesti);
+        File temporal = new File(fitxerDesti + ".tmp");
+        boolean complet = false;
+        try {
+            try (OutputStream out = new FileOutputStream(temporal)) {
+                for (int i = 0; i < bytes.length; i += MIDA_BLOC) {
+                    OientProgres.comprovarCancellacio();
+                    int n = Math.min(MIDA_BLOC, bytes.length - i);
+                    out.write(bytes, i, n);
+                    if (oient != null) oient.progres(i + n, bytes.length);
+                }
             }
-            res += tab;
+            Files.move(temporal.toPath(), desti.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            complet = true;
+        } finally {
+            if (!complet) temporal.delete();
         }
-        res += "]";
-        return res;
     }
 }
@@ -0,0 +1,399 @@
+/**
+ * @file ServidorPartides.java
+ * @brief Servidor de partides d'escacs sense interfície gràfica.
+ */
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @class ServidorPartides
+ * @brief Servidor que permet jugar moltes partides alhora a través d'un socket TCP local amb un protocol de línies de
+ *        text. Cada connexió juga en una sessió (veure SessioPartida) que accepta les mateixes comandes que EscacsTXT.
+ * @details Per cada comanda el servidor respon zero o més línies de dades seguides d'una línia final que comença per
+ *          \b OK o per \b ERROR.
+ *
+ *          Cada sessió s'atén en un fil virtual si la màquina virtual en disposa (Java 21 o posterior), o en un fil
+ *          amb una pila petita altrament, de manera que les sessions inactives ocupen poca memòria. Les jugades de
+ *          la CPU s'executen en un grup fitat de fils de plataforma perquè no bloquegin l'atenció de les
+ *          connexions; si la cua d'aquest grup és plena, la comanda es rebutja.
+ *
+ *          Els fitxers de regles i de partides que indiquen les comandes són rutes relatives al directori de partides
+ *          del servidor, i no se'n pot sortir: un client no pot llegir ni escriure cap altre fitxer.
+ *
+ *          Les sessions es guarden en un MagatzemSessions i es poden reprendre des d'una altra connexió amb el seu
+ *          identificador. La connexió només agafa la sessió del magatzem mentre n'executa una comanda, de manera que
+ *          les sessions inactives s'escriuen a disc encara que el client continuï connectat.
+ */
+public class ServidorPartides implements Closeable {
+    public static final int PORT_DEFECTE = 5555;        ///< Port on escolta el servidor per defecte.
+    public static final String PROPIETAT_SESSIONS = "escacs.dirSessions";   ///< Propietat amb el directori de sessions.
+    public static final String PROPIETAT_PARTIDES = "escacs.dirPartides";   ///< Propietat amb el directori de partides.
+    public static final int MAX_SESSIONS_MEMORIA = 1000;        ///< Sessions en memòria per defecte.
+    public static final long MAX_INACTIVITAT = 5 * 60 * 1000;   ///< Temps d'inactivitat màxim per defecte (ms).
+    private static final int MIDA_PILA = 256 * 1024;    ///< Mida de pila dels fils de sessió sense fils virtuals.
+    private static final int MIDA_BUFFER = 512;         ///< Mida dels buffers de lectura i escriptura de cada sessió.
+    private static final Method INICIAR_FIL_VIRTUAL = metodeFilVirtual(); ///< Thread.startVirtualThread o null.
+
+    private final ServerSocket _socket;                 ///< Socket on s'accepten les connexions.
+    private final ThreadPoolExecutor _cpu;              ///< Fils on s'executen les jugades de la CPU.
+    private final MagatzemSessions _magatzem;           ///< Sessions del servidor.
+    private final Path _directoriPartides;              ///< Directori (absolut i normalitzat) dels fitxers de les comandes.
+    private final long _maxInactivitat;                 ///< Temps d'inactivitat màxim de les sessions (ms).
+    private final ScheduledExecutorService _expulsor;   ///< Fil que expulsa periòdicament les sessions inactives.
+    private final AtomicInteger _connexions = new AtomicInteger();   ///< Connexions obertes.
+    private final AtomicLong _connexionsTotals = new AtomicLong();   ///< Connexions ateses des de l'inici.
+    private final AtomicLong _jugadesCPU = new AtomicLong();         ///< Jugades de la CPU efectuades.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre 0 <= \p port <= 65535, \p filsCPU > 0 i \p cuaCPU > 0.
+     * @post Es crea un servidor com amb el constructor complet, amb els valors per defecte del magatzem de sessions.
+     *       Les sessions expulsades s'escriuen al directori indicat per la propietat del sistema
+     *       \c escacs.dirSessions o, si no n'hi ha, a un directori temporal. Els fitxers de les comandes es
+     *       busquen al directori indicat per la propietat \c escacs.dirPartides o, si no n'hi ha, al directori de
+     *       treball.
+     * @param port Port on escoltar (0 per escollir-ne un de lliure).
+     * @param filsCPU Nombre de fils per calcular les jugades de la CPU.
+     * @param cuaCPU Nombre màxim de jugades de la CPU esperant un fil.
+     * @throws IOException Si no es pot obrir el socket o crear el directori de sessions.
+     */
+    public ServidorPartides(int port, int filsCPU, int cuaCPU) throws IOException {
+        this(port, filsCPU, cuaCPU, directoriSessionsDefecte(), directoriPartidesDefecte(),
+                MAX_SESSIONS_MEMORIA, MAX_INACTIVITAT);
+    }
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre 0 <= \p port <= 65535, \p filsCPU > 0, \p cuaCPU > 0, \p directoriSessions != null,
+     *      \p directoriPartides != null, \p maxEnMemoria > 0 i \p maxInactivitat > 0.
+     * @post Es crea un servidor que escolta a \p port de l'adreça local, amb \p filsCPU fils per les jugades de la
+     *       CPU i una cua de com a molt \p cuaCPU jugades pendents, i un magatzem de sessions que en manté com a molt
+     *       \p maxEnMemoria en memòria i escriu les altres i les inactives a \p directoriSessions. Els fitxers de
+     *       regles i de partides de les comandes es resolen dins \p directoriPartides (veure rutaFitxer()).
+     * @param port Port on escoltar (0 per escollir-ne un de lliure).
+     * @param filsCPU Nombre de fils per calcular les jugades de la CPU.
+     * @param cuaCPU Nombre màxim de jugades de la CPU esperant un fil.
+     * @param directoriSessions Directori on s'escriuen les sessions expulsades de memòria.
+     * @param directoriPartides Directori dels fitxers de regles i de partides que poden fer servir els clients.
+     * @param maxEnMemoria Nombre màxim de sessions en memòria.
+     * @param maxInactivitat Temps en mil·lisegons sense usar una sessió a partir del qual s'expulsa de memòria.
+     * @throws IOException Si no es pot obrir el socket o crear el directori de sessions.
+     */
+    public ServidorPartides(int port, int filsCPU, int cuaCPU, File directoriSessions, File directoriPartides,
+                            int maxEnMemoria, long maxInactivitat) throws IOException {
+        _magatzem = new MagatzemSessions(this, directoriSessions, maxEnMemoria, maxInactivitat);
+        _directoriPartides = directoriPartides.toPath().toAbsolutePath().normalize();
+        _maxInactivitat = maxInactivitat;
+        _socket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        _cpu = new ThreadPoolExecutor(filsCPU, filsCPU, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(cuaCPU), new ThreadFactory() {
+                    private final AtomicInteger _n = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "cpu-" + _n.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        _expulsor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "expulsor-sessions");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @brief Port on escolta el servidor.
+     */
+    public int port() {
+        return _socket.getLocalPort();
+    }
+
+    /**
+     * @brief Ruta d'un fitxer de regles o de partida indicat per un client.
+     * @pre \p nom != null
+     * @post Es retorna la ruta de \p nom dins el directori de partides, ja normalitzada.
+     * @param nom Ruta del fitxer relativa al directori de partides.
+     * @return La ruta que es pot obrir.
+     * @throws ExcepcioJugadaErronia Si \p nom és una ruta absoluta, conté "..", no és una ruta vàlida o no queda dins
+     *                               el directori de partides.
+     */
+    String rutaFitxer(String nom) throws ExcepcioJugadaErronia {
+        Path ruta;
+        try {
+            ruta = Paths.get(nom);
+        } catch (InvalidPathException e) {
+            throw new ExcepcioJugadaErronia("Ruta de fitxer no vàlida: " + nom);
+        }
+        if (ruta.isAbsolute() || ruta.getRoot() != null || nom.contains(".."))
+            throw new ExcepcioJugadaErronia("Només es poden fer servir rutes relatives sense \"..\": " + nom);
+        ruta = _directoriPartides.resolve(ruta).normalize();
+        if (!ruta.startsWith(_directoriPartides) || ruta.equals(_directoriPartides))
+            throw new ExcepcioJugadaErronia("El fitxer no és dins el directori de partides: " + nom);
+        return ruta.toString();
+    }
+
+    /**
+     * @brief Començar a acceptar connexions.
+     * @post S'ha iniciat un fil que accepta connexions fins que es tanca el servidor. Cada connexió s'atén en un fil
+     *       propi. Periòdicament s'expulsen de memòria les sessions inactives.
+     */
+    public void iniciar() {
+        long periode = Math.max(1000, _maxInactivitat / 4);
+        _expulsor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                _magatzem.expulsarInactives();
+            }
+        }, periode, periode, TimeUnit.MILLISECONDS);
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                acceptar();
+            }
+        }, "servidor-partides");
+        t.start();
+    }
+
+    /**
+     * @brief Tancar el servidor.
+     * @post Es deixen d'acceptar connexions i s'aturen els fils de la CPU. Les sessions obertes es tanquen quan
+     *       el client es desconnecta.
+     */
+    @Override
+    public void close() throws IOException {
+        _socket.close();
+        _cpu.shutdownNow();
+        _expulsor.shutdownNow();
+    }
+
+    /**
+     * @brief Estat del servidor.
+     * @return Una línia amb les connexions obertes i totals, les estadístiques del magatzem de sessions, les jugades
+     *         de la CPU efectuades i pendents i la memòria ocupada.
+     */
+    String estat() {
+        Runtime rt = Runtime.getRuntime();
+        return "connexions=" + _connexions.get() + " totals=" + _connexionsTotals.get() +
+                " " + _magatzem.estadistiques() +
+                " jugadesCPU=" + _jugadesCPU.get() + " cuaCPU=" + _cpu.getQueue().size() +
+                " filsVirtuals=" + (INICIAR_FIL_VIRTUAL != null) +
+                " memoriaKB=" + (rt.totalMemory() - rt.freeMemory()) / 1024;
+    }
+
+    /**
+     * @brief Executar una jugada de la CPU en els fils de la CPU i esperar-ne el resultat.
+     * @pre \p jugada != null
+     * @post S'ha executat \p jugada en un dels fils de la CPU.
+     * @param jugada Jugada que cal executar.
+     * @return El resultat de \p jugada.
+     * @throws ExcepcioJugadaErronia Si la cua de la CPU és plena, o si la jugada ha fallat o s'ha interromput.
+     */
+    boolean executarCPU(Callable<Boolean> jugada) throws ExcepcioJugadaErronia {
+        Future<Boolean> res;
+        try {
+            res = _cpu.submit(jugada);
+        } catch (RejectedExecutionException e) {
+            throw new ExcepcioJugadaErronia("El servidor està ocupat, torna-ho a provar més tard");
+        }
+        try {
+            boolean calAcabar = res.get();
+            _jugadesCPU.incrementAndGet();
+            return calAcabar;
+        } catch (InterruptedException e) {
+            res.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ExcepcioJugadaErronia("La jugada de la CPU s'ha interromput");
+        } catch (ExecutionException e) {
+            throw new ExcepcioJugadaErronia("La jugada de la CPU ha fallat: " + e.getCause());
+        }
+    }
+
+    /**
+     * @brief Acceptar connexions fins que es tanqui el socket.
+     */
+    private void acceptar() {
+        while (!_socket.isClosed()) {
+            try {
+                final Socket connexio = _socket.accept();
+                iniciarFil(new Runnable() {
+                    public void run() {
+                        atendre(connexio);
+                    }
+                }, "sessio-" + _connexionsTotals.incrementAndGet());
+            } catch (SocketException e) {
+                // S'ha tancat el servidor
+            } catch (IOException e) {
+                System.out.println("Error acceptant una connexió: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @brief Atendre una connexió.
+     * @pre \p connexio != null
+     * @post S'han executat totes les comandes rebudes per \p connexio fins que el client ha enviat \b sortir o s'ha
+     *       desconnectat, i s'ha tancat la connexió.
+     */
+    private void atendre(Socket connexio) {
+        _connexions.incrementAndGet();
+        String id = _magatzem.crear();
+        _magatzem.retornar(id);
+        List<String> sortida = new ArrayList<>();
+        try (Socket s = connexio;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8),
+                     MIDA_BUFFER);
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8),
+                     MIDA_BUFFER)) {
+            String linia;
+            while ((linia = in.readLine()) != null && !linia.trim().equalsIgnoreCase("sortir")) {
+                if (linia.trim().isEmpty()) continue;
+                sortida.clear();
+                String[] comanda = linia.trim().split(" +", 2);
+                String resposta;
+                if (comanda[0].equalsIgnoreCase("sessio"))
+                    resposta = "OK " + id;
+                else if (comanda[0].equalsIgnoreCase("reprendre")) {
+                    if (comanda.length == 2 && comanda[1].equals(id))
+                        resposta = "OK " + id;
+                    else if (comanda.length == 2 && _magatzem.reprendre(comanda[1])) {
+                        _magatzem.tancar(id);
+                        id = comanda[1];
+                        resposta = "OK " + id;
+                    }
+                    else resposta = "ERROR No existeix la sessió";
+                }
+                else resposta = executar(id, linia, sortida);
+                for (String dades : sortida)
+                    out.write(dades.endsWith("\n") ? dades : dades + "\n");
+                out.write(resposta.replace('\n', ' ') + "\n");
+                out.flush();
+            }
+        } catch (IOException e) {
+            // El client s'ha desconnectat
+        } finally {
+            _magatzem.tancar(id);
+            _connexions.decrementAndGet();
+        }
+    }
+
+    /**
+     * @brief Executar una comanda en una sessió.
+     * @pre \p id != null, \p linia != null i \p sortida != null.
+     * @post S'ha agafat la sessió \p id del magatzem, s'hi ha executat la comanda \p linia i s'ha retornat al
+     *       magatzem. S'han afegit a \p sortida les línies de dades de la resposta.
+     * @return La línia final de la resposta.
+     */
+    private String executar(String id, String linia, List<String> sortida) {
+        SessioPartida sessio;
+        try {
+            sessio = _magatzem.agafar(id);
+        } catch (IOException | RuntimeException e) {
+            return "ERROR " + e.getMessage();
+        }
+        try {
+            String res = sessio.executar(linia, sortida);
+            return res.isEmpty() ? "OK" : "OK " + res;
+        } catch (ExcepcioJugadaErronia | IllegalArgumentException e) {
+            return "ERROR " + e.getMessage();
+        } catch (IOException e) {
+            return "ERROR no s'ha pogut accedir al fitxer " + e.getMessage();
+        } catch (RuntimeException e) {
+            return "ERROR " + e;
+        } finally {
+            _magatzem.retornar(id);
+        }
+    }
+
+    /**
+     * @brief Iniciar un fil per executar una tasca.
+     * @pre \p tasca != null
+     * @post S'ha iniciat un fil virtual que executa \p tasca si la màquina virtual en té, o un fil de plataforma amb
+     *       una pila petita altrament.
+     * @param tasca Tasca que cal executar.
+     * @param nom Nom del fil (només pels fils de plataforma).
+     */
+    static void iniciarFil(Runnable tasca, String nom) {
+        if (INICIAR_FIL_VIRTUAL != null) {
+            try {
+                INICIAR_FIL_VIRTUAL.invoke(null, tasca);
+                return;
+            } catch (ReflectiveOperationException e) {
+                // S'inicia com a fil de plataforma
+            }
+        }
+        Thread t = new Thread(null, tasca, nom, MIDA_PILA);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * @brief Cerca el mètode que inicia fils virtuals.
+     * @return El mètode Thread.startVirtualThread(Runnable) o null si la màquina virtual no en té.
+     */
+    private static Method metodeFilVirtual() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @brief Directori de sessions per defecte.
+     * @return El directori indicat per la propietat del sistema \c escacs.dirSessions o, si no n'hi ha, el
+     *         subdirectori \c escacs-sessions del directori temporal.
+     */
+    private static File directoriSessionsDefecte() {
+        String directori = System.getProperty(PROPIETAT_SESSIONS);
+        if (directori == null || directori.isEmpty())
+            return new File(System.getProperty("java.io.tmpdir"), "escacs-sessions");
+        return new File(directori);
+    }
+
+    /**
+     * @brief Directori de partides per defecte.
+     * @return El directori indicat per la propietat del sistema \c escacs.dirPartides o, si no n'hi ha, el directori
+     *         de treball.
+     */
+    private static File directoriPartidesDefecte() {
+        String directori = System.getProperty(PROPIETAT_PARTIDES);
+        if (directori == null || directori.isEmpty())
+            return new File(System.getProperty("user.dir"));
+        return new File(directori);
+    }
+
+    /**
+     * @brief Executar el servidor.
+     * @pre \p args pot contenir el port, el nombre de fils de la CPU, la mida de la cua de la CPU, el nombre màxim de
+     *      sessions en memòria i el temps d'inactivitat màxim en segons. El directori on s'escriuen les sessions
+     *      inactives s'indica amb la propietat del sistema \c escacs.dirSessions, i el dels fitxers de regles i de
+     *      partides, amb \c escacs.dirPartides.
+     * @post S'ha iniciat el servidor i s'executa fins que s'atura el procés.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : PORT_DEFECTE;
+        int fils = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int cua = args.length > 2 ? Integer.parseInt(args[2]) : 64 * fils;
+        int maxEnMemoria = args.length > 3 ? Integer.parseInt(args[3]) : MAX_SESSIONS_MEMORIA;
+        long maxInactivitat = args.length > 4 ? Long.parseLong(args[4]) * 1000 : MAX_INACTIVITAT;
+        ServidorPartides servidor = new ServidorPartides(port, fils, cua, directoriSessionsDefecte(),
+                directoriPartidesDefecte(), maxEnMemoria, maxInactivitat);
+        servidor.iniciar();
+        System.out.println("Servidor de partides escoltant a " + InetAddress.getLoopbackAddress().getHostAddress() +
+                ":" + servidor.port() + " (" + fils + " fils de CPU)");
+    }
+}
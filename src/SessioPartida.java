@@ -0,0 +1,393 @@
+/**
+ * @file SessioPartida.java
+ * @brief Sessió d'una partida jugada a través del servidor.
+ */
+
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * @class SessioPartida
+ * @brief Estat d'una partida jugada a través del ServidorPartides i interpretació de les comandes del protocol de
+ *        text. Les comandes són les mateixes que accepta EscacsTXT.
+ * @details Una sessió només és accedida per un fil alhora: el fil de la connexió que l'ha agafada del
+ *          MagatzemSessions o, durant una jugada de la CPU, el fil del servidor que la calcula mentre el de la
+ *          connexió l'espera.
+ */
+class SessioPartida {
+    private final ServidorPartides _servidor;   ///< Servidor on s'executen les jugades de la CPU.
+    private Partida _partida;                   ///< Partida en joc, null si encara no se n'ha creat cap.
+    private boolean _cpuBlanques;               ///< Si el jugador de blanques és CPU.
+    private boolean _cpuNegres;                 ///< Si el jugador de negres és CPU.
+    private boolean _taulesDemanades;           ///< Si el jugador anterior ha demanat taules.
+    private Posicio _promocioPendent;           ///< Posició de la peça que ha de promocionar, null si no n'hi ha.
+    private boolean _acabada;                   ///< Si la partida ha finalitzat.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre \p servidor != null
+     * @post Es crea una sessió sense cap partida.
+     * @param servidor Servidor on s'executaran les jugades de la CPU.
+     */
+    SessioPartida(ServidorPartides servidor) {
+        _servidor = servidor;
+    }
+
+    /**
+     * @brief Executar una comanda del protocol.
+     * @pre \p linia != null i \p sortida != null.
+     * @post S'ha executat la comanda \p linia i s'han afegit a \p sortida les línies de dades de la resposta.
+     * @param linia Comanda rebuda.
+     * @param sortida Línies de dades de la resposta.
+     * @return El text de la línia final \b OK de la resposta (pot ser buit).
+     * @throws ExcepcioJugadaErronia Si la comanda no té un format correcte o no es pot efectuar en l'estat actual de
+     *                               la partida.
+     * @throws IOException Si no s'ha pogut llegir o escriure algun fitxer.
+     */
+    String executar(String linia, List<String> sortida) throws ExcepcioJugadaErronia, IOException {
+        String input = linia.trim();
+        String[] s = input.split(" +", 2);
+        String comanda = s[0].toLowerCase();
+        String argument = s.length == 2 ? s[1] : "";
+
+        switch (comanda) {
+            case "?":
+                sortida.add(AJUDA);
+                return "";
+            case "nova":
+                iniciar(Loader.carregarPartidaNova(_servidor.rutaFitxer(demanarArgument(argument))));
+                return "";
+            case "carregar":
+                iniciar(Loader.carregarPartidaComencada(_servidor.rutaFitxer(demanarArgument(argument))));
+                return "";
+            case "estat":
+                return _servidor.estat();
+        }
+
+        if (_partida == null) throw new ExcepcioJugadaErronia("Cal iniciar o carregar una partida");
+
+        switch (comanda) {
+            case "tauler":
+                sortida.add(_partida.dibuixTauler());
+                return Partida.COLOR[_partida.tornActual()];
+            case "guardar":
+                Saver.guardarPartida(_servidor.rutaFitxer(demanarArgument(argument)), _partida);
+                return "";
+            case "cpu":
+                String[] jugadors = argument.toLowerCase().split(" +");
+                if (jugadors.length != 2 || !jugadors[0].matches("[sn]") || !jugadors[1].matches("[sn]"))
+                    throw new ExcepcioJugadaErronia("Format: cpu [s/n] [s/n]");
+                _cpuBlanques = jugadors[0].equals("s");
+                _cpuNegres = jugadors[1].equals("s");
+                break;
+            case "desfer":
+            case "refer":
+                if (!argument.matches("\\d+")) throw new ExcepcioJugadaErronia("Format: " + comanda + " n");
+                int desfetes = comanda.equals("desfer") ? desfer(Integer.parseInt(argument))
+                                                        : refer(Integer.parseInt(argument));
+                _taulesDemanades = false;
+                _promocioPendent = null;
+                _acabada = !_partida.resultatPartida().isEmpty();
+                return Integer.toString(desfetes);
+            default:
+                comprovarEnJoc();
+                if (_promocioPendent != null) {
+                    if (!comanda.equals("promocio"))
+                        throw new ExcepcioJugadaErronia("Cal escollir la promoció de la peça de " + _promocioPendent);
+                    promocionar(argument.toUpperCase());
+                }
+                else if (_taulesDemanades) {
+                    if (comanda.equals("acceptar"))
+                        _acabada = _partida.efectuarTiradaEspecial(Partida.TiradaEspecial.ACCEPTAR_TAULES);
+                    else if (comanda.equals("denegar"))
+                        _acabada = _partida.efectuarTiradaEspecial(Partida.TiradaEspecial.DENEGAR_TAULES);
+                    else throw new ExcepcioJugadaErronia("Cal acceptar o denegar les taules abans de continuar");
+                    _taulesDemanades = false;
+                }
+                else if (input.toLowerCase().matches(JugadaOrdinaria.regex)
+                        || input.toLowerCase().matches(JugadaEnroc.regex)) {
+                    if (esTornCPU()) throw new ExcepcioJugadaErronia("És el torn de la CPU");
+                    tirar(input.toLowerCase());
+                }
+                else jugarEspecial(comanda, argument);
+        }
+
+        jugarCPU();
+        afegirEstat(sortida);
+        return "";
+    }
+
+    /**
+     * @brief Indica si la sessió té una partida en joc.
+     * @return Cert si s'ha iniciat una partida i no ha finalitzat.
+     */
+    boolean enJoc() {
+        return _partida != null && !_acabada;
+    }
+
+    /**
+     * @brief Indica si la sessió es pot escriure amb escriure() sense perdre informació.
+     * @return Cert si la partida està en joc i no hi ha cap sol·licitud de taules pendent de resposta.
+     */
+    boolean esPotEscriure() {
+        return enJoc() && !_taulesDemanades;
+    }
+
+    /**
+     * @brief Escriu la sessió en format binari.
+     * @pre esPotEscriure()
+     * @post S'han escrit els jugadors CPU, la promoció pendent i la partida (veure Checkpoint::escriurePartida()).
+     * @param out Sortida on s'escriu la sessió.
+     * @throws IOException Si no s'ha pogut escriure.
+     */
+    void escriure(DataOutput out) throws IOException {
+        out.writeBoolean(_cpuBlanques);
+        out.writeBoolean(_cpuNegres);
+        out.writeBoolean(_promocioPendent != null);
+        if (_promocioPendent != null)
+            out.writeByte(Checkpoint.codificarCasella(_promocioPendent));
+        Checkpoint.escriurePartida(out, _partida);
+    }
+
+    /**
+     * @brief Llegeix una sessió escrita amb escriure().
+     * @pre \p in != null i \p servidor != null.
+     * @post Es retorna la sessió en el mateix estat en què es va escriure.
+     * @param in Entrada d'on es llegeix la sessió.
+     * @param servidor Servidor on s'executaran les jugades de la CPU.
+     * @return La sessió llegida.
+     * @throws IOException Si no s'ha pogut llegir.
+     * @throws IllegalArgumentException Si les dades no són vàlides o no es corresponen amb el fitxer de regles.
+     */
+    static SessioPartida llegir(DataInput in, ServidorPartides servidor) throws IOException {
+        SessioPartida sessio = new SessioPartida(servidor);
+        boolean cpuBlanques = in.readBoolean();
+        boolean cpuNegres = in.readBoolean();
+        Posicio promocio = in.readBoolean() ? Checkpoint.descodificarCasella(in.readUnsignedByte()) : null;
+        sessio.iniciar(Checkpoint.llegirPartida(in));
+        sessio._cpuBlanques = cpuBlanques;
+        sessio._cpuNegres = cpuNegres;
+        sessio._promocioPendent = promocio;
+        return sessio;
+    }
+
+    /**
+     * @brief Començar a jugar una partida.
+     * @pre \p p != null
+     * @post La sessió passa a jugar la partida \p p amb dos jugadors humans.
+     */
+    private void iniciar(Partida p) {
+        _partida = p;
+        _cpuBlanques = false;
+        _cpuNegres = false;
+        _taulesDemanades = false;
+        _promocioPendent = null;
+        _acabada = !p.resultatPartida().isEmpty();
+    }
+
+    /**
+     * @brief Efectuar una tirada d'un jugador humà.
+     * @pre \p input té el format d'una jugada ordinària o enroc.
+     * @post S'ha efectuat la tirada. Si alguna peça pot promocionar, queda pendent d'escollir-ne la promoció.
+     * @throws ExcepcioJugadaErronia Si la situació de la partida i/o el tauler no permeten efectuar la jugada.
+     */
+    private void tirar(String input) throws ExcepcioJugadaErronia {
+        Jugada jug = input.matches(JugadaOrdinaria.regex) ? new JugadaOrdinaria(input) : new JugadaEnroc(input);
+        _acabada = _partida.efectuarTiradaOrdinaria(jug);
+
+        Posicio posPromo = _partida.posicioPromocio();
+        if (!_acabada && posPromo != null && !_partida.nomPromocionables().isEmpty())
+            _promocioPendent = posPromo;
+    }
+
+    /**
+     * @brief Escollir la promoció pendent.
+     * @pre Hi ha una promoció pendent.
+     * @post S'ha promocionat la peça si \p nomPecaNova és diferent del nom de la peça actual i la promoció deixa de
+     *       ser pendent.
+     * @throws ExcepcioJugadaErronia Si \p nomPecaNova no és una de les peces a les que es pot promocionar.
+     */
+    private void promocionar(String nomPecaNova) throws ExcepcioJugadaErronia {
+        String nomPecaVella = _partida.pecaTauler(_promocioPendent).nom();
+        Set<String> nomPromocionables = _partida.nomPromocionables();
+        if (!nomPecaNova.equals(nomPecaVella) && !nomPromocionables.contains(nomPecaNova))
+            throw new ExcepcioJugadaErronia("Cal escollir una de les peces " + nomPromocionables);
+        if (!nomPecaNova.equals(nomPecaVella))
+            _acabada = _partida.efectuarPromocio(_promocioPendent, nomPecaNova);
+        _promocioPendent = null;
+    }
+
+    /**
+     * @brief Efectuar una tirada especial d'un jugador humà.
+     * @post S'ha efectuat la tirada especial indicada per \p comanda.
+     * @throws ExcepcioJugadaErronia Si \p comanda no és cap tirada especial vàlida.
+     */
+    private void jugarEspecial(String comanda, String argument) throws ExcepcioJugadaErronia {
+        if (esTornCPU()) throw new ExcepcioJugadaErronia("És el torn de la CPU");
+        switch (comanda) {
+            case "taules":
+                _acabada = _partida.efectuarTiradaEspecial(Partida.TiradaEspecial.DEMANAR_TAULES);
+                _taulesDemanades = true;
+                break;
+            case "rendir":
+                _acabada = _partida.efectuarTiradaEspecial(Partida.TiradaEspecial.RENDIR);
+                break;
+            case "ajornar":
+                _acabada = _partida.efectuarTiradaEspecial(Partida.TiradaEspecial.AJORNAR);
+                break;
+            case "jugar":
+                if (!argument.isEmpty() && !argument.matches("\\d+"))
+                    throw new ExcepcioJugadaErronia("Format: jugar [n]");
+                int n = argument.isEmpty() ? 1 : Integer.parseInt(argument);
+                for (int i = 0; i < n && !_acabada; i++)
+                    _acabada = _servidor.executarCPU(new Callable<Boolean>() {
+                        public Boolean call() {
+                            return _partida.efectuarJugadaCPU();
+                        }
+                    });
+                break;
+            default:
+                throw new ExcepcioJugadaErronia("Format de la jugada incorrecte");
+        }
+    }
+
+    /**
+     * @brief Efectuar les tirades de la CPU mentre sigui el seu torn.
+     * @post Si la partida no ha finalitzat i és el torn de la CPU, la CPU ha respost les taules o ha efectuat
+     *       jugades fins que és el torn d'un jugador humà o la partida ha finalitzat.
+     * @throws ExcepcioJugadaErronia Si el servidor no pot acceptar més jugades de la CPU.
+     */
+    private void jugarCPU() throws ExcepcioJugadaErronia {
+        while (!_acabada && _promocioPendent == null && esTornCPU()) {
+            if (_taulesDemanades) {
+                _acabada = _partida.efectuarTiradaEspecial(_partida.respondreTaulesCPU());
+                _taulesDemanades = false;
+            }
+            else _acabada = _servidor.executarCPU(new Callable<Boolean>() {
+                public Boolean call() {
+                    return _partida.efectuarJugadaCPU();
+                }
+            });
+        }
+    }
+
+    /**
+     * @brief Afegir a la resposta l'estat de la partida.
+     * @post S'ha afegit a \p sortida una línia \b FI amb el resultat si la partida ha finalitzat, una línia
+     *       \b PROMOCIO si hi ha una promoció pendent, una línia \b TAULES si s'han demanat taules i una línia
+     *       \b ESCAC si el rei del jugador que té el torn està amenaçat, i finalment una línia \b TORN.
+     */
+    private void afegirEstat(List<String> sortida) {
+        if (_acabada) {
+            sortida.add("FI " + _partida.resultatPartida());
+            return;
+        }
+        if (_promocioPendent != null)
+            sortida.add("PROMOCIO " + _promocioPendent + " " + _partida.nomPromocionables());
+        if (_taulesDemanades)
+            sortida.add("TAULES");
+        int contrincant = _partida.tornActual() == 0 ? 1 : 0;
+        switch (_partida.estatReiContrincant(contrincant)) {
+            case ESCAC:
+                sortida.add("ESCAC");
+                break;
+            case ESCAC_MAT:
+                sortida.add("ESCAC_MAT");
+                break;
+            case REI_OFEGAT:
+                sortida.add("REI_OFEGAT");
+                break;
+            default:
+                break;
+        }
+        sortida.add("TORN " + Partida.COLOR[_partida.tornActual()]);
+    }
+
+    /**
+     * @brief Indica si el jugador que té el torn és la CPU.
+     */
+    private boolean esTornCPU() {
+        return _partida.tornActual() == 0 ? _cpuBlanques : _cpuNegres;
+    }
+
+    /**
+     * @brief Comprova que la partida no hagi finalitzat.
+     * @throws ExcepcioJugadaErronia Si la partida ha finalitzat.
+     */
+    private void comprovarEnJoc() throws ExcepcioJugadaErronia {
+        if (_acabada) throw new ExcepcioJugadaErronia("La partida ha finalitzat: " + _partida.resultatPartida());
+    }
+
+    /**
+     * @brief Desfer un determinat nombre de jugades.
+     * @return El nombre de jugades que s'han desfet.
+     */
+    private int desfer(int n) {
+        int i = 0;
+        try {
+            for (; i < n; i++)
+                _partida.desferJugada();
+        }
+        catch (CannotUndoException e) {
+            // No hi ha res més per desfer
+        }
+        return i;
+    }
+
+    /**
+     * @brief Refer un determinat nombre de jugades.
+     * @return El nombre de jugades que s'han refet.
+     */
+    private int refer(int n) {
+        int i = 0;
+        try {
+            for (; i < n; i++)
+                _partida.referJugada();
+        }
+        catch (CannotRedoException e) {
+            // No hi ha res més per refer
+        }
+        return i;
+    }
+
+    /**
+     * @brief Comprova que una comanda tingui argument.
+     * @return \p argument
+     * @throws ExcepcioJugadaErronia Si \p argument és buit.
+     */
+    private static String demanarArgument(String argument) throws ExcepcioJugadaErronia {
+        if (argument.isEmpty()) throw new ExcepcioJugadaErronia("Falta la ruta del fitxer");
+        return argument;
+    }
+
+    private static final String AJUDA =
+            "Comandes disponibles:\n" +
+            "\t?\t\t\tMostra aquest missatge d'ajuda.\n" +
+            "\tnova F\t\tInicia una partida amb el fitxer de regles F del directori de partides.\n" +
+            "\tcarregar F\tReprèn la partida del fitxer de desenvolupament F del directori de partides.\n" +
+            "\tcpu B N\t\tIndica si blanques (B) i negres (N) són CPU [s/n].\n" +
+            "\ttauler\t\tMostra el tauler.\n" +
+            "\ttaules\t\tDemana taules a l'altre jugador.\n" +
+            "\t\tacceptar\tAccepta acabar la partida en taules si l'altre jugador les ha demanat.\n" +
+            "\t\tdenegar\t\tRebutja acabar la partida en taules si l'altre jugador les ha demanat.\n" +
+            "\tpromocio P\tPromociona la peça pendent a la peça P.\n" +
+            "\tjugar n\t\tLa CPU efectua n jugades pel jugador que té el torn.\n" +
+            "\tajornar\t\tAcaba la partida per continuar-la més endavant.\n" +
+            "\trendir\t\tAcaba la partida cedint la victòria al contrincant.\n" +
+            "\tdesfer n\t\tDesfà les n jugades realitzades.\n" +
+            "\trefer n\t\tTorna a fer les n darreres jugades desfetes.\n" +
+            "\tguardar F\t\tGuarda el desenvolupament de la partida al fitxer F del directori de partides.\n" +
+            "\testat\t\tMostra l'estat del servidor.\n" +
+            "\tsessio\t\tMostra l'identificador de la sessió.\n" +
+            "\treprendre S\tContinua la sessió amb identificador S.\n" +
+            "\tsortir\t\tTanca la connexió.\n" +
+            "\tFormat de les jugades:\n" +
+            "\t\tP1 P2\t\tMoure la peça de la posició P1 a la P2.\n" +
+            "\t\tP1 - P2\t\tRealitzar un enroc entre les peces que hi ha a P1 i P2.";  ///< Missatge d'ajuda.
+}
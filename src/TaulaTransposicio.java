@@ -0,0 +1,164 @@
+/**
+ * @file TaulaTransposicio.java
+ * @brief Taula de transposició de la cerca fora del heap.
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * @class TaulaTransposicio
+ * @brief Guarda el valor de les posicions ja explorades per la cerca de la CPU perquè no s'hagin de tornar a explorar
+ *        quan s'hi arriba per un altre camí o en una altra iteració.
+ * @details Les entrades es guarden en memòria directa, fora del heap, repartida en blocs de com a molt 1 GB, de
+ *          manera que la taula pot ocupar desenes de GB sense afectar el recol·lector de memòria (cal que
+ *          \c -XX:MaxDirectMemorySize ho permeti).
+ *
+ *          Cada entrada ocupa 16 bytes: la clau de la posició combinada amb una o exclusiva amb les dades, i les
+ *          dades (valor, profunditat i tipus de límit). Diversos fils poden llegir i escriure alhora sense cap
+ *          bloqueig: si dues escriptures es barregen, la clau guardada deixa de coincidir en desfer la o exclusiva i
+ *          l'entrada es descarta.
+ *
+ *          La taula que fa servir la CPU es crea amb la mida en MB indicada per la propietat del sistema
+ *          \c escacs.taulaTransposicio. Si no està definida o és 0, la CPU no en fa servir cap.
+ */
+public final class TaulaTransposicio {
+    public static final String PROPIETAT_MIDA = "escacs.taulaTransposicio"; ///< Propietat amb la mida en MB.
+    public static final int EXACTE = 1;         ///< El valor guardat és el valor exacte de la posició.
+    public static final int INFERIOR = 2;       ///< El valor de la posició és més gran o igual que el guardat.
+    public static final int SUPERIOR = 3;       ///< El valor de la posició és més petit o igual que el guardat.
+    private static final int MIDA_ENTRADA = 16;         ///< Bytes de cada entrada.
+    private static final int BITS_BLOC = 26;            ///< Logaritme en base 2 de les entrades de cada bloc (1 GB).
+    private static final int MIDA_BUIDAR = 64 * 1024;   ///< Bytes que s'escriuen de cop en buidar la taula.
+    private static volatile TaulaTransposicio _global;  ///< Taula de la CPU, creada per global().
+    private static volatile boolean _globalCreada;      ///< Si ja s'ha llegit la propietat de la mida.
+
+    private final ByteBuffer[] _blocs;  ///< Blocs de memòria directa amb les entrades.
+    private final long _entrades;       ///< Nombre d'entrades (potència de 2).
+    private final int _bitsBloc;        ///< Logaritme en base 2 de les entrades de cada bloc.
+
+    /**
+     * @brief Constructor amb paràmetres.
+     * @pre \p bytes >= 16
+     * @post Es crea una taula buida amb la potència de 2 d'entrades més gran que cap a \p bytes.
+     * @param bytes Memòria màxima que pot ocupar la taula.
+     * @throws IllegalArgumentException Si \p bytes és massa petit.
+     * @throws OutOfMemoryError Si no hi ha prou memòria directa disponible.
+     */
+    public TaulaTransposicio(long bytes) {
+        if (bytes < MIDA_ENTRADA) throw new IllegalArgumentException("Error: la taula de transposició és massa petita");
+        _entrades = Long.highestOneBit(bytes / MIDA_ENTRADA);
+        _bitsBloc = Math.min(BITS_BLOC, Long.numberOfTrailingZeros(_entrades));
+        _blocs = new ByteBuffer[(int) (_entrades >>> _bitsBloc)];
+        for (int i = 0; i < _blocs.length; i++)
+            _blocs[i] = ByteBuffer.allocateDirect(MIDA_ENTRADA << _bitsBloc);
+    }
+
+    /**
+     * @brief Taula de transposició de la CPU.
+     * @post La primera crida crea la taula amb la mida de la propietat del sistema \c escacs.taulaTransposicio. Si la
+     *       propietat no és un nombre, es fa com si no estigués definida (igual que Integer::getInteger()). La
+     *       propietat només es llegeix una vegada, fins i tot si no s'ha pogut crear la taula.
+     * @return La taula, o null si la propietat no està definida, no és un nombre o és 0.
+     * @throws OutOfMemoryError Si a la primera crida no hi ha prou memòria directa per la taula.
+     */
+    public static TaulaTransposicio global() {
+        if (!_globalCreada) {
+            synchronized (TaulaTransposicio.class) {
+                if (!_globalCreada) {
+                    try {
+                        long mb = mbPropietat();
+                        _global = mb > 0 ? new TaulaTransposicio(mb * 1024 * 1024) : null;
+                    } finally {
+                        _globalCreada = true;
+                    }
+                }
+            }
+        }
+        return _global;
+    }
+
+    /**
+     * @brief Mida en MB de la propietat \c escacs.taulaTransposicio.
+     * @return La mida, o 0 si la propietat no està definida o no és un nombre.
+     */
+    private static long mbPropietat() {
+        String mida = System.getProperty(PROPIETAT_MIDA);
+        if (mida == null || mida.trim().isEmpty()) return 0;
+        try {
+            return Long.parseLong(mida.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @brief Nombre d'entrades.
+     */
+    public long entrades() {
+        return _entrades;
+    }
+
+    /**
+     * @brief Consultar una posició.
+     * @param clau Clau de la posició.
+     * @return Les dades guardades per \p clau, o 0 si no n'hi ha.
+     */
+    public long consultar(long clau) {
+        long index = clau & (_entrades - 1);
+        ByteBuffer bloc = _blocs[(int) (index >>> _bitsBloc)];
+        int desplacament = (int) (index & ((1L << _bitsBloc) - 1)) * MIDA_ENTRADA;
+        long dades = bloc.getLong(desplacament + 8);
+        return (bloc.getLong(desplacament) ^ dades) == clau ? dades : 0;
+    }
+
+    /**
+     * @brief Guardar el valor d'una posició.
+     * @pre 0 <= \p profunditat <= 255 i \p tipus és EXACTE, INFERIOR o SUPERIOR.
+     * @post Es guarda l'entrada, llevat que la mateixa posició ja en tingués una de més profunditat.
+     * @param clau Clau de la posició.
+     * @param profunditat Profunditat que s'ha explorat a partir de la posició.
+     * @param valor Valor obtingut.
+     * @param tipus Indica si \p valor és exacte o un límit.
+     */
+    public void guardar(long clau, int profunditat, int valor, int tipus) {
+        long index = clau & (_entrades - 1);
+        ByteBuffer bloc = _blocs[(int) (index >>> _bitsBloc)];
+        int desplacament = (int) (index & ((1L << _bitsBloc) - 1)) * MIDA_ENTRADA;
+        long anterior = bloc.getLong(desplacament + 8);
+        if ((bloc.getLong(desplacament) ^ anterior) == clau && profunditat(anterior) > profunditat) return;
+
+        long dades = (valor & 0xFFFFFFFFL) | (long) profunditat << 32 | (long) tipus << 40;
+        bloc.putLong(desplacament, clau ^ dades);
+        bloc.putLong(desplacament + 8, dades);
+    }
+
+    /**
+     * @brief Buidar la taula.
+     * @pre Cap fil no està consultant ni guardant entrades.
+     * @post Totes les entrades són buides. No es reserva ni s'allibera cap memòria.
+     */
+    public void buidar() {
+        byte[] zeros = new byte[MIDA_BUIDAR];
+        for (ByteBuffer bloc : _blocs) {
+            ByteBuffer b = bloc.duplicate();
+            b.clear();
+            while (b.remaining() > 0)
+                b.put(zeros, 0, Math.min(zeros.length, b.remaining()));
+        }
+    }
+
+    /** @brief Valor d'unes dades retornades per consultar(). */
+    public static int valor(long dades) {
+        return (int) dades;
+    }
+
+    /** @brief Profunditat d'unes dades retornades per consultar(). */
+    public static int profunditat(long dades) {
+        return (int) (dades >>> 32) & 0xFF;
+    }
+
+    /** @brief Tipus de límit d'unes dades retornades per consultar(). */
+    public static int tipus(long dades) {
+        return (int) (dades >>> 40) & 0x3;
+    }
+}
@@ -4,6 +4,8 @@
  */
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /** @class TaulerEscacs
     @brief Espai on es disputa una partida d'escacs
@@ -12,20 +14,30 @@ import java.util.*;
 
 public class TaulerEscacs{
 
+    public static final String PROPIETAT_LLINDAR_PARALLEL = "escacs.llindarParallel"; ///< Propietat amb el nombre de peces a partir del qual els destins es calculen en paral·lel.
+    private static final int LLINDAR_PARALLEL = Integer.getInteger(PROPIETAT_LLINDAR_PARALLEL, 48); ///< Nombre de peces a partir del qual els destins es calculen en paral·lel.
+    private static final int PECES_PER_TASCA = 8;                       ///< Nombre màxim de peces que calcula cada tasca paral·lela sense dividir-se.
     public final int _fila;                                     ///< Total de files que té el tauler.
     public final int _columna;                                  ///< Total de columnes que té el tauler.
-    private final Peca[][] _tauler;                             ///< Representació del tauler d'escacs.
+    private final byte[] _tauler;                               /**< Representació del tauler d'escacs. Cada casella guarda el codi de la peça que la ocupa (veure Peca::codi()) o 0 si és buida.
+                                                                 *   La casella de la fila \a i (comptant des de dalt) i la columna \a j és a l'índex \a i * (_columna + 1) + \a j.
+                                                                 */
+    private final Bitboard256 _ocupacio;                        ///< Caselles ocupades per alguna peça, sempre d'acord amb _tauler.
+    private final PieceType[] _tipus;                           ///< Tipus de peça de les regles, indexats per identificador. Es comparteix entre totes les còpies.
     private Map<Posicio,Map<Posicio,Moviment>> _destinsPeces;   /**< \a Map que té com a clau la posició actual de cada peça (K1) i, com a descripció de cada clau, un segon \a Map amb entrades \a Posicio - \a Moviment. El segon \a Map té com a clau
                                                                  *   els destins (K2) que pot assolir la peça, donada la situació del tauler. El valor associat a cada clau és el moviment que permet a la peca  moure's de la posició
                                                                  *   actual (K1) a la posició de destí (K2).
                                                                  */
     private Map<Posicio,Map<Posicio,Posicio>>  _enrocsPeces;    /**< \a Map que té com a clau la posició actual de les peces enrocables (K1) i com a descripció de cada clau un segon \a Map amb entrades \a Posicio - \a Posicio. Aquest segon \a Map té
                                                                  *   com a clau les posicions (K2) de les peces amb les que pot enrocar i el valor associat a cada clau és la posició final en què acaba la peça que es troba a la posició
-                                                                 *   K1 en realitzar l'enroc amb la peça que hi ha a la posició K2.
+                                                                 *   K1 en realitzar l'enroc amb la peça que hi ha a la posició K2. Tots dos mapes valen \a null mentre no s'hagin calculat per l'estat actual del tauler.
                                                                  */
     private Posicio _posHiHaPromo;                              ///< Guarda la posicio de la última peça que pot promocionar
     private Posicio _posReiNegre;                               ///< Guarda la posició del rei negre al tauler.
     private Posicio _posReiBlanc;                               ///< Guarda la posició del rei blanc al tauler.
+    private final long _identificador;                          ///< Identificador de les regles del tauler, obtingut del seu resum i compartit per totes les còpies.
+    private TaulesFinals _taulesFinals;                         ///< Taules de finals de les regles (pot ser null). Es comparteix entre totes les còpies.
+    private boolean _movimentsInterpretats;                     ///< Si els destins es generen interpretant cada Moviment en lloc de fer servir els MovimentCompilat (veure interpretarMoviments()).
 
     /**@brief Enumeració auxiliar usada per resumir l'estat dels reis sobre el tauler. **/
     public enum resTauler {
@@ -37,23 +49,33 @@ public class TaulerEscacs{
 
     /**
      * @brief Crea el tauler.
-     * @pre 4 <= \p fila <= 16 i 4 <= \p columna <= 16.
+     * @pre 4 <= \p fila <= 16 i 4 <= \p columna <= 16, \p tipus conté tots els tipus de peça de les regles.
      * @param fila número de files del tauler.
      * @param columna número de columnes del tauler.
+     * @param tipus tipus de peça que es poden col·locar al tauler.
+     * @param resumRegles resum de les regles a què pertanyen els tipus de peça (veure RuleSet::resum()).
      * @post S'ha creat un tauler buit de dimensions \p fila x \p columna.
      * @throws IllegalArgumentException si les mides del tauler no són correctes.
      */
-    public TaulerEscacs(int fila, int columna) throws IllegalArgumentException{
+    public TaulerEscacs(int fila, int columna, Collection<PieceType> tipus, String resumRegles) throws IllegalArgumentException{
         _fila = fila;
         _columna = columna;
         if (_fila < 4 || _columna < 4 || _columna > 16 || _fila > 16)
             throw new IllegalArgumentException("Error en les mides del tauler");
-        _tauler = new Peca[_fila + 1][_columna + 1];
-        _enrocsPeces = new HashMap<>();
-        _destinsPeces = new HashMap<>();
+        _tauler = new byte[(_fila + 1) * (_columna + 1)];
+        _ocupacio = new Bitboard256();
+        _tipus = new PieceType[tipus.size()];
+        for (PieceType t : tipus)
+            _tipus[t.id()] = t;
+        _enrocsPeces = null;
+        _destinsPeces = null;
         _posReiNegre = null;
         _posReiBlanc = null;
         _posHiHaPromo = null;
+        long identificador = 0;
+        for (int i = 0; i < resumRegles.length(); i++)
+            identificador = barrejar(identificador ^ resumRegles.charAt(i));
+        _identificador = identificador;
     }
 
     /**
@@ -62,19 +84,17 @@ public class TaulerEscacs{
     public TaulerEscacs(TaulerEscacs t){
         _fila = t._fila;
         _columna = t._columna;
-        _tauler = new Peca[_fila + 1][_columna + 1];
-        _destinsPeces = new HashMap<>(t._destinsPeces); //shallow copy
-        _enrocsPeces = new HashMap<>(t._enrocsPeces); //shallow copy
-
-        for (int i = 1; i <= _fila; i++) {
-            for (int j = 1; j <= _columna; j++) {
-                if (t._tauler[i][j] != null)
-                    _tauler[i][j] = new Peca(t._tauler[i][j]);
-            }
-        }
+        _tauler = t._tauler.clone();
+        _ocupacio = new Bitboard256(t._ocupacio);
+        _tipus = t._tipus;
+        _destinsPeces = t._destinsPeces; //els mapes calculats no es modifiquen, es poden compartir
+        _enrocsPeces = t._enrocsPeces;
         _posHiHaPromo = t._posHiHaPromo;
-        _posReiBlanc = new Posicio(t._posReiBlanc);
-        _posReiNegre = new Posicio(t._posReiNegre);
+        _posReiBlanc = t._posReiBlanc == null ? null : new Posicio(t._posReiBlanc);
+        _posReiNegre = t._posReiNegre == null ? null : new Posicio(t._posReiNegre);
+        _taulesFinals = t._taulesFinals;
+        _identificador = t._identificador;
+        _movimentsInterpretats = t._movimentsInterpretats;
     }
 
     /**
@@ -91,9 +111,7 @@ public class TaulerEscacs{
     public void posicionarPeces(Map<Posicio, Peca> conjuntPeces){
         for (Map.Entry<Posicio, Peca> pecaActual : conjuntPeces.entrySet()) {
             if(existeixPos(pecaActual.getKey())) {
-                int fila = pecaActual.getKey().fila();
-                int columna = pecaActual.getKey().columna();
-                _tauler[_fila + 1 - fila][columna] = pecaActual.getValue();
+                assignarCodi(pecaActual.getKey(), pecaActual.getValue().codi());
 
                 if (pecaActual.getValue().color() == 1 && pecaActual.getValue().nom().equals("REI")) {
                     _posReiNegre = pecaActual.getKey();
@@ -102,8 +120,7 @@ public class TaulerEscacs{
                 }
             }else throw new IllegalArgumentException("Error: La posició " + pecaActual.getKey() + " no existeix al tauler");
         }
-        calcularDestinsPeces();
-        calcularEnrocsPeces();
+        invalidarDestins();
     }
 
     /**
@@ -115,10 +132,13 @@ public class TaulerEscacs{
 
     /**
      * @brief Retorna la peça que hi ha a la \c Posicio \p pos. Si no n'hi ha cap es retorna \a null.
+     *        La peça retornada és una còpia: modificar-la no modifica el tauler.
      **/
     public Peca solicitarPeca(Posicio pos){
-        if(existeixPos(pos))
-            return _tauler[_fila+1-pos.fila()][pos.columna()];
+        if(existeixPos(pos)) {
+            int codi = codi(pos);
+            return codi == 0 ? null : new Peca(tipus(codi), color(codi), moguda(codi));
+        }
         else return null;
     }
 
@@ -126,7 +146,7 @@ public class TaulerEscacs{
      * @brief Retorna un \a Set amb els destins que pot assolir la peça que es troba a la \c Posicio \p pos.
      **/
     public Set<Posicio> solicitarDestinsPeca(Posicio pos){
-        return _destinsPeces.get(pos).keySet();
+        return destinsPeces().get(pos).keySet();
     }
 
     /**
@@ -134,8 +154,8 @@ public class TaulerEscacs{
      **/
     public Set<Posicio> solicitarCompanyesEnroc(Posicio pos){
         Set<Posicio> enrocs = new HashSet<>();
-        if(_enrocsPeces.containsKey(pos))
-            enrocs = _enrocsPeces.get(pos).keySet();
+        if(enrocsPeces().containsKey(pos))
+            enrocs = enrocsPeces().get(pos).keySet();
         return enrocs;
     }
 
@@ -160,9 +180,9 @@ public class TaulerEscacs{
         Posicio desti = jugada.desti();
         boolean jugadaPossible = false;
         if (existeixPos(origen) && existeixPos(desti)){ //origen i desti existeixen
-            if(_tauler[_fila+1-origen.fila()][origen.columna()]!=null) { //si hi ha una peça...
-                boolean corresponTorn = (_tauler[_fila+1-origen.fila()][origen.columna()].color()==torn); //la peça correspon amb el torn
-                if(corresponTorn && _destinsPeces.get(origen).containsKey(desti)) { //si correspon el torn i la peça pot anar a destí
+            if(codi(origen)!=0) { //si hi ha una peça...
+                boolean corresponTorn = (color(codi(origen))==torn); //la peça correspon amb el torn
+                if(corresponTorn && destinsPeces().get(origen).containsKey(desti)) { //si correspon el torn i la peça pot anar a destí
                     jugadaPossible = true;
                 }
             }
@@ -184,8 +204,8 @@ public class TaulerEscacs{
         Posicio posicioPecaB = jugada.posicioSegona();
         boolean enrocPossible = false;
         if (existeixPos(posicioPecaA) && existeixPos(posicioPecaB)) { //les posicions de l'enroc existeixen al tauler
-            boolean corresponTorn = (_tauler[_fila+1-posicioPecaA.fila()][posicioPecaA.columna()].color()==torn && _tauler[_fila+1-posicioPecaB.fila()][posicioPecaB.columna()].color()==torn);
-            if (corresponTorn && _enrocsPeces.containsKey(posicioPecaA) && _enrocsPeces.get(posicioPecaA).containsKey(posicioPecaB)) { //existeix un enroc i aquest és possible
+            boolean corresponTorn = (color(codi(posicioPecaA))==torn && color(codi(posicioPecaB))==torn);
+            if (corresponTorn && enrocsPeces().containsKey(posicioPecaA) && enrocsPeces().get(posicioPecaA).containsKey(posicioPecaB)) { //existeix un enroc i aquest és possible
                 enrocPossible = true;
             }
         }
@@ -200,18 +220,7 @@ public class TaulerEscacs{
      *          capturat alguna peça de l'enemic, fals altrament.
      */
     public boolean aplicarJugadaOrdinaria(JugadaOrdinaria jugada){
-        Posicio origen = jugada.origen();
-        Posicio desti = jugada.desti();
-        Moviment mov = _destinsPeces.get(origen).get(desti); //s'obté el moviment que permet fer la jugada
-
-        boolean capturats = aplicarMoviment(origen, desti, mov); //s'aplica la jugada
-
-        actualitzarPromocio(origen, desti); //es comprova si amb la jugada alguna peça ha pogut promocionar
-
-        calcularDestinsPeces(); //es calculen els nous destins
-        calcularEnrocsPeces(); //es calculen els nous enrocs
-
-        return capturats;
+        return aplicarJugada(CodiJugada.codificar(jugada));
     }
 
     /**
@@ -223,15 +232,89 @@ public class TaulerEscacs{
     public void aplicarJugadaEnroc(JugadaEnroc jugada){
         Posicio posicioPecaA = jugada.posicioPrimera();
         Posicio posicioPecaB = jugada.posicioSegona();
-        Posicio finalA = _enrocsPeces.get(posicioPecaA).get(posicioPecaB); //MOTOR
-        Posicio finalB = _enrocsPeces.get(posicioPecaB).get(posicioPecaA); //MOTOR
+        Posicio finalA = enrocsPeces().get(posicioPecaA).get(posicioPecaB); //MOTOR
+        Posicio finalB = enrocsPeces().get(posicioPecaB).get(posicioPecaA); //MOTOR
         aplicarEnroc(posicioPecaA, finalA, posicioPecaB, finalB);
         jugada.assignarPosFinalPrimera(finalA);
         jugada.assignarPosFinalSegona(finalB);
+    }
+
+    /**
+     * @brief   S'efectua la jugada amb codi \p jugada (veure CodiJugada).
+     * @pre     \p jugada és una de les jugades legals d'aquest tauler (veure jugadesLegals()), o una jugada vàlida amb
+     *          CodiJugada::REGLA_DESCONEGUDA com a moviment.
+     * @param   jugada és el codi de la jugada que es vol realitzar.
+     * @post    S'ha aplicat la jugada sobre el tauler i s'ha retornat cert en cas que sigui ordinària i s'hagi capturat alguna peça de
+     *          l'enemic, fals altrament. La promoció del codi no s'aplica (veure efecuarPromocio()).
+     */
+    boolean aplicarJugada(int jugada) {
+        Posicio origen = CodiJugada.posicio(CodiJugada.origen(jugada));
+        Posicio desti = CodiJugada.posicio(CodiJugada.desti(jugada));
+        if (CodiJugada.tipus(jugada) == CodiJugada.ENROC) {
+            Posicio finalA = enrocsPeces().get(origen).get(desti);
+            Posicio finalB = enrocsPeces().get(desti).get(origen);
+            aplicarEnroc(origen, finalA, desti, finalB);
+            return false;
+        }
+        Moviment mov;
+        int peca = codi(origen);
+        if (CodiJugada.regla(jugada) != CodiJugada.REGLA_DESCONEGUDA) //totes les parts d'un moviment capturen igual
+            mov = tipus(peca).movimentsCompilats(moguda(peca), color(peca)).get(CodiJugada.regla(jugada)).moviment(0);
+        else
+            mov = destinsPeces().get(origen).get(desti); //s'obté el moviment que permet fer la jugada
+
+        boolean capturats = aplicarMoviment(origen, desti, mov); //s'aplica la jugada, els destins es recalcularan quan calgui
+
+        actualitzarPromocio(origen, desti); //es comprova si amb la jugada alguna peça ha pogut promocionar
+
+        return capturats;
+    }
 
-        calcularDestinsPeces();
-        calcularEnrocsPeces();
+    /**
+     * @brief   Jugades legals d'un jugador.
+     * @pre     0 <= \p color <= 1
+     * @param   color és 0 pel jugador de blanques o 1 pel de negres.
+     * @post    Retorna el codi (veure CodiJugada) de cada jugada ordinària i cada enroc que pot fer el jugador \p color, peça a peça
+     *          recorrent el tauler per files des de dalt, i per cada peça primer els destins i després els enrocs. Les jugades ordinàries
+     *          porten l'índex del moviment que les permet.
+     */
+    int[] jugadesLegals(int color) {
+        int[] jugades = new int[32];
+        int n = 0;
+        for (int i = 1; i <= _fila; i++) {
+            for (int j = 1; j <= _columna; j++) { //es recorre el tauler
+                int peca = codi(i, j);
+                if (peca != 0 && color(peca) == color) {
+                    Posicio origen = new Posicio(j, _fila + 1 - i);
+                    int indexOrigen = Bitboard256.index(origen);
+                    List<MovimentCompilat> moviments = tipus(peca).movimentsCompilats(moguda(peca), color);
+                    Map<Posicio,Posicio> enrocs = enrocsPeces().get(origen);
+                    int nPeca = destinsPeces().get(origen).size() + (enrocs == null ? 0 : enrocs.size());
+                    if (n + nPeca > jugades.length)
+                        jugades = Arrays.copyOf(jugades, Math.max(2 * jugades.length, n + nPeca));
+                    for (Map.Entry<Posicio,Moviment> desti : destinsPeces().get(origen).entrySet())
+                        jugades[n++] = CodiJugada.ordinaria(indexOrigen, Bitboard256.index(desti.getKey()), regla(moviments, desti.getValue()));
+                    if (enrocs != null)
+                        for (Posicio parella : enrocs.keySet())
+                            jugades[n++] = CodiJugada.enroc(indexOrigen, Bitboard256.index(parella));
+                }
+            }
+        }
+        return Arrays.copyOf(jugades, n);
+    }
 
+    /**
+     * @brief   Índex del moviment compilat al qual pertany una part.
+     * @return  L'índex dins \p moviments del MovimentCompilat que té \p mov com a part, o CodiJugada::REGLA_DESCONEGUDA si no n'hi ha
+     *          cap (quan els moviments s'interpreten, veure interpretarMoviments()).
+     */
+    private static int regla(List<MovimentCompilat> moviments, Moviment mov) {
+        for (int i = 0; i < moviments.size() && i < CodiJugada.REGLA_DESCONEGUDA; i++) {
+            MovimentCompilat compilat = moviments.get(i);
+            for (int p = 0; p < compilat.parts(); p++)
+                if (compilat.moviment(p) == mov) return i;
+        }
+        return CodiJugada.REGLA_DESCONEGUDA;
     }
 
     /**
@@ -259,10 +342,9 @@ public class TaulerEscacs{
      */
     public void efecuarPromocio(Peca novaPeca, Posicio posAPro){
 
-        _tauler[_fila + 1 - posAPro.fila()][posAPro.columna()] = novaPeca;
+        assignarCodi(posAPro, novaPeca.codi());
 
-        calcularDestinsPeces();
-        calcularEnrocsPeces();
+        invalidarDestins();
     }
 
 
@@ -304,16 +386,9 @@ public class TaulerEscacs{
                 s += " ";
             s += (_fila - i) + " | ";
             for (int j = 0; j < _columna; j++) {
-                Peca p = _tauler[i + 1][j + 1];
-                if (p == null) s += " ";
-                else switch (p.color()) {
-                    case 0:
-                        s += p.simbol();
-                        break;
-                    case 1:
-                        s += Character.toLowerCase(p.simbol());
-                        break;
-                }
+                int codi = codi(i + 1, j + 1);
+                if (codi == 0) s += " ";
+                else s += tipus(codi).simbol(color(codi));
                 s += " | ";
             }
             s += "\n" + f;
@@ -342,9 +417,9 @@ public class TaulerEscacs{
      *          i retorna cert si s'ha capturat alguna peça enemiga durant la seva realització o fals altrament.
      */
     private boolean aplicarMoviment(Posicio origen, Posicio desti, Moviment mov) {
-        Peca peca = _tauler[_fila + 1 - origen.fila()][origen.columna()];
-        if (peca.nom().equals("REI")) { //si es tracta del rei...
-            if (peca.color() == 0) //s'actualitza la posició
+        int peca = codi(origen);
+        if (tipus(peca).esRei()) { //si es tracta del rei...
+            if (color(peca) == 0) //s'actualitza la posició
                 _posReiBlanc = desti;
             else _posReiNegre = desti;
         }
@@ -352,11 +427,11 @@ public class TaulerEscacs{
         List<Posicio> posCaptura = posicionsPecaCaptura(origen, desti, mov); //llista amb totes les posicions on la peça captura.
 
         for(Posicio pos : posCaptura){ //per cada posició on es captura
-            _tauler[_fila + 1 - pos.fila()][pos.columna()] = null;
+            assignarCodi(pos, 0);
         }
-        _tauler[_fila + 1 - origen.fila()][origen.columna()] = null; //la posició origen queda buida
-        _tauler[_fila+1-desti.fila()][desti.columna()] = peca; //la nova posició de la peça és destí
-        if (!peca.esMoguda()) peca.actualitzarMoguda(); //la peça ha estat moguda
+        assignarCodi(origen, 0); //la posició origen queda buida
+        assignarCodi(desti, peca | Peca.BIT_MOGUDA); //la nova posició de la peça és destí i la peça ha estat moguda
+        invalidarDestins(); //els destins calculats ja no corresponen al tauler
 
         return (posCaptura.size()>0); //s'ha capturat alguna peça?
     }
@@ -371,12 +446,12 @@ public class TaulerEscacs{
      *          s'anota la posició, ara bé, en cas contrari, no es duu a terme cap acció.
      */
     private void actualitzarPromocio(Posicio origen, Posicio desti){
-        Peca peca = _tauler[_fila+1-desti.fila()][desti.columna()];
-        int colorPeca = peca.color();
+        int peca = codi(desti);
+        int colorPeca = color(peca);
         int fila = 1; //negres
         if(colorPeca == 0)
             fila = _fila; //blanques
-        if(peca.potPromocionar() && desti.fila()==fila && desti.fila()!=origen.fila())
+        if(tipus(peca).potPromocionar() && desti.fila()==fila && desti.fila()!=origen.fila())
             _posHiHaPromo = desti;
 
     }
@@ -394,30 +469,27 @@ public class TaulerEscacs{
      *          i \p posPecaB.
      */
     private void aplicarEnroc(Posicio posPecaA, Posicio posFinalA, Posicio posPecaB, Posicio posFinalB) {
-        Peca pecaA = _tauler[_fila + 1 - posPecaA.fila()][posPecaA.columna()];
-        Peca pecaB = _tauler[_fila + 1 - posPecaB.fila()][posPecaB.columna()];
-        if (!pecaA.esMoguda()) //s'actualitzen les peces mogudes
-            pecaA.actualitzarMoguda();
-        if(!pecaB.esMoguda())
-                pecaB.actualitzarMoguda();
-
-        if (pecaA.nom().equals("REI")) { //s'actualitza la posició del rei
-            if (pecaA.color() == 0)
+        int pecaA = codi(posPecaA) | Peca.BIT_MOGUDA; //s'actualitzen les peces mogudes
+        int pecaB = codi(posPecaB) | Peca.BIT_MOGUDA;
+
+        if (tipus(pecaA).esRei()) { //s'actualitza la posició del rei
+            if (color(pecaA) == 0)
                 _posReiBlanc = posFinalA;
             else _posReiNegre = posFinalA;
         }
 
-        if (pecaB.nom().equals("REI")) { //s'actualitza la posició del rei
-            if (pecaB.color() == 0)
+        if (tipus(pecaB).esRei()) { //s'actualitza la posició del rei
+            if (color(pecaB) == 0)
                 _posReiBlanc = posFinalB;
             else _posReiNegre = posFinalB;
         }
         //les posicions inicials de l'enroc queden buides
-        _tauler[_fila + 1 - posPecaA.fila()][posPecaA.columna()] = null;
-        _tauler[_fila + 1 - posPecaB.fila()][posPecaB.columna()] = null;
+        assignarCodi(posPecaA, 0);
+        assignarCodi(posPecaB, 0);
         //les peces es col·loquen a les posicions finals de l'enroc
-        _tauler[_fila + 1 - posFinalA.fila()][posFinalA.columna()] = pecaA;
-        _tauler[_fila + 1 - posFinalB.fila()][posFinalB.columna()] = pecaB;
+        assignarCodi(posFinalA, pecaA);
+        assignarCodi(posFinalB, pecaB);
+        invalidarDestins(); //els destins calculats ja no corresponen al tauler
     }
 
     /**
@@ -445,9 +517,9 @@ public class TaulerEscacs{
             int j = 1;
             while (j <= _columna && !pecaTeDesti) { //cerca sobre el tauler
                 Posicio posAct = new Posicio(j, _fila + 1 - i);
-                Peca pecaAct = _tauler[i][j];
-                if (pecaAct != null && pecaAct.color() == color){ //si hi ha una peça i aquesta és del color del jugador...
-                    if(!_destinsPeces.get(posAct).isEmpty() || (_enrocsPeces.containsKey(posAct))) //existeixen destins o enrocs per aquesta peça?
+                int pecaAct = codi(i, j);
+                if (pecaAct != 0 && color(pecaAct) == color){ //si hi ha una peça i aquesta és del color del jugador...
+                    if(!destinsPeces().get(posAct).isEmpty() || (enrocsPeces().containsKey(posAct))) //existeixen destins o enrocs per aquesta peça?
                     pecaTeDesti = true;
                 }
                 j++;
@@ -469,25 +541,19 @@ public class TaulerEscacs{
         Posicio posRei = _posReiBlanc;
         if(colorRei!=0)
             posRei = _posReiNegre;
-        int i = 1;
-        while(i<=_fila && !pecaCapturaRei){
-            int j = 1;
-            while(j<=_columna && !pecaCapturaRei){ //cerca sobre el tauler
-                Posicio posActual = new Posicio(j,_fila+1-i);
-                Peca pecaActual = _tauler[i][j];
-                if(pecaActual!=null && pecaActual.color()!=colorRei){ //alguna peça enemiga posa en perill al rei?
-                    for (Moviment moviment : pecaActual.obtenirMoviments()) { //per cada moviment de la peça
-                        Iterator<Map.Entry<Posicio, Moviment>> destinsPeca = posicionsDestiMov(posActual, moviment).entrySet().iterator(); //tots els possibles destins amb el seu moviment, si no n'hi ha es buit
-                        while(destinsPeca.hasNext() && !pecaCapturaRei){ //cerca sobre els destins
-                            Map.Entry<Posicio, Moviment> valor = destinsPeca.next();
-                            List<Posicio> posCaptura = posicionsPecaCaptura(posActual, valor.getKey(), valor.getValue()); //posicions on captura la peça per aquest destí
-                            pecaCapturaRei = posCaptura.contains(posRei);
-                        }
+        for (int k = _ocupacio.seguent(0); k >= 0 && !pecaCapturaRei; k = _ocupacio.seguent(k + 1)) { //cerca sobre les caselles ocupades
+            Posicio posActual = new Posicio(Bitboard256.columna(k), Bitboard256.fila(k));
+            int pecaActual = codi(posActual);
+            if(color(pecaActual)!=colorRei){ //alguna peça enemiga posa en perill al rei?
+                for (MovimentCompilat moviment : tipus(pecaActual).movimentsCompilats(moguda(pecaActual), color(pecaActual))) { //per cada moviment de la peça
+                    Iterator<Map.Entry<Posicio, Moviment>> destinsPeca = posicionsDestiMov(posActual, moviment).entrySet().iterator(); //tots els possibles destins amb el seu moviment, si no n'hi ha es buit
+                    while(destinsPeca.hasNext() && !pecaCapturaRei){ //cerca sobre els destins
+                        Map.Entry<Posicio, Moviment> valor = destinsPeca.next();
+                        List<Posicio> posCaptura = posicionsPecaCaptura(posActual, valor.getKey(), valor.getValue()); //posicions on captura la peça per aquest destí
+                        pecaCapturaRei = posCaptura.contains(posRei);
                     }
                 }
-                j++;
             }
-            i++;
         }
         return pecaCapturaRei;
     }
@@ -500,65 +566,186 @@ public class TaulerEscacs{
      *          i sense cap moviment que el tregui d'escac, fals altrament.
      */
     private boolean esEscacMat(int colorRei){
-        boolean reiEnPerill = false;
-        if(esEscac(colorRei)){ //el rei es troba en escac, te alguna manera de salvar-se?
-            boolean potFugir = false;
-            int i=1;
-            while(i<=_fila && !potFugir){
-                int j=1;
-                while(j<=_columna && !potFugir){ //es fa una cerca sobre el tauler
-                    Posicio posAct = new Posicio(j,_fila+1-i);
-                    Peca pecaAct = _tauler[i][j];
-                    if(pecaAct!=null && pecaAct.color()==colorRei){ //es una peça companya del rei
-                        Iterator<Map.Entry<Posicio,Moviment>> destins =  _destinsPeces.get(posAct).entrySet().iterator(); //iterador sobre els destins de la peça
-                        while(destins.hasNext() && !potFugir){ //busquem un desti que salvi al rei
-                            Map.Entry<Posicio, Moviment> desti = destins.next();
-                            potFugir = !destiDeixaReiEnEscac(posAct, desti.getKey(), desti.getValue()); //aplicant aquest moviment d'origen a desti el rei segueix en escac?
-                        }
-                        if(!potFugir && _enrocsPeces.containsKey(posAct)){ //cap destí de la peça ha pogut salvar al rei però... i un enroc?
-                            Iterator<Map.Entry<Posicio,Posicio>> pecaFaEnroc = _enrocsPeces.get(posAct).entrySet().iterator(); //iterador sobre els enrocs d'aquella peca
-                            while(pecaFaEnroc.hasNext() && !potFugir){ //busquem l'enroc que salva al rei
-                                Map.Entry<Posicio,Posicio> enroc = pecaFaEnroc.next();
-                                Posicio destiEnroc = enroc.getKey(); //desti després de fer l'enroc
-                                Posicio parellaEnroc = enroc.getKey(); //posicio de la peça amb la que fa enroc
-                                Posicio destiSegonaPeca = _enrocsPeces.get(parellaEnroc).get(posAct); //desti de la peça companya després de fer l'enroc
-                                potFugir = !enrocDeixaReiEnEscac(posAct, destiEnroc, parellaEnroc, destiSegonaPeca); //aplicant l'enroc el rei segueix en escac?
+        List<Bitboard256> atacs = atacsRei(colorRei);
+        if (atacs.isEmpty()) //el rei no es troba en escac
+            return false;
+        boolean potFugir = teEvasio(colorRei, atacs);
+        int i=1;
+        while(i<=_fila && !potFugir){
+            int j=1;
+            while(j<=_columna && !potFugir){ //es fa una cerca sobre el tauler
+                Posicio posAct = new Posicio(j,_fila+1-i);
+                int pecaAct = codi(i, j);
+                if(pecaAct!=0 && color(pecaAct)==colorRei && enrocsPeces().containsKey(posAct)){ //cap destí ha pogut salvar al rei però... i un enroc?
+                    Iterator<Map.Entry<Posicio,Posicio>> pecaFaEnroc = enrocsPeces().get(posAct).entrySet().iterator(); //iterador sobre els enrocs d'aquella peca
+                    while(pecaFaEnroc.hasNext() && !potFugir){ //busquem l'enroc que salva al rei
+                        Map.Entry<Posicio,Posicio> enroc = pecaFaEnroc.next();
+                        Posicio destiEnroc = enroc.getKey(); //desti després de fer l'enroc
+                        Posicio parellaEnroc = enroc.getKey(); //posicio de la peça amb la que fa enroc
+                        Posicio destiSegonaPeca = enrocsPeces().get(parellaEnroc).get(posAct); //desti de la peça companya després de fer l'enroc
+                        potFugir = !enrocDeixaReiEnEscac(posAct, destiEnroc, parellaEnroc, destiSegonaPeca); //aplicant l'enroc el rei segueix en escac?
+                    }
+                }
+                j++;
+            }
+            i++;
+        }
+        return !potFugir;
+    }
+
+    /**
+     * @brief   Comprova si el jugador indicat, que està en escac, té alguna jugada ordinària que tregui el rei d'escac.
+     * @pre     \p atacs és el resultat d'atacsRei(\p colorRei) i no és buit.
+     * @param   colorRei és 0 pel jugador de blanques o 1 pel de negres.
+     * @param   atacs són les amenaces que rep el rei de color \p colorRei.
+     * @post    Retorna cert si alguna peça de color \p colorRei té un destí legal. Si els destins encara no s'han calculat, només es
+     *          proven els moviments del rei i els que tocarien alguna casella de cada amenaça (veure tocaAtacs()), i es torna tan bon punt se
+     *          n'ha trobat un de legal.
+     */
+    private boolean teEvasio(int colorRei, List<Bitboard256> atacs) {
+        TaulerEscacs proves = null; //tauler on es proven els destins, es crea només si cal
+        for (int i = 1; i <= _fila; i++) {
+            for (int j = 1; j <= _columna; j++) { //es recorre el tauler
+                Posicio posAct = new Posicio(j, _fila + 1 - i);
+                int pecaAct = codi(i, j);
+                if (pecaAct != 0 && color(pecaAct) == colorRei) { //es una peça companya del rei
+                    if (_destinsPeces != null) { //els destins ja calculats són legals
+                        if (!_destinsPeces.get(posAct).isEmpty()) return true;
+                    } else {
+                        if (proves == null) proves = new TaulerEscacs(this);
+                        boolean esRei = tipus(pecaAct).esRei();
+                        for (MovimentCompilat moviment : tipus(pecaAct).movimentsCompilats(moguda(pecaAct), color(pecaAct))) { //per cada moviment de la peça
+                            for (Map.Entry<Posicio, Moviment> desti : posicionsDestiMov(posAct, moviment).entrySet()) {
+                                if ((esRei || tocaAtacs(atacs, posAct, desti.getKey(), desti.getValue()))
+                                        && !jugadaMataReiContrari(posAct, desti.getKey(), desti.getValue())
+                                        && !proves.provarDesti(this, posAct, desti.getKey(), desti.getValue()))
+                                    return true; //aquest destí salva al rei
                             }
                         }
                     }
-                    j++;
                 }
-                i++;
             }
-            reiEnPerill = !potFugir;
         }
-        return reiEnPerill;
+        return false;
+    }
+
+    /**
+     * @brief   Amenaces que rep el rei indicat.
+     * @pre     El tauler no és buit.
+     * @param   colorRei és 0 pel rei blanc o 1 pel rei negre.
+     * @post    Retorna una llista amb el conjunt de caselles de cada destí d'una peça enemiga que capturaria el rei de color \p colorRei:
+     *          la casella de la peça, les del trajecte fins al destí i el destí, que són les úniques de les que depèn que l'amenaça es mantingui.
+     *          La llista és buida si el rei no està en escac.
+     */
+    private List<Bitboard256> atacsRei(int colorRei) {
+        List<Bitboard256> atacs = new ArrayList<>();
+        Posicio posRei = colorRei == 0 ? _posReiBlanc : _posReiNegre;
+        for (int k = _ocupacio.seguent(0); k >= 0; k = _ocupacio.seguent(k + 1)) { //cerca sobre les caselles ocupades
+            Posicio posActual = new Posicio(Bitboard256.columna(k), Bitboard256.fila(k));
+            int pecaActual = codi(posActual);
+            if (color(pecaActual) != colorRei) { //alguna peça enemiga posa en perill al rei?
+                for (MovimentCompilat moviment : tipus(pecaActual).movimentsCompilats(moguda(pecaActual), color(pecaActual))) { //per cada moviment de la peça
+                    for (Map.Entry<Posicio, Moviment> desti : posicionsDestiMov(posActual, moviment).entrySet()) {
+                        if (posicionsPecaCaptura(posActual, desti.getKey(), desti.getValue()).contains(posRei)) //amb aquest destí captura el rei
+                            atacs.add(Bitboard256.trajecte(k, Bitboard256.index(desti.getKey())).afegir(k));
+                    }
+                }
+            }
+        }
+        return atacs;
     }
 
+    /**
+     * @brief   Comprova si el moviment que mou una peça d'origen a destí pot desfer totes les amenaces sobre el seu rei.
+     * @pre     La peça d'\p origen no és un rei i \p atacs són les amenaces sobre el seu rei (veure atacsRei()).
+     * @param   atacs són les amenaces que rep el rei.
+     * @param   origen és la posició on hi ha la peça que es vol moure.
+     * @param   desti és la posició on es vol moure la peça.
+     * @param   mov és el moviment que permet a la peça moure's d'\p origen a \p desti.
+     * @post    Retorna fals si alguna amenaça no inclou ni \p origen, ni \p desti, ni cap casella on es captura, és a dir, si el moviment
+     *          no captura la peça que amenaça, ni s'interposa al seu trajecte, ni canvia el seu destí. En aquest cas el rei segur que segueix en
+     *          escac després del moviment. Altrament retorna cert.
+     */
+    private boolean tocaAtacs(List<Bitboard256> atacs, Posicio origen, Posicio desti, Moviment mov) {
+        Bitboard256 tocades = new Bitboard256().afegir(Bitboard256.index(origen)).afegir(Bitboard256.index(desti));
+        if (mov.movSalta() == 2) //la peça que amenaça pot ser capturada saltant
+            for (Posicio pos : posicionsPecaCaptura(origen, desti, mov))
+                tocades.afegir(Bitboard256.index(pos));
+        for (Bitboard256 atac : atacs)
+            if (!atac.talla(tocades)) return false;
+        return true;
+    }
 
     /**
      * @brief   Genera el \a Map de destins de les peces.
      * @pre     El tauler no és buit.
      * @post    S'ha generat el \a Map de destins on cada posició que conté una peça representa una clau i aquesta té associada com a valor
-     *          un \a Map de les posicions de destí amb el moviment que permet a la peça arribar a aquell destí.
+     *          un \a Map de les posicions de destí amb el moviment que permet a la peça arribar a aquell destí. Si hi ha almenys tantes peces
+     *          com indica la propietat del sistema \c escacs.llindarParallel (48 si no està definida), les peces es reparteixen entre els fils
+     *          del \a ForkJoinPool comú. Les peces d'un jugador en escac que no són el rei només proven els destins que poden desfer totes
+     *          les amenaces (veure tocaAtacs()).
      */
     private void calcularDestinsPeces() {
-        _destinsPeces = new HashMap<>();
-        for (int i = 1; i <= _fila; i++) {
-            for (int j = 1; j <= _columna; j++) { //es recorre el tauler
-                Posicio posAct = new Posicio(j, _fila + 1 - i);
-                Peca pecaAct = _tauler[i][j];
-                if (pecaAct != null) { //si hi ha una peça...
-                    for (Moviment moviment : pecaAct.obtenirMoviments()) { //per cada moviment de la peça
-                        Map<Posicio, Moviment> destinsPeca = posicionsDestiMov(posAct, moviment); //tots els possibles destins amb el seu moviment, si no n'hi ha es buit
-                        destinsPeca.entrySet().removeIf(k -> jugadaMataReiContrari(posAct, k.getKey(), k.getValue())); //una peça mai pot matar a un rei
-                        destinsPeca.entrySet().removeIf(k -> destiDeixaReiEnEscac(posAct, k.getKey(), k.getValue())); //eliminem els destins que deixen al propi rei en escac
-                        if (_destinsPeces.putIfAbsent(posAct, destinsPeca) != null) //afegim el mapa a la peça
-                            _destinsPeces.get(posAct).putAll(destinsPeca);
-                    }
-                }
+        List<Posicio> posicions = new ArrayList<>();
+        for (int k = _ocupacio.seguent(0); k >= 0; k = _ocupacio.seguent(k + 1)) //es recorren les caselles ocupades
+            posicions.add(new Posicio(Bitboard256.columna(k), Bitboard256.fila(k)));
+        List<List<Bitboard256>> atacs = Arrays.asList(atacsRei(0), atacsRei(1)); //amenaces sobre cada rei
+        if (posicions.size() >= LLINDAR_PARALLEL)
+            _destinsPeces = ForkJoinPool.commonPool().invoke(new CalculDestins(this, posicions, atacs, 0, posicions.size()));
+        else
+            _destinsPeces = destinsPeces(posicions, atacs, 0, posicions.size());
+    }
+
+    /**
+     * @brief   Calcula els destins legals de part de les peces.
+     * @pre     Totes les posicions de \p posicions a l'interval [\p inici, \p fi) contenen una peça.
+     * @param   posicions són les posicions de les peces del tauler.
+     * @param   atacs són les amenaces sobre el rei blanc (índex 0) i el negre (índex 1), veure atacsRei().
+     * @param   inici és l'índex de la primera peça a calcular.
+     * @param   fi és l'índex següent a l'última peça a calcular.
+     * @post    Retorna un \a Map nou amb els destins de les peces de l'interval, amb el mateix format que _destinsPeces. El tauler no es modifica,
+     *          de manera que diversos fils poden cridar aquest mètode alhora amb intervals diferents.
+     */
+    private Map<Posicio,Map<Posicio,Moviment>> destinsPeces(List<Posicio> posicions, List<List<Bitboard256>> atacs, int inici, int fi) {
+        Map<Posicio,Map<Posicio,Moviment>> destinsPeces = new HashMap<>();
+        TaulerEscacs proves = new TaulerEscacs(this); //tauler propi on es proven els destins
+        for (int k = inici; k < fi; k++) {
+            Posicio posAct = posicions.get(k);
+            int pecaAct = codi(posAct);
+            List<Bitboard256> atacsRei = atacs.get(color(pecaAct));
+            for (MovimentCompilat moviment : tipus(pecaAct).movimentsCompilats(moguda(pecaAct), color(pecaAct))) { //per cada moviment de la peça
+                Map<Posicio, Moviment> destinsPeca = posicionsDestiMov(posAct, moviment); //tots els possibles destins amb el seu moviment, si no n'hi ha es buit
+                if (!atacsRei.isEmpty() && !tipus(pecaAct).esRei()) //el seu rei està en escac: només poden ser legals els destins que toquen les amenaces
+                    destinsPeca.entrySet().removeIf(d -> !tocaAtacs(atacsRei, posAct, d.getKey(), d.getValue()));
+                destinsPeca.entrySet().removeIf(d -> jugadaMataReiContrari(posAct, d.getKey(), d.getValue())); //una peça mai pot matar a un rei
+                destinsPeca.entrySet().removeIf(d -> proves.provarDesti(this, posAct, d.getKey(), d.getValue())); //eliminem els destins que deixen al propi rei en escac
+                if (destinsPeces.putIfAbsent(posAct, destinsPeca) != null) //afegim el mapa a la peça
+                    destinsPeces.get(posAct).putAll(destinsPeca);
             }
         }
+        return destinsPeces;
+    }
+
+    /**
+     * @brief   Comprova, sobre aquest tauler de proves, si el moviment que mou la peça d'origen a destí deixa el rei del mateix bàndol en escac.
+     * @pre     Aquest tauler és una còpia de \p original i totes dues tenen les mateixes peces.<br>
+     *          \p origen conté una peça que podria accedir a \p desti amb \p mov.
+     * @param   original és el tauler on es vol saber si el moviment és legal.
+     * @param   origen és la posició on hi ha la peça que es vol moure.
+     * @param   desti és la posició on es vol moure la peça.
+     * @param   mov és el moviment que permet a la peça moure's d'\p origen a \p desti.
+     * @post    Retorna el mateix que \p original.destiDeixaReiEnEscac(\p origen, \p desti, \p mov), però sense crear cap còpia del tauler.
+     *          Aquest tauler torna a tenir les peces d'\p original.
+     */
+    private boolean provarDesti(TaulerEscacs original, Posicio origen, Posicio desti, Moviment mov) {
+        int jugadorActual = color(codi(origen));
+        aplicarMoviment(origen, desti, mov); //fem la jugada
+        boolean reiEnEscac = esEscac(jugadorActual); //comprovem si el rei ha quedat en escac
+        System.arraycopy(original._tauler, 0, _tauler, 0, _tauler.length); //desfem la jugada
+        _ocupacio.assignar(original._ocupacio);
+        _posReiBlanc = original._posReiBlanc;
+        _posReiNegre = original._posReiNegre;
+        return reiEnEscac;
     }
 
     /**
@@ -569,22 +756,22 @@ public class TaulerEscacs{
      *          l'enroc.
      */
     private void calcularEnrocsPeces() {
-        _enrocsPeces = new HashMap<>();
+        Map<Posicio,Map<Posicio,Posicio>> enrocsPeces = new HashMap<>();
         for (int i = 1; i <= _fila; i++) {
             for (int j = 1; j <= _columna; j++) { //recorrem el tauler
                 Posicio posPrimera = new Posicio(j, _fila + 1 - i);
-                Peca pecaPrimera = _tauler[i][j];
-                if (pecaPrimera != null && pecaPrimera.potEnrocar()) { //si la peça és candidata a tenir un enroc
+                int pecaPrimera = codi(i, j);
+                if (pecaPrimera != 0 && tipus(pecaPrimera).potEnrocar()) { //si la peça és candidata a tenir un enroc
                     for (int k = 1; k <= _columna; k++) { //recorrem la fila de la peça
                         Posicio posSegona = new Posicio(k, _fila + 1 - i);
-                        Peca pecaSegona = _tauler[i][k];
-                        if (pecaSegona != null && pecaPrimera.color() == pecaSegona.color()) { //si trobem una peça candidata a ser companya d'enroc
-                            Enroc enroc = pecaPrimera.obtenirEnroc(pecaSegona);
+                        int pecaSegona = codi(i, k);
+                        if (pecaSegona != 0 && color(pecaPrimera) == color(pecaSegona)) { //si trobem una peça candidata a ser companya d'enroc
+                            Enroc enroc = tipus(pecaPrimera).obtenirEnroc(tipus(pecaSegona));
                             if(enroc!=null) { //existeix un enroc entre les dues peces
                                 Posicio primeraEnroc = posPrimera;
                                 Posicio segonaEnroc = posSegona;
                                 boolean canvi = false;
-                                if (!pecaPrimera.nom().equals(enroc.primeraPeca())) { //l'enroc és al reves
+                                if (!tipus(pecaPrimera).nom().equals(enroc.primeraPeca())) { //l'enroc és al reves
                                     canvi = true;
                                     primeraEnroc = posSegona;
                                     segonaEnroc = posPrimera;
@@ -598,8 +785,8 @@ public class TaulerEscacs{
                                     parellaDesti.put(posSegona, pecaPosFinal); //afegim la companya d'enroc i la posició final
                                     boolean enrocDeixaReiEscac = enrocDeixaReiEnEscac(primeraEnroc, posicionsFinals.first, segonaEnroc, posicionsFinals.second);
                                     if (!enrocDeixaReiEscac) { //si aquest enroc no deixa al rei en escac...
-                                        if (_enrocsPeces.putIfAbsent(posPrimera, parellaDesti) != null) //s'afegeix l'enroc
-                                            _enrocsPeces.get(posPrimera).put(posSegona, pecaPosFinal);
+                                        if (enrocsPeces.putIfAbsent(posPrimera, parellaDesti) != null) //s'afegeix l'enroc
+                                            enrocsPeces.get(posPrimera).put(posSegona, pecaPosFinal);
                                     }
                                 }
                             }
@@ -608,8 +795,182 @@ public class TaulerEscacs{
                 }
             }
         }
+        _enrocsPeces = enrocsPeces;
+    }
+
+    /**
+     * @brief   Retorna el \a Map de destins de les peces, calculant-lo si encara no es correspon amb el tauler actual.
+     */
+    private Map<Posicio,Map<Posicio,Moviment>> destinsPeces() {
+        if (_destinsPeces == null)
+            calcularDestinsPeces();
+        return _destinsPeces;
+    }
+
+    /**
+     * @brief   Retorna el \a Map d'enrocs de les peces, calculant-lo si encara no es correspon amb el tauler actual.
+     */
+    private Map<Posicio,Map<Posicio,Posicio>> enrocsPeces() {
+        if (_enrocsPeces == null)
+            calcularEnrocsPeces();
+        return _enrocsPeces;
+    }
+
+    /**
+     * @brief   Tria com es generen els destins de les peces.
+     * @param   interpretats és cert per interpretar cada Moviment de les regles com abans d'existir MovimentCompilat, o fals per fer
+     *          servir els moviments compilats.
+     * @post    Aquest tauler i les còpies que se'n facin a partir d'ara generen els destins de la manera indicada. Els resultats han
+     *          de ser els mateixos; només serveix per comparar les dues maneres (veure ComparadorTaulers::Interpretat).
+     */
+    void interpretarMoviments(boolean interpretats) {
+        _movimentsInterpretats = interpretats;
+        invalidarDestins();
+    }
+
+    /**
+     * @brief   Caselles on aquest tauler i \p t no tenen la mateixa peça.
+     * @pre     \p t té les mateixes dimensions que aquest tauler.
+     * @post    Retorna les posicions on el codi (tipus, color i si s'ha mogut) de les dues caselles és diferent.
+     */
+    List<Posicio> casellesDiferents(TaulerEscacs t) {
+        List<Posicio> res = new ArrayList<>();
+        for (int i = 1; i <= _fila; i++)
+            for (int j = 1; j <= _columna; j++)
+                if (codi(i, j) != t.codi(i, j))
+                    res.add(new Posicio(j, _fila + 1 - i));
+        return res;
+    }
+
+    /**
+     * @brief   Resum de 64 bits de la posició.
+     * @pre     0 <= \p torn <= 1
+     * @post    Retorna un valor que depèn només del codi de cada casella i de \p torn, i que és el mateix en qualsevol
+     *          execució del programa, de manera que es pot guardar en un fitxer (veure LlibreObertures).
+     */
+    long resumPosicio(int torn) {
+        long res = torn == 0 ? 0 : barrejar(-1);
+        for (int i = 0; i < _tauler.length; i++)
+            if (_tauler[i] != 0)
+                res ^= barrejar(((long) i << 8) | (_tauler[i] & 0xFF));
+        return res;
+    }
+
+    /**
+     * @brief   Clau de la posició per a la taula de transposició.
+     * @pre     0 <= \p torn <= 1
+     * @post    Retorna resumPosicio(\p torn) combinat amb l'identificador de les regles, de manera que una mateixa
+     *          posició té la mateixa clau en tots els taulers de les mateixes regles, i claus diferents amb regles
+     *          diferents.
+     */
+    long clauTransposicio(int torn) {
+        return resumPosicio(torn) ^ _identificador;
+    }
+
+    /**
+     * @brief   Codis de les caselles del tauler.
+     * @post    Retorna una còpia de la representació del tauler (veure _tauler), que es pot tornar a col·locar sobre
+     *          un tauler de les mateixes regles amb assignarCodis().
+     */
+    byte[] codis() {
+        return _tauler.clone();
+    }
+
+    /**
+     * @brief   Col·loca les peces indicades per uns codis de caselles.
+     * @pre     \p codis s'ha obtingut amb codis() d'un tauler amb les mateixes regles i dimensions, i conté els dos reis.
+     * @post    El tauler conté les peces de \p codis i no hi ha cap promoció pendent.
+     * @throws  IllegalArgumentException si \p codis no té la mida del tauler.
+     */
+    void assignarCodis(byte[] codis) {
+        if (codis.length != _tauler.length)
+            throw new IllegalArgumentException("Error: els codis no corresponen a les mides del tauler");
+        System.arraycopy(codis, 0, _tauler, 0, codis.length);
+        _ocupacio.assignar(new Bitboard256());
+        _posReiBlanc = null;
+        _posReiNegre = null;
+        for (int i = 1; i <= _fila; i++) {
+            for (int j = 1; j <= _columna; j++) {
+                int codi = codi(i, j);
+                if (codi != 0)
+                    _ocupacio.afegir(Bitboard256.index(j, _fila + 1 - i));
+                if (codi != 0 && tipus(codi).esRei()) {
+                    if (color(codi) == 0) _posReiBlanc = new Posicio(j, _fila + 1 - i);
+                    else _posReiNegre = new Posicio(j, _fila + 1 - i);
+                }
+            }
+        }
+        _posHiHaPromo = null;
+        invalidarDestins();
+    }
+
+    /**
+     * @brief   Codi de la peça d'una casella.
+     * @pre     \p pos existeix al tauler.
+     * @post    Retorna el codi de la peça que hi ha a \p pos (veure Peca::codi()), o 0 si és buida.
+     */
+    int codiCasella(Posicio pos) {
+        return codi(pos);
+    }
+
+    /**
+     * @brief   Canvia el codi d'algunes caselles del tauler.
+     * @pre     \p canvis conté parelles (índex de casella de CodiJugada, codi de peça) de caselles del tauler, i el
+     *          tauler resultant conté els dos reis.
+     * @post    Cada casella de \p canvis conté la peça amb el codi indicat (buida si és 0), la resta de caselles no
+     *          canvien i no hi ha cap promoció pendent.
+     */
+    void restaurarCaselles(byte[] canvis) {
+        byte[] codis = codis();
+        for (int k = 0; k < canvis.length; k += 2) {
+            Posicio pos = CodiJugada.posicio(canvis[k] & 0xFF);
+            codis[(_fila + 1 - pos.fila()) * (_columna + 1) + pos.columna()] = canvis[k + 1];
+        }
+        assignarCodis(codis);
+    }
+
+    /**
+     * @brief   Nombre de peces del tauler.
+     * @post    Retorna el nombre de caselles ocupades, incloent-hi els reis.
+     */
+    int nombrePeces() {
+        return _ocupacio.nombre();
     }
 
+    /**
+     * @brief   Taules de finals que consulta la CPU per aquest tauler i totes les seves còpies.
+     * @return  Les taules de finals de les regles del tauler, o null si no en té.
+     */
+    TaulesFinals taulesFinals() {
+        return _taulesFinals;
+    }
+
+    /**
+     * @brief   Assigna les taules de finals de les regles del tauler.
+     * @post    Aquest tauler i les còpies que se'n facin a partir d'ara consulten \p taules (pot ser null).
+     */
+    void assignarTaulesFinals(TaulesFinals taules) {
+        _taulesFinals = taules;
+    }
+
+    /**
+     * @brief   Calcula els destins i enrocs de les peces si encara no estan calculats.
+     * @post    Les consultes sobre aquest tauler ja no modifiquen cap atribut, de manera que es pot llegir des de
+     *          diversos fils mentre no s'hi efectuï cap jugada.
+     */
+    void calcularDestins() {
+        destinsPeces();
+        enrocsPeces();
+    }
+
+    /**
+     * @brief   Descarta els destins i enrocs calculats perquè el tauler ha canviat.
+     * @post    Els destins i enrocs es tornaran a calcular la propera vegada que es consultin.
+     */
+    private void invalidarDestins() {
+        _destinsPeces = null;
+        _enrocsPeces = null;
+    }
 
     /**
      * @brief   Comprova si, efectuant l'enroc, el rei del mateix bàndol queda en estat d'escac.
@@ -624,7 +985,7 @@ public class TaulerEscacs{
      *          queda en estat d'escac, fals altrament.
      */
     private boolean enrocDeixaReiEnEscac(Posicio posA, Posicio posFiA, Posicio posB, Posicio posFiB){
-        int jugadorActual = _tauler[_fila+1-posA.fila()][posA.columna()].color();
+        int jugadorActual = color(codi(posA));
         boolean hiHaEscac;
         TaulerEscacs nouTauler = new TaulerEscacs(this); //copiem el tauler actual
         nouTauler.aplicarEnroc(posA, posFiA, posB, posFiB); //fem la jugada enroc
@@ -644,7 +1005,7 @@ public class TaulerEscacs{
      *          queda en estat d'escac, fals altrament.
      */
     private boolean destiDeixaReiEnEscac(Posicio origen, Posicio desti, Moviment mov) {
-        int jugadorActual = _tauler[_fila + 1 - origen.fila()][origen.columna()].color();
+        int jugadorActual = color(codi(origen));
         TaulerEscacs nouTauler = new TaulerEscacs(this); //copiem el tauler actual
         boolean reiEnEscac;
         nouTauler.aplicarMoviment(origen, desti, mov); //fem la jugada
@@ -664,13 +1025,13 @@ public class TaulerEscacs{
      *          seria capturat -situació impossible en els escacs-, fals altrament.
      */
     private boolean jugadaMataReiContrari(Posicio origen, Posicio desti, Moviment mov){
-        int jugador = _tauler[_fila+1-origen.fila()][origen.columna()].color();
+        int jugador = color(codi(origen));
         boolean capturaRei = false;
         ListIterator<Posicio> posicionsAtrapa = posicionsPecaCaptura(origen, desti, mov).listIterator(); //totes les posicions on es captura
         while(posicionsAtrapa.hasNext() && !capturaRei){ //alguna posició on captura és la del rei?
             Posicio perill = posicionsAtrapa.next();
-            Peca pecaPerill = _tauler[_fila+1-perill.fila()][perill.columna()];
-            if(pecaPerill!=null && pecaPerill.nom().equals("REI") && pecaPerill.color()!=jugador)
+            int pecaPerill = codi(perill);
+            if(pecaPerill!=0 && tipus(pecaPerill).esRei() && color(pecaPerill)!=jugador)
                 capturaRei = true; //captura al rei contrari
         }
         return capturaRei;
@@ -689,26 +1050,70 @@ public class TaulerEscacs{
      */
     private List<Posicio> posicionsPecaCaptura(Posicio origen, Posicio desti, Moviment mov){
         List<Posicio> llPosicions = new ArrayList<>();
-        Peca pecaOrigen = _tauler[_fila+1-origen.fila()][origen.columna()];
+        int pecaOrigen = codi(origen);
 
         if (mov.movSalta() == 2) { //el moviment indica que la peça captura saltant
             Posicio posAct = seguentPosicio(origen,desti);
             while (!posAct.equals(desti)) {
-                Peca pecaTrobada = _tauler[_fila + 1 - posAct.fila()][posAct.columna()];
-                if (pecaTrobada != null && pecaTrobada.color() != pecaOrigen.color() && !pecaTrobada.esInvulnerable()){ //aquesta peça serà capturada
+                int pecaTrobada = codi(posAct);
+                if (pecaTrobada != 0 && color(pecaTrobada) != color(pecaOrigen) && !tipus(pecaTrobada).esInvulnerable()){ //aquesta peça serà capturada
                     llPosicions.add(posAct);
                 }
                 posAct = seguentPosicio(posAct,desti);
             }
         }
 
-        Peca pecaDesti = _tauler[_fila + 1 - desti.fila()][desti.columna()];
-        if (pecaDesti != null) { //hi ha una peça a destí, aquesta també serà capturada
+        if (codi(desti) != 0) { //hi ha una peça a destí, aquesta també serà capturada
             llPosicions.add(desti);
         }
         return llPosicions;
     }
 
+    /**
+     * @brief   Retorna un \a Map de les posicions de destí de la peça acompanyades del moviment que ho permet.
+     * @pre     \p origen és una posició vàlida del tauler i conté una peça.
+     *          \p moviment ha de ser un moviment de la peça que hi ha a \p origen, compilat pel seu color.
+     * @param   origen és la posició on es troba la peça.
+     * @param   moviment és un dels moviments compilats de la peça.
+     * @post    Retorna el mateix \a Map que posicionsDestiMov(\p origen, \p moviment.original()), però recorrent les parts ja
+     *          preparades de \p moviment en lloc d'interpretar el moviment.
+     */
+    private Map<Posicio, Moviment> posicionsDestiMov(Posicio origen, MovimentCompilat moviment) {
+        if (_movimentsInterpretats)
+            return posicionsDestiMov(origen, moviment.original());
+        Map<Posicio, Moviment> posicions = new HashMap<>();
+        for (int p = 0; p < moviment.parts(); p++) { //per cada part del moviment...
+            Moviment mov = moviment.moviment(p);
+            int dc = moviment.columna(p);
+            int df = moviment.fila(p);
+            if (moviment.forma(p) == MovimentCompilat.FIXA) { //només hi ha una posicio de desti
+                if (filaColDinsLimit(origen.columna() + dc, origen.fila() + df)) { //si és una posicio vàlida...
+                    Posicio novaPos = new Posicio(origen.columna() + dc, origen.fila() + df);
+                    if (existeixPos(novaPos) && esPossibleAnarDesti(origen, novaPos, mov)) //si existeix dins del tauler...
+                        posicions.put(novaPos, mov);
+                }
+            } else if (moviment.forma(p) == MovimentCompilat.COMBINAT) {
+                int maxIncrF = moviment.filaFixa(p) ? Math.abs(df) : _fila - 1;
+                int maxIncrC = moviment.columnaFixa(p) ? Math.abs(dc) : _columna - 1;
+                posicions.putAll(trobarDestiCombinat(origen, mov, df, dc, maxIncrF, maxIncrC));
+            } else { //avança en línia recta o diagonal
+                int columna = origen.columna() + dc;
+                int fila = origen.fila() + df;
+                boolean calSeguir = true;
+                while (calSeguir && columna >= 1 && columna <= _columna && fila >= 1 && fila <= _fila) {
+                    Posicio posActual = new Posicio(columna, fila);
+                    if (esPossibleAnarDesti(origen, posActual, mov)) //si es donen les condicions per arribar a desti...
+                        posicions.put(posActual, mov); //afegeixo la posició...
+                    if (mov.movSalta() == 0 && codi(posActual) != 0) //si el moviment no permet saltar peces i hi ha una peca...
+                        calSeguir = false; //no cal que continuem
+                    columna += dc;
+                    fila += df;
+                }
+            }
+        }
+        return posicions;
+    }
+
     /**
      * @brief   Retorna un \a Map de les posicions de destí de la peça acompanyades del moviment que ho permet.
      * @pre     \p origen és una posició vàlida del tauler i conté una peça.
@@ -728,7 +1133,7 @@ public class TaulerEscacs{
             llMoviments.add(moviment); //s'afegeix el moviment tal i com és.
         Map<Posicio, Moviment> posicions = new HashMap<>();
         for (Moviment mov : llMoviments) { //per cada moviment...
-            if(_tauler[_fila + 1 - origen.fila()][origen.columna()].color() == 1) //si la peça és negra
+            if(color(codi(origen)) == 1) //si la peça és negra
                 mov = mov.invertir(); //el moviment s'inverteix
             if (mov.consultarSubtipus() == Moviment.subTipus.NUMERIC) { //Si es un moviment numèric només hi ha una posicio de desti
                 int sumaCol = Integer.parseInt(mov.columna());
@@ -748,7 +1153,7 @@ public class TaulerEscacs{
                     while (posActual != null && existeixPos(posActual) && calSeguir) {
                         if (esPossibleAnarDesti(origen, posActual, mov)) //si es donen les condicions per arribar a desti...
                             posicions.put(posActual, mov); //afegeixo la posició...
-                        if (mov.movSalta() == 0 && _tauler[_fila + 1 - posActual.fila()][posActual.columna()] != null) //si el moviment no permet saltar peces i hi ha una peca...
+                        if (mov.movSalta() == 0 && codi(posActual) != 0) //si el moviment no permet saltar peces i hi ha una peca...
                             calSeguir = false; //no cal que continuem
                         posActual = seguentPosicio(posActual, mov);
                     }
@@ -789,6 +1194,16 @@ public class TaulerEscacs{
                 maxIncrC = Math.abs(incrC);
             }
         }
+        return trobarDestiCombinat(origen, mov, incrF, incrC, maxIncrF, maxIncrC);
+    }
+
+    /**
+     * @brief Retorna un \a Map amb totes les possibles posicions de destí d'un moviment combinat ja descompost en increments.
+     * @pre   Els de trobarDestiCombinat(\p origen, \p mov). \p incrF i \p incrC són l'increment inicial de fila i de columna de
+     *        \p mov, i \p maxIncrF i \p maxIncrC els seus valors absoluts màxims.
+     * @post  Retorna el mateix que trobarDestiCombinat(\p origen, \p mov).
+     */
+    private Map<Posicio, Moviment> trobarDestiCombinat(Posicio origen, Moviment mov, int incrF, int incrC, int maxIncrF, int maxIncrC) {
         int antIncF = incrF; //Guardem a una variable l'increment inicial de la fila
         int antIncCol = incrC; //Guardem a una variable l'increment inicial de la columna
         boolean fiColm = false; //Variable per saber si no queden més columnes
@@ -831,13 +1246,13 @@ public class TaulerEscacs{
      */
     private boolean esPossibleAnarDesti(Posicio origen, Posicio desti, Moviment mov) {
         boolean arribaDesti = false;
-        Peca pecaOrigen = _tauler[_fila + 1 - origen.fila()][origen.columna()];
-        Peca pecaDesti = _tauler[_fila + 1 - desti.fila()][desti.columna()];
+        int pecaOrigen = codi(origen);
+        int pecaDesti = codi(desti);
         int movCapturaDesti = mov.movCaptura(); //capacitat de capturar a destí.
-        boolean movNoCaptura = (movCapturaDesti == 0 && pecaDesti != null); //cert si moviment no permet capturar a destí però hi ha una peça
-        boolean noPotCapturar = (pecaDesti != null && (movCapturaDesti == 1 || movCapturaDesti == 2) && pecaDesti.color() == pecaOrigen.color()); // cert si pot capturar a destí pero la peça és del mateix jugador
-        boolean capturarOblig = (movCapturaDesti == 2 && pecaDesti == null); //cert si la peça obligatòriament ha de capturar a destí però no hi ha peça
-        boolean capturarInvulnerable = (pecaDesti != null && pecaDesti.esInvulnerable() && (movCapturaDesti == 2 || movCapturaDesti == 1)); //cert si la peça l'hauria de capturar a destí però l'enemic és invulnerable
+        boolean movNoCaptura = (movCapturaDesti == 0 && pecaDesti != 0); //cert si moviment no permet capturar a destí però hi ha una peça
+        boolean noPotCapturar = (pecaDesti != 0 && (movCapturaDesti == 1 || movCapturaDesti == 2) && color(pecaDesti) == color(pecaOrigen)); // cert si pot capturar a destí pero la peça és del mateix jugador
+        boolean capturarOblig = (movCapturaDesti == 2 && pecaDesti == 0); //cert si la peça obligatòriament ha de capturar a destí però no hi ha peça
+        boolean capturarInvulnerable = (pecaDesti != 0 && tipus(pecaDesti).esInvulnerable() && (movCapturaDesti == 2 || movCapturaDesti == 1)); //cert si la peça l'hauria de capturar a destí però l'enemic és invulnerable
         //si no es compleix cap dels casos comentats...
         if(!(movNoCaptura || noPotCapturar || capturarOblig || capturarInvulnerable)){
             arribaDesti = true;
@@ -846,7 +1261,7 @@ public class TaulerEscacs{
                 boolean existeixPeca = false;
                 Posicio posActual = seguentPosicio(origen, desti);
                 while (!existeixPeca && !posActual.equals(desti)) { //mentre no s'arriba al desti i no es troba cap peça en el trajecte
-                    if (_tauler[_fila + 1 - posActual.fila()][posActual.columna()] != null)
+                    if (codi(posActual) != 0)
                         existeixPeca = true;
                     posActual = seguentPosicio(posActual, desti);
                 }
@@ -869,19 +1284,19 @@ public class TaulerEscacs{
     private boolean esPossibleEnroc(Posicio posPecaA, Posicio posPecaB, Enroc enroc) {
         boolean esValid = false;
         if (Math.abs(posPecaB.columna() - posPecaA.columna()) > 1) { //com a mínim hi ha d'haver dos espais
-            Peca pecaA = _tauler[_fila + 1 - posPecaA.fila()][posPecaA.columna()];
-            Peca pecaB = _tauler[_fila + 1 - posPecaB.fila()][posPecaB.columna()];
-            if ((enroc.quiets() && !pecaA.esMoguda() && !pecaB.esMoguda()) || !enroc.quiets()) { //es compleix la condició de quiets, si cal
+            int pecaA = codi(posPecaA);
+            int pecaB = codi(posPecaB);
+            if ((enroc.quiets() && !moguda(pecaA) && !moguda(pecaB)) || !enroc.quiets()) { //es compleix la condició de quiets, si cal
                 Pair<Posicio, Posicio> novesPos = posicionsFinalEnroc(posPecaA, posPecaB); //posicions finals dels enrocs
-                Peca existeixPecaA = _tauler[_fila + 1 - novesPos.first.fila()][novesPos.first.columna()];
-                Peca existeixPecaB = _tauler[_fila + 1 - novesPos.second.fila()][novesPos.second.columna()];
-                if (existeixPecaA == null && existeixPecaB == null) {//si no hi ha cap peça als llocs on aniran les peces de l'enroc...
+                int existeixPecaA = codi(novesPos.first);
+                int existeixPecaB = codi(novesPos.second);
+                if (existeixPecaA == 0 && existeixPecaB == 0) {//si no hi ha cap peça als llocs on aniran les peces de l'enroc...
                     esValid = true;
                     if (enroc.buitAlMig()) { //es dona la condició de buit al mig
                         boolean hiHaPeces = false;
                         Posicio posActual = seguentPosicio(posPecaA, posPecaB);
                         while (!hiHaPeces && !posActual.equals(posPecaB)) { //cerca per trobar una peça entre les posicions de l'enroc
-                            if (_tauler[_fila + 1 - posActual.fila()][posActual.columna()] != null)
+                            if (codi(posActual) != 0)
                                 hiHaPeces = true;
                             posActual = seguentPosicio(posActual, posPecaB);
                         }
@@ -893,6 +1308,56 @@ public class TaulerEscacs{
         return esValid;
     }
 
+    /**
+     * @brief   Retorna el codi de la peça que hi ha a la fila \p i (comptant des de dalt) i la columna \p j, o 0 si és buida.
+     */
+    private int codi(int i, int j) {
+        return _tauler[i * (_columna + 1) + j];
+    }
+
+    /**
+     * @brief   Retorna el codi de la peça que hi ha a la posició \p pos, o 0 si és buida.
+     * @pre     \p pos existeix al tauler.
+     */
+    private int codi(Posicio pos) {
+        return _tauler[(_fila + 1 - pos.fila()) * (_columna + 1) + pos.columna()];
+    }
+
+    /**
+     * @brief   Col·loca a la posició \p pos la peça amb codi \p codi (0 per deixar-la buida).
+     * @pre     \p pos existeix al tauler.
+     */
+    private void assignarCodi(Posicio pos, int codi) {
+        _tauler[(_fila + 1 - pos.fila()) * (_columna + 1) + pos.columna()] = (byte) codi;
+        if (codi != 0)
+            _ocupacio.afegir(Bitboard256.index(pos));
+        else
+            _ocupacio.treure(Bitboard256.index(pos));
+    }
+
+    /** @brief Barreja els bits de \p x (finalitzador de SplitMix64), per obtenir la clau d'una casella i un codi. */
+    private static long barrejar(long x) {
+        x += 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /** @brief Retorna el tipus de la peça amb codi \p codi, que no pot ser 0. */
+    private PieceType tipus(int codi) {
+        return _tipus[(codi & Peca.MASCARA_TIPUS) - 1];
+    }
+
+    /** @brief Retorna el color de la peça amb codi \p codi. */
+    private static int color(int codi) {
+        return (codi & Peca.BIT_COLOR) != 0 ? 1 : 0;
+    }
+
+    /** @brief Retorna cert si la peça amb codi \p codi s'ha mogut. */
+    private static boolean moguda(int codi) {
+        return (codi & Peca.BIT_MOGUDA) != 0;
+    }
+
     /**
      * @brief   Retorna la posició següent a \p posActual per intentar arribar a \p posFinal.
      * @pre     \p posActual i \p posFinal han d'estar a la mateixa diagonal, fila o columna.
@@ -979,4 +1444,41 @@ public class TaulerEscacs{
         Posicio novaPosB = new Posicio(novaPosA.columna() + incr, fila);
         return new Pair<>(novaPosA, novaPosB);
     }
-}
\ No newline at end of file
+
+    /**
+     * @class CalculDestins
+     * @brief Tasca que calcula en paral·lel els destins d'un interval de peces d'un tauler, dividint-lo per la meitat mentre tingui més
+     *        de PECES_PER_TASCA peces.
+     * @details Cada tasca prova els destins sobre la seva pròpia còpia del tauler (veure destinsPeces()), de manera que les tasques no
+     *          comparteixen cap estat modificable.
+     */
+    private static final class CalculDestins extends RecursiveTask<Map<Posicio,Map<Posicio,Moviment>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final TaulerEscacs _t;              ///< Tauler del qual es calculen els destins.
+        private final List<Posicio> _posicions;     ///< Posicions de totes les peces del tauler.
+        private final List<List<Bitboard256>> _atacs; ///< Amenaces sobre cada rei, veure atacsRei().
+        private final int _inici;                   ///< Índex de la primera peça de l'interval.
+        private final int _fi;                      ///< Índex següent a l'última peça de l'interval.
+
+        CalculDestins(TaulerEscacs t, List<Posicio> posicions, List<List<Bitboard256>> atacs, int inici, int fi) {
+            _t = t;
+            _posicions = posicions;
+            _atacs = atacs;
+            _inici = inici;
+            _fi = fi;
+        }
+
+        @Override
+        protected Map<Posicio,Map<Posicio,Moviment>> compute() {
+            if (_fi - _inici <= PECES_PER_TASCA)
+                return _t.destinsPeces(_posicions, _atacs, _inici, _fi);
+            int mig = (_inici + _fi) >>> 1;
+            CalculDestins esquerra = new CalculDestins(_t, _posicions, _atacs, _inici, mig);
+            esquerra.fork();
+            Map<Posicio,Map<Posicio,Moviment>> destins = new CalculDestins(_t, _posicions, _atacs, mig, _fi).compute();
+            destins.putAll(esquerra.join());
+            return destins;
+        }
+    }
+}
@@ -0,0 +1,876 @@
+/**
+ * @file TaulesFinals.java
+ * @brief Taules de finals amb poques peces calculades per anàlisi retrògrada.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * @class TaulesFinals
+ * @brief Conjunt de taules de finals d'unes regles. Cada taula conté, per a totes les posicions amb dos reis i unes
+ *        mateixes peces (la seva signatura), si el jugador que té el torn guanya, perd o fa taules i, si guanya o
+ *        perd, en quantes tirades arriba l'escac i mat amb joc perfecte.
+ * @details Les taules es generen amb generar() a partir dels moviments de les peces de les regles, sense cap
+ *          heurística: es calculen les jugades legals de cada posició i es resolen per rondes, començant pels escacs
+ *          i mat. Les jugades no es guarden: es tornen a generar quan calen sobre un únic tauler de proves per fil, de
+ *          manera que cada posició només ocupa uns quants bytes durant la generació. Les captures porten a taules amb
+ *          menys peces, que es generen abans. Les promocions surten de la taula i es consideren desconegudes, de
+ *          manera que els resultats guardats sempre són exactes però algunes posicions poden quedar sense resoldre.
+ *          Es considera que totes les peces ja s'han mogut (sense moviments inicials ni enrocs) i no es té en compte
+ *          el límit de torns sense captures.
+ *
+ *          Cada taula es guarda en un fitxer \c <resumRegles>_<signatura>.taula amb una capçalera i un valor per
+ *          posició empaquetat en el mínim nombre de bits: 0 si és desconegut o la posició no és legal, 1 si són
+ *          taules i 2 + \a d si s'arriba a l'escac i mat en \a d tirades (el jugador que té el torn guanya si \a d és
+ *          senar i perd si és parell). Per consultar-les els fitxers es projecten a memòria.
+ *
+ *          La CPU consulta les taules de les regles de la partida que es troben al directori indicat per la
+ *          propietat del sistema \c escacs.taulesFinals.
+ */
+public final class TaulesFinals {
+    public static final String PROPIETAT_TAULES = "escacs.taulesFinals";  ///< Propietat amb el directori de les taules.
+    public static final String EXTENSIO = ".taula";     ///< Extensió dels fitxers de taula.
+    public static final int MAX_PECES = 2;              ///< Nombre màxim de peces, a part dels reis, d'una taula.
+    public static final int DESCONEGUT = 0;             ///< Valor d'una posició desconeguda o no legal.
+    public static final int TAULES = 1;                 ///< Valor d'una posició de taules.
+    private static final int MAGIC = 0x4554464E;        ///< Identificador dels fitxers de taula ("ETFN").
+    private static final int VERSIO = 1;                ///< Versió del format.
+    private static final int NO_RESOLTA = -1;           ///< Distància d'una posició encara no resolta.
+    private static final int SENSE_DISTANCIA = -2;      ///< Distància d'una posició de taules o desconeguda.
+    private static final int NO_LEGAL = -3;             ///< Distància d'una posició no legal.
+    private static final ConcurrentHashMap<String,Optional<TaulesFinals>> _conjunts = new ConcurrentHashMap<>();
+        ///< Conjunts de taules oberts per perRegles(), indexats pel resum de les regles.
+
+    private final String _resumRegles;      ///< Resum de les regles de les taules.
+    private final File _directori;          ///< Directori dels fitxers de taula.
+    private final ConcurrentHashMap<String,Optional<Taula>> _taules = new ConcurrentHashMap<>();
+        ///< Taules obertes, indexades per signatura.
+
+    /**
+     * @class Taula
+     * @brief Valors de totes les posicions d'una signatura, projectats a memòria.
+     * @details L'índex d'una posició es calcula amb el torn, la casella de cada rei i la casella de cada peça de la
+     *          signatura, en aquest ordre, amb tantes possibilitats per casella com caselles té el tauler.
+     */
+    static final class Taula {
+        private final String _signatura;    ///< Signatura de la taula.
+        private final ByteBuffer _dades;    ///< Valors empaquetats.
+        private final int _bits;            ///< Bits de cada valor.
+        private final int _distanciaMaxima; ///< Distància més llarga fins a l'escac i mat.
+
+        /**
+         * @brief Constructor amb paràmetres.
+         * @pre \p dades conté els valors empaquetats a partir de la posició 0.
+         */
+        private Taula(String signatura, ByteBuffer dades, int bits, int distanciaMaxima) {
+            _signatura = signatura;
+            _dades = dades;
+            _bits = bits;
+            _distanciaMaxima = distanciaMaxima;
+        }
+
+        /** @brief Signatura de la taula. */
+        String signatura() {
+            return _signatura;
+        }
+
+        /** @brief Distància més llarga fins a l'escac i mat de la taula. */
+        int distanciaMaxima() {
+            return _distanciaMaxima;
+        }
+
+        /**
+         * @brief Valor d'una posició.
+         * @pre 0 <= \p index < nombre de posicions de la taula.
+         * @return DESCONEGUT, TAULES o 2 + la distància fins a l'escac i mat.
+         */
+        int valor(long index) {
+            long bit = index * _bits;
+            int paraula = (int) (bit >>> 6);
+            int desplacament = (int) (bit & 63);
+            long valor = _dades.getLong(paraula * 8) >>> desplacament;
+            if (desplacament + _bits > 64)
+                valor |= _dades.getLong((paraula + 1) * 8) << (64 - desplacament);
+            return (int) (valor & ((1L << _bits) - 1));
+        }
+    }
+
+    /**
+     * @brief Constructor amb paràmetres.
+     */
+    private TaulesFinals(String resumRegles, File directori) {
+        _resumRegles = resumRegles;
+        _directori = directori;
+    }
+
+    /**
+     * @brief Taules de finals d'unes regles.
+     * @pre \p resumRegles != null
+     * @post La primera consulta d'unes regles crea el conjunt de taules del directori indicat per la propietat del
+     *       sistema \c escacs.taulesFinals. Les consultes següents retornen el mateix conjunt.
+     * @param resumRegles Resum del fitxer de regles (veure RuleSet::resum()).
+     * @return Les taules de les regles, o null si la propietat no està definida.
+     */
+    public static TaulesFinals perRegles(String resumRegles) {
+        Optional<TaulesFinals> taules = _conjunts.get(resumRegles);
+        if (taules == null) {
+            String directori = System.getProperty(PROPIETAT_TAULES);
+            taules = directori == null || directori.isEmpty() ? Optional.empty()
+                   : Optional.of(new TaulesFinals(resumRegles, new File(directori)));
+            Optional<TaulesFinals> previ = _conjunts.putIfAbsent(resumRegles, taules);
+            if (previ != null) taules = previ;
+        }
+        return taules.orElse(null);
+    }
+
+    /**
+     * @brief Oblida les taules obertes.
+     * @post Les properes consultes de perRegles() tornaran a llegir la propietat i els fitxers.
+     */
+    public static void buidarCache() {
+        _conjunts.clear();
+    }
+
+    /**
+     * @brief Valor d'una posició.
+     * @pre \p t és un tauler amb les regles d'aquestes taules i 0 <= \p torn <= 1.
+     * @post Si el tauler té com a molt MAX_PECES peces a part dels reis, totes s'han mogut o no tenen moviments
+     *       inicials ni enrocs, i existeix la taula de la seva signatura, es retorna el valor de la posició per a
+     *       \p torn. No es modifica el tauler.
+     * @param t Tauler que es vol consultar.
+     * @param torn Jugador que té el torn.
+     * @return DESCONEGUT, TAULES o 2 + la distància fins a l'escac i mat.
+     */
+    public int consultar(TaulerEscacs t, int torn) {
+        if (t.nombrePeces() > MAX_PECES + 2) return DESCONEGUT;
+        List<Pair<Posicio,Peca>> peces = pecesTauler(t);
+        if (peces == null) return DESCONEGUT;
+        for (Pair<Posicio,Peca> p : peces) {
+            Peca peca = p.second;
+            if (!peca.esMoguda() && (!peca.tipus().movimentsInicials().isEmpty() || peca.potEnrocar()))
+                return DESCONEGUT;
+        }
+        Taula taula = taula(signatura(peces));
+        return taula == null ? DESCONEGUT : taula.valor(index(t, torn, peces));
+    }
+
+    /**
+     * @brief Indica si el jugador que té el torn guanya.
+     * @pre \p valor és un valor retornat per consultar() diferent de DESCONEGUT i de TAULES.
+     */
+    public static boolean guanya(int valor) {
+        return ((valor - 2) & 1) == 1;
+    }
+
+    /**
+     * @brief Distància fins a l'escac i mat.
+     * @pre \p valor és un valor retornat per consultar() diferent de DESCONEGUT i de TAULES.
+     * @return El nombre de tirades fins a l'escac i mat amb joc perfecte.
+     */
+    public static int distancia(int valor) {
+        return valor - 2;
+    }
+
+    /**
+     * @brief Generar les taules de finals d'una signatura.
+     * @pre \p fitxerRegles és un fitxer de regles vàlid, \p pecesBlanques i \p pecesNegres són noms de peces de les
+     *      regles diferents de "REI" i entre totes n'hi ha com a molt MAX_PECES. \p fils > 0.
+     * @post S'han escrit a \p directori la taula de la signatura de les peces i les de totes les signatures que
+     *       s'hi poden arribar capturant peces, llevat de les que ja existien.
+     * @param fitxerRegles Fitxer de regles.
+     * @param pecesBlanques Noms de les peces de blanques a part del rei.
+     * @param pecesNegres Noms de les peces de negres a part del rei.
+     * @param directori Directori on s'escriuen les taules.
+     * @param fils Nombre de fils que calculen alhora.
+     * @return La signatura de la taula generada.
+     * @throws IOException Si no es pot llegir el fitxer de regles o escriure alguna taula.
+     * @throws IllegalArgumentException Si les peces no són correctes o la taula té massa posicions.
+     * @throws CancellationException Si s'interromp el fil.
+     */
+    public static String generar(String fitxerRegles, List<String> pecesBlanques, List<String> pecesNegres,
+                                 String directori, int fils) throws IOException {
+        if (pecesBlanques.size() + pecesNegres.size() > MAX_PECES)
+            throw new IllegalArgumentException("Error: una taula pot tenir com a molt " + MAX_PECES + " peces");
+        RuleSet regles = RuleSet.obtenir(fitxerRegles);
+        List<Pair<Integer,String>> peces = new ArrayList<>();
+        for (String nom : pecesBlanques) peces.add(new Pair<>(0, nom));
+        for (String nom : pecesNegres) peces.add(new Pair<>(1, nom));
+        for (Pair<Integer,String> p : peces) {
+            PieceType tipus = regles.peces().get(p.second);
+            if (tipus == null || tipus.esRei())
+                throw new IllegalArgumentException("Error: la peça " + p.second + " no és vàlida");
+        }
+        ordenar(peces);
+
+        TaulesFinals taules = new TaulesFinals(regles.resum(), new File(directori));
+        ForkJoinPool pool = new ForkJoinPool(fils);
+        try {
+            taules.generar(regles, peces, pool);
+        } finally {
+            pool.shutdown();
+        }
+        return signaturaPeces(peces);
+    }
+
+    /**
+     * @brief Generar una taula i les taules de les signatures a què s'arriba capturant.
+     * @pre \p peces està ordenada amb ordenar().
+     * @post Existeixen els fitxers de totes aquestes taules.
+     * @return La taula de \p peces.
+     */
+    private Taula generar(RuleSet regles, List<Pair<Integer,String>> peces, ForkJoinPool pool) throws IOException {
+        String signatura = signaturaPeces(peces);
+        Taula taula = taula(signatura);
+        if (taula != null) return taula;
+
+        Map<String,Taula> subtaules = new HashMap<>();
+        for (int i = 0; i < peces.size(); i++) {
+            List<Pair<Integer,String>> resta = new ArrayList<>(peces);
+            resta.remove(i);
+            Taula sub = generar(regles, resta, pool);
+            subtaules.put(sub.signatura(), sub);
+        }
+
+        System.out.println("Generant la taula " + signatura + "...");
+        new Generador(regles, peces, subtaules, pool).generar(fitxer(signatura));
+        _taules.remove(signatura);
+        return taula(signatura);
+    }
+
+    /**
+     * @class Generador
+     * @brief Càlcul dels valors de totes les posicions d'una signatura.
+     * @details Les caselles de les peces d'una posició s'obtenen del seu índex (veure caselles()) i les posicions a què
+     *          porten les seves jugades es calculen cada vegada que calen (veure successores()). Per no tornar a mirar
+     *          totes les posicions a cada ronda, només es miren les candidates: les que poden arribar amb una jugada a
+     *          alguna posició resolta a la ronda anterior, que es calculen a partir de l'índex movent una peça a
+     *          cada casella buida (veure marcarAnteriors()), i les que tenen jugades que surten de la taula amb la
+     *          distància de la ronda.
+     */
+    private class Generador {
+        private final RuleSet _regles;                      ///< Regles de la taula.
+        private final List<Pair<Integer,String>> _peces;    ///< Color i nom de les peces de la signatura.
+        private final String _signatura;                    ///< Signatura de la taula.
+        private final Map<String,Taula> _subtaules;         ///< Taules de les signatures amb una peça menys.
+        private final ForkJoinPool _pool;                   ///< Fils que calculen.
+        private final int _caselles;                        ///< Caselles del tauler.
+        private final int _posicions;                       ///< Nombre de posicions de la taula.
+        private final Posicio[] _posicionsCaselles;         ///< Posició del tauler de cada casella.
+        private final byte[] _codisPeces;                   ///< Codi de cada rei i cada peça, en l'ordre de l'índex.
+        private final ThreadLocal<TaulerEscacs> _proves;    ///< Tauler de proves de cada fil.
+        private final boolean _enrocs;                      /**< Cert si dues peces d'un mateix color poden enrocar
+                                                                 sense estar quietes. Llavors una jugada en pot moure
+                                                                 dues i totes les posicions són candidates. */
+        private final int[] _distancies;                    ///< Distància fins a l'escac i mat de cada posició.
+        private final int[] _rondesSortida;                 /**< Ronda en què les jugades que surten de la taula
+                                                                 poden resoldre cada posició, o 0. */
+        private final boolean[] _desconegudes;              ///< Posicions no resoltes que depenen d'una desconeguda.
+        private boolean[] _candidates;                      ///< Posicions candidates de la ronda actual.
+        private boolean[] _seguents;                        ///< Posicions candidates de la ronda següent.
+
+        /**
+         * @brief Constructor amb paràmetres.
+         * @throws IllegalArgumentException Si la taula té massa posicions.
+         */
+        Generador(RuleSet regles, List<Pair<Integer,String>> peces, Map<String,Taula> subtaules, ForkJoinPool pool) {
+            _regles = regles;
+            _peces = peces;
+            _signatura = signaturaPeces(peces);
+            _subtaules = subtaules;
+            _pool = pool;
+            _caselles = regles.files() * regles.columnes();
+            long posicions = 2;
+            for (int i = 0; i < peces.size() + 2; i++) posicions *= _caselles;
+            if (posicions > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("Error: la taula " + _signatura + " té massa posicions");
+            _posicions = (int) posicions;
+            _posicionsCaselles = new Posicio[_caselles];
+            for (int c = 0; c < _caselles; c++)
+                _posicionsCaselles[c] = posicio(c);
+            _codisPeces = new byte[peces.size() + 2];
+            _codisPeces[0] = (byte) peca("REI", 0).codi();
+            _codisPeces[1] = (byte) peca("REI", 1).codi();
+            for (int i = 0; i < peces.size(); i++)
+                _codisPeces[i + 2] = (byte) peca(peces.get(i).second, peces.get(i).first).codi();
+            _proves = ThreadLocal.withInitial(() -> new TaulerEscacs(regles.files(), regles.columnes(),
+                    regles.peces().values(), regles.resum()));
+            boolean enrocs = false;
+            for (Enroc e : regles.enrocs())
+                for (int i = 0; i < _codisPeces.length; i++)
+                    for (int j = 0; j < _codisPeces.length; j++)
+                        if (i != j && !e.quiets() && color(i) == color(j) && nom(i).equals(e.primeraPeca())
+                                && nom(j).equals(e.segonaPeca()))
+                            enrocs = true;
+            _enrocs = enrocs;
+            _distancies = new int[_posicions];
+            _rondesSortida = new int[_posicions];
+            _desconegudes = new boolean[_posicions];
+            _candidates = new boolean[_posicions];
+            _seguents = new boolean[_posicions];
+        }
+
+        /**
+         * @brief Calcular la taula i escriure-la.
+         * @post S'ha escrit la taula a \p fitxer.
+         */
+        void generar(File fitxer) throws IOException {
+            enParallel(this::classificar);
+
+            // Resoldre per rondes: a la ronda r es resolen les posicions a r tirades de l'escac i mat
+            int distanciaExterna = 0;
+            for (Taula sub : _subtaules.values())
+                distanciaExterna = Math.max(distanciaExterna, sub.distanciaMaxima());
+            Arrays.fill(_candidates, true);
+            AtomicBoolean canvis = new AtomicBoolean(true);
+            int ronda = 0;
+            while (canvis.get() || ronda <= distanciaExterna + 1) {
+                canvis.set(false);
+                int r = ++ronda;
+                enParallel(i -> {
+                    if (_distancies[i] == NO_RESOLTA && (candidata(i) || _rondesSortida[i] == r) && resoldre(i, r)) {
+                        _distancies[i] = r;
+                        marcarAnteriors(i);
+                        canvis.set(true);
+                    }
+                });
+                seguentRonda();
+            }
+
+            // Les posicions no resoltes són taules si no depenen de cap jugada desconeguda
+            Arrays.fill(_candidates, true);
+            canvis.set(true);
+            while (canvis.get()) {
+                canvis.set(false);
+                enParallel(i -> {
+                    if (_distancies[i] == NO_RESOLTA && !_desconegudes[i] && candidata(i) && depenDeDesconeguda(i)) {
+                        _desconegudes[i] = true;
+                        marcarAnteriors(i);
+                        canvis.set(true);
+                    }
+                });
+                seguentRonda();
+            }
+
+            escriure(fitxer, ronda);
+        }
+
+        /**
+         * @brief Classificar una posició.
+         * @post La posició \p index té la distància NO_LEGAL si no és legal, 0 si és escac i mat, SENSE_DISTANCIA
+         *       si el jugador que té el torn no té cap jugada sense estar en escac, i NO_RESOLTA altrament. En aquest
+         *       cas, _rondesSortida conté la ronda en què les jugades que surten de la taula la poden resoldre: la
+         *       següent a la sortida perduda més curta per guanyar, o la següent a la sortida guanyada més llarga si
+         *       totes les sortides són guanyades pel contrari.
+         */
+        private void classificar(int index) {
+            int torn = index / (_posicions / 2);
+            TaulerEscacs t = colocar(index);
+            _distancies[index] = NO_LEGAL;
+            if (t == null) return;
+
+            // El rei del jugador que no té el torn no pot estar amenaçat
+            TaulerEscacs.resTauler reiContrari = t.estatActual(torn);
+            if (reiContrari == TaulerEscacs.resTauler.ESCAC || reiContrari == TaulerEscacs.resTauler.ESCAC_MAT)
+                return;
+
+            int[] successores = successores(t, torn);
+            if (successores.length == 0) {
+                TaulerEscacs.resTauler reiPropi = t.estatActual(torn == 0 ? 1 : 0);
+                boolean mat = reiPropi == TaulerEscacs.resTauler.ESCAC || reiPropi == TaulerEscacs.resTauler.ESCAC_MAT;
+                _distancies[index] = mat ? 0 : SENSE_DISTANCIA;
+                return;
+            }
+            _distancies[index] = NO_RESOLTA;
+
+            int perduda = Integer.MAX_VALUE;
+            int guanyada = -1;
+            boolean totesGuanyades = true;
+            for (int s : successores) {
+                if (s >= 0) continue;
+                int d = -1 - s - 2;
+                if (d < 0) totesGuanyades = false;
+                else if ((d & 1) == 0) perduda = Math.min(perduda, d);
+                else guanyada = Math.max(guanyada, d);
+            }
+            if (perduda != Integer.MAX_VALUE) _rondesSortida[index] = perduda + 1;
+            else if (totesGuanyades && guanyada >= 0) _rondesSortida[index] = guanyada + 1;
+        }
+
+        /**
+         * @brief Indica si una posició és candidata a la ronda actual.
+         */
+        private boolean candidata(int index) {
+            return _enrocs || _candidates[canonica(index / (_posicions / 2), caselles(index))];
+        }
+
+        /**
+         * @brief Marcar les posicions que poden arribar a una posició amb una jugada com a candidates de la ronda
+         *        següent.
+         * @post S'han marcat totes les posicions de la taula que s'obtenen movent una peça del jugador que no té el
+         *       torn a \p index a una casella buida, amb el torn d'aquest jugador. Les jugades dins la taula no
+         *       capturen ni promocionen i, sense _enrocs, només mouen una peça.
+         */
+        private void marcarAnteriors(int index) {
+            if (_enrocs) return;
+            int anterior = index / (_posicions / 2) == 0 ? 1 : 0;
+            int[] caselles = caselles(index);
+            boolean[] ocupades = new boolean[_caselles];
+            for (int c : caselles) ocupades[c] = true;
+            for (int k = 0; k < caselles.length; k++) {
+                if (color(k) != anterior) continue;
+                int[] anteriors = caselles.clone();
+                for (int c = 0; c < _caselles; c++) {
+                    if (ocupades[c]) continue;
+                    anteriors[k] = c;
+                    _seguents[canonica(anterior, anteriors.clone())] = true;
+                }
+            }
+        }
+
+        /**
+         * @brief Passar a la ronda següent.
+         * @post Les candidates de la ronda actual són les marcades per la ronda següent, i no n'hi ha cap de marcada.
+         */
+        private void seguentRonda() {
+            boolean[] candidates = _candidates;
+            _candidates = _seguents;
+            _seguents = candidates;
+            Arrays.fill(_seguents, false);
+        }
+
+        /**
+         * @brief Índex canònic d'una posició.
+         * @post Es retorna l'índex de la posició amb les caselles de les peces iguals ordenades, com el que calcula
+         *       successora(). \p caselles queda ordenat d'aquesta manera.
+         */
+        private int canonica(int torn, int[] caselles) {
+            for (int i = 3; i < caselles.length; i++)
+                for (int j = i; j > 2 && _codisPeces[j] == _codisPeces[j - 1] && caselles[j] < caselles[j - 1]; j--) {
+                    int c = caselles[j];
+                    caselles[j] = caselles[j - 1];
+                    caselles[j - 1] = c;
+                }
+            int res = torn;
+            for (int c : caselles) res = res * _caselles + c;
+            return res;
+        }
+
+        /**
+         * @brief Color del rei o la peça \p k de l'índex.
+         */
+        private int color(int k) {
+            return k < 2 ? k : _peces.get(k - 2).first;
+        }
+
+        /**
+         * @brief Nom del rei o la peça \p k de l'índex.
+         */
+        private String nom(int k) {
+            return k < 2 ? "REI" : _peces.get(k - 2).second;
+        }
+
+        /**
+         * @brief Col·locar una posició al tauler de proves del fil.
+         * @return El tauler de proves amb les peces de la posició \p index, o null si dues peces són a la mateixa
+         *         casella.
+         */
+        private TaulerEscacs colocar(int index) {
+            int[] caselles = caselles(index);
+            for (int i = 0; i < caselles.length; i++)
+                for (int j = 0; j < i; j++)
+                    if (caselles[i] == caselles[j]) return null;
+
+            byte[] canvis = new byte[2 * _caselles];
+            for (int c = 0; c < _caselles; c++)
+                canvis[2 * c] = (byte) Bitboard256.index(_posicionsCaselles[c]);
+            for (int i = 0; i < caselles.length; i++)
+                canvis[2 * caselles[i] + 1] = _codisPeces[i];
+            TaulerEscacs t = _proves.get();
+            t.restaurarCaselles(canvis);
+            return t;
+        }
+
+        /**
+         * @brief Posicions a què porten les jugades d'una posició.
+         * @pre La posició \p index és legal.
+         * @return Per cada jugada legal, l'índex de la posició si és d'aquesta taula, o -1 - v si surt de la taula
+         *         amb valor v.
+         */
+        private int[] successores(int index) {
+            return successores(colocar(index), index / (_posicions / 2));
+        }
+
+        /**
+         * @brief Posicions a què porten les jugades del tauler de proves.
+         * @pre \p t és el tauler de proves amb una posició legal i el torn és de \p torn.
+         * @post Es retorna el mateix que successores(int) i \p t torna a tenir la mateixa posició.
+         */
+        private int[] successores(TaulerEscacs t, int torn) {
+            byte[] codis = t.codis();
+            int[] jugades = t.jugadesLegals(torn);
+            int[] res = new int[jugades.length];
+            for (int i = 0; i < jugades.length; i++) {
+                t.aplicarJugada(jugades[i]);
+                res[i] = successora(t, torn == 0 ? 1 : 0);
+                t.assignarCodis(codis);
+            }
+            return res;
+        }
+
+        /**
+         * @brief Posició del tauler de proves després d'una jugada.
+         * @pre \p t és el tauler de proves just després d'aplicar una jugada.
+         * @return L'índex de la posició si és d'aquesta taula, o -1 - v si surt de la taula amb valor v.
+         */
+        private int successora(TaulerEscacs t, int contrincant) {
+            if (t.hiHaPromocio() != null) return -1 - DESCONEGUT;
+
+            // Caselles dels reis i de les altres peces, en l'ordre de pecesTauler()
+            int reiBlanc = -1;
+            int reiNegre = -1;
+            List<int[]> altres = new ArrayList<>();
+            for (int c = 0; c < _caselles; c++) {
+                int codi = t.codiCasella(_posicionsCaselles[c]);
+                if (codi == 0) continue;
+                int color = (codi & Peca.BIT_COLOR) != 0 ? 1 : 0;
+                PieceType tipus = _regles.tipus((codi & Peca.MASCARA_TIPUS) - 1);
+                if (tipus.esRei()) {
+                    if (color == 0 && reiBlanc < 0) reiBlanc = c;
+                    else if (color == 1 && reiNegre < 0) reiNegre = c;
+                    else return -1 - DESCONEGUT;
+                } else {
+                    altres.add(new int[] {color, tipus.id(), c});
+                }
+            }
+            if (reiBlanc < 0 || reiNegre < 0) return -1 - DESCONEGUT;
+            altres.sort(Comparator.comparingInt((int[] p) -> p[0])
+                    .thenComparing(p -> _regles.tipus(p[1]).nom()));
+
+            long index = (contrincant * _caselles + reiBlanc) * (long) _caselles + reiNegre;
+            for (int[] p : altres) index = index * _caselles + p[2];
+            if (altres.size() == _peces.size()) return (int) index; //sense captures, la signatura no canvia
+
+            List<Pair<Integer,String>> peces = new ArrayList<>();
+            for (int[] p : altres) peces.add(new Pair<>(p[0], _regles.tipus(p[1]).nom()));
+            Taula sub = _subtaules.get(signaturaPeces(peces));
+            return -1 - (sub == null ? DESCONEGUT : sub.valor(index));
+        }
+
+        /**
+         * @brief Indica si una posició es resol a la ronda \p r.
+         * @pre La posició \p index no està resolta i totes les posicions a menys de \p r tirades ja ho estan.
+         * @return Si \p r és senar, cert si alguna jugada porta a una posició perduda a \p r - 1 tirades. Si \p r és
+         *         parell, cert si totes les jugades porten a posicions guanyades a menys de \p r tirades.
+         */
+        private boolean resoldre(int index, int r) {
+            boolean guanya = (r & 1) == 1;
+            for (int s : successores(index)) {
+                int d = s >= 0 ? _distancies[s] : -1 - s - 2;
+                if (guanya && d == r - 1) return true;
+                if (!guanya && (d < 0 || d >= r || (d & 1) == 0)) return false;
+            }
+            return !guanya;
+        }
+
+        /**
+         * @brief Indica si alguna jugada d'una posició porta a una posició desconeguda.
+         */
+        private boolean depenDeDesconeguda(int index) {
+            for (int s : successores(index))
+                if (s >= 0 ? _desconegudes[s] : -1 - s == DESCONEGUT) return true;
+            return false;
+        }
+
+        /**
+         * @brief Escriure la taula.
+         * @pre Totes les posicions estan resoltes o marcades com a desconegudes.
+         * @post S'ha escrit el fitxer amb la capçalera i els valors empaquetats.
+         */
+        private void escriure(File fitxer, int rondes) throws IOException {
+            int distanciaMaxima = 0;
+            for (int d : _distancies) distanciaMaxima = Math.max(distanciaMaxima, d);
+            int bits = 64 - Long.numberOfLeadingZeros(distanciaMaxima + 2);
+
+            File temporal = new File(fitxer.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temporal)))) {
+                escriureCapcalera(out, _regles, _signatura, bits, distanciaMaxima, _posicions);
+                long paraula = 0;
+                int ple = 0;
+                for (int i = 0; i < _posicions; i++) {
+                    long valor = valorFinal(i);
+                    paraula |= valor << ple;
+                    ple += bits;
+                    if (ple >= 64) {
+                        out.writeLong(paraula);
+                        ple -= 64;
+                        paraula = ple == 0 ? 0 : valor >>> (bits - ple);
+                    }
+                }
+                if (ple > 0) out.writeLong(paraula);
+                out.writeLong(0);
+            }
+            if (!temporal.renameTo(fitxer)) {
+                temporal.delete();
+                throw new IOException("Error: no s'ha pogut escriure la taula " + fitxer.getName());
+            }
+            System.out.println("Taula " + _signatura + ": " + _posicions + " posicions, " + rondes + " rondes, " +
+                    "escac i mat en " + distanciaMaxima + " tirades com a molt");
+        }
+
+        /**
+         * @brief Valor que es guarda per una posició.
+         */
+        private int valorFinal(int index) {
+            int d = _distancies[index];
+            if (d >= 0) return 2 + d;
+            if (d == NO_LEGAL || _desconegudes[index]) return DESCONEGUT;
+            return TAULES;
+        }
+
+        /**
+         * @brief Caselles dels reis i de les peces d'una posició.
+         */
+        private int[] caselles(int index) {
+            int[] res = new int[_peces.size() + 2];
+            for (int i = res.length - 1; i >= 0; i--) {
+                res[i] = index % _caselles;
+                index /= _caselles;
+            }
+            return res;
+        }
+
+        /**
+         * @brief Posició del tauler d'una casella numerada per files des de baix.
+         */
+        private Posicio posicio(int casella) {
+            return new Posicio(casella % _regles.columnes() + 1, casella / _regles.columnes() + 1);
+        }
+
+        /**
+         * @brief Peça moguda d'un tipus i un color.
+         */
+        private Peca peca(String nom, int color) {
+            Peca p = new Peca(_regles.peces().get(nom));
+            p.assignarColor(color);
+            p.actualitzarMoguda();
+            return p;
+        }
+
+        /**
+         * @brief Executar una acció per cada posició de la taula amb els fils del generador.
+         * @throws CancellationException Si s'interromp el fil.
+         */
+        private void enParallel(IntConsumer accio) {
+            OientProgres.comprovarCancellacio();
+            try {
+                _pool.submit(() -> IntStream.range(0, _posicions).parallel().forEach(accio)).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Generació interrompuda");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @brief Taula d'una signatura.
+     * @return La taula, o null si no existeix o no es pot fer servir.
+     */
+    private Taula taula(String signatura) {
+        Optional<Taula> taula = _taules.get(signatura);
+        if (taula == null) {
+            taula = Optional.ofNullable(obrir(fitxer(signatura), signatura));
+            Optional<Taula> previ = _taules.putIfAbsent(signatura, taula);
+            if (previ != null) taula = previ;
+        }
+        return taula.orElse(null);
+    }
+
+    /**
+     * @brief Fitxer d'una signatura.
+     */
+    private File fitxer(String signatura) {
+        return new File(_directori, _resumRegles + "_" + signatura + EXTENSIO);
+    }
+
+    /**
+     * @brief Escriure la capçalera d'un fitxer de taula.
+     */
+    private static void escriureCapcalera(DataOutputStream out, RuleSet regles, String signatura, int bits,
+                                          int distanciaMaxima, long posicions) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSIO);
+        out.write(regles.resum().getBytes(StandardCharsets.US_ASCII));
+        out.writeByte(regles.files());
+        out.writeByte(regles.columnes());
+        out.writeUTF(signatura);
+        out.writeByte(bits);
+        out.writeInt(distanciaMaxima);
+        out.writeLong(posicions);
+    }
+
+    /**
+     * @brief Obrir un fitxer de taula.
+     * @return La taula projectada a memòria, o null si el fitxer no existeix, no es pot llegir o no correspon a
+     *         aquestes regles i a \p signatura.
+     */
+    private Taula obrir(File fitxer, String signatura) {
+        if (!fitxer.isFile()) return null;
+        try (FileChannel canal = FileChannel.open(Paths.get(fitxer.getPath()), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            byte[] capcalera = capcalera(buffer);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(capcalera));
+            byte[] resum = new byte[64];
+            if (in.readInt() != MAGIC || in.readShort() != VERSIO)
+                throw new IllegalArgumentException("format no vàlid");
+            in.readFully(resum);
+            in.readUnsignedByte();  // files
+            in.readUnsignedByte();  // columnes
+            if (!new String(resum, StandardCharsets.US_ASCII).equals(_resumRegles)
+                    || !in.readUTF().equals(signatura))
+                throw new IllegalArgumentException("no correspon a les regles");
+            int bits = in.readUnsignedByte();
+            int distanciaMaxima = in.readInt();
+            long posicions = in.readLong();
+            int mida = capcalera.length - in.available();
+            long bytes = ((posicions * bits + 63) / 64 + 1) * 8;
+            if (buffer.capacity() != mida + bytes)
+                throw new IllegalArgumentException("fitxer incomplet");
+            buffer.position(mida);
+            return new Taula(signatura, buffer.slice(), bits, distanciaMaxima);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("No s'ha pogut obrir la taula " + fitxer.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @brief Bytes inicials d'un fitxer de taula, que contenen la capçalera.
+     */
+    private static byte[] capcalera(ByteBuffer buffer) {
+        byte[] res = new byte[Math.min(buffer.capacity(), 512)];
+        for (int i = 0; i < res.length; i++)
+            res[i] = buffer.get(i);
+        return res;
+    }
+
+    /**
+     * @brief Peces d'un tauler amb la seva posició.
+     * @return Els dos reis (blanc i negre) seguits de les altres peces ordenades per color, nom i posició, o null si
+     *         falta algun rei o n'hi ha més d'un del mateix color.
+     */
+    private static List<Pair<Posicio,Peca>> pecesTauler(TaulerEscacs t) {
+        Pair<Posicio,Peca> reiBlanc = null;
+        Pair<Posicio,Peca> reiNegre = null;
+        List<Pair<Posicio,Peca>> altres = new ArrayList<>();
+        for (int f = 1; f <= t._fila; f++) {
+            for (int c = 1; c <= t._columna; c++) {
+                Posicio pos = new Posicio(c, f);
+                Peca p = t.solicitarPeca(pos);
+                if (p == null) continue;
+                Pair<Posicio,Peca> entrada = new Pair<>(pos, p);
+                if (p.tipus().esRei()) {
+                    if (p.color() == 0 && reiBlanc == null) reiBlanc = entrada;
+                    else if (p.color() == 1 && reiNegre == null) reiNegre = entrada;
+                    else return null;
+                } else {
+                    altres.add(entrada);
+                }
+            }
+        }
+        if (reiBlanc == null || reiNegre == null) return null;
+        altres.sort(Comparator.comparingInt((Pair<Posicio,Peca> p) -> p.second.color())
+                .thenComparing(p -> p.second.nom()));
+        List<Pair<Posicio,Peca>> res = new ArrayList<>();
+        res.add(reiBlanc);
+        res.add(reiNegre);
+        res.addAll(altres);
+        return res;
+    }
+
+    /**
+     * @brief Índex d'una posició.
+     * @pre \p peces és el resultat de pecesTauler(\p t).
+     */
+    private static long index(TaulerEscacs t, int torn, List<Pair<Posicio,Peca>> peces) {
+        long res = torn;
+        int caselles = t._fila * t._columna;
+        for (Pair<Posicio,Peca> p : peces)
+            res = res * caselles + (p.first.fila() - 1) * t._columna + (p.first.columna() - 1);
+        return res;
+    }
+
+    /**
+     * @brief Signatura de les peces d'un tauler.
+     * @pre \p peces és el resultat de pecesTauler().
+     */
+    private static String signatura(List<Pair<Posicio,Peca>> peces) {
+        List<Pair<Integer,String>> res = new ArrayList<>();
+        for (Pair<Posicio,Peca> p : peces.subList(2, peces.size()))
+            res.add(new Pair<>(p.second.color(), p.second.nom()));
+        return signaturaPeces(res);
+    }
+
+    /**
+     * @brief Signatura d'unes peces.
+     * @pre \p peces està ordenada amb ordenar().
+     * @return "B", els noms de les peces blanques precedits de "-", "_N" i els noms de les negres precedits de "-".
+     */
+    private static String signaturaPeces(List<Pair<Integer,String>> peces) {
+        StringBuilder blanques = new StringBuilder("B");
+        StringBuilder negres = new StringBuilder("_N");
+        for (Pair<Integer,String> p : peces)
+            (p.first == 0 ? blanques : negres).append('-').append(p.second);
+        return blanques.append(negres).toString();
+    }
+
+    /**
+     * @brief Ordenar unes peces per color i nom.
+     */
+    private static void ordenar(List<Pair<Integer,String>> peces) {
+        peces.sort(Comparator.comparingInt((Pair<Integer,String> p) -> p.first).thenComparing(p -> p.second));
+    }
+
+    /**
+     * @brief Generar taules de finals.
+     * @pre \p args conté el fitxer de regles, les peces de blanques i les de negres separades per comes (pot ser una
+     *      cadena buida) i, opcionalment, el nombre de fils. Les taules s'escriuen al directori indicat per la
+     *      propietat del sistema \c escacs.taulesFinals, o al directori actual si no està definida.
+     * @post S'ha generat la taula de les peces i les de les signatures a què s'arriba capturant.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Ús: TaulesFinals <fitxerRegles> <pecesBlanques> <pecesNegres> [fils]");
+            return;
+        }
+        int fils = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        String directori = System.getProperty(PROPIETAT_TAULES, ".");
+        if (directori.isEmpty()) directori = ".";
+        String signatura = generar(args[0], noms(args[1]), noms(args[2]), directori, fils);
+        System.out.println("Taula " + signatura + " generada a " + directori);
+    }
+
+    /**
+     * @brief Noms separats per comes.
+     */
+    private static List<String> noms(String llista) {
+        List<String> res = new ArrayList<>();
+        for (String nom : llista.split(","))
+            if (!nom.trim().isEmpty()) res.add(nom.trim());
+        return res;
+    }
+}